@@ -0,0 +1,93 @@
+package io.jenkins.blueocean.test.ssh.benchmarks;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import io.jenkins.blueocean.test.ssh.SSHServer;
+import io.jenkins.blueocean.test.ssh.ServerConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many clients on one server, each with its own session, running builtin
+ * commands or opening new sessions. Change the number of clients with -t.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(32)
+public class ConcurrencyBenchmark {
+    @Param({ServerConfig.DEFAULTS, ServerConfig.HIGH_CONCURRENCY})
+    public String config;
+
+    private File root;
+    private SSHServer server;
+    private JSch jsch;
+
+    @Setup(Level.Trial)
+    public void startServer() throws Exception {
+        root = Files.createTempDirectory("ssh-benchmark").toFile();
+        String privateKey = SSHServer.generatePrivateKey();
+        server = new SSHServer(root, Collections.singletonMap(SshBenchmark.USER, SSHServer.getPublicKey(privateKey)));
+        server.setConfig(ServerConfig.forName(config));
+        server.start();
+        jsch = new JSch();
+        jsch.addIdentity(SshBenchmark.USER, privateKey.getBytes(SshBenchmark.UTF8), null, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() throws IOException {
+        server.stop();
+        SshBenchmark.deleteRecursively(root);
+    }
+
+    Session connect() throws JSchException {
+        Session s = jsch.getSession(SshBenchmark.USER, "127.0.0.1", server.getPort());
+        s.setConfig("StrictHostKeyChecking", "no");
+        s.connect();
+        return s;
+    }
+
+    /**
+     * The session of one client thread
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        Session session;
+
+        @Setup(Level.Trial)
+        public void connect(ConcurrencyBenchmark benchmark) throws JSchException {
+            session = benchmark.connect();
+        }
+
+        @TearDown(Level.Trial)
+        public void disconnect() {
+            session.disconnect();
+        }
+    }
+
+    @Benchmark
+    public byte[] exec(Client client) throws JSchException, IOException {
+        return Ssh.exec(client.session, "echo hello");
+    }
+
+    @Benchmark
+    public void connectAndAuthenticate() throws JSchException {
+        connect().disconnect();
+    }
+}
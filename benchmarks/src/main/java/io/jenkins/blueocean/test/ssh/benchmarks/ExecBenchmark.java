@@ -0,0 +1,41 @@
+package io.jenkins.blueocean.test.ssh.benchmarks;
+
+import io.jenkins.blueocean.test.ssh.SSHServer;
+import io.jenkins.blueocean.test.ssh.ShellPool;
+import io.jenkins.blueocean.test.ssh.command.BuiltinCommands;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of an exec channel, run in the JVM as a builtin or as a process
+ * started through SSHProcessFactory, spawned or on a worker of the ShellPool
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExecBenchmark extends SshBenchmark {
+    @Param({"false", "true"})
+    public boolean builtins;
+
+    @Param({"0", "4"})
+    public int shellPool;
+
+    @Override
+    protected void configure(SSHServer server) {
+        if (!builtins) {
+            server.setBuiltinCommands(BuiltinCommands.empty());
+        }
+        if (shellPool > 0) {
+            server.setShellPool(new ShellPool(shellPool, 100));
+        }
+    }
+
+    @Benchmark
+    public byte[] echo() throws Exception {
+        return Ssh.exec(session, "echo hello");
+    }
+}
@@ -0,0 +1,141 @@
+package io.jenkins.blueocean.test.ssh.benchmarks;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import io.jenkins.blueocean.test.ssh.SSHServer;
+import io.jenkins.blueocean.test.ssh.command.PackCache;
+import io.jenkins.blueocean.test.ssh.command.TransferProfile;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.TransportConfigCallback;
+import org.eclipse.jgit.transport.JschConfigSessionFactory;
+import org.eclipse.jgit.transport.OpenSshConfig;
+import org.eclipse.jgit.transport.SshTransport;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.util.FS;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clone and push over SSH with JGit as the client, served by
+ * UploadPackCommand and ReceivePackCommand
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GitBenchmark extends SshBenchmark {
+    /** Number of 1KB files in the served repository */
+    @Param({"10", "1000"})
+    public int files;
+
+    @Param({TransferProfile.REALISTIC, TransferProfile.LOOPBACK_FAST})
+    public String profile;
+
+    @Param({"false", "true"})
+    public boolean packCache;
+
+    private File served;
+    private File clone;
+    private File pushed;
+    private Git pushing;
+    private TransportConfigCallback transport;
+    private int commits;
+
+    @Override
+    protected void prepare(File root) throws Exception {
+        File work = new File(root, "work");
+        Random random = new Random(files);
+        try (Git git = Git.init().setDirectory(work).call()) {
+            for (int i = 0; i < files; i++) {
+                byte[] content = new byte[1024];
+                for (int j = 0; j < content.length; j++) {
+                    content[j] = (byte) ('a' + random.nextInt(26));
+                }
+                Files.write(new File(work, "file" + i + ".txt").toPath(), content);
+            }
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("Initial").call();
+        }
+        served = new File(root, "repo.git");
+        Git.cloneRepository().setURI(work.toURI().toString()).setDirectory(served).setBare(true).call().close();
+    }
+
+    @Override
+    protected void configure(SSHServer server) {
+        server.setTransferProfile(TransferProfile.forName(profile));
+        if (!packCache) {
+            server.setPackCache(PackCache.disabled());
+        }
+    }
+
+    @Override
+    protected void started() throws Exception {
+        final JschConfigSessionFactory sessions = new JschConfigSessionFactory() {
+            @Override
+            protected void configure(OpenSshConfig.Host host, Session session) {
+                session.setConfig("StrictHostKeyChecking", "no");
+            }
+
+            @Override
+            protected JSch createDefaultJSch(FS fs) throws JSchException {
+                JSch jsch = new JSch();
+                jsch.addIdentity(USER, privateKey.getBytes(UTF8), null, null);
+                return jsch;
+            }
+        };
+        transport = new TransportConfigCallback() {
+            @Override
+            public void configure(Transport transport) {
+                ((SshTransport) transport).setSshSessionFactory(sessions);
+            }
+        };
+        pushed = Files.createTempDirectory("git-benchmark-push").toFile();
+        pushing = Git.cloneRepository().setURI(uri()).setDirectory(pushed).setTransportConfigCallback(transport).call();
+    }
+
+    @Override
+    protected void stopping() {
+        if (pushing != null) {
+            pushing.close();
+            deleteRecursively(pushed);
+        }
+    }
+
+    private String uri() {
+        return "ssh://" + USER + "@127.0.0.1:" + server.getPort() + served.getAbsolutePath();
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareInvocation() throws Exception {
+        clone = Files.createTempDirectory("git-benchmark-clone").toFile();
+        // a new commit on top of the last pushed one, so every push is a fast forward
+        Files.write(new File(pushed, "push.txt").toPath(), Integer.toString(++commits).getBytes(UTF8));
+        pushing.add().addFilepattern("push.txt").call();
+        pushing.commit().setMessage("Push " + commits).call();
+    }
+
+    @TearDown(Level.Invocation)
+    public void cleanUpInvocation() {
+        deleteRecursively(clone);
+    }
+
+    @Benchmark
+    public void cloneRepository() throws Exception {
+        Git.cloneRepository().setURI(uri()).setDirectory(clone).setNoCheckout(true).setTransportConfigCallback(transport).call().close();
+    }
+
+    @Benchmark
+    public void push() throws Exception {
+        pushing.push().setTransportConfigCallback(transport).call();
+    }
+}
@@ -0,0 +1,21 @@
+package io.jenkins.blueocean.test.ssh.benchmarks;
+
+import com.jcraft.jsch.JSchException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connect, key exchange and public key authentication of a new session
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HandshakeBenchmark extends SshBenchmark {
+    @Benchmark
+    public void connectAndAuthenticate() throws JSchException {
+        connect().disconnect();
+    }
+}
@@ -0,0 +1,120 @@
+package io.jenkins.blueocean.test.ssh.benchmarks;
+
+import com.jcraft.jsch.ChannelSftp;
+import io.jenkins.blueocean.test.ssh.ServerConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SCP and SFTP transfers of files too large to hold in memory, streamed on
+ * both sides. Compare sshd's plain streams with the buffered transfers of
+ * {@link ServerConfig#highBandwidth()} with -p config=defaults,high-bandwidth,
+ * and try multi-GB files with e.g. -p size=4294967296.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class LargeFileBenchmark extends SshBenchmark {
+    private static final int BLOCK = 1024 * 1024;
+
+    /** File size in bytes; divide by the time for the throughput */
+    @Param({"268435456"})
+    public long size;
+
+    private byte[] block;
+    private ChannelSftp sftp;
+
+    @Override
+    protected void prepare(File root) throws Exception {
+        block = new byte[BLOCK];
+        new Random(size).nextBytes(block);
+        try (OutputStream out = Files.newOutputStream(new File(root, "download.bin").toPath())) {
+            for (long written = 0; written < size; written += BLOCK) {
+                out.write(block, 0, (int) Math.min(BLOCK, size - written));
+            }
+        }
+    }
+
+    @Override
+    protected void started() throws Exception {
+        // closed with the session
+        sftp = (ChannelSftp) session.openChannel("sftp");
+        sftp.connect();
+    }
+
+    @Benchmark
+    public void sftpUpload() throws Exception {
+        sftp.put(new RepeatingInputStream(block, size), "upload.bin");
+    }
+
+    @Benchmark
+    public long sftpDownload() throws Exception {
+        try (InputStream in = sftp.get("download.bin")) {
+            return Ssh.drain(in);
+        }
+    }
+
+    @Benchmark
+    public void scpUpload() throws Exception {
+        Ssh.scpUpload(session, "upload.bin", new RepeatingInputStream(block, size), size);
+    }
+
+    @Benchmark
+    public long scpDownload() throws Exception {
+        return Ssh.scpDownload(session, "download.bin", new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+    }
+
+    /**
+     * The same block over and over, up to a length
+     */
+    private static final class RepeatingInputStream extends InputStream {
+        private final byte[] block;
+        private final long length;
+        private long position;
+
+        RepeatingInputStream(byte[] block, long length) {
+            this.block = block;
+            this.length = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= length) {
+                return -1;
+            }
+            int offset = (int) (position % block.length);
+            int n = (int) Math.min(Math.min(len, block.length - offset), length - position);
+            System.arraycopy(block, offset, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package io.jenkins.blueocean.test.ssh.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the JMH benchmarks, writing the results as JSON to jmh-result.json
+ * unless a result format is given, so runs of different builds can be compared
+ */
+public final class Main {
+    private Main() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        if (!arguments.contains("-rf")) {
+            arguments.addAll(Arrays.asList("-rf", "json"));
+            if (!arguments.contains("-rff")) {
+                arguments.addAll(Arrays.asList("-rff", "jmh-result.json"));
+            }
+        }
+        org.openjdk.jmh.Main.main(arguments.toArray(new String[arguments.size()]));
+    }
+}
@@ -0,0 +1,25 @@
+package io.jenkins.blueocean.test.ssh.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SCP upload and download, a new exec channel each
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScpBenchmark extends TransferBenchmark {
+    @Benchmark
+    public void upload() throws Exception {
+        Ssh.scpUpload(session, "upload.bin", data);
+    }
+
+    @Benchmark
+    public byte[] download() throws Exception {
+        return Ssh.scpDownload(session, "download.bin");
+    }
+}
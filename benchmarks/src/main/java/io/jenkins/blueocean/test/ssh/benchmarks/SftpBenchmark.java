@@ -0,0 +1,39 @@
+package io.jenkins.blueocean.test.ssh.benchmarks;
+
+import com.jcraft.jsch.ChannelSftp;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SFTP upload and download over one open SFTP channel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SftpBenchmark extends TransferBenchmark {
+    private ChannelSftp sftp;
+
+    @Override
+    protected void started() throws Exception {
+        // closed with the session
+        sftp = (ChannelSftp) session.openChannel("sftp");
+        sftp.connect();
+    }
+
+    @Benchmark
+    public void upload() throws Exception {
+        sftp.put(new ByteArrayInputStream(data), "upload.bin");
+    }
+
+    @Benchmark
+    public long download() throws Exception {
+        try (InputStream in = sftp.get("download.bin")) {
+            return Ssh.drain(in);
+        }
+    }
+}
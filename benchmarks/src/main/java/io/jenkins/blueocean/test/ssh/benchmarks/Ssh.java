@@ -0,0 +1,144 @@
+package io.jenkins.blueocean.test.ssh.benchmarks;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Client side of exec and SCP over an open session
+ */
+final class Ssh {
+    private Ssh() {
+    }
+
+    /**
+     * @return the output of the command
+     */
+    static byte[] exec(Session session, String command) throws JSchException, IOException {
+        ChannelExec channel = (ChannelExec) session.openChannel("exec");
+        try (InputStream in = channel.getInputStream()) {
+            channel.setCommand(command);
+            channel.connect();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            copy(in, out, Long.MAX_VALUE);
+            return out.toByteArray();
+        } finally {
+            channel.disconnect();
+        }
+    }
+
+    /**
+     * Copies data to a file with "scp -t"
+     */
+    static void scpUpload(Session session, String path, byte[] data) throws JSchException, IOException {
+        scpUpload(session, path, new ByteArrayInputStream(data), data.length);
+    }
+
+    /**
+     * Copies length bytes of a stream to a file with "scp -t"
+     */
+    static void scpUpload(Session session, String path, InputStream data, long length) throws JSchException, IOException {
+        ChannelExec channel = (ChannelExec) session.openChannel("exec");
+        try (InputStream in = channel.getInputStream(); OutputStream out = channel.getOutputStream()) {
+            channel.setCommand("scp -t " + path);
+            channel.connect();
+            checkAck(in);
+            String name = path.substring(path.lastIndexOf('/') + 1);
+            out.write(("C0644 " + length + " " + name + "\n").getBytes(SshBenchmark.UTF8));
+            out.flush();
+            checkAck(in);
+            copy(data, out, length);
+            out.write(0);
+            out.flush();
+            checkAck(in);
+        } finally {
+            channel.disconnect();
+        }
+    }
+
+    /**
+     * Copies a file with "scp -f"
+     */
+    static byte[] scpDownload(Session session, String path) throws JSchException, IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        scpDownload(session, path, data);
+        return data.toByteArray();
+    }
+
+    /**
+     * Copies a file to a stream with "scp -f"
+     *
+     * @return the length of the file
+     */
+    static long scpDownload(Session session, String path, OutputStream data) throws JSchException, IOException {
+        ChannelExec channel = (ChannelExec) session.openChannel("exec");
+        try (InputStream in = channel.getInputStream(); OutputStream out = channel.getOutputStream()) {
+            channel.setCommand("scp -f " + path);
+            channel.connect();
+            out.write(0);
+            out.flush();
+            String header = readLine(in);
+            if (!header.startsWith("C")) {
+                throw new IOException("Unexpected scp header: " + header);
+            }
+            long length = Long.parseLong(header.split(" ")[1]);
+            out.write(0);
+            out.flush();
+            copy(in, data, length);
+            checkAck(in);
+            out.write(0);
+            out.flush();
+            return length;
+        } finally {
+            channel.disconnect();
+        }
+    }
+
+    /**
+     * @return number of bytes read until EOF
+     */
+    static long drain(InputStream in) throws IOException {
+        byte[] buf = new byte[64 * 1024];
+        long total = 0;
+        int read;
+        while ((read = in.read(buf)) >= 0) {
+            total += read;
+        }
+        return total;
+    }
+
+    private static void checkAck(InputStream in) throws IOException {
+        int status = in.read();
+        if (status != 0) {
+            throw new IOException("scp failed with status " + status + ": " + (status > 0 ? readLine(in) : "EOF"));
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n') {
+            line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    private static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buf = new byte[64 * 1024];
+        long remaining = length;
+        int read;
+        while (remaining > 0 && (read = in.read(buf, 0, (int) Math.min(buf.length, remaining))) >= 0) {
+            out.write(buf, 0, read);
+            remaining -= read;
+        }
+        if (length != Long.MAX_VALUE && remaining > 0) {
+            throw new IOException("Premature EOF, " + remaining + " bytes missing");
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package io.jenkins.blueocean.test.ssh.benchmarks;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import io.jenkins.blueocean.test.ssh.CryptoProfile;
+import io.jenkins.blueocean.test.ssh.SSHServer;
+import io.jenkins.blueocean.test.ssh.ServerConfig;
+import io.jenkins.blueocean.test.ssh.TrafficShaper;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Collections;
+
+/**
+ * Starts a server on loopback with a fresh root for each trial and keeps one
+ * authenticated session open to it
+ */
+@State(Scope.Thread)
+public abstract class SshBenchmark {
+    static final Charset UTF8 = Charset.forName("utf-8");
+    static final String USER = "bench";
+
+    /** {@link ServerConfig} preset, e.g. -p config=defaults,high-bandwidth to compare them */
+    @Param({ServerConfig.DEFAULTS})
+    public String config;
+
+    /** {@link CryptoProfile} name, e.g. -p crypto=defaults,fast,compatible */
+    @Param({CryptoProfile.DEFAULTS})
+    public String crypto;
+
+    /** {@link TrafficShaper} preset, e.g. -p network=none,wan,slow */
+    @Param({TrafficShaper.NONE})
+    public String network;
+
+    protected File root;
+    protected SSHServer server;
+    protected Session session;
+    protected String privateKey;
+    private JSch jsch;
+
+    @Setup(Level.Trial)
+    public void startServer() throws Exception {
+        root = Files.createTempDirectory("ssh-benchmark").toFile();
+        privateKey = SSHServer.generatePrivateKey();
+        prepare(root);
+        server = new SSHServer(root, Collections.singletonMap(USER, SSHServer.getPublicKey(privateKey)));
+        server.setConfig(ServerConfig.forName(config));
+        server.setCryptoProfile(CryptoProfile.forName(crypto));
+        server.setTrafficShaper(TrafficShaper.forName(network));
+        configure(server);
+        server.start();
+        jsch = new JSch();
+        jsch.addIdentity(USER, privateKey.getBytes(UTF8), null, null);
+        session = connect();
+        started();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() throws IOException {
+        stopping();
+        if (session != null) {
+            session.disconnect();
+        }
+        server.stop();
+        deleteRecursively(root);
+    }
+
+    /**
+     * Called before the server is created, to put files in its root
+     */
+    protected void prepare(File root) throws Exception {
+    }
+
+    /**
+     * Called before the server is started
+     */
+    protected void configure(SSHServer server) throws Exception {
+    }
+
+    /**
+     * Called once the server runs and {@link #session} is connected
+     */
+    protected void started() throws Exception {
+    }
+
+    /**
+     * Called before the server is stopped
+     */
+    protected void stopping() throws IOException {
+    }
+
+    /**
+     * @return a new authenticated session
+     */
+    protected Session connect() throws JSchException {
+        Session s = jsch.getSession(USER, "127.0.0.1", server.getPort());
+        s.setConfig("StrictHostKeyChecking", "no");
+        s.connect();
+        return s;
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            throw new IllegalStateException("Unable to delete " + file);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package io.jenkins.blueocean.test.ssh.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Base of the file transfer benchmarks: a random payload of a given size,
+ * also stored in the server root as "download.bin"
+ */
+public abstract class TransferBenchmark extends SshBenchmark {
+    /** Payload size in bytes; divide by the average time for the throughput */
+    @Param({"1024", "1048576", "67108864"})
+    public int size;
+
+    protected byte[] data;
+
+    @Override
+    protected void prepare(File root) throws Exception {
+        data = new byte[size];
+        new Random(size).nextBytes(data);
+        Files.write(new File(root, "download.bin").toPath(), data);
+    }
+}
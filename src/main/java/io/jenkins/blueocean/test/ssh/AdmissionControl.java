@@ -0,0 +1,521 @@
+package io.jenkins.blueocean.test.ssh;
+
+import io.jenkins.blueocean.test.ssh.command.CommandExecutor;
+import io.jenkins.blueocean.test.ssh.metrics.ServerMetrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Limits on the sessions, exec commands and SFTP channels a server runs at
+ * once, in total and per user, so too many clients make the server slower
+ * rather than the JVM thrash. Build one with {@link #builder()}; a limit of 0
+ * means unlimited, which is the default.
+ * <p>
+ * Exec commands (git, SCP, builtins and processes) and SFTP channels over a
+ * limit wait in a queue for up to the queue timeout. The queue is first come,
+ * first served, except that a user at their own limit doesn't hold up the
+ * others. Commands that time out or find the queue full exit with
+ * {@link #EXIT_REJECTED} and the reason on stderr. Sessions don't wait: a
+ * session over a limit is disconnected while authenticating, with
+ * "too many connections".
+ * <p>
+ * Counts are those of the server the instance is set on, don't share an
+ * instance between servers.
+ *
+ * @see SSHServer#setAdmissionControl(AdmissionControl)
+ */
+public final class AdmissionControl {
+    private static final Logger log = Logger.getLogger(AdmissionControl.class.getName());
+
+    /**
+     * Exit value of a command that wasn't admitted, as for a command the executor rejects (EX_TEMPFAIL)
+     */
+    public static final int EXIT_REJECTED = CommandExecutor.EXIT_REJECTED;
+
+    /**
+     * What is limited
+     */
+    public enum Kind {
+        /** authenticated sessions */
+        SESSION("sessions"),
+        /** exec channels: git, SCP, builtins and processes */
+        COMMAND("commands"),
+        /** SFTP subsystem channels */
+        SFTP("SFTP channels");
+
+        private final String description;
+
+        Kind(String description) {
+            this.description = description;
+        }
+    }
+
+    /**
+     * Outcome of {@link Permit#request(Listener)}
+     */
+    enum State {
+        NEW, WAITING, ADMITTED, REJECTED, DONE
+    }
+
+    /**
+     * Told when a permit that had to wait is admitted or rejected, on the thread releasing another permit
+     * or on the timer thread
+     */
+    interface Listener {
+        void admitted();
+
+        void rejected(String reason);
+    }
+
+    private final Map<Kind, Limiter> limiters = new EnumMap<>(Kind.class);
+    private final int queueLimit;
+    private final long queueTimeoutMillis;
+    private volatile ServerMetrics metrics = new ServerMetrics();
+    private ScheduledThreadPoolExecutor timer;
+
+    private AdmissionControl(Builder builder) {
+        for (Kind kind : Kind.values()) {
+            limiters.put(kind, new Limiter(kind, builder.limits.get(kind)[0], builder.limits.get(kind)[1]));
+        }
+        this.queueLimit = builder.queueLimit;
+        this.queueTimeoutMillis = builder.queueTimeoutMillis;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return no limits, only counts
+     */
+    public static AdmissionControl unlimited() {
+        return builder().build();
+    }
+
+    /**
+     * @return the limit for all users together, 0 if unlimited
+     */
+    public int getLimit(Kind kind) {
+        return limiters.get(kind).limit;
+    }
+
+    /**
+     * @return the limit for each user, 0 if unlimited
+     */
+    public int getLimitPerUser(Kind kind) {
+        return limiters.get(kind).limitPerUser;
+    }
+
+    /**
+     * @return commands and SFTP channels of each kind that may wait, further ones are rejected
+     */
+    public int getQueueLimit() {
+        return queueLimit;
+    }
+
+    public long getQueueTimeoutMillis() {
+        return queueTimeoutMillis;
+    }
+
+    /**
+     * @return sessions, commands or SFTP channels running
+     */
+    public int getActiveCount(Kind kind) {
+        Limiter limiter = limiters.get(kind);
+        synchronized (limiter) {
+            return limiter.active;
+        }
+    }
+
+    /**
+     * @return sessions, commands or SFTP channels of the user running
+     */
+    public int getActiveCount(Kind kind, String user) {
+        Limiter limiter = limiters.get(kind);
+        synchronized (limiter) {
+            return limiter.count(user);
+        }
+    }
+
+    /**
+     * @return commands or SFTP channels waiting to be admitted
+     */
+    public int getQueuedCount(Kind kind) {
+        Limiter limiter = limiters.get(kind);
+        synchronized (limiter) {
+            return limiter.waiting.size();
+        }
+    }
+
+    /**
+     * @return sessions, commands or SFTP channels rejected since creation
+     */
+    public long getRejectedCount(Kind kind) {
+        Limiter limiter = limiters.get(kind);
+        synchronized (limiter) {
+            return limiter.rejected;
+        }
+    }
+
+    /**
+     * @param metrics where waits, queue depth and rejections are recorded
+     */
+    void start(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Stops the timer; commands still waiting are rejected when their channels close
+     */
+    synchronized void shutdown() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    /**
+     * Rejects a session or command of the user without a permit if it wouldn't be admitted now
+     *
+     * @return why it was rejected, or null if it would be admitted
+     */
+    String reject(Kind kind, String user) {
+        Limiter limiter = limiters.get(kind);
+        String reason;
+        synchronized (limiter) {
+            reason = limiter.refusal(user);
+            if (reason != null) {
+                limiter.rejected++;
+            }
+        }
+        if (reason != null) {
+            metrics.counter(ServerMetrics.ADMISSION_REJECTED).increment();
+        }
+        return reason;
+    }
+
+    /**
+     * @param user user of the session, counted against the limit per user
+     * @return a permit to request and release
+     */
+    Permit newPermit(Kind kind, String user) {
+        return new Permit(limiters.get(kind), user);
+    }
+
+    private synchronized Future<?> schedule(Runnable task, long delayMillis) {
+        if (timer == null) {
+            timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "SSH admission timer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            timer.setRemoveOnCancelPolicy(true);
+        }
+        return timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("AdmissionControl[");
+        for (Limiter limiter : limiters.values()) {
+            s.append(limiter.kind.description).append('=').append(limiter.limit).append('/').append(limiter.limitPerUser).append(", ");
+        }
+        return s.append("queueLimit=").append(queueLimit).append(", queueTimeoutMillis=").append(queueTimeoutMillis).append(']').toString();
+    }
+
+    /**
+     * Counts of one kind, guarded by itself
+     */
+    private static final class Limiter {
+        final Kind kind;
+        final int limit;
+        final int limitPerUser;
+        final Map<String, Integer> users = new HashMap<>();
+        final Deque<Permit> waiting = new ArrayDeque<>();
+        int active;
+        long rejected;
+
+        Limiter(Kind kind, int limit, int limitPerUser) {
+            this.kind = kind;
+            this.limit = limit;
+            this.limitPerUser = limitPerUser;
+        }
+
+        int count(String user) {
+            Integer count = users.get(user);
+            return count == null ? 0 : count;
+        }
+
+        String refusal(String user) {
+            if (limit > 0 && active >= limit) {
+                return "Too many " + kind.description + ", limit is " + limit;
+            }
+            if (limitPerUser > 0 && count(user) >= limitPerUser) {
+                return "Too many " + kind.description + " for " + user + ", limit is " + limitPerUser;
+            }
+            return null;
+        }
+
+        void take(String user) {
+            active++;
+            users.put(user, count(user) + 1);
+        }
+
+        void give(String user) {
+            active--;
+            int count = count(user) - 1;
+            if (count > 0) {
+                users.put(user, count);
+            } else {
+                users.remove(user);
+            }
+        }
+
+        /**
+         * @return waiting permits admitted, in the order they came
+         */
+        List<Permit> admitWaiting() {
+            List<Permit> admitted = new ArrayList<>();
+            for (Iterator<Permit> it = waiting.iterator(); it.hasNext() && (limit == 0 || active < limit); ) {
+                Permit permit = it.next();
+                if (refusal(permit.user) == null) {
+                    it.remove();
+                    take(permit.user);
+                    permit.state = State.ADMITTED;
+                    admitted.add(permit);
+                }
+            }
+            return admitted;
+        }
+    }
+
+    /**
+     * A session's, command's or SFTP channel's claim on a place
+     */
+    final class Permit {
+        private final Limiter limiter;
+        private final String user;
+        // guarded by limiter
+        private State state = State.NEW;
+        private String reason;
+        private Listener listener;
+        private long queued;
+        private Future<?> timeout;
+
+        private Permit(Limiter limiter, String user) {
+            this.limiter = limiter;
+            this.user = user;
+        }
+
+        /**
+         * @param listener told when a waiting permit is admitted or rejected, or null to reject instead of waiting
+         * @return {@link State#ADMITTED}, {@link State#REJECTED} with the {@link #getReason() reason},
+         * or {@link State#WAITING} and the listener will be told
+         */
+        State request(Listener listener) {
+            boolean wait = listener != null && queueTimeoutMillis > 0;
+            synchronized (limiter) {
+                if (state != State.NEW) {
+                    throw new IllegalStateException("Permit already requested: " + state);
+                }
+                reason = limiter.refusal(user);
+                if (reason == null) {
+                    limiter.take(user);
+                    state = State.ADMITTED;
+                    return state;
+                }
+                if (!wait || limiter.waiting.size() >= queueLimit) {
+                    limiter.rejected++;
+                    state = State.REJECTED;
+                    metrics.counter(ServerMetrics.ADMISSION_REJECTED).increment();
+                    return state;
+                }
+                this.listener = listener;
+                this.queued = System.nanoTime();
+                limiter.waiting.add(this);
+                state = State.WAITING;
+                metrics.counter(ServerMetrics.ADMISSION_QUEUED).increment();
+            }
+            Future<?> scheduled = schedule(new Runnable() {
+                @Override
+                public void run() {
+                    expire();
+                }
+            }, queueTimeoutMillis);
+            synchronized (limiter) {
+                if (state == State.WAITING) {
+                    timeout = scheduled;
+                    return State.WAITING;
+                }
+            }
+            // admitted or released meanwhile
+            scheduled.cancel(false);
+            return State.WAITING;
+        }
+
+        /**
+         * @return why the permit was rejected
+         */
+        String getReason() {
+            synchronized (limiter) {
+                return reason;
+            }
+        }
+
+        private void expire() {
+            Listener rejected;
+            synchronized (limiter) {
+                if (state != State.WAITING) {
+                    return;
+                }
+                limiter.waiting.remove(this);
+                limiter.rejected++;
+                state = State.REJECTED;
+                reason += ", waited " + queueTimeoutMillis + "ms";
+                rejected = listener;
+            }
+            metrics.counter(ServerMetrics.ADMISSION_QUEUED).decrement();
+            metrics.counter(ServerMetrics.ADMISSION_REJECTED).increment();
+            log.fine(limiter.kind + " of " + user + " rejected: " + reason);
+            rejected.rejected(getReason());
+        }
+
+        /**
+         * Gives the place to the next permit waiting for it, or stops waiting; may be called more than once
+         */
+        void release() {
+            List<Permit> admitted;
+            boolean wasWaiting;
+            synchronized (limiter) {
+                wasWaiting = state == State.WAITING;
+                if (wasWaiting) {
+                    limiter.waiting.remove(this);
+                }
+                if (state != State.ADMITTED) {
+                    state = State.DONE;
+                    admitted = new ArrayList<>();
+                } else {
+                    state = State.DONE;
+                    limiter.give(user);
+                    admitted = limiter.admitWaiting();
+                }
+            }
+            if (wasWaiting) {
+                metrics.counter(ServerMetrics.ADMISSION_QUEUED).decrement();
+                cancelTimeout();
+            }
+            for (Permit permit : admitted) {
+                permit.admitted();
+            }
+        }
+
+        private void admitted() {
+            Listener waited;
+            synchronized (limiter) {
+                waited = listener;
+            }
+            metrics.counter(ServerMetrics.ADMISSION_QUEUED).decrement();
+            metrics.histogram(ServerMetrics.ADMISSION_WAIT).recordSince(queued);
+            cancelTimeout();
+            waited.admitted();
+        }
+
+        private void cancelTimeout() {
+            Future<?> scheduled;
+            synchronized (limiter) {
+                scheduled = timeout;
+                timeout = null;
+            }
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+    }
+
+    public static final class Builder {
+        private final Map<Kind, int[]> limits = new EnumMap<>(Kind.class);
+        private int queueLimit = 1024;
+        private long queueTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+
+        private Builder() {
+            for (Kind kind : Kind.values()) {
+                limits.put(kind, new int[2]);
+            }
+        }
+
+        /**
+         * @param total   sessions of all users, 0 for unlimited
+         * @param perUser sessions of each user, 0 for unlimited
+         */
+        public Builder sessions(int total, int perUser) {
+            return limit(Kind.SESSION, total, perUser);
+        }
+
+        /**
+         * @param total   exec commands of all users running at once, 0 for unlimited
+         * @param perUser exec commands of each user running at once, 0 for unlimited
+         */
+        public Builder commands(int total, int perUser) {
+            return limit(Kind.COMMAND, total, perUser);
+        }
+
+        /**
+         * @param total   SFTP channels of all users open at once, 0 for unlimited
+         * @param perUser SFTP channels of each user open at once, 0 for unlimited
+         */
+        public Builder sftpChannels(int total, int perUser) {
+            return limit(Kind.SFTP, total, perUser);
+        }
+
+        public Builder limit(Kind kind, int total, int perUser) {
+            limits.put(kind, new int[]{total, perUser});
+            return this;
+        }
+
+        /**
+         * @param queueLimit commands and SFTP channels of each kind that may wait for a place
+         */
+        public Builder queueLimit(int queueLimit) {
+            this.queueLimit = queueLimit;
+            return this;
+        }
+
+        /**
+         * @param queueTimeout how long commands and SFTP channels wait for a place, 0 to reject them at once
+         */
+        public Builder queueTimeout(long queueTimeout, TimeUnit unit) {
+            this.queueTimeoutMillis = unit.toMillis(queueTimeout);
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if a value is negative
+         */
+        public AdmissionControl build() {
+            for (Map.Entry<Kind, int[]> e : limits.entrySet()) {
+                if (e.getValue()[0] < 0 || e.getValue()[1] < 0) {
+                    throw new IllegalArgumentException("Limits must not be negative: " + e.getKey());
+                }
+            }
+            if (queueLimit < 0 || queueTimeoutMillis < 0) {
+                throw new IllegalArgumentException("Queue limit and timeout must not be negative");
+            }
+            return new AdmissionControl(this);
+        }
+    }
+}
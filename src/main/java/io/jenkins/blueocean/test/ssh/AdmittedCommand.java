@@ -0,0 +1,191 @@
+package io.jenkins.blueocean.test.ssh;
+
+import org.apache.sshd.common.file.FileSystemAware;
+import org.apache.sshd.server.ChannelSessionAware;
+import org.apache.sshd.server.Command;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.SessionAware;
+import org.apache.sshd.server.channel.ChannelSession;
+import org.apache.sshd.server.session.ServerSession;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystem;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Starts a channel's command once the {@link AdmissionControl} admits it,
+ * and gives its place to the next one when it exits or is destroyed. Input
+ * the client sends meanwhile waits in the channel's window.
+ */
+class AdmittedCommand implements Command, SessionAware, ChannelSessionAware {
+    private static final Logger log = Logger.getLogger(AdmittedCommand.class.getName());
+
+    private final AdmissionControl admission;
+    private final AdmissionControl.Kind kind;
+    private final Command command;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile OutputStream err;
+    private volatile ExitCallback callback;
+    private volatile ServerSession session;
+    private volatile AdmissionControl.Permit permit;
+
+    private AdmittedCommand(AdmissionControl admission, AdmissionControl.Kind kind, Command command) {
+        this.admission = admission;
+        this.kind = kind;
+        this.command = command;
+    }
+
+    /**
+     * @return the command, wrapped; a file system is only set up for commands that use one
+     */
+    static Command wrap(AdmissionControl admission, AdmissionControl.Kind kind, Command command) {
+        if (command instanceof FileSystemAware) {
+            return new WithFileSystem(admission, kind, command);
+        }
+        return new AdmittedCommand(admission, kind, command);
+    }
+
+    @Override
+    public void setInputStream(InputStream in) {
+        command.setInputStream(in);
+    }
+
+    @Override
+    public void setOutputStream(OutputStream out) {
+        command.setOutputStream(out);
+    }
+
+    @Override
+    public void setErrorStream(OutputStream err) {
+        this.err = err;
+        command.setErrorStream(err);
+    }
+
+    @Override
+    public void setExitCallback(final ExitCallback callback) {
+        this.callback = callback;
+        command.setExitCallback(new ExitCallback() {
+            @Override
+            public void onExit(int exitValue) {
+                release();
+                callback.onExit(exitValue);
+            }
+
+            @Override
+            public void onExit(int exitValue, String exitMessage) {
+                release();
+                callback.onExit(exitValue, exitMessage);
+            }
+        });
+    }
+
+    @Override
+    public void setSession(ServerSession session) {
+        this.session = session;
+        if (command instanceof SessionAware) {
+            ((SessionAware) command).setSession(session);
+        }
+    }
+
+    @Override
+    public void setChannelSession(ChannelSession session) {
+        if (command instanceof ChannelSessionAware) {
+            ((ChannelSessionAware) command).setChannelSession(session);
+        }
+    }
+
+    @Override
+    public void start(final Environment env) throws IOException {
+        ServerSession s = session;
+        final AdmissionControl.Permit requested = admission.newPermit(kind, s != null ? s.getUsername() : null);
+        permit = requested;
+        AdmissionControl.State state = requested.request(new AdmissionControl.Listener() {
+            @Override
+            public void admitted() {
+                try {
+                    startCommand(env);
+                } catch (IOException | RuntimeException e) {
+                    log.log(Level.WARNING, "Unable to start " + command, e);
+                    release();
+                    callback.onExit(1, String.valueOf(e.getMessage()));
+                }
+            }
+
+            @Override
+            public void rejected(String reason) {
+                reject(reason);
+            }
+        });
+        if (state == AdmissionControl.State.ADMITTED) {
+            try {
+                startCommand(env);
+            } catch (IOException | RuntimeException e) {
+                release();
+                throw e;
+            }
+        } else if (state == AdmissionControl.State.REJECTED) {
+            reject(requested.getReason());
+        }
+    }
+
+    private void startCommand(Environment env) throws IOException {
+        if (started.compareAndSet(false, true)) {
+            command.start(env);
+        }
+    }
+
+    private void reject(String reason) {
+        try {
+            err.write(("Server busy, command rejected: " + reason + "\n").getBytes(Charset.defaultCharset()));
+            err.flush();
+        } catch (IOException e) {
+            log.log(Level.FINE, "Unable to report rejection of " + command, e);
+        }
+        callback.onExit(AdmissionControl.EXIT_REJECTED, reason);
+    }
+
+    private void release() {
+        AdmissionControl.Permit p = permit;
+        if (p != null) {
+            p.release();
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        // a command still waiting is never started
+        boolean wasStarted = !started.compareAndSet(false, true);
+        try {
+            release();
+        } finally {
+            if (wasStarted) {
+                command.destroy();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return command.toString();
+    }
+
+    private static class WithFileSystem extends AdmittedCommand implements FileSystemAware {
+        private final Command command;
+
+        WithFileSystem(AdmissionControl admission, AdmissionControl.Kind kind, Command command) {
+            super(admission, kind, command);
+            this.command = command;
+        }
+
+        @Override
+        public void setFileSystem(FileSystem fileSystem) {
+            ((FileSystemAware) command).setFileSystem(fileSystem);
+        }
+    }
+}
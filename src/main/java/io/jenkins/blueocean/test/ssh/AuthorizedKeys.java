@@ -0,0 +1,193 @@
+package io.jenkins.blueocean.test.ssh;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.sshd.common.config.keys.AuthorizedKeyEntry;
+import org.apache.sshd.common.config.keys.KeyUtils;
+import org.apache.sshd.common.config.keys.PublicKeyEntry;
+import org.apache.sshd.common.config.keys.PublicKeyEntryResolver;
+import org.apache.sshd.server.auth.pubkey.PublickeyAuthenticator;
+import org.apache.sshd.server.session.ServerSession;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Authenticates users against public keys decoded once up front, rather than
+ * re-encoding and comparing strings on every attempt. Any key type supported
+ * by sshd (RSA, DSA, ECDSA, Ed25519 when available) is accepted. A key that
+ * can't be decoded is logged and never matches.
+ */
+class AuthorizedKeys implements PublickeyAuthenticator {
+    private static final Logger log = Logger.getLogger(AuthorizedKeys.class.getName());
+
+    /** public key files of the local user, checked when local users are allowed */
+    static final String[] LOCAL_KEY_FILES = {"id_rsa.pub", "id_ecdsa.pub", "id_ed25519.pub", "id_dsa.pub"};
+
+    private final Map<String, Set<PublicKey>> keysByUser;
+    private final Set<String> anyKeyUsers;
+    private final List<LocalKeyFile> localKeyFiles;
+
+    /**
+     * @param authorizedUsers username -&gt; public key, either a full <code>ssh-rsa AAAA... comment</code>
+     *                        line or only the base64 part; a null key allows any key
+     * @param allowLocalUser  also allow the keys found in ~/.ssh of the user running the server
+     */
+    AuthorizedKeys(Map<String, String> authorizedUsers, boolean allowLocalUser) {
+        Map<String, Set<PublicKey>> keys = new HashMap<>();
+        Set<String> anyKey = new HashSet<>();
+        for (Map.Entry<String, String> e : authorizedUsers.entrySet()) {
+            if (e.getValue() == null) {
+                anyKey.add(e.getKey());
+                continue;
+            }
+            PublicKey key;
+            try {
+                key = parsePublicKey(e.getValue());
+            } catch (IllegalArgumentException ex) {
+                log.log(Level.WARNING, "Ignoring the key of " + e.getKey() + ", it can't be parsed", ex);
+                continue;
+            }
+            Set<PublicKey> userKeys = keys.get(e.getKey());
+            if (userKeys == null) {
+                userKeys = new HashSet<>();
+                keys.put(e.getKey(), userKeys);
+            }
+            userKeys.add(key);
+        }
+        this.keysByUser = Collections.unmodifiableMap(keys);
+        this.anyKeyUsers = Collections.unmodifiableSet(anyKey);
+
+        List<LocalKeyFile> local = new ArrayList<>();
+        if (allowLocalUser) {
+            File sshDir = new File(System.getProperty("user.home"), ".ssh");
+            for (String name : LOCAL_KEY_FILES) {
+                local.add(new LocalKeyFile(new File(sshDir, name)));
+            }
+        }
+        this.localKeyFiles = Collections.unmodifiableList(local);
+    }
+
+    @Override
+    public boolean authenticate(String username, PublicKey key, ServerSession session) {
+        if (log.isLoggable(Level.FINE)) {
+            log.fine(" ---- Authentication request for: " + username + " with key: " + KeyUtils.getFingerPrint(key));
+        }
+        for (LocalKeyFile localKeyFile : localKeyFiles) {
+            if (localKeyFile.matches(key)) {
+                return true;
+            }
+        }
+        if (anyKeyUsers.contains(username)) {
+            return true;
+        }
+        Set<PublicKey> userKeys = keysByUser.get(username);
+        return userKeys != null && matches(userKeys, key);
+    }
+
+    private static boolean matches(Set<PublicKey> keys, PublicKey key) {
+        // keys decoded by sshd and by us come from the same key factories, so
+        // hash lookup works; compare field by field in case a provider differs
+        return keys.contains(key) || KeyUtils.findMatchingKey(key, keys) != null;
+    }
+
+    /**
+     * Decodes a public key in authorized_keys format, or its base64 part only
+     */
+    static PublicKey parsePublicKey(String value) {
+        String trimmed = value.trim();
+        try {
+            if (trimmed.indexOf(' ') > 0) {
+                return PublicKeyEntry.parsePublicKeyEntry(trimmed).resolvePublicKey(PublicKeyEntryResolver.FAILING);
+            }
+            byte[] data = Base64.decodeBase64(trimmed);
+            return new PublicKeyEntry(readKeyType(data), data).resolvePublicKey(PublicKeyEntryResolver.FAILING);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            throw new IllegalArgumentException("Unable to parse public key: " + value, e);
+        }
+    }
+
+    /**
+     * Reads the key type, the first string of the ssh encoded key
+     */
+    private static String readKeyType(byte[] data) {
+        if (data.length < 4) {
+            throw new IllegalArgumentException("Key data too short");
+        }
+        int length = ((data[0] & 0xff) << 24) | ((data[1] & 0xff) << 16) | ((data[2] & 0xff) << 8) | (data[3] & 0xff);
+        if (length < 0 || length > data.length - 4) {
+            throw new IllegalArgumentException("Invalid key type length: " + length);
+        }
+        return new String(data, 4, length, Charset.forName("US-ASCII"));
+    }
+
+    /**
+     * A public key file, only read again when its modification time changes
+     */
+    static class LocalKeyFile {
+        private final File file;
+        private volatile Loaded loaded = new Loaded(0L, Collections.<PublicKey>emptySet());
+
+        LocalKeyFile(File file) {
+            this.file = file;
+        }
+
+        boolean matches(PublicKey key) {
+            Set<PublicKey> keys = getKeys();
+            return !keys.isEmpty() && AuthorizedKeys.matches(keys, key);
+        }
+
+        Set<PublicKey> getKeys() {
+            long lastModified = file.lastModified();
+            Loaded current = loaded;
+            if (current.lastModified != lastModified) {
+                current = new Loaded(lastModified, load());
+                loaded = current;
+            }
+            return current.keys;
+        }
+
+        private Set<PublicKey> load() {
+            if (!file.canRead()) {
+                return Collections.emptySet();
+            }
+            Set<PublicKey> keys = new HashSet<>();
+            try {
+                for (AuthorizedKeyEntry entry : AuthorizedKeyEntry.readAuthorizedKeys(file)) {
+                    try {
+                        PublicKey key = entry.resolvePublicKey(PublicKeyEntryResolver.IGNORING);
+                        if (key != null) {
+                            keys.add(key);
+                        }
+                    } catch (GeneralSecurityException e) {
+                        log.log(Level.FINE, "Unsupported key in " + file, e);
+                    }
+                }
+            } catch (IOException e) {
+                log.log(Level.FINE, "Unable to read " + file, e);
+            }
+            return Collections.unmodifiableSet(keys);
+        }
+    }
+
+    private static class Loaded {
+        final long lastModified;
+        final Set<PublicKey> keys;
+
+        Loaded(long lastModified, Set<PublicKey> keys) {
+            this.lastModified = lastModified;
+            this.keys = keys;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package io.jenkins.blueocean.test.ssh;
+
+import org.apache.sshd.common.BaseBuilder;
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.cipher.BuiltinCiphers;
+import org.apache.sshd.common.cipher.Cipher;
+import org.apache.sshd.common.kex.BuiltinDHFactories;
+import org.apache.sshd.common.kex.KeyExchange;
+import org.apache.sshd.common.mac.BuiltinMacs;
+import org.apache.sshd.common.mac.Mac;
+import org.apache.sshd.server.ServerBuilder;
+import org.apache.sshd.server.SshServer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ciphers, MACs and key exchanges the server offers. Clients pick the first
+ * of their own preferences the server offers, so a profile speeds sessions
+ * up by leaving the slow algorithms out.
+ * <ul>
+ * <li>{@link #defaults()} keeps sshd's choice</li>
+ * <li>{@link #fast()} only the cheapest algorithms JSch and OpenSSH have, for clients on loopback</li>
+ * <li>{@link #compatible()} everything the JVM supports, including legacy algorithms for old clients</li>
+ * </ul>
+ * Algorithms the JVM doesn't support are left out when the profile is applied.
+ *
+ * @see SSHServer#setCryptoProfile(CryptoProfile)
+ */
+public final class CryptoProfile {
+    public static final String DEFAULTS = "defaults";
+    public static final String FAST = "fast";
+    public static final String COMPATIBLE = "compatible";
+
+    private final String name;
+    private final List<BuiltinCiphers> ciphers;
+    private final List<BuiltinMacs> macs;
+    private final List<BuiltinDHFactories> keyExchanges;
+
+    /**
+     * @param name         reported in stats
+     * @param ciphers      ciphers offered, in order of preference
+     * @param macs         MACs offered, in order of preference
+     * @param keyExchanges key exchanges offered, in order of preference
+     */
+    public CryptoProfile(String name, List<BuiltinCiphers> ciphers, List<BuiltinMacs> macs, List<BuiltinDHFactories> keyExchanges) {
+        if (name == null || ciphers == null || macs == null || keyExchanges == null) {
+            throw new IllegalArgumentException("Name and algorithms are required");
+        }
+        if (ciphers.isEmpty() || macs.isEmpty() || keyExchanges.isEmpty()) {
+            throw new IllegalArgumentException("At least one cipher, MAC and key exchange is required");
+        }
+        this.name = name;
+        this.ciphers = Collections.unmodifiableList(new ArrayList<>(ciphers));
+        this.macs = Collections.unmodifiableList(new ArrayList<>(macs));
+        this.keyExchanges = Collections.unmodifiableList(new ArrayList<>(keyExchanges));
+    }
+
+    /**
+     * @return sshd's default algorithms
+     */
+    public static CryptoProfile defaults() {
+        return new CryptoProfile(DEFAULTS, BaseBuilder.DEFAULT_CIPHERS_PREFERENCE, BaseBuilder.DEFAULT_MAC_PREFERENCE,
+                BaseBuilder.DEFAULT_KEX_PREFERENCE);
+    }
+
+    /**
+     * @return ECDH on P-256, AES-128 and HMAC-SHA1 or MD5; sshd 1.6 has no GCM, ChaCha20 or Curve25519.
+     * AES-128 CBC is the fastest cipher on Java 8 but only used by clients preferring it, as recent
+     * OpenSSH clients don't offer it
+     */
+    public static CryptoProfile fast() {
+        return new CryptoProfile(FAST,
+                Arrays.asList(BuiltinCiphers.aes128ctr, BuiltinCiphers.aes128cbc),
+                Arrays.asList(BuiltinMacs.hmacsha1, BuiltinMacs.hmacmd5),
+                Arrays.asList(BuiltinDHFactories.ecdhp256));
+    }
+
+    /**
+     * @return every cipher but "none", every MAC and every key exchange, down to Diffie-Hellman group 1.
+     * sshd 1.6 offers all of them by default, this keeps them should later versions drop some
+     */
+    public static CryptoProfile compatible() {
+        List<BuiltinCiphers> ciphers = new ArrayList<>(BaseBuilder.DEFAULT_CIPHERS_PREFERENCE);
+        for (BuiltinCiphers cipher : BuiltinCiphers.VALUES) {
+            if (cipher != BuiltinCiphers.none && !ciphers.contains(cipher)) {
+                ciphers.add(cipher);
+            }
+        }
+        List<BuiltinMacs> macs = new ArrayList<>(BaseBuilder.DEFAULT_MAC_PREFERENCE);
+        for (BuiltinMacs mac : BuiltinMacs.VALUES) {
+            if (!macs.contains(mac)) {
+                macs.add(mac);
+            }
+        }
+        // group 14 needs 2048 bit Diffie-Hellman keys, which older JCE providers lack; it's skipped there
+        List<BuiltinDHFactories> keyExchanges = new ArrayList<>(BaseBuilder.DEFAULT_KEX_PREFERENCE);
+        for (BuiltinDHFactories kex : Arrays.asList(BuiltinDHFactories.dhg14, BuiltinDHFactories.dhg1)) {
+            if (!keyExchanges.contains(kex)) {
+                keyExchanges.add(kex);
+            }
+        }
+        return new CryptoProfile(COMPATIBLE, ciphers, macs, keyExchanges);
+    }
+
+    /**
+     * @param name {@link #DEFAULTS}, {@link #FAST} or {@link #COMPATIBLE}
+     * @return the preset
+     */
+    public static CryptoProfile forName(String name) {
+        if (DEFAULTS.equals(name)) {
+            return defaults();
+        }
+        if (FAST.equals(name)) {
+            return fast();
+        }
+        if (COMPATIBLE.equals(name)) {
+            return compatible();
+        }
+        throw new IllegalArgumentException("Unknown crypto profile: " + name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<BuiltinCiphers> getCiphers() {
+        return ciphers;
+    }
+
+    public List<BuiltinMacs> getMacs() {
+        return macs;
+    }
+
+    public List<BuiltinDHFactories> getKeyExchanges() {
+        return keyExchanges;
+    }
+
+    void apply(SshServer sshd) {
+        List<NamedFactory<Cipher>> cipherFactories = new ArrayList<>();
+        for (BuiltinCiphers cipher : ciphers) {
+            if (cipher.isSupported()) {
+                cipherFactories.add(cipher);
+            }
+        }
+        List<NamedFactory<Mac>> macFactories = new ArrayList<>();
+        for (BuiltinMacs mac : macs) {
+            if (mac.isSupported()) {
+                macFactories.add(mac);
+            }
+        }
+        List<NamedFactory<KeyExchange>> kexFactories = new ArrayList<>();
+        for (BuiltinDHFactories kex : keyExchanges) {
+            if (kex.isSupported()) {
+                kexFactories.add(ServerBuilder.DH2KEX.apply(kex));
+            }
+        }
+        if (cipherFactories.isEmpty() || macFactories.isEmpty() || kexFactories.isEmpty()) {
+            throw new IllegalStateException("No cipher, MAC or key exchange of " + this + " is supported by this JVM");
+        }
+        sshd.setCipherFactories(cipherFactories);
+        sshd.setMacFactories(macFactories);
+        sshd.setKeyExchangeFactories(kexFactories);
+    }
+
+    @Override
+    public String toString() {
+        return name + "[ciphers=" + ciphers + ", macs=" + macs + ", keyExchanges=" + keyExchanges + "]";
+    }
+}
@@ -0,0 +1,174 @@
+package io.jenkins.blueocean.test.ssh;
+
+import org.apache.sshd.common.config.keys.KeyUtils;
+import org.apache.sshd.common.keyprovider.AbstractKeyPairProvider;
+import org.apache.sshd.common.keyprovider.KeyPairProvider;
+import org.apache.sshd.common.util.security.SecurityUtils;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.KeyPair;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide host key cache, so all servers in a JVM share one key pair per
+ * algorithm (and per key file, if one is used) instead of generating a new
+ * one for every instance. Keys are generated in the background as soon as
+ * they are requested, the handshake waits for them only if needed. A failed
+ * generation is not cached.
+ */
+public final class HostKeys {
+    private static final Logger log = Logger.getLogger(HostKeys.class.getName());
+
+    public enum Algorithm {
+        /** widest client support, slowest to generate */
+        RSA(KeyUtils.RSA_ALGORITHM, 2048),
+        /** nistp256, fast to generate and sign */
+        ECDSA(KeyUtils.EC_ALGORITHM, 256),
+        /** requires the EdDSA provider, falls back to {@link #ECDSA} otherwise */
+        ED25519(SecurityUtils.EDDSA, 256);
+
+        private final String keyAlgorithm;
+        private final int keySize;
+
+        Algorithm(String keyAlgorithm, int keySize) {
+            this.keyAlgorithm = keyAlgorithm;
+            this.keySize = keySize;
+        }
+
+        /**
+         * @return this algorithm, or a supported replacement
+         */
+        Algorithm resolve() {
+            if (this == ED25519 && !SecurityUtils.isEDDSACurveSupported()) {
+                log.warning("Ed25519 host keys are not supported, using " + ECDSA);
+                return ECDSA.resolve();
+            }
+            if (this == ECDSA && !SecurityUtils.isECCSupported()) {
+                log.warning("ECDSA host keys are not supported, using " + RSA);
+                return RSA;
+            }
+            return this;
+        }
+    }
+
+    private static final ConcurrentMap<String, Future<KeyPair>> keys = new ConcurrentHashMap<>();
+
+    private static final ExecutorService generator = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "SSH host key generator");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private HostKeys() {
+    }
+
+    /**
+     * Provides the shared host key, starting its generation in the background
+     *
+     * @param algorithm host key algorithm
+     * @param keyFile   file to load the key from or save it to, null to keep it in memory only
+     * @return a provider returning the shared key pair
+     */
+    public static KeyPairProvider getKeyPairProvider(Algorithm algorithm, File keyFile) {
+        return new CachedKeyPairProvider(prefetch(algorithm, keyFile));
+    }
+
+    /**
+     * Starts generating (or loading) the host key in the background if not already done
+     *
+     * @param algorithm host key algorithm
+     * @param keyFile   file to load the key from or save it to, null to keep it in memory only
+     * @return the pending key pair
+     */
+    public static Future<KeyPair> prefetch(Algorithm algorithm, final File keyFile) {
+        final Algorithm resolved = algorithm.resolve();
+        final File file = keyFile == null ? null : canonical(keyFile);
+        final String key = resolved + ":" + (file == null ? "" : file.getPath());
+        Future<KeyPair> future = keys.get(key);
+        if (future == null) {
+            FutureTask<KeyPair> task = new FutureTask<KeyPair>(new Callable<KeyPair>() {
+                @Override
+                public KeyPair call() {
+                    return generate(resolved, file);
+                }
+            }) {
+                @Override
+                protected void done() {
+                    try {
+                        get();
+                    } catch (ExecutionException e) {
+                        // not cached, so the next server tries again
+                        keys.remove(key, this);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            future = keys.putIfAbsent(key, task);
+            if (future == null) {
+                future = task;
+                generator.execute(task);
+            }
+        }
+        return future;
+    }
+
+    private static KeyPair generate(Algorithm algorithm, File keyFile) {
+        long start = System.currentTimeMillis();
+        SimpleGeneratorHostKeyProvider provider = keyFile == null ?
+            new SimpleGeneratorHostKeyProvider() :
+            new SimpleGeneratorHostKeyProvider(keyFile);
+        provider.setAlgorithm(algorithm.keyAlgorithm);
+        provider.setKeySize(algorithm.keySize);
+        List<KeyPair> pairs = provider.loadKeys();
+        if (pairs.isEmpty()) {
+            throw new IllegalStateException("Unable to generate " + algorithm + " host key");
+        }
+        log.fine("Host key " + algorithm + " ready in " + (System.currentTimeMillis() - start) + "ms");
+        return pairs.get(0);
+    }
+
+    private static File canonical(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            return file.getAbsoluteFile();
+        }
+    }
+
+    private static class CachedKeyPairProvider extends AbstractKeyPairProvider {
+        private final Future<KeyPair> keyPair;
+
+        CachedKeyPairProvider(Future<KeyPair> keyPair) {
+            this.keyPair = keyPair;
+        }
+
+        @Override
+        public Iterable<KeyPair> loadKeys() {
+            try {
+                return Collections.singletonList(keyPair.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for host key", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Unable to generate host key", e.getCause());
+            }
+        }
+    }
+}
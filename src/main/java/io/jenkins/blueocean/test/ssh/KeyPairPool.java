@@ -0,0 +1,398 @@
+package io.jenkins.blueocean.test.ssh;
+
+import com.jcraft.jsch.JSch;
+import org.apache.commons.codec.binary.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Supplies SSH key pairs for test users from a bounded pool that a background
+ * thread keeps filled, so tests don't wait for key generation.
+ * <p>
+ * A seeded pool always produces the same sequence of keys, which makes
+ * fixtures reproducible; it refills in the same order it hands keys out.
+ */
+public class KeyPairPool {
+    private static final Logger log = Logger.getLogger(KeyPairPool.class.getName());
+    private static final Charset UTF8 = Charset.forName("utf-8");
+    private static final String COMMENT = "auto@generated";
+
+    public enum KeyType {
+        RSA(com.jcraft.jsch.KeyPair.RSA, "RSA", 2048),
+        ECDSA(com.jcraft.jsch.KeyPair.ECDSA, "EC", 256),
+        DSA(com.jcraft.jsch.KeyPair.DSA, "DSA", 1024);
+
+        private final int jschType;
+        private final String algorithm;
+        private final int defaultSize;
+
+        KeyType(int jschType, String algorithm, int defaultSize) {
+            this.jschType = jschType;
+            this.algorithm = algorithm;
+            this.defaultSize = defaultSize;
+        }
+
+        public int getDefaultSize() {
+            return defaultSize;
+        }
+    }
+
+    /**
+     * An SSH private key with its public key
+     */
+    public static class Keys {
+        private final String privateKey;
+        private final String publicKey;
+
+        Keys(String privateKey, String publicKey) {
+            this.privateKey = privateKey;
+            this.publicKey = publicKey;
+        }
+
+        /**
+         * @return PEM encoded private key
+         */
+        public String getPrivateKey() {
+            return privateKey;
+        }
+
+        /**
+         * @return public key in authorized_keys format with 'auto@generated' comment
+         */
+        public String getPublicKey() {
+            return publicKey;
+        }
+    }
+
+    private static final ExecutorService refiller = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "SSH key pair pool refill");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }
+    });
+
+    private static final Object defaultLock = new Object();
+    private static KeyPairPool defaultPool;
+
+    // private key -> public key of recently handed out keys
+    private static final Map<String, String> issued = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > 1024;
+        }
+    };
+
+    private final KeyType keyType;
+    private final int keySize;
+    private final int capacity;
+    private final SecureRandom seededRandom;
+    private final BlockingQueue<Keys> pool;
+    private final AtomicBoolean refilling = new AtomicBoolean();
+
+    /**
+     * Creates a pool and starts filling it in the background
+     *
+     * @param keyType  type of keys to generate
+     * @param keySize  key size in bits
+     * @param capacity number of keys kept ready
+     */
+    public KeyPairPool(KeyType keyType, int keySize, int capacity) {
+        this(keyType, keySize, capacity, null);
+    }
+
+    private KeyPairPool(KeyType keyType, int keySize, int capacity, SecureRandom seededRandom) {
+        if (keyType == null) {
+            throw new IllegalArgumentException("No key type");
+        }
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative: " + capacity);
+        }
+        this.keyType = keyType;
+        this.keySize = keySize;
+        this.capacity = capacity;
+        this.seededRandom = seededRandom;
+        this.pool = new LinkedBlockingQueue<>();
+        refill();
+    }
+
+    /**
+     * Creates a pool producing the same keys, in the same order, for the same seed
+     *
+     * @param keyType  type of keys to generate, {@link KeyType#RSA} or {@link KeyType#ECDSA}
+     * @param keySize  key size in bits
+     * @param capacity number of keys kept ready
+     * @param seed     seed for the key generator
+     * @return a deterministic pool
+     */
+    public static KeyPairPool seeded(KeyType keyType, int keySize, int capacity, long seed) {
+        if (keyType == KeyType.DSA) {
+            throw new IllegalArgumentException("Seeded DSA keys are not supported");
+        }
+        try {
+            SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+            // seeding before first use replaces the system seed, making the output deterministic
+            random.setSeed(seed);
+            return new KeyPairPool(keyType, keySize, capacity, random);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the pool used by {@link SSHServer#generatePrivateKey()}, 2048 bit RSA keys by default
+     */
+    public static KeyPairPool getDefault() {
+        synchronized (defaultLock) {
+            if (defaultPool == null) {
+                defaultPool = new KeyPairPool(KeyType.RSA, KeyType.RSA.getDefaultSize(), 4);
+            }
+            return defaultPool;
+        }
+    }
+
+    /**
+     * Replaces the pool used by {@link SSHServer#generatePrivateKey()}
+     *
+     * @param pool pool to use
+     */
+    public static void setDefault(KeyPairPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("No pool");
+        }
+        synchronized (defaultLock) {
+            defaultPool = pool;
+        }
+    }
+
+    /**
+     * Finds the public key of a key pair handed out recently by any pool
+     *
+     * @param privateKey private key
+     * @return the public key, or null if not known
+     */
+    static String findPublicKey(String privateKey) {
+        synchronized (issued) {
+            return issued.get(privateKey);
+        }
+    }
+
+    public KeyType getKeyType() {
+        return keyType;
+    }
+
+    public int getKeySize() {
+        return keySize;
+    }
+
+    /**
+     * @return number of keys ready to be handed out
+     */
+    public int available() {
+        return pool.size();
+    }
+
+    /**
+     * Takes a key pair from the pool, generating one if the pool is empty
+     *
+     * @return a new key pair
+     */
+    public Keys take() {
+        Keys keys;
+        if (seededRandom != null) {
+            // keep the sequence deterministic: generation and hand out share one lock
+            synchronized (this) {
+                keys = pool.poll();
+                if (keys == null) {
+                    keys = generate();
+                }
+            }
+        } else {
+            keys = pool.poll();
+            if (keys == null) {
+                keys = generate();
+            }
+        }
+        synchronized (issued) {
+            issued.put(keys.getPrivateKey(), keys.getPublicKey());
+        }
+        refill();
+        return keys;
+    }
+
+    private void refill() {
+        if (pool.size() >= capacity || !refilling.compareAndSet(false, true)) {
+            return;
+        }
+        refiller.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (pool.size() < capacity) {
+                        if (seededRandom != null) {
+                            synchronized (KeyPairPool.this) {
+                                pool.add(generate());
+                            }
+                        } else {
+                            pool.add(generate());
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    log.log(Level.WARNING, "Unable to generate " + keyType + " key pair", e);
+                } finally {
+                    refilling.set(false);
+                }
+            }
+        });
+    }
+
+    private Keys generate() {
+        try {
+            JSch jsch = new JSch();
+            com.jcraft.jsch.KeyPair pair;
+            if (seededRandom == null) {
+                pair = com.jcraft.jsch.KeyPair.genKeyPair(jsch, keyType.jschType, keySize);
+            } else {
+                pair = com.jcraft.jsch.KeyPair.load(jsch, generateSeededPem(), null);
+            }
+            ByteArrayOutputStream privateOut = new ByteArrayOutputStream();
+            pair.writePrivateKey(privateOut);
+            ByteArrayOutputStream publicOut = new ByteArrayOutputStream();
+            pair.writePublicKey(publicOut, COMMENT);
+            return new Keys(new String(privateOut.toByteArray(), UTF8), new String(publicOut.toByteArray(), UTF8));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Generates a key with the seeded random and encodes it as PEM, JSch can't use a given random
+     */
+    private byte[] generateSeededPem() throws GeneralSecurityException, IOException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(keyType.algorithm);
+        generator.initialize(keySize, seededRandom);
+        java.security.KeyPair pair = generator.generateKeyPair();
+        byte[] der;
+        String label;
+        if (keyType == KeyType.RSA) {
+            label = "RSA";
+            RSAPrivateCrtKey key = (RSAPrivateCrtKey) pair.getPrivate();
+            der = Der.sequence(
+                Der.integer(BigInteger.ZERO),
+                Der.integer(key.getModulus()),
+                Der.integer(key.getPublicExponent()),
+                Der.integer(key.getPrivateExponent()),
+                Der.integer(key.getPrimeP()),
+                Der.integer(key.getPrimeQ()),
+                Der.integer(key.getPrimeExponentP()),
+                Der.integer(key.getPrimeExponentQ()),
+                Der.integer(key.getCrtCoefficient()));
+        } else {
+            label = "EC";
+            ECPrivateKey key = (ECPrivateKey) pair.getPrivate();
+            ECPublicKey publicKey = (ECPublicKey) pair.getPublic();
+            int fieldSize = (key.getParams().getCurve().getField().getFieldSize() + 7) / 8;
+            der = Der.sequence(
+                Der.integer(BigInteger.ONE),
+                Der.tagged(0x04, Der.unsigned(key.getS(), fieldSize)),
+                Der.tagged(0xa0, curveOid(keySize)),
+                Der.tagged(0xa1, Der.tagged(0x03, Der.concat(
+                    new byte[]{0, 4},
+                    Der.unsigned(publicKey.getW().getAffineX(), fieldSize),
+                    Der.unsigned(publicKey.getW().getAffineY(), fieldSize)))));
+        }
+        String pem = "-----BEGIN " + label + " PRIVATE KEY-----\n"
+            + new Base64(64, new byte[]{'\n'}).encodeToString(der)
+            + "-----END " + label + " PRIVATE KEY-----\n";
+        return pem.getBytes(UTF8);
+    }
+
+    private static byte[] curveOid(int keySize) {
+        switch (keySize) {
+            case 256:
+                return new byte[]{0x06, 0x08, 0x2a, (byte) 0x86, 0x48, (byte) 0xce, 0x3d, 0x03, 0x01, 0x07};
+            case 384:
+                return new byte[]{0x06, 0x05, 0x2b, (byte) 0x81, 0x04, 0x00, 0x22};
+            case 521:
+                return new byte[]{0x06, 0x05, 0x2b, (byte) 0x81, 0x04, 0x00, 0x23};
+            default:
+                throw new IllegalArgumentException("Unsupported EC key size: " + keySize);
+        }
+    }
+
+    /**
+     * Minimal DER encoding, enough for PKCS#1 and SEC1 private keys
+     */
+    private static class Der {
+        static byte[] integer(BigInteger value) {
+            return tagged(0x02, value.toByteArray());
+        }
+
+        static byte[] sequence(byte[]... items) {
+            return tagged(0x30, concat(items));
+        }
+
+        static byte[] tagged(int tag, byte[] value) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(value.length + 4);
+            out.write(tag);
+            int length = value.length;
+            if (length < 0x80) {
+                out.write(length);
+            } else if (length < 0x100) {
+                out.write(0x81);
+                out.write(length);
+            } else {
+                out.write(0x82);
+                out.write(length >> 8);
+                out.write(length & 0xff);
+            }
+            out.write(value, 0, value.length);
+            return out.toByteArray();
+        }
+
+        static byte[] concat(byte[]... parts) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (byte[] part : parts) {
+                out.write(part, 0, part.length);
+            }
+            return out.toByteArray();
+        }
+
+        /**
+         * @return the value as a big endian unsigned number of exactly the given length
+         */
+        static byte[] unsigned(BigInteger value, int length) {
+            byte[] bytes = value.toByteArray();
+            byte[] out = new byte[length];
+            if (bytes.length > length) {
+                System.arraycopy(bytes, bytes.length - length, out, 0, length);
+            } else {
+                System.arraycopy(bytes, 0, out, length - bytes.length, bytes.length);
+            }
+            return out;
+        }
+    }
+}
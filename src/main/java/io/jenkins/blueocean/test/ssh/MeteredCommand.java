@@ -0,0 +1,144 @@
+package io.jenkins.blueocean.test.ssh;
+
+import io.jenkins.blueocean.test.ssh.metrics.Histogram;
+import org.apache.sshd.common.file.FileSystemAware;
+import org.apache.sshd.server.ChannelSessionAware;
+import org.apache.sshd.server.Command;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.SessionAware;
+import org.apache.sshd.server.channel.ChannelSession;
+import org.apache.sshd.server.session.ServerSession;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystem;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Records how long a channel's command runs, from start until it exits or is
+ * destroyed, and keeps it in a set of running commands meanwhile. The set is
+ * notified when a command leaves it, for a graceful stop waiting on it.
+ */
+class MeteredCommand implements Command, SessionAware, ChannelSessionAware {
+    private final Histogram histogram;
+    private final Set<Command> running;
+    private final Command command;
+    private final AtomicBoolean recorded = new AtomicBoolean();
+    private volatile long started;
+
+    private MeteredCommand(Histogram histogram, Set<Command> running, Command command) {
+        this.histogram = histogram;
+        this.running = running;
+        this.command = command;
+    }
+
+    /**
+     * @return the command, wrapped; a file system is only set up for commands that use one
+     */
+    static Command wrap(Histogram histogram, Set<Command> running, Command command) {
+        if (command instanceof FileSystemAware) {
+            return new WithFileSystem(histogram, running, command);
+        }
+        return new MeteredCommand(histogram, running, command);
+    }
+
+    @Override
+    public void setInputStream(InputStream in) {
+        command.setInputStream(in);
+    }
+
+    @Override
+    public void setOutputStream(OutputStream out) {
+        command.setOutputStream(out);
+    }
+
+    @Override
+    public void setErrorStream(OutputStream err) {
+        command.setErrorStream(err);
+    }
+
+    @Override
+    public void setExitCallback(final ExitCallback callback) {
+        command.setExitCallback(new ExitCallback() {
+            @Override
+            public void onExit(int exitValue) {
+                record();
+                callback.onExit(exitValue);
+            }
+
+            @Override
+            public void onExit(int exitValue, String exitMessage) {
+                record();
+                callback.onExit(exitValue, exitMessage);
+            }
+        });
+    }
+
+    @Override
+    public void setSession(ServerSession session) {
+        if (command instanceof SessionAware) {
+            ((SessionAware) command).setSession(session);
+        }
+    }
+
+    @Override
+    public void setChannelSession(ChannelSession session) {
+        if (command instanceof ChannelSessionAware) {
+            ((ChannelSessionAware) command).setChannelSession(session);
+        }
+    }
+
+    @Override
+    public void start(Environment env) throws IOException {
+        started = System.nanoTime();
+        running.add(this);
+        try {
+            command.start(env);
+        } catch (IOException | RuntimeException e) {
+            record();
+            throw e;
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        try {
+            command.destroy();
+        } finally {
+            record();
+        }
+    }
+
+    private void record() {
+        if (started != 0 && recorded.compareAndSet(false, true)) {
+            histogram.recordSince(started);
+            synchronized (running) {
+                running.remove(this);
+                running.notifyAll();
+            }
+        }
+    }
+
+    Command getCommand() {
+        return command;
+    }
+
+    @Override
+    public String toString() {
+        return command.toString();
+    }
+
+    private static class WithFileSystem extends MeteredCommand implements FileSystemAware {
+        WithFileSystem(Histogram histogram, Set<Command> running, Command command) {
+            super(histogram, running, command);
+        }
+
+        @Override
+        public void setFileSystem(FileSystem fileSystem) {
+            ((FileSystemAware) getCommand()).setFileSystem(fileSystem);
+        }
+    }
+}
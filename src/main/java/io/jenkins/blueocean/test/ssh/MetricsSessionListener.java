@@ -0,0 +1,64 @@
+package io.jenkins.blueocean.test.ssh;
+
+import io.jenkins.blueocean.test.ssh.metrics.ServerMetrics;
+import org.apache.sshd.common.AttributeStore;
+import org.apache.sshd.common.kex.KexProposalOption;
+import org.apache.sshd.common.session.Session;
+import org.apache.sshd.common.session.SessionListener;
+
+import java.util.Map;
+
+/**
+ * Counts sessions and times their handshake and authentication
+ */
+class MetricsSessionListener implements SessionListener {
+    private static final AttributeStore.AttributeKey<Long> CREATED = new AttributeStore.AttributeKey<>();
+    private static final AttributeStore.AttributeKey<Long> KEY_ESTABLISHED = new AttributeStore.AttributeKey<>();
+
+    private final ServerMetrics metrics;
+
+    MetricsSessionListener(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void sessionCreated(Session session) {
+        session.setAttribute(CREATED, System.nanoTime());
+        metrics.counter(ServerMetrics.SESSIONS).increment();
+        metrics.counter(ServerMetrics.SESSIONS_ACTIVE).increment();
+    }
+
+    @Override
+    public void sessionNegotiationStart(Session session, Map<KexProposalOption, String> clientProposal, Map<KexProposalOption, String> serverProposal) {
+    }
+
+    @Override
+    public void sessionNegotiationEnd(Session session, Map<KexProposalOption, String> clientProposal, Map<KexProposalOption, String> serverProposal, Map<KexProposalOption, String> negotiatedOptions, Throwable reason) {
+    }
+
+    @Override
+    public void sessionEvent(Session session, Event event) {
+        if (event == Event.KeyEstablished) {
+            // also sent on re-keying, only the first one ends the handshake
+            Long created = session.removeAttribute(CREATED);
+            if (created != null) {
+                metrics.histogram(ServerMetrics.HANDSHAKE).recordSince(created);
+                session.setAttribute(KEY_ESTABLISHED, System.nanoTime());
+            }
+        } else if (event == Event.Authenticated) {
+            Long established = session.removeAttribute(KEY_ESTABLISHED);
+            if (established != null) {
+                metrics.histogram(ServerMetrics.AUTHENTICATION).recordSince(established);
+            }
+        }
+    }
+
+    @Override
+    public void sessionException(Session session, Throwable t) {
+    }
+
+    @Override
+    public void sessionClosed(Session session) {
+        metrics.counter(ServerMetrics.SESSIONS_ACTIVE).decrement();
+    }
+}
@@ -0,0 +1,47 @@
+package io.jenkins.blueocean.test.ssh;
+
+import org.apache.sshd.server.session.ServerSession;
+
+import java.io.File;
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A directory and the users rooted in it, so several tests can share one
+ * started server. Sessions of these users see the directory as the root of
+ * SCP and SFTP, run commands in it and resolve relative git repository paths
+ * against it.
+ *
+ * @see SSHServer#addNamespace(File, Map)
+ */
+public final class Namespace {
+    private final File root;
+    private final Set<String> users;
+    private final AuthorizedKeys authorizedKeys;
+
+    Namespace(File root, Map<String, String> authorizedUsers) {
+        this.root = root.getAbsoluteFile();
+        this.users = Collections.unmodifiableSet(new LinkedHashSet<>(authorizedUsers.keySet()));
+        this.authorizedKeys = new AuthorizedKeys(authorizedUsers, false);
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    public Set<String> getUsers() {
+        return users;
+    }
+
+    boolean authenticate(String username, PublicKey key, ServerSession session) {
+        return authorizedKeys.authenticate(username, key, session);
+    }
+
+    @Override
+    public String toString() {
+        return "Namespace[" + root + ", " + users + "]";
+    }
+}
@@ -0,0 +1,348 @@
+package io.jenkins.blueocean.test.ssh;
+
+import io.jenkins.blueocean.test.ssh.command.SessionRoot;
+import org.apache.sshd.common.Factory;
+import org.apache.sshd.server.Command;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.SessionAware;
+import org.apache.sshd.server.session.ServerSession;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs an exec command on a worker of the {@link ShellPool}, or spawns it
+ * directly if none is idle. The command line is quoted so the worker runs
+ * the same argument list {@link ProcessBuilder} would.
+ */
+class PooledShellCommand implements Command, SessionAware {
+    private static final Logger log = Logger.getLogger(PooledShellCommand.class.getName());
+    private static final Charset UTF8 = Charset.forName("utf-8");
+    // how long a command's end waits for the input pump, before the worker is replaced instead
+    private static final long PUMP_TIMEOUT_MILLIS = 1000;
+
+    private final ShellPool pool;
+    private final List<String> command;
+    private final File cwd;
+    private final Factory<Command> direct;
+    private final AtomicBoolean exited = new AtomicBoolean();
+    // the worker opened the named pipe, so stdin may be closed
+    private final CountDownLatch opened = new CountDownLatch(1);
+    // the input pump ended, so nothing it writes is left for the worker's next command
+    private final CountDownLatch pumped = new CountDownLatch(1);
+    // guards stdin, which the input pump and the command's end both close
+    private final Object lock = new Object();
+    private InputStream in;
+    private OutputStream out;
+    private OutputStream err;
+    private ExitCallback callback;
+    private ServerSession session;
+    private volatile Command delegate;
+    private volatile ShellPool.Worker worker;
+    private FileChannel stdin;
+    private volatile Future<?> inputPump;
+    private volatile Future<Integer> errorPump;
+
+    /**
+     * @param direct creates the command spawned directly when no worker is idle
+     */
+    PooledShellCommand(ShellPool pool, List<String> command, File cwd, Factory<Command> direct) {
+        this.pool = pool;
+        this.command = command;
+        this.cwd = cwd;
+        this.direct = direct;
+    }
+
+    @Override
+    public void setInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public void setOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void setErrorStream(OutputStream err) {
+        this.err = err;
+    }
+
+    @Override
+    public void setExitCallback(ExitCallback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public void setSession(ServerSession session) {
+        this.session = session;
+    }
+
+    @Override
+    public void start(Environment env) throws IOException {
+        worker = pool.take();
+        if (worker == null) {
+            delegate = direct.create();
+            delegate.setInputStream(in);
+            delegate.setOutputStream(out);
+            delegate.setErrorStream(err);
+            delegate.setExitCallback(callback);
+            if (delegate instanceof SessionAware) {
+                ((SessionAware) delegate).setSession(session);
+            }
+            delegate.start(env);
+            return;
+        }
+
+        final ShellPool.Worker running = worker;
+        final OutputStream output = out;
+        final OutputStream error = err;
+        final FileChannel input;
+        final String token;
+        try {
+            // opened read-write so neither side waits for the other to open the pipe; a channel, so closing
+            // it ends a write blocked on a full pipe
+            input = FileChannel.open(running.getFifo().toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            synchronized (lock) {
+                stdin = input;
+            }
+            token = running.run(toJob(SessionRoot.get(session, cwd), env.getEnv()));
+        } catch (IOException e) {
+            exited.set(true);
+            closeStdin();
+            pool.release(running, false);
+            throw e;
+        }
+        final byte[] marker = ("\001" + token).getBytes(UTF8);
+        errorPump = ProcessShellCommand.pumps.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                return scan(running.getStderr(), error, marker);
+            }
+        });
+        inputPump = ProcessShellCommand.pumps.submit(new Runnable() {
+            @Override
+            public void run() {
+                pumpInput(input);
+            }
+        });
+        ProcessShellCommand.pumps.execute(new Runnable() {
+            @Override
+            public void run() {
+                int status;
+                // whether the command may have left processes behind, which the worker goes with
+                int left = 1;
+                try {
+                    running.awaitOpened(token);
+                    opened.countDown();
+                    status = scan(running.getStdout(), output, marker);
+                    left = errorPump.get();
+                    if (status >= 0 && left < 0) {
+                        status = -1;
+                    }
+                } catch (IOException | ExecutionException e) {
+                    log.log(Level.FINE, "Pooled shell failed for " + command, e);
+                    status = -1;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    status = -1;
+                }
+                finish(status, left == 0);
+            }
+        });
+    }
+
+    /**
+     * @return a line for the worker that runs the command in the session's directory and environment
+     */
+    private String toJob(File dir, Map<String, String> env) {
+        StringBuilder job = new StringBuilder("cd ").append(quote(dir.getPath())).append(" && ");
+        for (Map.Entry<String, String> e : env.entrySet()) {
+            if (e.getKey().matches("[A-Za-z_][A-Za-z0-9_]*")) {
+                job.append("export ").append(e.getKey()).append('=').append(quote(e.getValue())).append(" && ");
+            }
+        }
+        job.append("exec");
+        for (String arg : command) {
+            // as SSHShell does
+            job.append(' ').append(quote("$USER".equals(arg) && env.containsKey("USER") ? env.get("USER") : arg));
+        }
+        return job.toString();
+    }
+
+    /**
+     * Single quotes for the shell; newlines become the worker's $nl, so the command stays on one line
+     */
+    static String quote(String s) {
+        return "'" + s.replace("'", "'\\''").replace("\n", "'\"$nl\"'") + "'";
+    }
+
+    /**
+     * Copies the stream up to the marker and returns the status following it
+     *
+     * @return the status, 0 if there is none, or -1 if the stream ended without the marker
+     */
+    static int scan(InputStream from, OutputStream to, byte[] marker) throws IOException {
+        byte[] buf = ProcessShellCommand.buffers.get();
+        int matched = 0;
+        StringBuilder status = null;
+        int read;
+        while ((read = from.read(buf)) >= 0) {
+            // start of the bytes not written yet
+            int start = 0;
+            for (int i = 0; i < read; i++) {
+                byte b = buf[i];
+                if (status != null) {
+                    if (b == '\n') {
+                        to.flush();
+                        String value = status.toString().trim();
+                        return value.isEmpty() ? 0 : Integer.parseInt(value);
+                    }
+                    status.append((char) b);
+                } else if (b == marker[matched]) {
+                    if (matched == 0 && i > start) {
+                        to.write(buf, start, i - start);
+                    }
+                    matched++;
+                    start = i + 1;
+                    if (matched == marker.length) {
+                        status = new StringBuilder();
+                    }
+                } else if (matched > 0) {
+                    // not the marker after all, the bytes held back are output
+                    to.write(marker, 0, matched);
+                    matched = b == marker[0] ? 1 : 0;
+                    start = matched == 1 ? i + 1 : i;
+                }
+            }
+            if (matched == 0 && read > start) {
+                to.write(buf, start, read - start);
+            }
+            to.flush();
+        }
+        if (matched > 0 && status == null) {
+            to.write(marker, 0, matched);
+            to.flush();
+        }
+        return -1;
+    }
+
+    private void pumpInput(FileChannel input) {
+        byte[] buf = new byte[8192];
+        try {
+            int read;
+            while ((read = in.read(buf)) >= 0) {
+                ByteBuffer buffer = ByteBuffer.wrap(buf, 0, read);
+                while (buffer.hasRemaining()) {
+                    input.write(buffer);
+                }
+            }
+            // client closed stdin: the command sees the end of its input
+            opened.await();
+            closeStdin();
+        } catch (InterruptedIOException | InterruptedException | ClosedChannelException e) {
+            log.finest("Pump stopped for " + command);
+        } catch (IOException e) {
+            if (!exited.get()) {
+                log.log(Level.FINE, "Pump failed for " + command, e);
+            }
+        } finally {
+            pumped.countDown();
+        }
+    }
+
+    /**
+     * Closes stdin, which ends a write blocked on the named pipe, and stops the input pump
+     */
+    private void stopInput() {
+        closeStdin();
+        if (inputPump != null) {
+            inputPump.cancel(true);
+        }
+    }
+
+    /**
+     * @return whether the input pump ended, so the named pipe holds nothing for the worker's next command
+     */
+    private boolean awaitInput() {
+        try {
+            return pumped.await(PUMP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void closeStdin() {
+        synchronized (lock) {
+            if (stdin != null) {
+                try {
+                    stdin.close();
+                } catch (IOException e) {
+                    log.log(Level.FINEST, "Close failed for " + command, e);
+                }
+                stdin = null;
+            }
+        }
+    }
+
+    /**
+     * @param status exit status, or -1 if the command didn't finish normally
+     * @param clean  whether the command left no processes behind, so the worker may run another
+     */
+    private void finish(int status, boolean clean) {
+        if (!exited.compareAndSet(false, true)) {
+            return;
+        }
+        // closed before the worker is reused, so no input is left over for its next command
+        stopInput();
+        pool.release(worker, status >= 0 && clean && awaitInput());
+        log.fine("Pooled command " + command + " exited with " + status);
+        if (status >= 0) {
+            callback.onExit(status);
+        } else {
+            callback.onExit(255, "Pooled shell failed");
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (delegate != null) {
+            delegate.destroy();
+            return;
+        }
+        if (worker == null || !exited.compareAndSet(false, true)) {
+            return;
+        }
+        // still running: the worker goes with it
+        stopInput();
+        if (errorPump != null) {
+            errorPump.cancel(true);
+        }
+        pool.release(worker, false);
+    }
+
+    @Override
+    public String toString() {
+        return "PooledShellCommand" + command;
+    }
+}
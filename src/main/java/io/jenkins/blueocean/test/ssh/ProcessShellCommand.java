@@ -0,0 +1,188 @@
+package io.jenkins.blueocean.test.ssh;
+
+import org.apache.sshd.server.Command;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.SessionAware;
+import org.apache.sshd.server.session.ServerSession;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replaces sshd's InvertedShellWrapper, which pumps all process streams from
+ * one thread polling {@link InputStream#available()} and sleeping in between.
+ * Each stream is pumped here with blocking reads on its own pooled thread, and
+ * the exit status is sent as soon as the process output is drained.
+ */
+class ProcessShellCommand implements Command, SessionAware {
+    private static final Logger log = Logger.getLogger(ProcessShellCommand.class.getName());
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final AtomicInteger pumpNumber = new AtomicInteger();
+
+    static final ExecutorService pumps = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "SSH stream pump-" + pumpNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    // pump threads are reused, so are their buffers
+    static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private final SSHShell shell;
+    private final AtomicBoolean exited = new AtomicBoolean();
+    private InputStream in;
+    private OutputStream out;
+    private OutputStream err;
+    private ExitCallback callback;
+    private volatile Future<?> inputPump;
+    private volatile Future<?> errorPump;
+
+    ProcessShellCommand(SSHShell shell) {
+        this.shell = shell;
+    }
+
+    @Override
+    public void setInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public void setOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void setErrorStream(OutputStream err) {
+        this.err = err;
+    }
+
+    @Override
+    public void setExitCallback(ExitCallback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public void setSession(ServerSession session) {
+        shell.setSession(session);
+    }
+
+    @Override
+    public synchronized void start(Environment env) throws IOException {
+        shell.start(env);
+        final InputStream shellOut = shell.getOutputStream();
+        final InputStream shellErr = shell.getErrorStream();
+        final OutputStream shellIn = shell.getInputStream();
+
+        errorPump = pumps.submit(new Runnable() {
+            @Override
+            public void run() {
+                pump(shellErr, err, false);
+            }
+        });
+        inputPump = pumps.submit(new Runnable() {
+            @Override
+            public void run() {
+                // client closed stdin: pass the EOF to the process
+                pump(in, shellIn, true);
+            }
+        });
+        pumps.execute(new Runnable() {
+            @Override
+            public void run() {
+                pump(shellOut, out, false);
+                awaitQuietly(errorPump);
+                exit();
+            }
+        });
+    }
+
+    private void pump(InputStream from, OutputStream to, boolean closeTarget) {
+        byte[] buf = buffers.get();
+        try {
+            int read;
+            while ((read = from.read(buf)) >= 0) {
+                if (read > 0) {
+                    to.write(buf, 0, read);
+                    to.flush();
+                }
+            }
+        } catch (InterruptedIOException e) {
+            log.finest("Pump interrupted for " + shell);
+        } catch (IOException e) {
+            if (!exited.get()) {
+                log.log(Level.FINE, "Pump failed for " + shell, e);
+            }
+        } finally {
+            if (closeTarget) {
+                try {
+                    to.close();
+                } catch (IOException e) {
+                    log.log(Level.FINEST, "Close failed for " + shell, e);
+                }
+            }
+        }
+    }
+
+    private static void awaitQuietly(Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.log(Level.FINE, "Pump failed", e.getCause());
+        } catch (CancellationException e) {
+            // destroyed
+        }
+    }
+
+    private void exit() {
+        if (!exited.compareAndSet(false, true)) {
+            return;
+        }
+        int exitValue = shell.exitValue();
+        inputPump.cancel(true);
+        shell.destroy();
+        log.fine("Process " + shell + " exited with " + exitValue);
+        callback.onExit(exitValue);
+    }
+
+    @Override
+    public synchronized void destroy() {
+        exited.set(true);
+        if (inputPump != null) {
+            inputPump.cancel(true);
+        }
+        if (errorPump != null) {
+            errorPump.cancel(true);
+        }
+        shell.destroy();
+    }
+
+    @Override
+    public String toString() {
+        return "ProcessShellCommand[" + shell + "]";
+    }
+}
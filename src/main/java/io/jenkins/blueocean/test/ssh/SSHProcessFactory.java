@@ -1,12 +1,12 @@
 package io.jenkins.blueocean.test.ssh;
 
+import io.jenkins.blueocean.test.ssh.metrics.Histogram;
+import io.jenkins.blueocean.test.ssh.metrics.ServerMetrics;
 import org.apache.sshd.common.Factory;
 import org.apache.sshd.common.util.GenericUtils;
 import org.apache.sshd.common.util.OsUtils;
 import org.apache.sshd.common.util.ValidateUtils;
 import org.apache.sshd.server.Command;
-import org.apache.sshd.server.shell.InvertedShell;
-import org.apache.sshd.server.shell.InvertedShellWrapper;
 
 import java.io.File;
 import java.util.Arrays;
@@ -18,18 +18,31 @@ class SSHProcessFactory implements Factory<Command> {
     private final List<String> command;
     private final File cwd;
     private final boolean interactive;
+    private final ServerMetrics metrics;
+    private final ShellPool shellPool;
 
-    public SSHProcessFactory(Logger log, File cwd, List<String> command) {
+    public SSHProcessFactory(Logger log, File cwd, List<String> command, ServerMetrics metrics) {
+        this(log, cwd, command, metrics, null);
+    }
+
+    /**
+     * @param shellPool workers to run the command on, or null to always spawn it
+     */
+    public SSHProcessFactory(Logger log, File cwd, List<String> command, ServerMetrics metrics, ShellPool shellPool) {
         this.log = log;
+        this.metrics = metrics;
         this.command = ValidateUtils.checkNotNullAndNotEmpty(command, "No command");
         this.cwd = cwd;
+        this.shellPool = shellPool;
         interactive = false;
     }
 
-    public SSHProcessFactory(Logger log, File cwd) {
+    public SSHProcessFactory(Logger log, File cwd, ServerMetrics metrics) {
         this.log = log;
+        this.metrics = metrics;
         this.command = OsUtils.resolveDefaultInteractiveCommand();
         this.cwd = cwd;
+        this.shellPool = null;
         interactive = true;
     }
 
@@ -38,7 +51,20 @@ class SSHProcessFactory implements Factory<Command> {
     }
 
     public Command create() {
-        return new InvertedShellWrapper(this.createInvertedShell());
+        if (shellPool != null && shellPool.isEnabled()) {
+            return new PooledShellCommand(shellPool, command, cwd, new Factory<Command>() {
+                @Override
+                public Command create() {
+                    return new ProcessShellCommand(createInvertedShell());
+                }
+
+                @Override
+                public Command get() {
+                    return create();
+                }
+            });
+        }
+        return new ProcessShellCommand(this.createInvertedShell());
     }
 
     @Override
@@ -46,8 +72,9 @@ class SSHProcessFactory implements Factory<Command> {
         return this.create();
     }
 
-    private InvertedShell createInvertedShell() {
-        return new SSHShell(log, cwd, interactive, this.resolveEffectiveCommand(this.getCommand()));
+    private SSHShell createInvertedShell() {
+        Histogram spawns = metrics.histogram(ServerMetrics.PROCESS_SPAWN);
+        return new SSHShell(log, cwd, interactive, this.resolveEffectiveCommand(this.getCommand()), spawns);
     }
 
     private List<String> resolveEffectiveCommand(List<String> original) {
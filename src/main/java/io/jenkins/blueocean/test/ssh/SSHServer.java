@@ -2,16 +2,38 @@ package io.jenkins.blueocean.test.ssh;
 
 import com.google.common.collect.ImmutableList;
 import com.jcraft.jsch.JSch;
+import io.jenkins.blueocean.test.ssh.command.BuiltinCommand;
+import io.jenkins.blueocean.test.ssh.command.BuiltinCommands;
+import io.jenkins.blueocean.test.ssh.command.BuiltinExecCommand;
+import io.jenkins.blueocean.test.ssh.command.CommandExecutor;
+import io.jenkins.blueocean.test.ssh.command.GitContext;
+import io.jenkins.blueocean.test.ssh.command.InMemoryRepositories;
+import io.jenkins.blueocean.test.ssh.command.PackCache;
+import io.jenkins.blueocean.test.ssh.command.PushEvent;
+import io.jenkins.blueocean.test.ssh.command.PushEvents;
 import io.jenkins.blueocean.test.ssh.command.ReceivePackCommand;
+import io.jenkins.blueocean.test.ssh.command.RepositoryCache;
+import io.jenkins.blueocean.test.ssh.command.RepositoryIndex;
+import io.jenkins.blueocean.test.ssh.command.SessionRoot;
+import io.jenkins.blueocean.test.ssh.command.TransferProfile;
+import io.jenkins.blueocean.test.ssh.command.UploadArchiveCommand;
 import io.jenkins.blueocean.test.ssh.command.UploadPackCommand;
-import org.apache.commons.codec.binary.Base64;
+import io.jenkins.blueocean.test.ssh.metrics.ServerMetrics;
+import org.apache.sshd.common.Factory;
 import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.AttributeStore;
 import org.apache.sshd.common.PropertyResolverUtils;
+import org.apache.sshd.common.SshConstants;
+import org.apache.sshd.common.channel.Channel;
 import org.apache.sshd.common.file.nativefs.NativeFileSystemFactory;
 import org.apache.sshd.common.file.root.RootedFileSystemProvider;
+import org.apache.sshd.common.io.DefaultIoServiceFactoryFactory;
+import org.apache.sshd.common.io.IoServiceFactoryFactory;
+import org.apache.sshd.common.kex.KexProposalOption;
 import org.apache.sshd.common.random.JceRandomFactory;
 import org.apache.sshd.common.random.SingletonRandomFactory;
 import org.apache.sshd.common.session.Session;
+import org.apache.sshd.common.session.SessionListener;
 import org.apache.sshd.server.Command;
 import org.apache.sshd.server.CommandFactory;
 import org.apache.sshd.server.SshServer;
@@ -19,26 +41,31 @@ import org.apache.sshd.server.auth.UserAuth;
 import org.apache.sshd.server.auth.pubkey.PublickeyAuthenticator;
 import org.apache.sshd.server.auth.pubkey.UserAuthPublicKeyFactory;
 import org.apache.sshd.server.forward.AcceptAllForwardingFilter;
-import org.apache.sshd.server.keyprovider.AbstractGeneratorHostKeyProvider;
-import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
-import org.apache.sshd.server.scp.ScpCommandFactory;
+import org.apache.sshd.server.scp.ScpCommand;
 import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.server.scp.ScpCommandFactory;
 import org.apache.sshd.server.subsystem.sftp.SftpSubsystemFactory;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.math.BigInteger;
+import java.lang.management.ManagementFactory;
 import java.nio.file.FileSystem;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.PublicKey;
-import java.security.interfaces.RSAPublicKey;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,6 +77,26 @@ public class SSHServer {
     private static final Logger log = Logger.getLogger(SSHServer.class.getName());
 
     private final SshServer sshd;
+    private final ScpCommandFactory scpFactory = new ScpCommandFactory();
+    private final SftpSubsystemFactory sftpFactory = new SftpSubsystemFactory();
+    private final File cwd;
+    private final File keyFile;
+    private HostKeys.Algorithm hostKeyAlgorithm = HostKeys.Algorithm.RSA;
+    private ServerConfig config = ServerConfig.defaults();
+    private CryptoProfile cryptoProfile = CryptoProfile.defaults();
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final GitContext gitContext;
+    private boolean jmxEnabled;
+    private ObjectName mbeanName;
+    private BuiltinCommands builtinCommands = BuiltinCommands.createDefault();
+    private final ConcurrentMap<String, Namespace> namespaces = new ConcurrentHashMap<>();
+    private volatile FileSystem fileSystem;
+    private volatile ShellPool shellPool = ShellPool.disabled();
+    private volatile AdmissionControl admissionControl = AdmissionControl.unlimited();
+    private volatile TrafficShaper trafficShaper = TrafficShaper.disabled();
+    private volatile boolean stopping;
+    // commands, shells and SFTP channels started and not finished yet; notified when one finishes
+    private final Set<Command> running = Collections.newSetFromMap(new ConcurrentHashMap<Command, Boolean>());
 
     /**
      * @param cwd             directory to use as root for serving files
@@ -61,7 +108,7 @@ public class SSHServer {
 
     /**
      * @param cwd             directory to use as root for serving files
-     * @param keyFile         an RSA private key file, or null to generate a new one
+     * @param keyFile         a host key file, created if missing, or null to use a key shared in memory
      * @param authorizedUsers a list of username -&gt; ssh public keys to allow
      */
     private SSHServer(final File cwd, final File keyFile, final Map<String, String> authorizedUsers) {
@@ -70,7 +117,7 @@ public class SSHServer {
 
         /**
          * @param cwd             directory to use as root for serving files
-         * @param keyFile         an RSA private key file, or null to generate a new one
+         * @param keyFile         a host key file, created if missing, or null to use a key shared in memory
          * @param port            port to run the ssh server on, 0 to
          * @param allowLocalUser  allows the local user based on ~/.ssh/id_rsa.pub
          * @param authorizedUsers a list of username -&gt; ssh public keys to allow
@@ -80,67 +127,126 @@ public class SSHServer {
         sshd = SshServer.setUpDefaultServer();
         sshd.setHost("0.0.0.0");
         sshd.setPort(port);
+        this.cwd = cwd;
+        this.gitContext = new GitContext(metrics, cwd);
+
+        // The host key is shared with other servers in this JVM, and generated in the background once started
+        this.keyFile = keyFile;
 
-        // Set up an RSA host key
-        AbstractGeneratorHostKeyProvider hostKeyProvider = keyFile == null ?
-            new SimpleGeneratorHostKeyProvider() :
-            new SimpleGeneratorHostKeyProvider(keyFile);
-        hostKeyProvider.setAlgorithm("RSA");
-        sshd.setKeyPairProvider(hostKeyProvider);
-
-        // Set key exchange factories so recent clients can connect
-//        sshd.setKeyExchangeFactories(Arrays.<NamedFactory<KeyExchange>>asList(
-//            BuiltinDHFactories.dhg14, // this is only registered by default with BC provider... JCE doesn't support 2048 bit?
-//            BuiltinDHFactories.dhg1));
+        // Ciphers, MACs and key exchanges are sshd's until setCryptoProfile
         sshd.setRandomFactory(new SingletonRandomFactory(new JceRandomFactory()));
 
-        sshd.setShellFactory(new SSHProcessFactory(log, cwd));
+        sshd.addSessionListener(new MetricsSessionListener(metrics));
+        sshd.addSessionListener(new AdmissionListener());
+
+        final SSHProcessFactory shellFactory = new SSHProcessFactory(log, cwd, metrics);
+        sshd.setShellFactory(new Factory<Command>() {
+            @Override
+            public Command create() {
+                return MeteredCommand.wrap(metrics.histogram(ServerMetrics.SHELL), running, shellFactory.create());
+            }
+
+            @Override
+            public Command get() {
+                return create();
+            }
+        });
 
         // Set up git + scp command support
-        CommandFactory gitCommandFactory = new GitCommandFactory(cwd);
-        ScpCommandFactory factory = new ScpCommandFactory();
-        factory.setDelegateCommandFactory(gitCommandFactory);
-        sshd.setCommandFactory(factory);
+        CommandFactory gitCommandFactory = new GitCommandFactory();
+        scpFactory.setDelegateCommandFactory(gitCommandFactory);
+        sshd.setCommandFactory(new CommandFactory() {
+            @Override
+            public Command createCommand(String command) {
+                Command created = scpFactory.createCommand(command);
+                String metric = created instanceof ScpCommand ? ServerMetrics.SCP : ServerMetrics.EXEC;
+                // metered including the wait for admission, so a graceful stop waits for queued commands too
+                return MeteredCommand.wrap(metrics.histogram(metric), running,
+                        AdmittedCommand.wrap(admissionControl, AdmissionControl.Kind.COMMAND, created));
+            }
+        });
 
-        // Set up the user's SSH key for authentication
-        PublickeyAuthenticator authenticator = new PublickeyAuthenticator() {
+        // Set up the users' SSH keys for authentication, decoded once here;
+        // users of a namespace are only checked against its own keys
+        final PublickeyAuthenticator authenticator = new AuthorizedKeys(authorizedUsers, allowLocalUser);
+        sshd.setPublickeyAuthenticator(new PublickeyAuthenticator() {
             @Override
             public boolean authenticate(String username, PublicKey key, ServerSession session) {
-                try {
-                    byte[] incoming = encodePublicKey((RSAPublicKey) key);
-                    String incomingHex = Base64.encodeBase64String(incoming);
-                    if (allowLocalUser) {
-                        File localPublicKey = new File(System.getProperty("user.home") + "/.ssh/id_rsa.pub");
-                        if (localPublicKey.canRead() && new String(Files.readAllBytes(localPublicKey.toPath()), "utf-8").contains(incomingHex)) {
-                            return true;
-                        }
-                    }
-                    if (authorizedUsers.containsKey(username)) {
-                        String userPublicKey = authorizedUsers.get(username);
-                        log.fine(" ---- Authentication request for: " + username + " with key: " + incomingHex + " user's public key is: " + userPublicKey);
-                        if (userPublicKey != null && userPublicKey.contains(" ")) {
-                            userPublicKey = userPublicKey.split("\\s")[1];
-                        }
-                        return userPublicKey == null || incomingHex.equals(userPublicKey);
-                    }
+                // refused before the client is told it's authenticated, counted once it is
+                if (stopping) {
+                    disconnect(session, SshConstants.SSH2_DISCONNECT_BY_APPLICATION, "Server stopping");
                     return false;
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
                 }
+                String rejected = admissionControl.reject(AdmissionControl.Kind.SESSION, username);
+                if (rejected != null) {
+                    disconnect(session, SshConstants.SSH2_DISCONNECT_TOO_MANY_CONNECTIONS, rejected);
+                    return false;
+                }
+                Namespace namespace = namespaces.get(username);
+                if (namespace == null) {
+                    return authenticator.authenticate(username, key, session);
+                }
+                if (!namespace.authenticate(username, key, session)) {
+                    return false;
+                }
+                SessionRoot.set(session, namespace.getRoot());
+                return true;
             }
-        };
-        sshd.setPublickeyAuthenticator(authenticator);
+        });
         sshd.setUserAuthFactories(Collections.<NamedFactory<UserAuth>>singletonList(new UserAuthPublicKeyFactory()));
 
-        final RootedFileSystemProvider rootFsProvider = new RootedFileSystemProvider();
         sshd.setFileSystemFactory(new NativeFileSystemFactory() {
             @Override
             public FileSystem createFileSystem(Session session) throws IOException {
-                return rootFsProvider.newFileSystem(cwd.toPath(), Collections.<String, Object>emptyMap());
+                // a provider refuses a second file system for the same root until the first is closed,
+                // which SCP and SFTP only do when they finish, so overlapping commands need their own
+                return new RootedFileSystemProvider().newFileSystem(getRoot(session), Collections.<String, Object>emptyMap());
             }
         });
 
-        sshd.setSubsystemFactories(ImmutableList.<NamedFactory<Command>>of(new SftpSubsystemFactory()));
+        sshd.setSubsystemFactories(ImmutableList.<NamedFactory<Command>>of(new NamedFactory<Command>() {
+            @Override
+            public String getName() {
+                return sftpFactory.getName();
+            }
+
+            @Override
+            public Command create() {
+                return MeteredCommand.wrap(metrics.histogram(ServerMetrics.SFTP), running,
+                        AdmittedCommand.wrap(admissionControl, AdmissionControl.Kind.SFTP, sftpFactory.create()));
+            }
+
+            @Override
+            public Command get() {
+                return create();
+            }
+        }));
+
+        // no new channels once stopping, so a graceful stop only waits for those already open
+        List<NamedFactory<Channel>> channelFactories = new ArrayList<>();
+        for (final NamedFactory<Channel> factory : sshd.getChannelFactories()) {
+            channelFactories.add(new NamedFactory<Channel>() {
+                @Override
+                public String getName() {
+                    return factory.getName();
+                }
+
+                @Override
+                public Channel create() {
+                    if (stopping) {
+                        log.fine("Refused " + factory.getName() + " channel, server stopping");
+                        return null;
+                    }
+                    return factory.create();
+                }
+
+                @Override
+                public Channel get() {
+                    return create();
+                }
+            });
+        }
+        sshd.setChannelFactories(channelFactories);
 
         sshd.setTcpipForwardingFilter(AcceptAllForwardingFilter.INSTANCE);
         PropertyResolverUtils.updateProperty(sshd, "welcome-banner", "Welcome to SSHD\n");
@@ -151,24 +257,569 @@ public class SSHServer {
     }
 
     public void start() throws IOException {
+        stopping = false;
+        // only a key of the algorithm finally set is generated
+        sshd.setKeyPairProvider(HostKeys.getKeyPairProvider(hostKeyAlgorithm, keyFile));
+        trafficShaper.start();
+        if (trafficShaper.isEnabled()) {
+            IoServiceFactoryFactory backend = sshd.getIoServiceFactoryFactory();
+            sshd.setIoServiceFactoryFactory(new ShapedIoServiceFactoryFactory(
+                    backend != null ? backend : new DefaultIoServiceFactoryFactory(), trafficShaper));
+        }
         sshd.start();
+        shellPool.start(cwd, metrics.histogram(ServerMetrics.PROCESS_SPAWN));
+        admissionControl.start(metrics);
+        if (jmxEnabled) {
+            try {
+                ObjectName name = new ObjectName("io.jenkins.blueocean.test.ssh:type=SSHServer,port=" + getPort());
+                metrics.register(ManagementFactory.getPlatformMBeanServer(), name);
+                mbeanName = name;
+            } catch (JMException e) {
+                log.log(Level.WARNING, "Unable to export metrics of server on port " + getPort(), e);
+            }
+        }
     }
 
+    /**
+     * Stops the server at once: sessions are closed, processes started by commands are terminated,
+     * or killed a second later if they ignore it, and git commands interrupted. The server may be
+     * started again.
+     */
     public void stop() throws IOException {
-        sshd.stop();
+        stopping = true;
+        try {
+            // sshd closes the channels without waiting for their commands, which would outlive the server
+            for (Command command : running) {
+                try {
+                    command.destroy();
+                } catch (Exception e) {
+                    log.log(Level.FINE, "Unable to destroy " + command, e);
+                }
+            }
+            sshd.stop(true);
+        } finally {
+            shellPool.shutdown();
+            admissionControl.shutdown();
+            trafficShaper.shutdown();
+            // so the backend isn't shaped twice when the server is started again
+            if (sshd.getIoServiceFactoryFactory() instanceof ShapedIoServiceFactoryFactory) {
+                sshd.setIoServiceFactoryFactory(((ShapedIoServiceFactoryFactory) sshd.getIoServiceFactoryFactory()).getBackend());
+            }
+            gitContext.shutdown();
+            if (mbeanName != null) {
+                metrics.unregister(ManagementFactory.getPlatformMBeanServer(), mbeanName);
+                mbeanName = null;
+            }
+        }
+    }
+
+    /**
+     * Stops the server once the channels running a command, shell or SFTP have finished, refusing new
+     * sessions and channels meanwhile, or at the deadline as {@link #stop()} does
+     *
+     * @param timeout how long to wait for running channels
+     * @param unit    unit of the timeout
+     */
+    public void stop(long timeout, TimeUnit unit) throws IOException {
+        stopping = true;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        try {
+            synchronized (running) {
+                long remaining;
+                while (!running.isEmpty() && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(running, remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * Stops the server at once and starts it again on the same port with the same host key, caches
+     * and pools start out empty; settings, namespaces and in-memory repositories are kept
+     */
+    public void restart() throws IOException {
+        // the port the server was bound to, also when it was started on port 0
+        int port = sshd.getPort();
+        stop();
+        sshd.setPort(port);
+        start();
     }
 
     public int getPort() {
         return sshd.getPort();
     }
 
-    static class GitCommandFactory implements CommandFactory {
-        final File cwd;
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Sets the I/O backend, worker threads, window and packet sizes and transfer buffers, should be called before {@link #start()}
+     *
+     * @param config e.g. {@link ServerConfig#highBandwidth()}
+     * @return this
+     */
+    public SSHServer setConfig(ServerConfig config) {
+        config.apply(sshd, scpFactory, sftpFactory);
+        this.config = config;
+        return this;
+    }
+
+    public CryptoProfile getCryptoProfile() {
+        return cryptoProfile;
+    }
+
+    /**
+     * Sets the ciphers, MACs and key exchanges offered to clients, should be called before {@link #start()}
+     *
+     * @param cryptoProfile e.g. {@link CryptoProfile#fast()} for clients on loopback
+     * @return this server
+     */
+    public SSHServer setCryptoProfile(CryptoProfile cryptoProfile) {
+        cryptoProfile.apply(sshd);
+        this.cryptoProfile = cryptoProfile;
+        return this;
+    }
+
+    /**
+     * @return the host key algorithm
+     */
+    public HostKeys.Algorithm getHostKeyAlgorithm() {
+        return hostKeyAlgorithm;
+    }
+
+    /**
+     * Selects the host key algorithm, should be called before {@link #start()}. EC keys are much faster
+     * to generate and sign with than the default RSA key.
+     *
+     * @param hostKeyAlgorithm algorithm to use
+     * @return this server
+     */
+    public SSHServer setHostKeyAlgorithm(HostKeys.Algorithm hostKeyAlgorithm) {
+        if (hostKeyAlgorithm == null) {
+            throw new IllegalArgumentException("No host key algorithm");
+        }
+        this.hostKeyAlgorithm = hostKeyAlgorithm;
+        return this;
+    }
+
+    public ShellPool getShellPool() {
+        return shellPool;
+    }
+
+    /**
+     * Runs exec commands that aren't git or builtins on pre-started shells, should be called before {@link #start()}
+     *
+     * @param shellPool e.g. <code>new ShellPool(4, 100)</code>, or {@link ShellPool#disabled()} to spawn every command
+     * @return this server
+     */
+    public SSHServer setShellPool(ShellPool shellPool) {
+        if (shellPool == null) {
+            throw new IllegalArgumentException("No shell pool");
+        }
+        this.shellPool.shutdown();
+        this.shellPool = shellPool;
+        return this;
+    }
+
+    public AdmissionControl getAdmissionControl() {
+        return admissionControl;
+    }
+
+    /**
+     * Limits the sessions, exec commands and SFTP channels run at once, in total and per user, should be called
+     * before {@link #start()}
+     *
+     * @param admissionControl e.g. <code>AdmissionControl.builder().commands(32, 4).build()</code>
+     * @return this server
+     */
+    public SSHServer setAdmissionControl(AdmissionControl admissionControl) {
+        if (admissionControl == null) {
+            throw new IllegalArgumentException("No admission control");
+        }
+        this.admissionControl.shutdown();
+        this.admissionControl = admissionControl;
+        return this;
+    }
+
+    public TrafficShaper getTrafficShaper() {
+        return trafficShaper;
+    }
+
+    /**
+     * Delays the traffic of every session as a slower network would, should be called before {@link #start()}
+     *
+     * @param trafficShaper e.g. {@link TrafficShaper#wan()}, or {@link TrafficShaper#disabled()} for none
+     * @return this server
+     */
+    public SSHServer setTrafficShaper(TrafficShaper trafficShaper) {
+        if (trafficShaper == null) {
+            throw new IllegalArgumentException("No traffic shaper");
+        }
+        this.trafficShaper.shutdown();
+        this.trafficShaper = trafficShaper;
+        return this;
+    }
+
+    /**
+     * @return the scheduler running git commands, exposes pool statistics
+     */
+    public CommandExecutor getCommandExecutor() {
+        return gitContext.getCommandExecutor();
+    }
+
+    /**
+     * Replaces the scheduler used to run git commands, should be called before {@link #start()}
+     *
+     * @param commandExecutor executor to use
+     * @return this server
+     */
+    public SSHServer setCommandExecutor(CommandExecutor commandExecutor) {
+        gitContext.setCommandExecutor(commandExecutor);
+        return this;
+    }
+
+    /**
+     * @return the cache of open git repositories served by this server
+     */
+    public RepositoryCache getRepositoryCache() {
+        return gitContext.getRepositoryCache();
+    }
+
+    /**
+     * Replaces the cache of open git repositories, should be called before {@link #start()}
+     *
+     * @param repositoryCache cache to use
+     * @return this server
+     */
+    public SSHServer setRepositoryCache(RepositoryCache repositoryCache) {
+        gitContext.setRepositoryCache(repositoryCache);
+        return this;
+    }
+
+    /**
+     * @return the cache of git-upload-pack responses for repeated clones
+     */
+    public PackCache getPackCache() {
+        return gitContext.getPackCache();
+    }
+
+    /**
+     * Replaces the cache of git-upload-pack responses, {@link PackCache#disabled()} turns caching off
+     *
+     * @param packCache cache to use
+     * @return this server
+     */
+    public SSHServer setPackCache(PackCache packCache) {
+        gitContext.setPackCache(packCache);
+        return this;
+    }
+
+    /**
+     * @return pack settings of repositories without an override
+     */
+    public TransferProfile getTransferProfile() {
+        return gitContext.getTransferProfile();
+    }
+
+    /**
+     * @param transferProfile pack settings for served repositories, e.g. {@link TransferProfile#loopbackFast()}
+     * @return this server
+     */
+    public SSHServer setTransferProfile(TransferProfile transferProfile) {
+        gitContext.setTransferProfile(transferProfile);
+        return this;
+    }
+
+    /**
+     * @param repository      repository path as sent by the client
+     * @param transferProfile pack settings for this repository, or null to use the server's
+     * @return this server
+     */
+    public SSHServer setTransferProfile(String repository, TransferProfile transferProfile) {
+        gitContext.setTransferProfile(repository, transferProfile);
+        return this;
+    }
+
+    /**
+     * @return whether the refs of a push are updated all or nothing, where the repository supports it
+     */
+    public boolean isAtomicRefUpdates() {
+        return gitContext.isAtomicRefUpdates();
+    }
+
+    /**
+     * @param atomicRefUpdates whether the refs of a push are updated all or nothing, on by default
+     * @return this server
+     * @see GitContext#setAtomicRefUpdates(boolean)
+     */
+    public SSHServer setAtomicRefUpdates(boolean atomicRefUpdates) {
+        gitContext.setAtomicRefUpdates(atomicRefUpdates);
+        return this;
+    }
+
+    /**
+     * @return the repositories on disk under the directory given to the constructor
+     * @throws IOException if the directory's canonical path can't be determined
+     */
+    public RepositoryIndex getRepositoryIndex() throws IOException {
+        return gitContext.getRepositoryIndex(cwd);
+    }
+
+    /**
+     * @return whether a push to a repository that doesn't exist creates it
+     */
+    public boolean isAutoCreateRepositories() {
+        return gitContext.isAutoCreateRepositories();
+    }
+
+    /**
+     * Creates a bare repository under the server's or namespace's directory on the first
+     * git-receive-pack to a name that doesn't exist yet, so fixtures needn't run <code>git init</code>
+     *
+     * @param autoCreateRepositories whether pushes create missing repositories, off by default
+     * @return this server
+     */
+    public SSHServer setAutoCreateRepositories(boolean autoCreateRepositories) {
+        gitContext.setAutoCreateRepositories(autoCreateRepositories);
+        return this;
+    }
+
+    /**
+     * @return the most recent pushes, to wait for or subscribe to
+     */
+    public PushEvents getPushEvents() {
+        return gitContext.getPushEvents();
+    }
 
-        GitCommandFactory(File cwd) {
-            this.cwd = cwd;
+    /**
+     * Returns the last push to a repository, waiting for one if there was none yet
+     *
+     * @param repository repository path as sent by the client
+     * @param timeout    how long to wait
+     * @param unit       unit of the timeout
+     * @return the push, or null if there was none before the timeout
+     * @throws InterruptedException if interrupted while waiting
+     * @see PushEvents#awaitPush(String, long, long, TimeUnit)
+     */
+    public PushEvent awaitPush(String repository, long timeout, TimeUnit unit) throws InterruptedException {
+        return gitContext.getPushEvents().awaitPush(repository, timeout, unit);
+    }
+
+    /**
+     * @return counters and latency histograms of this server, {@link ServerMetrics#snapshot()} reads them all
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Exports the metrics as an MBean named "io.jenkins.blueocean.test.ssh:type=SSHServer,port=&lt;port&gt;"
+     * on the platform MBean server while the server runs, should be called before {@link #start()}
+     *
+     * @param jmxEnabled whether to export the metrics
+     * @return this server
+     */
+    public SSHServer setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+        return this;
+    }
+
+    /**
+     * @return a point in time view of the server's settings and counters, for logging
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("port", sshd.isOpen() ? getPort() : -1);
+        stats.put("config", config.getName());
+        stats.put("channelsActive", running.size());
+        stats.put("cryptoProfile", cryptoProfile.getName());
+        stats.put("transferProfile", gitContext.getTransferProfile().getName());
+        Map<String, String> overrides = new LinkedHashMap<>();
+        for (Map.Entry<String, TransferProfile> e : gitContext.getRepositoryTransferProfiles().entrySet()) {
+            overrides.put(e.getKey(), e.getValue().getName());
         }
+        stats.put("repositoryTransferProfiles", overrides);
+        CommandExecutor executor = gitContext.getCommandExecutor();
+        stats.put("commandsSubmitted", executor.getSubmittedCount());
+        stats.put("commandsActive", executor.getActiveCount());
+        stats.put("commandsRejected", executor.getRejectedCount());
+        AdmissionControl admission = admissionControl;
+        for (AdmissionControl.Kind kind : AdmissionControl.Kind.values()) {
+            String name = kind.name().toLowerCase(Locale.ENGLISH);
+            stats.put(name + "Active", admission.getActiveCount(kind));
+            stats.put(name + "Queued", admission.getQueuedCount(kind));
+            stats.put(name + "Rejected", admission.getRejectedCount(kind));
+        }
+        stats.put("trafficShaper", trafficShaper.getName());
+        stats.put("shapedSessions", trafficShaper.getSessionCount());
+        stats.put("shapedStalls", trafficShaper.getStallCount());
+        stats.put("shellPoolRuns", shellPool.getRunCount());
+        stats.put("shellPoolFallbacks", shellPool.getFallbackCount());
+        RepositoryCache repositoryCache = gitContext.getRepositoryCache();
+        stats.put("repositoryCacheHits", repositoryCache.getHitCount());
+        stats.put("repositoryCacheMisses", repositoryCache.getMissCount());
+        PackCache packCache = gitContext.getPackCache();
+        stats.put("packCacheHits", packCache.getHitCount());
+        stats.put("packCacheMisses", packCache.getMissCount());
+        stats.put("packCacheBytes", packCache.getSize());
+        stats.put("pushes", gitContext.getPushEvents().getLastSequence());
+        return stats;
+    }
+
+    /**
+     * Roots the sessions of some users in their own directory, so one started
+     * server can be shared by many tests. Namespaced users are authenticated
+     * against the keys given here only. In-memory repositories, caches and
+     * metrics remain shared by all namespaces.
+     *
+     * @param root            directory to use as root for these users' sessions
+     * @param authorizedUsers a list of username -&gt; ssh public keys to allow, names must not be used by other namespaces
+     * @return the namespace, to pass to {@link #removeNamespace(Namespace)} when done
+     */
+    public synchronized Namespace addNamespace(File root, Map<String, String> authorizedUsers) {
+        Namespace namespace = new Namespace(root, authorizedUsers);
+        for (String user : namespace.getUsers()) {
+            if (namespaces.containsKey(user)) {
+                throw new IllegalArgumentException("User " + user + " already belongs to " + namespaces.get(user));
+            }
+        }
+        for (String user : namespace.getUsers()) {
+            namespaces.put(user, namespace);
+        }
+        return namespace;
+    }
+
+    /**
+     * Removes the namespace's users, sessions they already opened stay rooted in its directory
+     */
+    public synchronized void removeNamespace(Namespace namespace) {
+        for (String user : namespace.getUsers()) {
+            namespaces.remove(user, namespace);
+        }
+        gitContext.removeRepositoryIndex(namespace.getRoot());
+    }
+
+    /**
+     * @return git repositories served from memory, looked up before the ones on disk
+     */
+    public InMemoryRepositories getInMemoryRepositories() {
+        return gitContext.getInMemoryRepositories();
+    }
 
+    /**
+     * @return the exec commands run in the JVM instead of forking a process, may be modified
+     */
+    public BuiltinCommands getBuiltinCommands() {
+        return builtinCommands;
+    }
+
+    /**
+     * Replaces the exec commands run in the JVM, use {@link BuiltinCommands#empty()} to always fork a process
+     *
+     * @param builtinCommands builtins to use
+     * @return this server
+     */
+    public SSHServer setBuiltinCommands(BuiltinCommands builtinCommands) {
+        if (builtinCommands == null) {
+            throw new IllegalArgumentException("No builtin commands");
+        }
+        this.builtinCommands = builtinCommands;
+        return this;
+    }
+
+    /**
+     * @return the file system served instead of the directory, or null
+     */
+    public FileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    /**
+     * Serves the files of another file system, e.g. a {@link io.jenkins.blueocean.test.ssh.fs.MemoryFileSystem},
+     * to SCP, SFTP and builtin commands. Git repositories, shells and forked commands still use the
+     * directory given to the constructor, and namespaces their own directories. The file system is
+     * not closed by the server.
+     *
+     * @param fileSystem file system whose root is served, or null to serve the directory again
+     * @return this server
+     */
+    public SSHServer setFileSystem(FileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+        return this;
+    }
+
+    /**
+     * @param session session, or null for the default root
+     * @return root of the files served to the session
+     */
+    private Path getRoot(Session session) {
+        File namespaceRoot = SessionRoot.get(session, null);
+        if (namespaceRoot != null) {
+            return namespaceRoot.toPath();
+        }
+        FileSystem fs = fileSystem;
+        return fs != null ? fs.getPath("/") : cwd.toPath();
+    }
+
+    private static void disconnect(Session session, int code, String reason) {
+        try {
+            session.disconnect(code, reason);
+        } catch (IOException e) {
+            log.log(Level.FINE, "Unable to disconnect " + session, e);
+        }
+    }
+
+    /**
+     * Counts authenticated sessions against the admission control's limits
+     */
+    class AdmissionListener implements SessionListener {
+        private final AttributeStore.AttributeKey<AdmissionControl.Permit> permitKey = new AttributeStore.AttributeKey<>();
+
+        @Override
+        public void sessionCreated(Session session) {
+        }
+
+        @Override
+        public void sessionNegotiationStart(Session session, Map<KexProposalOption, String> clientProposal, Map<KexProposalOption, String> serverProposal) {
+        }
+
+        @Override
+        public void sessionNegotiationEnd(Session session, Map<KexProposalOption, String> clientProposal, Map<KexProposalOption, String> serverProposal, Map<KexProposalOption, String> negotiatedOptions, Throwable reason) {
+        }
+
+        @Override
+        public void sessionEvent(Session session, Event event) {
+            if (event != Event.Authenticated) {
+                return;
+            }
+            AdmissionControl.Permit permit = admissionControl.newPermit(AdmissionControl.Kind.SESSION, session.getUsername());
+            if (permit.request(null) == AdmissionControl.State.ADMITTED) {
+                session.setAttribute(permitKey, permit);
+            } else {
+                // another session of the user was authenticated meanwhile
+                disconnect(session, SshConstants.SSH2_DISCONNECT_TOO_MANY_CONNECTIONS, permit.getReason());
+            }
+        }
+
+        @Override
+        public void sessionException(Session session, Throwable t) {
+        }
+
+        @Override
+        public void sessionClosed(Session session) {
+            AdmissionControl.Permit permit = session.removeAttribute(permitKey);
+            if (permit != null) {
+                permit.release();
+            }
+        }
+    }
+
+    class GitCommandFactory implements CommandFactory {
         @Override
         public Command createCommand(String command) {
             log.fine("Incoming command: " + command);
@@ -180,27 +831,26 @@ public class SSHServer {
             }
             String main = cmd.iterator().next();
             if ("git-receive-pack".equals(main))
-                return new ReceivePackCommand(cmd);
+                return new ReceivePackCommand(cmd, gitContext);
             if ("git-upload-pack".equals(main))
-                return new UploadPackCommand(cmd);
-            return new SSHProcessFactory(log, cwd, cmd).create();
+                return new UploadPackCommand(cmd, gitContext);
+            if ("git-upload-archive".equals(main))
+                return new UploadArchiveCommand(cmd, gitContext);
+            SSHProcessFactory process = new SSHProcessFactory(log, cwd, cmd, metrics, shellPool);
+            // its arguments are checked once the session's root is known
+            BuiltinCommand builtin = builtinCommands.lookup(cmd);
+            if (builtin != null)
+                return new BuiltinExecCommand(cmd, gitContext.getCommandExecutor(), metrics, builtin, process);
+            return process.create();
         }
     }
 
     /**
-     * Utility to generate an SSH-style private key
+     * Utility to generate an SSH-style private key, taken from {@link KeyPairPool#getDefault()}
      * @return encoded private key
      */
     public static String generatePrivateKey() {
-        try {
-            JSch jsch = new JSch();
-            com.jcraft.jsch.KeyPair pair = com.jcraft.jsch.KeyPair.genKeyPair(jsch, com.jcraft.jsch.KeyPair.RSA, 2048);
-            ByteArrayOutputStream keyOut = new ByteArrayOutputStream();
-            pair.writePrivateKey(keyOut);
-            return new String(keyOut.toByteArray(), "utf-8");
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        return KeyPairPool.getDefault().take().getPrivateKey();
     }
 
     /**
@@ -209,6 +859,10 @@ public class SSHServer {
      * @return corresponding public key with 'auto@generated' comment
      */
     public static String getPublicKey(String privateKey) {
+        String publicKey = KeyPairPool.findPublicKey(privateKey);
+        if (publicKey != null) {
+            return publicKey;
+        }
         try {
             JSch jsch = new JSch();
             com.jcraft.jsch.KeyPair pair = com.jcraft.jsch.KeyPair.load(jsch, privateKey.getBytes("utf-8"), null);
@@ -219,41 +873,4 @@ public class SSHServer {
             throw new RuntimeException(e);
         }
     }
-
-    /**
-     * Encodes the public key according to some spec somewhere
-     *
-     * @param key public key to use
-     * @return the ssh-rsa bytes
-     */
-    private static byte[] encodePublicKey(RSAPublicKey key) {
-        try {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            /* encode the "ssh-rsa" string */
-            byte[] sshrsa = new byte[]{0, 0, 0, 7, 's', 's', 'h', '-', 'r', 's', 'a'};
-            out.write(sshrsa);
-            /* Encode the public exponent */
-            BigInteger e = key.getPublicExponent();
-            byte[] data = e.toByteArray();
-            encodeUInt32(data.length, out);
-            out.write(data);
-            /* Encode the modulus */
-            BigInteger m = key.getModulus();
-            data = m.toByteArray();
-            encodeUInt32(data.length, out);
-            out.write(data);
-            return out.toByteArray();
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
-        }
-    }
-
-    private static void encodeUInt32(int value, OutputStream out) throws IOException {
-        byte[] tmp = new byte[4];
-        tmp[0] = (byte) ((value >>> 24) & 0xff);
-        tmp[1] = (byte) ((value >>> 16) & 0xff);
-        tmp[2] = (byte) ((value >>> 8) & 0xff);
-        tmp[3] = (byte) (value & 0xff);
-        out.write(tmp);
-    }
 }
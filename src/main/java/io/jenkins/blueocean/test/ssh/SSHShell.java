@@ -1,5 +1,7 @@
 package io.jenkins.blueocean.test.ssh;
 
+import io.jenkins.blueocean.test.ssh.command.SessionRoot;
+import io.jenkins.blueocean.test.ssh.metrics.Histogram;
 import org.apache.sshd.common.channel.PtyMode;
 import org.apache.sshd.common.util.GenericUtils;
 import org.apache.sshd.common.util.OsUtils;
@@ -17,28 +19,55 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 class SSHShell implements InvertedShell, ServerSessionHolder {
+    // how long a destroyed process is given to exit before it is killed
+    private static final long KILL_DELAY_MILLIS = 1000;
+    // Process#destroyForcibly() of Java 8, null before; destroy() only sends SIGTERM
+    private static final Method destroyForcibly = findDestroyForcibly();
+    // kills destroyed processes which are still running, so destroy() doesn't wait for them
+    private static final ScheduledThreadPoolExecutor reaper = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "SSH process reaper");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    static {
+        reaper.setKeepAliveTime(1, TimeUnit.MINUTES);
+        reaper.allowCoreThreadTimeOut(true);
+    }
+
     private final Logger log;
     private final List<String> command;
     private final File cwd;
     private String cmdValue;
     private ServerSession session;
-    private Process process;
-    private TtyFilterOutputStream in;
-    private TtyFilterInputStream out;
-    private TtyFilterInputStream err;
+    private volatile Process process;
+    private OutputStream in;
+    private InputStream out;
+    private InputStream err;
     private final boolean interactive;
-    private int exitValue;
+    private final Histogram spawns;
+    private final AtomicBoolean destroyed = new AtomicBoolean();
 
-    public SSHShell(Logger log, File cwd, boolean interactive, List<String> command) {
+    public SSHShell(Logger log, File cwd, boolean interactive, List<String> command, Histogram spawns) {
         this.log = log;
+        this.spawns = spawns;
         this.command = new ArrayList<>(ValidateUtils.checkNotNullAndNotEmpty(command, "No process shell command(s)"));
         this.cmdValue = GenericUtils.join(command, ' ');
         this.cwd = cwd;
@@ -68,7 +97,7 @@ class SSHShell implements InvertedShell, ServerSessionHolder {
         }
 
         ProcessBuilder builder = new ProcessBuilder(this.command);
-        builder.directory(cwd);
+        builder.directory(SessionRoot.get(session, cwd));
         Map modes;
         if (GenericUtils.size(varsMap) > 0) {
             try {
@@ -82,24 +111,33 @@ class SSHShell implements InvertedShell, ServerSessionHolder {
 
         this.log.fine("Starting shell with command: '" + builder.command() + "' and env: " + builder.environment());
 
+        long started = System.nanoTime();
         this.process = builder.start();
-        modes = this.resolveShellTtyOptions(env.getPtyModes());
+        spawns.recordSince(started);
+
+        if (!interactive) {
+            // exec: pass the bytes through untouched, no tty to emulate
+            this.out = this.process.getInputStream();
+            this.err = this.process.getErrorStream();
+            this.in = this.process.getOutputStream();
+            return;
+        }
 
-        if (interactive) {
-            if (OsUtils.isUNIX()) {
-                modes.put(PtyMode.ECHO, 0);
-                modes.put(PtyMode.ONLCR, 1);
-                modes.put(PtyMode.ECHOCTL, 1);
-            } else {
-                modes.put(PtyMode.ECHO, 1);
-                modes.put(PtyMode.ICRNL, 1);
-                modes.put(PtyMode.ONLCR, 1);
-            }
+        modes = this.resolveShellTtyOptions(env.getPtyModes());
+        if (OsUtils.isUNIX()) {
+            modes.put(PtyMode.ECHO, 0);
+            modes.put(PtyMode.ONLCR, 1);
+            modes.put(PtyMode.ECHOCTL, 1);
+        } else {
+            modes.put(PtyMode.ECHO, 1);
+            modes.put(PtyMode.ICRNL, 1);
+            modes.put(PtyMode.ONLCR, 1);
         }
 
+        TtyFilterInputStream filteredErr = new TtyFilterInputStream(this.process.getErrorStream(), modes);
         this.out = new TtyFilterInputStream(this.process.getInputStream(), modes);
-        this.err = new TtyFilterInputStream(this.process.getErrorStream(), modes);
-        this.in = new TtyFilterOutputStream(this.process.getOutputStream(), this.err, modes);
+        this.err = filteredErr;
+        this.in = new TtyFilterOutputStream(this.process.getOutputStream(), filteredErr, modes);
     }
 
     private Map<String, String> resolveShellEnvironment(Map<String, String> env) {
@@ -123,27 +161,39 @@ class SSHShell implements InvertedShell, ServerSessionHolder {
     }
 
     public boolean isAlive() {
-        return this.process != null;
+        return this.process != null && !this.destroyed.get();
     }
 
+    /**
+     * Waits for the process, which a moment after {@link #destroy()} is killed if it didn't exit
+     */
     public int exitValue() {
-        if (this.isAlive()) {
+        Process process = this.process;
+        if (process != null) {
             try {
-                return this.process.waitFor();
+                return process.waitFor();
             } catch (InterruptedException var2) {
                 throw new RuntimeException(var2);
             }
         } else {
-            return this.exitValue;
+            return 0;
         }
     }
 
+    /**
+     * Sends the process SIGTERM and returns, it is killed after {@link #KILL_DELAY_MILLIS} if still running
+     */
     public void destroy() {
-        if (this.process != null) {
+        final Process process = this.process;
+        if (process != null && this.destroyed.compareAndSet(false, true)) {
             this.log.fine("Destroy process for " + this.cmdValue);
-            this.process.destroy();
-            this.exitValue = this.process.exitValue();
-            this.process = null;
+            process.destroy();
+            reaper.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    kill(process);
+                }
+            }, KILL_DELAY_MILLIS, TimeUnit.MILLISECONDS);
         }
 
         IOException e = IoUtils.closeQuietly(this.getInputStream(), this.getOutputStream(), this.getErrorStream());
@@ -159,4 +209,31 @@ class SSHShell implements InvertedShell, ServerSessionHolder {
     public String toString() {
         return GenericUtils.isEmpty(this.cmdValue) ? super.toString() : this.cmdValue;
     }
+
+    private void kill(Process process) {
+        try {
+            process.exitValue();
+            return;
+        } catch (IllegalThreadStateException e) {
+            // still running
+        }
+        if (destroyForcibly == null) {
+            this.log.warning("Unable to kill " + this.cmdValue + ", it ignored SIGTERM");
+            return;
+        }
+        this.log.fine("Killing " + this.cmdValue + ", it ignored SIGTERM");
+        try {
+            destroyForcibly.invoke(process);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            this.log.log(Level.WARNING, "Unable to kill " + this.cmdValue, e);
+        }
+    }
+
+    private static Method findDestroyForcibly() {
+        try {
+            return Process.class.getMethod("destroyForcibly");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
 }
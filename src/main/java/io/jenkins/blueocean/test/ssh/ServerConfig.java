@@ -0,0 +1,310 @@
+package io.jenkins.blueocean.test.ssh;
+
+import io.jenkins.blueocean.test.ssh.transfer.BufferPool;
+import io.jenkins.blueocean.test.ssh.transfer.BufferedScpFileOpener;
+import io.jenkins.blueocean.test.ssh.transfer.BufferedSftpFileSystemAccessor;
+import org.apache.sshd.common.FactoryManager;
+import org.apache.sshd.common.PropertyResolverUtils;
+import org.apache.sshd.common.io.BuiltinIoServiceFactoryFactories;
+import org.apache.sshd.common.io.nio2.Nio2Session;
+import org.apache.sshd.common.scp.ScpHelper;
+import org.apache.sshd.common.scp.helpers.DefaultScpFileOpener;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.scp.ScpCommandFactory;
+import org.apache.sshd.server.subsystem.sftp.SftpFileSystemAccessor;
+import org.apache.sshd.server.subsystem.sftp.SftpSubsystemFactory;
+
+/**
+ * I/O settings of the server: the sshd I/O backend, its worker threads, the
+ * channel window, the packet size and the buffers of SCP and SFTP transfers. Build one with {@link #builder()} or
+ * start from a preset:
+ * <ul>
+ * <li>{@link #defaults()} keeps sshd's settings</li>
+ * <li>{@link #highConcurrency()} for many short sessions at once, e.g. parallel CI jobs</li>
+ * <li>{@link #highBandwidth()} for few sessions moving large files on loopback, with buffered file transfers</li>
+ * </ul>
+ *
+ * @see SSHServer#setConfig(ServerConfig)
+ */
+public final class ServerConfig {
+    public static final String DEFAULTS = "defaults";
+    public static final String HIGH_CONCURRENCY = "high-concurrency";
+    public static final String HIGH_BANDWIDTH = "high-bandwidth";
+
+    private static final int CPUS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Implementations of sshd's network layer
+     */
+    public enum IoBackend {
+        /** java.nio asynchronous channels, built in */
+        NIO2(BuiltinIoServiceFactoryFactories.NIO2, null),
+        /** Apache MINA, needs mina-core on the class path */
+        MINA(BuiltinIoServiceFactoryFactories.NMINA, "org.apache.mina.core.service.IoAcceptor");
+
+        private final BuiltinIoServiceFactoryFactories factory;
+        private final String requiredClass;
+
+        IoBackend(BuiltinIoServiceFactoryFactories factory, String requiredClass) {
+            this.factory = factory;
+            this.requiredClass = requiredClass;
+        }
+
+        /**
+         * @return whether the libraries of this backend can be loaded
+         */
+        public boolean isAvailable() {
+            if (requiredClass == null) {
+                return true;
+            }
+            try {
+                Class.forName(requiredClass, false, IoBackend.class.getClassLoader());
+                return true;
+            } catch (ClassNotFoundException | LinkageError e) {
+                return false;
+            }
+        }
+    }
+
+    private final String name;
+    private final IoBackend ioBackend;
+    private final int nioWorkers;
+    private final long windowSize;
+    private final long maxPacketSize;
+    private final int readBufferSize;
+    private final int transferBufferSize;
+
+    private ServerConfig(Builder builder) {
+        this.name = builder.name;
+        this.ioBackend = builder.ioBackend;
+        this.nioWorkers = builder.nioWorkers;
+        this.windowSize = builder.windowSize;
+        this.maxPacketSize = builder.maxPacketSize;
+        this.readBufferSize = builder.readBufferSize;
+        this.transferBufferSize = builder.transferBufferSize;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return sshd's settings: NIO2, one worker per CPU plus one, 2MB window, 32KB packets
+     */
+    public static ServerConfig defaults() {
+        return builder().build();
+    }
+
+    /**
+     * Twice the workers, so slow handshakes don't hold up other sessions. Measured on a single CPU,
+     * with ConcurrencyBenchmark, it performs like {@link #defaults()}; compare the two on the host it runs on.
+     *
+     * @return twice the workers
+     */
+    public static ServerConfig highConcurrency() {
+        return builder()
+                .name(HIGH_CONCURRENCY)
+                .nioWorkers(2 * CPUS + 1)
+                .build();
+    }
+
+    /**
+     * @return 16MB window, 64KB packets and reads, so transfers don't stall waiting for window adjustments,
+     * and files read and written 1MB at a time
+     */
+    public static ServerConfig highBandwidth() {
+        return builder()
+                .name(HIGH_BANDWIDTH)
+                .windowSize(16 * 1024 * 1024)
+                .maxPacketSize(64 * 1024)
+                .readBufferSize(64 * 1024)
+                .transferBufferSize(1024 * 1024)
+                .build();
+    }
+
+    /**
+     * @param name {@link #DEFAULTS}, {@link #HIGH_CONCURRENCY} or {@link #HIGH_BANDWIDTH}
+     * @return the preset
+     */
+    public static ServerConfig forName(String name) {
+        if (DEFAULTS.equals(name)) {
+            return defaults();
+        }
+        if (HIGH_CONCURRENCY.equals(name)) {
+            return highConcurrency();
+        }
+        if (HIGH_BANDWIDTH.equals(name)) {
+            return highBandwidth();
+        }
+        throw new IllegalArgumentException("Unknown server config: " + name);
+    }
+
+    /**
+     * @return a builder with the settings of this config, to derive another one
+     */
+    public Builder toBuilder() {
+        return builder()
+                .name(name)
+                .ioBackend(ioBackend)
+                .nioWorkers(nioWorkers)
+                .windowSize(windowSize)
+                .maxPacketSize(maxPacketSize)
+                .readBufferSize(readBufferSize)
+                .transferBufferSize(transferBufferSize);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public IoBackend getIoBackend() {
+        return ioBackend;
+    }
+
+    public int getNioWorkers() {
+        return nioWorkers;
+    }
+
+    public long getWindowSize() {
+        return windowSize;
+    }
+
+    public long getMaxPacketSize() {
+        return maxPacketSize;
+    }
+
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    /**
+     * @return bytes SCP and SFTP read or write from files at once, 0 for sshd's plain streams
+     */
+    public int getTransferBufferSize() {
+        return transferBufferSize;
+    }
+
+    void apply(SshServer sshd, ScpCommandFactory scp, SftpSubsystemFactory sftp) {
+        sshd.setIoServiceFactoryFactory(ioBackend.factory.create());
+        sshd.setNioWorkers(nioWorkers);
+        PropertyResolverUtils.updateProperty(sshd, FactoryManager.WINDOW_SIZE, windowSize);
+        PropertyResolverUtils.updateProperty(sshd, FactoryManager.MAX_PACKET_SIZE, maxPacketSize);
+        PropertyResolverUtils.updateProperty(sshd, FactoryManager.NIO2_READ_BUFFER_SIZE, readBufferSize);
+        if (transferBufferSize > 0) {
+            // one buffer per file being transferred, keep enough for a transfer on each worker
+            BufferPool pool = new BufferPool(transferBufferSize, nioWorkers);
+            scp.setScpFileOpener(new BufferedScpFileOpener(pool));
+            // SCP copies between the file and the channel with arrays of these sizes, a packet at a time is enough
+            scp.setSendBufferSize((int) maxPacketSize);
+            scp.setReceiveBufferSize((int) maxPacketSize);
+            sftp.setFileSystemAccessor(new BufferedSftpFileSystemAccessor(pool));
+        } else {
+            scp.setScpFileOpener(DefaultScpFileOpener.INSTANCE);
+            scp.setSendBufferSize(ScpHelper.DEFAULT_SEND_BUFFER_SIZE);
+            scp.setReceiveBufferSize(ScpHelper.DEFAULT_RECEIVE_BUFFER_SIZE);
+            sftp.setFileSystemAccessor(SftpFileSystemAccessor.DEFAULT);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + "[io=" + ioBackend
+                + ", nioWorkers=" + nioWorkers
+                + ", windowSize=" + windowSize
+                + ", maxPacketSize=" + maxPacketSize
+                + ", readBufferSize=" + readBufferSize
+                + ", transferBufferSize=" + transferBufferSize + "]";
+    }
+
+    public static final class Builder {
+        private String name = DEFAULTS;
+        private IoBackend ioBackend = IoBackend.NIO2;
+        private int nioWorkers = FactoryManager.DEFAULT_NIO_WORKERS;
+        private long windowSize = FactoryManager.DEFAULT_WINDOW_SIZE;
+        private long maxPacketSize = FactoryManager.DEFAULT_MAX_PACKET_SIZE;
+        private int readBufferSize = Nio2Session.DEFAULT_READBUF_SIZE;
+        private int transferBufferSize;
+
+        private Builder() {
+        }
+
+        /**
+         * @param name reported in stats
+         */
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public Builder ioBackend(IoBackend ioBackend) {
+            this.ioBackend = ioBackend;
+            return this;
+        }
+
+        /**
+         * @param nioWorkers threads reading and writing the sockets of all sessions
+         */
+        public Builder nioWorkers(int nioWorkers) {
+            this.nioWorkers = nioWorkers;
+            return this;
+        }
+
+        /**
+         * @param windowSize bytes a client may send on a channel before waiting for the server to consume them
+         */
+        public Builder windowSize(long windowSize) {
+            this.windowSize = windowSize;
+            return this;
+        }
+
+        /**
+         * @param maxPacketSize largest data packet a client may send on a channel
+         */
+        public Builder maxPacketSize(long maxPacketSize) {
+            this.maxPacketSize = maxPacketSize;
+            return this;
+        }
+
+        /**
+         * @param readBufferSize bytes read from a socket at once, NIO2 only
+         */
+        public Builder readBufferSize(int readBufferSize) {
+            this.readBufferSize = readBufferSize;
+            return this;
+        }
+
+        /**
+         * @param transferBufferSize bytes SCP and SFTP read or write from files at once through pooled direct buffers,
+         *                           0 to use sshd's plain file streams
+         */
+        public Builder transferBufferSize(int transferBufferSize) {
+            this.transferBufferSize = transferBufferSize;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if a value is out of range or the backend is not available
+         */
+        public ServerConfig build() {
+            if (name == null || ioBackend == null) {
+                throw new IllegalArgumentException("Name and I/O backend are required");
+            }
+            if (!ioBackend.isAvailable()) {
+                throw new IllegalArgumentException("I/O backend " + ioBackend + " is not on the class path");
+            }
+            if (nioWorkers < 1) {
+                throw new IllegalArgumentException("At least one NIO worker is required: " + nioWorkers);
+            }
+            if (maxPacketSize < 1024 || maxPacketSize > windowSize) {
+                throw new IllegalArgumentException("Max packet size must be at least 1024 and at most the window size: " + maxPacketSize);
+            }
+            if (readBufferSize < 1024) {
+                throw new IllegalArgumentException("Read buffer size must be at least 1024: " + readBufferSize);
+            }
+            if (transferBufferSize != 0 && transferBufferSize < 1024) {
+                throw new IllegalArgumentException("Transfer buffer size must be 0 or at least 1024: " + transferBufferSize);
+            }
+            return new ServerConfig(this);
+        }
+    }
+}
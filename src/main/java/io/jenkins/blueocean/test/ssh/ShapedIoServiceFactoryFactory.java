@@ -0,0 +1,144 @@
+package io.jenkins.blueocean.test.ssh;
+
+import org.apache.sshd.common.FactoryManager;
+import org.apache.sshd.common.future.CloseFuture;
+import org.apache.sshd.common.future.SshFutureListener;
+import org.apache.sshd.common.io.IoAcceptor;
+import org.apache.sshd.common.io.IoConnector;
+import org.apache.sshd.common.io.IoHandler;
+import org.apache.sshd.common.io.IoServiceFactory;
+import org.apache.sshd.common.io.IoServiceFactoryFactory;
+import org.apache.sshd.common.io.IoSession;
+import org.apache.sshd.common.util.Readable;
+
+import java.io.IOException;
+
+/**
+ * The I/O backend of a server with a {@link TrafficShaper}: connections the
+ * backend accepts are handed to sshd as {@link ShapedIoSession}s.
+ */
+class ShapedIoServiceFactoryFactory implements IoServiceFactoryFactory {
+    private final IoServiceFactoryFactory backend;
+    private final TrafficShaper shaper;
+
+    ShapedIoServiceFactoryFactory(IoServiceFactoryFactory backend, TrafficShaper shaper) {
+        this.backend = backend;
+        this.shaper = shaper;
+    }
+
+    /**
+     * @return the backend the connections are accepted with
+     */
+    IoServiceFactoryFactory getBackend() {
+        return backend;
+    }
+
+    @Override
+    public IoServiceFactory create(FactoryManager manager) {
+        return new Factory(backend.create(manager), shaper);
+    }
+
+    private static final class Factory implements IoServiceFactory {
+        private final IoServiceFactory factory;
+        private final TrafficShaper shaper;
+
+        Factory(IoServiceFactory factory, TrafficShaper shaper) {
+            this.factory = factory;
+            this.shaper = shaper;
+        }
+
+        @Override
+        public IoConnector createConnector(IoHandler handler) {
+            return factory.createConnector(handler);
+        }
+
+        @Override
+        public IoAcceptor createAcceptor(IoHandler handler) {
+            return factory.createAcceptor(new Handler(handler, shaper));
+        }
+
+        @Override
+        public CloseFuture close(boolean immediately) {
+            return factory.close(immediately);
+        }
+
+        @Override
+        public void close() throws IOException {
+            factory.close();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return factory.isOpen();
+        }
+
+        @Override
+        public void addCloseFutureListener(SshFutureListener<CloseFuture> listener) {
+            factory.addCloseFutureListener(listener);
+        }
+
+        @Override
+        public void removeCloseFutureListener(SshFutureListener<CloseFuture> listener) {
+            factory.removeCloseFutureListener(listener);
+        }
+
+        @Override
+        public boolean isClosed() {
+            return factory.isClosed();
+        }
+
+        @Override
+        public boolean isClosing() {
+            return factory.isClosing();
+        }
+    }
+
+    /**
+     * Passes the events of a connection on as those of its shaped session
+     */
+    private static final class Handler implements IoHandler {
+        private final IoHandler handler;
+        private final TrafficShaper shaper;
+
+        Handler(IoHandler handler, TrafficShaper shaper) {
+            this.handler = handler;
+            this.shaper = shaper;
+        }
+
+        @Override
+        public void sessionCreated(IoSession session) throws Exception {
+            ShapedIoSession shaped = ShapedIoSession.create(session, handler, shaper);
+            handler.sessionCreated(shaped != null ? shaped : session);
+        }
+
+        @Override
+        public void sessionClosed(IoSession session) throws Exception {
+            ShapedIoSession shaped = ShapedIoSession.get(session);
+            if (shaped != null) {
+                shaped.closed();
+            } else {
+                handler.sessionClosed(session);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(IoSession session, Throwable cause) throws Exception {
+            ShapedIoSession shaped = ShapedIoSession.get(session);
+            if (shaped != null) {
+                shaped.caught(cause);
+            } else {
+                handler.exceptionCaught(session, cause);
+            }
+        }
+
+        @Override
+        public void messageReceived(IoSession session, Readable message) throws Exception {
+            ShapedIoSession shaped = ShapedIoSession.get(session);
+            if (shaped != null) {
+                shaped.received(message);
+            } else {
+                handler.messageReceived(session, message);
+            }
+        }
+    }
+}
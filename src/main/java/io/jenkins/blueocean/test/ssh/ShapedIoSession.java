@@ -0,0 +1,231 @@
+package io.jenkins.blueocean.test.ssh;
+
+import org.apache.sshd.common.future.CloseFuture;
+import org.apache.sshd.common.future.DefaultCloseFuture;
+import org.apache.sshd.common.future.SshFutureListener;
+import org.apache.sshd.common.io.AbstractIoWriteFuture;
+import org.apache.sshd.common.io.IoHandler;
+import org.apache.sshd.common.io.IoService;
+import org.apache.sshd.common.io.IoSession;
+import org.apache.sshd.common.io.IoWriteFuture;
+import org.apache.sshd.common.util.Readable;
+import org.apache.sshd.common.util.buffer.Buffer;
+import org.apache.sshd.common.util.buffer.ByteArrayBuffer;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The connection as sshd's session sees it: bytes received from the client
+ * reach the session after going over the upload link of the
+ * {@link TrafficShaper}, and bytes written go to the client after going over
+ * the download link. Attributes are those of the connection.
+ */
+class ShapedIoSession implements IoSession {
+    private static final Logger log = Logger.getLogger(ShapedIoSession.class.getName());
+    // attribute of the connection holding its shaped session
+    private static final Object KEY = new Object();
+
+    private final IoSession session;
+    private final IoHandler handler;
+    private final TrafficShaper.Link upload;
+    private final TrafficShaper.Link download;
+    private volatile boolean closed;
+
+    private ShapedIoSession(IoSession session, IoHandler handler, TrafficShaper.Link upload, TrafficShaper.Link download) {
+        this.session = session;
+        this.handler = handler;
+        this.upload = upload;
+        this.download = download;
+    }
+
+    /**
+     * @return the connection's shaped session, null if the shaper isn't started
+     */
+    static ShapedIoSession create(IoSession session, IoHandler handler, TrafficShaper shaper) {
+        TrafficShaper.Link upload = shaper.newLink(true);
+        TrafficShaper.Link download = shaper.newLink(false);
+        if (upload == null || download == null) {
+            return null;
+        }
+        ShapedIoSession shaped = new ShapedIoSession(session, handler, upload, download);
+        session.setAttribute(KEY, shaped);
+        return shaped;
+    }
+
+    /**
+     * @return the shaped session of a connection, null if it isn't shaped
+     */
+    static ShapedIoSession get(IoSession session) {
+        return (ShapedIoSession) session.getAttribute(KEY);
+    }
+
+    /**
+     * Hands bytes from the client to sshd once they went over the upload link
+     */
+    void received(Readable message) {
+        int size = message.available();
+        byte[] data = new byte[size];
+        message.getRawBytes(data, 0, size);
+        final Buffer buffer = new ByteArrayBuffer(data);
+        upload.send(size, new Runnable() {
+            @Override
+            public void run() {
+                if (closed) {
+                    return;
+                }
+                try {
+                    handler.messageReceived(ShapedIoSession.this, buffer);
+                } catch (Throwable e) {
+                    caught(e);
+                }
+            }
+        }, null);
+    }
+
+    /**
+     * The connection closed, bytes from the client still on the link are dropped
+     */
+    void closed() throws Exception {
+        closed = true;
+        handler.sessionClosed(this);
+    }
+
+    void caught(Throwable cause) {
+        try {
+            handler.exceptionCaught(this, cause);
+        } catch (Exception e) {
+            log.log(Level.FINE, "Unable to handle failure of " + session, e);
+        }
+    }
+
+    @Override
+    public IoWriteFuture write(Buffer buffer) {
+        // copied, the caller may reuse the buffer once this returns
+        final byte[] data = Arrays.copyOfRange(buffer.array(), buffer.rpos(), buffer.wpos());
+        final WriteFuture written = new WriteFuture(data);
+        download.send(data.length, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    session.write(new ByteArrayBuffer(data)).addListener(new SshFutureListener<IoWriteFuture>() {
+                        @Override
+                        public void operationComplete(IoWriteFuture future) {
+                            Throwable failure = future.getException();
+                            written.setValue(failure != null ? failure : Boolean.TRUE);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    written.setValue(e);
+                }
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                written.setValue(new IOException("Traffic shaper stopped before " + data.length + " bytes were written"));
+            }
+        });
+        return written;
+    }
+
+    @Override
+    public CloseFuture close(boolean immediately) {
+        if (immediately) {
+            return session.close(true);
+        }
+        // after the bytes written before, as the connection would
+        final DefaultCloseFuture result = new DefaultCloseFuture(this);
+        final SshFutureListener<CloseFuture> closed = new SshFutureListener<CloseFuture>() {
+            @Override
+            public void operationComplete(CloseFuture future) {
+                result.setClosed();
+            }
+        };
+        download.send(0, new Runnable() {
+            @Override
+            public void run() {
+                session.close(false).addListener(closed);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                session.close(true).addListener(closed);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        close(false);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return session.isOpen();
+    }
+
+    @Override
+    public void addCloseFutureListener(SshFutureListener<CloseFuture> listener) {
+        session.addCloseFutureListener(listener);
+    }
+
+    @Override
+    public void removeCloseFutureListener(SshFutureListener<CloseFuture> listener) {
+        session.removeCloseFutureListener(listener);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return session.isClosed();
+    }
+
+    @Override
+    public boolean isClosing() {
+        return session.isClosing();
+    }
+
+    @Override
+    public long getId() {
+        return session.getId();
+    }
+
+    @Override
+    public Object getAttribute(Object key) {
+        return session.getAttribute(key);
+    }
+
+    @Override
+    public Object setAttribute(Object key, Object value) {
+        return session.setAttribute(key, value);
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return session.getRemoteAddress();
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return session.getLocalAddress();
+    }
+
+    @Override
+    public IoService getService() {
+        return session.getService();
+    }
+
+    @Override
+    public String toString() {
+        return "Shaped" + session;
+    }
+
+    private static final class WriteFuture extends AbstractIoWriteFuture {
+        WriteFuture(Object lock) {
+            super(lock);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package io.jenkins.blueocean.test.ssh;
+
+import org.junit.rules.ExternalResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * JUnit rule giving each test its own directory and user on a server that is
+ * started once per JVM, so tests don't pay for host keys and startup each time:
+ * <pre>
+ * &#64;Rule
+ * public SharedSSHServer ssh = new SharedSSHServer();
+ *
+ * &#64;Test
+ * public void test() {
+ *     connect("localhost", ssh.getPort(), ssh.getUser(), ssh.getPrivateKey());
+ *     ...
+ * }
+ * </pre>
+ * The directory is removed after the test, the server is stopped when the JVM exits.
+ *
+ * @see SSHServer#addNamespace(java.io.File, java.util.Map)
+ */
+public class SharedSSHServer extends ExternalResource {
+    private static final Logger log = Logger.getLogger(SharedSSHServer.class.getName());
+
+    private static final AtomicInteger users = new AtomicInteger();
+    private static SSHServer server;
+
+    private File root;
+    private String user;
+    private String privateKey;
+    private Namespace namespace;
+
+    /**
+     * @return the server shared by all tests of this JVM, started on first use
+     * @throws IOException if the server can't be started
+     */
+    public static synchronized SSHServer getSharedServer() throws IOException {
+        if (server == null) {
+            final File root = Files.createTempDirectory("shared-ssh").toFile();
+            final SSHServer started = new SSHServer(root, Collections.<String, String>emptyMap());
+            started.start();
+            Runtime.getRuntime().addShutdownHook(new Thread("shared SSH server shutdown") {
+                @Override
+                public void run() {
+                    try {
+                        started.stop();
+                    } catch (IOException e) {
+                        log.log(Level.FINE, "Unable to stop shared SSH server", e);
+                    }
+                    deleteRecursively(root);
+                }
+            });
+            server = started;
+        }
+        return server;
+    }
+
+    @Override
+    protected void before() throws Throwable {
+        SSHServer shared = getSharedServer();
+        root = Files.createTempDirectory("ssh-test").toFile();
+        privateKey = SSHServer.generatePrivateKey();
+        user = "test" + users.incrementAndGet();
+        namespace = shared.addNamespace(root, Collections.singletonMap(user, SSHServer.getPublicKey(privateKey)));
+    }
+
+    @Override
+    protected void after() {
+        if (namespace != null) {
+            server.removeNamespace(namespace);
+            namespace = null;
+        }
+        if (root != null) {
+            deleteRecursively(root);
+        }
+    }
+
+    public SSHServer getServer() {
+        return server;
+    }
+
+    public int getPort() {
+        return server.getPort();
+    }
+
+    /**
+     * @return directory of this test, the root of its sessions
+     */
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * @return user name only this test can log in with
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * @return the user's private key
+     */
+    public String getPrivateKey() {
+        return privateKey;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = Files.isSymbolicLink(file.toPath()) ? null : file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            log.fine("Unable to delete " + file);
+        }
+    }
+}
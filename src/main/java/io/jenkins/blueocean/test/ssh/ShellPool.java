@@ -0,0 +1,377 @@
+package io.jenkins.blueocean.test.ssh;
+
+import io.jenkins.blueocean.test.ssh.metrics.Histogram;
+import org.apache.sshd.common.util.OsUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Long-lived <code>/bin/sh</code> workers that run exec commands which aren't
+ * git or builtins, so a command costs a fork of a small shell instead of
+ * {@link ProcessBuilder#start()} of the JVM. Workers are started in the
+ * background when the server starts; a command finding none idle is spawned
+ * directly as before.
+ * <p>
+ * Each worker reads commands from its stdin and runs them in a subshell
+ * with the session's directory and environment, and stdin connected to a
+ * named pipe of its own. It ends the command's stdout and stderr with a
+ * marker carrying a random token and the exit status. Workers are replaced
+ * after a number of commands, and when a command fails to finish, e.g.
+ * because the client closed the channel while it was running.
+ * <p>
+ * Where <code>setsid</code> is available each command runs in a session of
+ * its own: whatever it started in the background is killed when it exits or
+ * its worker is destroyed, and the worker is replaced, so nothing left over
+ * writes to the next client. Without it a worker runs a single command.
+ * <p>
+ * Only on Unix; elsewhere all commands are spawned directly.
+ *
+ * @see SSHServer#setShellPool(ShellPool)
+ */
+public final class ShellPool {
+    private static final Logger log = Logger.getLogger(ShellPool.class.getName());
+    private static final Charset UTF8 = Charset.forName("utf-8");
+    private static final AtomicInteger workerNumber = new AtomicInteger();
+
+    // $1 is the named pipe the commands read their stdin from; it is opened before the token is echoed,
+    // so the server doesn't close its end first and leave the open waiting for another writer.
+    // With setsid(1) a command runs in a session of its own, which is killed with the worker and checked
+    // for processes left behind once the command exits; the stderr marker says whether there may be some
+    private static final String WORKER_SCRIPT = "nl='\n'\n"
+            + "group=\n"
+            + "command -v setsid >/dev/null 2>&1 && group=-\n"
+            + "pid=\n"
+            + "trap '[ -n \"$pid\" ] && kill -KILL \"$group$pid\" 2>/dev/null; exit 143' TERM\n"
+            + "mkfifo \"$1\" || exit 1\n"
+            + "echo ready\n"
+            + "while IFS= read -r token && IFS= read -r job; do\n"
+            + "  exec 3< \"$1\"\n"
+            + "  echo \"$token\"\n"
+            + "  if [ -n \"$group\" ]; then\n"
+            + "    setsid /bin/sh -c 'nl=$1; eval \"$2\"' sh \"$nl\" \"$job\" <&3 3<&- &\n"
+            + "  else\n"
+            + "    (eval \"$job\") <&3 3<&- &\n"
+            + "  fi\n"
+            + "  pid=$!\n"
+            + "  wait \"$pid\"\n"
+            + "  status=$?\n"
+            + "  left=1\n"
+            + "  if [ -n \"$group\" ]; then\n"
+            + "    kill -KILL \"-$pid\" 2>/dev/null || left=0\n"
+            + "  fi\n"
+            + "  pid=\n"
+            + "  exec 3<&-\n"
+            + "  printf '\\001%s %d\\n' \"$token\" \"$status\"\n"
+            + "  printf '\\001%s %d\\n' \"$token\" \"$left\" >&2\n"
+            + "done\n";
+
+    private final int size;
+    private final int maxUses;
+    private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+    private final Set<Worker> workers = Collections.newSetFromMap(new ConcurrentHashMap<Worker, Boolean>());
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final AtomicLong recycled = new AtomicLong();
+    private ExecutorService starter;
+    private File fifoDir;
+    private File cwd;
+    private Histogram spawns;
+
+    /**
+     * @param size    number of workers kept running, 0 to spawn every command directly
+     * @param maxUses commands run by a worker before it is replaced
+     */
+    public ShellPool(int size, int maxUses) {
+        if (size < 0 || maxUses < 1) {
+            throw new IllegalArgumentException("Invalid shell pool: size " + size + ", max uses " + maxUses);
+        }
+        this.size = size;
+        this.maxUses = maxUses;
+    }
+
+    /**
+     * @return a pool without workers, every command is spawned directly
+     */
+    public static ShellPool disabled() {
+        return new ShellPool(0, 1);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getMaxUses() {
+        return maxUses;
+    }
+
+    public boolean isEnabled() {
+        return size > 0 && !OsUtils.isWin32();
+    }
+
+    /**
+     * @return commands run by a worker
+     */
+    public long getRunCount() {
+        return runs.get();
+    }
+
+    /**
+     * @return commands spawned directly because no worker was idle
+     */
+    public long getFallbackCount() {
+        return fallbacks.get();
+    }
+
+    /**
+     * @return workers replaced after their last use or a failure
+     */
+    public long getRecycledCount() {
+        return recycled.get();
+    }
+
+    /**
+     * @return workers waiting for a command
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Starts the workers in the background
+     *
+     * @param cwd    directory the workers start in
+     * @param spawns where worker start times are recorded
+     */
+    synchronized void start(File cwd, Histogram spawns) throws IOException {
+        if (!isEnabled() || starter != null) {
+            return;
+        }
+        this.cwd = cwd;
+        this.spawns = spawns;
+        this.fifoDir = Files.createTempDirectory("ssh-shell-pool").toFile();
+        this.starter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SSH shell pool starter");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        for (int i = 0; i < size; i++) {
+            startWorker();
+        }
+    }
+
+    /**
+     * @return an idle worker, or null if there is none and the command should be spawned directly
+     */
+    Worker take() {
+        if (!isEnabled()) {
+            return null;
+        }
+        Worker worker = idle.poll();
+        if (worker == null) {
+            fallbacks.incrementAndGet();
+            return null;
+        }
+        runs.incrementAndGet();
+        return worker;
+    }
+
+    /**
+     * @param worker  a worker returned by {@link #take()}
+     * @param healthy whether its command finished normally without leaving processes behind,
+     *                otherwise it is replaced
+     */
+    void release(Worker worker, boolean healthy) {
+        if (healthy && ++worker.uses < maxUses) {
+            synchronized (this) {
+                if (starter != null) {
+                    if (!idle.offer(worker)) {
+                        throw new IllegalStateException("Unbounded queue refused a worker");
+                    }
+                    return;
+                }
+            }
+        }
+        workers.remove(worker);
+        worker.destroy();
+        recycled.incrementAndGet();
+        startWorker();
+    }
+
+    /**
+     * Stops the workers, commands running on them are killed
+     */
+    synchronized void shutdown() {
+        if (starter == null) {
+            return;
+        }
+        starter.shutdownNow();
+        starter = null;
+        idle.clear();
+        for (Worker worker : workers) {
+            worker.destroy();
+        }
+        workers.clear();
+        File[] fifos = fifoDir.listFiles();
+        for (File fifo : fifos == null ? new File[0] : fifos) {
+            if (!fifo.delete()) {
+                log.fine("Unable to delete " + fifo);
+            }
+        }
+        if (!fifoDir.delete()) {
+            log.fine("Unable to delete " + fifoDir);
+        }
+    }
+
+    private synchronized void startWorker() {
+        if (starter == null) {
+            return;
+        }
+        final File fifo = new File(fifoDir, "worker-" + workerNumber.incrementAndGet());
+        final File dir = cwd;
+        final Histogram histogram = spawns;
+        try {
+            starter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Worker worker = new Worker(dir, fifo, histogram);
+                        synchronized (ShellPool.this) {
+                            if (starter != null) {
+                                workers.add(worker);
+                                if (idle.offer(worker)) {
+                                    return;
+                                }
+                                workers.remove(worker);
+                            }
+                        }
+                        worker.destroy();
+                    } catch (IOException e) {
+                        log.log(Level.WARNING, "Unable to start a pooled shell", e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shut down meanwhile
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ShellPool[size=" + size + ", maxUses=" + maxUses + "]";
+    }
+
+    /**
+     * A running <code>sh</code> and the named pipe its commands read stdin from
+     */
+    static final class Worker {
+        private final Process process;
+        private final File fifo;
+        private final OutputStream stdin;
+        private final InputStream stdout;
+        private final InputStream stderr;
+        private final long tokenPrefix = ThreadLocalRandom.current().nextLong();
+        private long jobs;
+        private int uses;
+
+        Worker(File cwd, File fifo, Histogram spawns) throws IOException {
+            this.fifo = fifo;
+            long started = System.nanoTime();
+            ProcessBuilder builder = new ProcessBuilder(Arrays.asList("/bin/sh", "-c", WORKER_SCRIPT, "sh", fifo.getPath()));
+            builder.directory(cwd);
+            this.process = builder.start();
+            this.stdin = process.getOutputStream();
+            this.stdout = process.getInputStream();
+            this.stderr = process.getErrorStream();
+            try {
+                // the pipe exists once the worker says so
+                String ready = readLine(stdout);
+                if (!"ready".equals(ready)) {
+                    throw new IOException("Pooled shell failed to start: " + ready);
+                }
+            } catch (IOException e) {
+                destroy();
+                throw e;
+            }
+            spawns.recordSince(started);
+        }
+
+        File getFifo() {
+            return fifo;
+        }
+
+        InputStream getStdout() {
+            return stdout;
+        }
+
+        InputStream getStderr() {
+            return stderr;
+        }
+
+        /**
+         * Sends a command line to run, the named pipe must be open for writing
+         *
+         * @return the token the command's output ends with
+         */
+        String run(String job) throws IOException {
+            String token = Long.toHexString(tokenPrefix) + Long.toHexString(ThreadLocalRandom.current().nextLong()) + "-" + (++jobs);
+            stdin.write((token + "\n" + job + "\n").getBytes(UTF8));
+            stdin.flush();
+            return token;
+        }
+
+        /**
+         * Waits until the worker opened the named pipe, the command's output follows
+         */
+        void awaitOpened(String token) throws IOException {
+            String line = readLine(stdout);
+            if (!token.equals(line)) {
+                throw new IOException("Pooled shell failed to open its input: " + line);
+            }
+        }
+
+        /**
+         * Kills the worker, and with it the session of a command still running
+         */
+        void destroy() {
+            process.destroy();
+            if (fifo.exists() && !fifo.delete()) {
+                log.fine("Unable to delete " + fifo);
+            }
+        }
+
+        /**
+         * Reads a line without buffering ahead, the rest of the stream belongs to the commands
+         */
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) >= 0 && c != '\n') {
+                line.append((char) c);
+            }
+            return c < 0 && line.length() == 0 ? null : line.toString();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package io.jenkins.blueocean.test.ssh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A hashed timer wheel: one thread advances a tick at a time and hands the
+ * tasks due to an executor. Scheduling costs a queue insert however many
+ * tasks are waiting, which suits thousands of short delays; deadlines are
+ * rounded up to the next tick.
+ */
+final class TimerWheel {
+    private static final Logger log = Logger.getLogger(TimerWheel.class.getName());
+
+    private final long tickNanos;
+    private final int mask;
+    private final List<List<Timeout>> buckets;
+    private final Executor executor;
+    // scheduled since the last tick, moved to their bucket by the wheel thread
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private final long startTime;
+    // only touched by the wheel thread
+    private long tick;
+
+    /**
+     * @param name     of the wheel thread
+     * @param tick     resolution of the wheel
+     * @param buckets  slots of the wheel, rounded up to a power of two
+     * @param executor runs the tasks, so a slow one doesn't hold up the wheel
+     */
+    TimerWheel(String name, long tick, TimeUnit unit, int buckets, Executor executor) {
+        this.tickNanos = Math.max(1, unit.toNanos(tick));
+        int size = Integer.highestOneBit(Math.max(1, buckets - 1)) << 1;
+        this.mask = size - 1;
+        this.buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            this.buckets.add(new ArrayList<Timeout>());
+        }
+        this.executor = executor;
+        this.startTime = System.nanoTime();
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                turn();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param task     run on the executor at or after the deadline
+     * @param deadline in {@link System#nanoTime()}
+     * @throws RejectedExecutionException if the wheel is stopped
+     */
+    void schedule(Runnable task, long deadline) {
+        Timeout timeout = new Timeout(task, deadline);
+        pending.add(timeout);
+        // unless stop() already took it
+        if (!running && pending.remove(timeout)) {
+            throw new RejectedExecutionException("Timer wheel stopped");
+        }
+    }
+
+    /**
+     * Stops the wheel once its thread handed the tasks due to the executor
+     *
+     * @return the tasks not run, in no particular order
+     */
+    List<Runnable> stop() {
+        running = false;
+        thread.interrupt();
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        List<Runnable> tasks = new ArrayList<>();
+        for (List<Timeout> bucket : buckets) {
+            for (Timeout timeout : bucket) {
+                tasks.add(timeout.task);
+            }
+            bucket.clear();
+        }
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            tasks.add(timeout.task);
+        }
+        return tasks;
+    }
+
+    private void turn() {
+        while (running) {
+            long wait = startTime + (tick + 1) * tickNanos - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+            tick++;
+            Timeout timeout;
+            while ((timeout = pending.poll()) != null) {
+                // rounded up, and a deadline already past is due now
+                long due = Math.max(tick, (timeout.deadline - startTime + tickNanos - 1) / tickNanos);
+                timeout.rounds = (due - tick) / buckets.size();
+                buckets.get((int) (due & mask)).add(timeout);
+            }
+            expire(buckets.get((int) (tick & mask)));
+        }
+    }
+
+    private void expire(List<Timeout> bucket) {
+        int kept = 0;
+        for (int i = 0; i < bucket.size(); i++) {
+            Timeout timeout = bucket.get(i);
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                bucket.set(kept++, timeout);
+                continue;
+            }
+            try {
+                executor.execute(timeout.task);
+            } catch (RejectedExecutionException e) {
+                log.log(Level.FINEST, "Timer task dropped", e);
+            }
+        }
+        bucket.subList(kept, bucket.size()).clear();
+    }
+
+    private static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private long rounds;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+}
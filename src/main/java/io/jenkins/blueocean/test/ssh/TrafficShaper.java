@@ -0,0 +1,444 @@
+package io.jenkins.blueocean.test.ssh;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes the server's connections behave like a slower network, so tests see
+ * the latency, bandwidth and hiccups clients see in production. Build one
+ * with {@link #builder()} or pick a preset:
+ * <ul>
+ * <li>{@link #disabled()} passes traffic straight through, the default</li>
+ * <li>{@link #wan()} 40 ms latency, 10 ms jitter and 10 MB/s each way</li>
+ * <li>{@link #slow()} 150 ms latency, 50 ms jitter, 256 KB/s down and 64 KB/s up</li>
+ * <li>{@link #flaky()} as {@link #wan()}, with one packet in 100 stalling the link for half a second</li>
+ * </ul>
+ * Shaping applies to the SSH packets of a whole session, so exec, SCP, SFTP
+ * and git channels sharing a connection share its bandwidth. Each direction
+ * of a session is a link: a packet waits for the link to be free, takes its
+ * size over the bandwidth to send, then arrives after the latency plus a
+ * random jitter, never before the packet ahead of it. Latency is one way, a
+ * round trip takes twice as long.
+ * <p>
+ * Packets are delayed on a timer wheel with one thread, and delivered by a
+ * small pool shared by all sessions, so hundreds of shaped sessions cost no
+ * thread each. The client's window keeps the amount of data held back bounded.
+ *
+ * @see SSHServer#setTrafficShaper(TrafficShaper)
+ */
+public final class TrafficShaper {
+    public static final String NONE = "none";
+    public static final String WAN = "wan";
+    public static final String SLOW = "slow";
+    public static final String FLAKY = "flaky";
+
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+
+    private final String name;
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final long uploadBandwidth;
+    private final long downloadBandwidth;
+    private final double stallProbability;
+    private final long stallNanos;
+    private final AtomicLong sessions = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+    private ExecutorService delivery;
+    private TimerWheel wheel;
+
+    private TrafficShaper(Builder builder) {
+        this.name = builder.name;
+        this.latencyNanos = builder.latencyNanos;
+        this.jitterNanos = builder.jitterNanos;
+        this.uploadBandwidth = builder.uploadBandwidth;
+        this.downloadBandwidth = builder.downloadBandwidth;
+        this.stallProbability = builder.stallProbability;
+        this.stallNanos = builder.stallNanos;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a shaper leaving traffic alone
+     */
+    public static TrafficShaper disabled() {
+        return builder().name(NONE).build();
+    }
+
+    public static TrafficShaper wan() {
+        return builder().name(WAN)
+                .latency(40, TimeUnit.MILLISECONDS)
+                .jitter(10, TimeUnit.MILLISECONDS)
+                .bandwidth(10 << 20)
+                .build();
+    }
+
+    public static TrafficShaper slow() {
+        return builder().name(SLOW)
+                .latency(150, TimeUnit.MILLISECONDS)
+                .jitter(50, TimeUnit.MILLISECONDS)
+                .downloadBandwidth(256 << 10)
+                .uploadBandwidth(64 << 10)
+                .build();
+    }
+
+    public static TrafficShaper flaky() {
+        return builder().name(FLAKY)
+                .latency(40, TimeUnit.MILLISECONDS)
+                .jitter(10, TimeUnit.MILLISECONDS)
+                .bandwidth(10 << 20)
+                .stalls(0.01, 500, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * @param name {@link #NONE}, {@link #WAN}, {@link #SLOW} or {@link #FLAKY}
+     * @return the preset
+     */
+    public static TrafficShaper forName(String name) {
+        if (NONE.equals(name)) {
+            return disabled();
+        }
+        if (WAN.equals(name)) {
+            return wan();
+        }
+        if (SLOW.equals(name)) {
+            return slow();
+        }
+        if (FLAKY.equals(name)) {
+            return flaky();
+        }
+        throw new IllegalArgumentException("Unknown traffic shaper: " + name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLatency(TimeUnit unit) {
+        return unit.convert(latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getJitter(TimeUnit unit) {
+        return unit.convert(jitterNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return bytes per second from clients to the server, 0 for unlimited
+     */
+    public long getUploadBandwidth() {
+        return uploadBandwidth;
+    }
+
+    /**
+     * @return bytes per second from the server to clients, 0 for unlimited
+     */
+    public long getDownloadBandwidth() {
+        return downloadBandwidth;
+    }
+
+    public double getStallProbability() {
+        return stallProbability;
+    }
+
+    public long getStallDuration(TimeUnit unit) {
+        return unit.convert(stallNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return whether any traffic is held back; sessions aren't shaped otherwise
+     */
+    public boolean isEnabled() {
+        return latencyNanos > 0 || jitterNanos > 0 || uploadBandwidth > 0 || downloadBandwidth > 0
+                || (stallProbability > 0 && stallNanos > 0);
+    }
+
+    /**
+     * @return sessions shaped so far
+     */
+    public long getSessionCount() {
+        return sessions.get();
+    }
+
+    /**
+     * @return bytes held back so far, both ways
+     */
+    public long getShapedBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return stalls injected so far
+     */
+    public long getStallCount() {
+        return stalls.get();
+    }
+
+    /**
+     * Starts the timer wheel and the threads delivering packets
+     */
+    synchronized void start() {
+        if (!isEnabled() || wheel != null) {
+            return;
+        }
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        delivery = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SSH traffic shaper-" + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        wheel = new TimerWheel("SSH traffic shaper timer", 1, TimeUnit.MILLISECONDS, 512, delivery);
+    }
+
+    /**
+     * Stops the timer wheel, packets still held back are dropped: writes waiting for them fail and
+     * connections waiting to close are closed at once
+     */
+    synchronized void shutdown() {
+        if (wheel == null) {
+            return;
+        }
+        // the links waiting for their next packet, the wheel hands those due to the pool as it stops
+        List<Runnable> waiting = new ArrayList<>(wheel.stop());
+        waiting.addAll(delivery.shutdownNow());
+        wheel = null;
+        delivery = null;
+        for (Runnable link : waiting) {
+            ((Link) link).drop();
+        }
+    }
+
+    /**
+     * @param upload whether the link carries packets from the client
+     * @return one direction of a new session, null if the shaper isn't started
+     */
+    synchronized Link newLink(boolean upload) {
+        if (wheel == null) {
+            return null;
+        }
+        if (upload) {
+            sessions.incrementAndGet();
+        }
+        return new Link(wheel, upload ? uploadBandwidth : downloadBandwidth);
+    }
+
+    @Override
+    public String toString() {
+        return "TrafficShaper[" + name + ", latency=" + TimeUnit.NANOSECONDS.toMillis(latencyNanos)
+                + "ms, jitter=" + TimeUnit.NANOSECONDS.toMillis(jitterNanos)
+                + "ms, upload=" + uploadBandwidth + "B/s, download=" + downloadBandwidth
+                + "B/s, stalls=" + stallProbability + "]";
+    }
+
+    /**
+     * One direction of a session: delivers packets in order, each once it has gone over the link
+     */
+    final class Link implements Runnable {
+        private final TimerWheel wheel;
+        private final long bandwidth;
+        private final Queue<Packet> queue = new ArrayDeque<>();
+        // when the packets sent so far are off the link
+        private long freeAt = System.nanoTime();
+        private long lastArrival = freeAt;
+        private boolean scheduled;
+
+        Link(TimerWheel wheel, long bandwidth) {
+            this.wheel = wheel;
+            this.bandwidth = bandwidth;
+        }
+
+        /**
+         * @param size     bytes in the packet
+         * @param delivery run once the packet arrives, after those sent before it
+         * @param dropped  run instead if the shaper shuts down first, may be null
+         */
+        void send(int size, Runnable delivery, Runnable dropped) {
+            bytes.addAndGet(size);
+            long arrival;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long start = freeAt - now > 0 ? freeAt : now;
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                if (stallProbability > 0 && random.nextDouble() < stallProbability) {
+                    stalls.incrementAndGet();
+                    start += stallNanos;
+                }
+                freeAt = start + (bandwidth > 0 ? TimeUnit.SECONDS.toNanos(size) / bandwidth : 0);
+                arrival = freeAt + latencyNanos + (jitterNanos > 0 ? random.nextLong(jitterNanos + 1) : 0);
+                if (arrival - lastArrival < 0) {
+                    arrival = lastArrival;
+                }
+                lastArrival = arrival;
+                queue.add(new Packet(arrival, delivery, dropped));
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            schedule(arrival);
+        }
+
+        /**
+         * Delivers the packets that arrived, on a thread of the pool; one run at a time per link
+         */
+        @Override
+        public void run() {
+            Packet packet;
+            while (true) {
+                synchronized (this) {
+                    packet = queue.peek();
+                    if (packet == null) {
+                        scheduled = false;
+                        return;
+                    }
+                    if (packet.arrival - System.nanoTime() > 0) {
+                        break;
+                    }
+                    queue.remove();
+                }
+                packet.delivery.run();
+            }
+            schedule(packet.arrival);
+        }
+
+        private void schedule(long arrival) {
+            try {
+                wheel.schedule(this, arrival);
+            } catch (RejectedExecutionException e) {
+                // shut down meanwhile
+                drop();
+            }
+        }
+
+        /**
+         * Drops the packets still on the link, the shaper is shut down
+         */
+        void drop() {
+            List<Packet> dropped;
+            synchronized (this) {
+                dropped = new ArrayList<>(queue);
+                queue.clear();
+                scheduled = false;
+            }
+            for (Packet packet : dropped) {
+                if (packet.dropped != null) {
+                    packet.dropped.run();
+                }
+            }
+        }
+    }
+
+    private static final class Packet {
+        private final long arrival;
+        private final Runnable delivery;
+        private final Runnable dropped;
+
+        Packet(long arrival, Runnable delivery, Runnable dropped) {
+            this.arrival = arrival;
+            this.delivery = delivery;
+            this.dropped = dropped;
+        }
+    }
+
+    public static final class Builder {
+        private String name = "custom";
+        private long latencyNanos;
+        private long jitterNanos;
+        private long uploadBandwidth;
+        private long downloadBandwidth;
+        private double stallProbability;
+        private long stallNanos;
+
+        private Builder() {
+        }
+
+        /**
+         * @param name reported in stats
+         */
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * @param latency one-way delay of every packet
+         */
+        public Builder latency(long latency, TimeUnit unit) {
+            this.latencyNanos = unit.toNanos(latency);
+            return this;
+        }
+
+        /**
+         * @param jitter most a packet is delayed on top of the latency, at random
+         */
+        public Builder jitter(long jitter, TimeUnit unit) {
+            this.jitterNanos = unit.toNanos(jitter);
+            return this;
+        }
+
+        /**
+         * @param bytesPerSecond both ways, 0 for unlimited
+         */
+        public Builder bandwidth(long bytesPerSecond) {
+            return uploadBandwidth(bytesPerSecond).downloadBandwidth(bytesPerSecond);
+        }
+
+        /**
+         * @param bytesPerSecond from clients to the server, 0 for unlimited
+         */
+        public Builder uploadBandwidth(long bytesPerSecond) {
+            this.uploadBandwidth = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * @param bytesPerSecond from the server to clients, 0 for unlimited
+         */
+        public Builder downloadBandwidth(long bytesPerSecond) {
+            this.downloadBandwidth = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * @param probability that a packet stalls its link, between 0 and 1
+         * @param duration    how long the link is stalled, delaying that packet and those behind it
+         */
+        public Builder stalls(double probability, long duration, TimeUnit unit) {
+            this.stallProbability = probability;
+            this.stallNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if a value is negative or the probability is over 1
+         */
+        public TrafficShaper build() {
+            if (name == null) {
+                throw new IllegalArgumentException("No name");
+            }
+            if (latencyNanos < 0 || jitterNanos < 0 || uploadBandwidth < 0 || downloadBandwidth < 0 || stallNanos < 0
+                    || !(stallProbability >= 0 && stallProbability <= 1)) {
+                throw new IllegalArgumentException("Invalid traffic shaper: latency " + latencyNanos + "ns, jitter "
+                        + jitterNanos + "ns, upload " + uploadBandwidth + "B/s, download " + downloadBandwidth
+                        + "B/s, stalls " + stallProbability + " of " + stallNanos + "ns");
+            }
+            return new TrafficShaper(this);
+        }
+    }
+}
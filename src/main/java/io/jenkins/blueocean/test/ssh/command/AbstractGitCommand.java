@@ -1,10 +1,9 @@
 package io.jenkins.blueocean.test.ssh.command;
 
+import io.jenkins.blueocean.test.ssh.metrics.Histogram;
 import org.apache.sshd.server.Command;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.lib.RepositoryBuilder;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
@@ -15,13 +14,56 @@ import java.util.List;
  */
 abstract class AbstractGitCommand extends AsynchronousCommand {
     private final String repoName;
+    private final GitContext context;
+    private final Histogram duration;
 
-    AbstractGitCommand(List<String> cmd) {
-        super(cmd);
+    /**
+     * @param metric name of the histogram recording how long the command runs
+     */
+    AbstractGitCommand(List<String> cmd, GitContext context, String metric) {
+        super(cmd, context.getCommandExecutor(), context.getMetrics());
         this.repoName = cmd.get(1);
+        this.context = context;
+        this.duration = context.getMetrics().histogram(metric);
+    }
+
+    GitContext getContext() {
+        return context;
+    }
+
+    String getRepositoryName() {
+        return repoName;
+    }
+
+    TransferProfile getTransferProfile() {
+        return context.getTransferProfile(repoName);
     }
 
     Repository getRepository() throws IOException {
-        return new RepositoryBuilder().setGitDir(new File(repoName)).build();
+        return context.open(repoName, SessionRoot.get(getSession(), null), createsRepository());
     }
+
+    /**
+     * @return whether a bare repository is created if there is none with the name asked for
+     */
+    boolean createsRepository() {
+        return false;
+    }
+
+    @Override
+    protected final int run() throws Exception {
+        long started = System.nanoTime();
+        Repository repository = getRepository();
+        try {
+            return run(repository);
+        } finally {
+            context.release(repository);
+            duration.recordSince(started);
+        }
+    }
+
+    /**
+     * Runs the git command against the repository, which is released afterwards
+     */
+    protected abstract int run(Repository repository) throws Exception;
 }
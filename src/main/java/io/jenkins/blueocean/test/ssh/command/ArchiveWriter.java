@@ -0,0 +1,351 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the entries of a git tree as an archive, one entry at a time, so
+ * only the current entry's buffer is held in memory. Entries are added as
+ * "git archive" does: directories before their contents, files 0664 or 0775,
+ * with the time of the commit.
+ * <p>
+ * java.util.zip has no way to set Unix modes, so zip archives lose the
+ * executable bits and hold symbolic links as files containing the target.
+ */
+abstract class ArchiveWriter {
+    static final String TAR = "tar";
+    static final String TGZ = "tgz";
+    static final String TAR_GZ = "tar.gz";
+    static final String ZIP = "zip";
+
+    private static final Charset UTF8 = Charset.forName("utf-8");
+
+    static boolean isSupported(String format) {
+        return TAR.equals(format) || TGZ.equals(format) || TAR_GZ.equals(format) || ZIP.equals(format);
+    }
+
+    /**
+     * @param format {@link #TAR}, {@link #TGZ}, {@link #TAR_GZ} or {@link #ZIP}
+     * @param level  compression level, or -1 for the default
+     * @param out    stream to write to, not closed
+     * @return the writer, or null if the format is unknown
+     */
+    static ArchiveWriter create(String format, int level, OutputStream out) throws IOException {
+        if (TAR.equals(format)) {
+            return new Tar(out, null);
+        }
+        if (TGZ.equals(format) || TAR_GZ.equals(format)) {
+            GZIPOutputStream gzip = new CompressingGZIPOutputStream(new UnclosedOutputStream(out), level);
+            return new Tar(gzip, gzip);
+        }
+        if (ZIP.equals(format)) {
+            ZipOutputStream zip = new ZipOutputStream(new UnclosedOutputStream(out), UTF8);
+            zip.setLevel(level);
+            return new Zip(zip);
+        }
+        return null;
+    }
+
+    /**
+     * Adds a comment, in tar archives a global pax header as git writes it
+     *
+     * @param commitId id of the archived commit
+     */
+    abstract void putCommitId(String commitId, long time) throws IOException;
+
+    /**
+     * @param path directory path, without trailing slash
+     * @param id   id of the tree, which names the pax header of a long path
+     */
+    abstract void putDirectory(String path, String id, long time) throws IOException;
+
+    /**
+     * @param id         id of the blob, which names the pax header of a long path
+     * @param executable whether the file has the executable bit
+     * @param size       number of bytes in content
+     */
+    abstract void putFile(String path, String id, boolean executable, long time, long size, InputStream content) throws IOException;
+
+    abstract void putSymlink(String path, String id, long time, String target) throws IOException;
+
+    /**
+     * Writes the end of the archive and releases compressors, the stream passed to {@link #create} is left open
+     */
+    abstract void finish() throws IOException;
+
+    static void copy(InputStream in, OutputStream out, long size) throws IOException {
+        byte[] buf = new byte[8192];
+        long remaining = size;
+        while (remaining > 0) {
+            int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+            if (n < 0) {
+                throw new IOException("Object ended " + remaining + " bytes early");
+            }
+            out.write(buf, 0, n);
+            remaining -= n;
+        }
+    }
+
+    /**
+     * POSIX ustar laid out as git's archive-tar.c writes it: a path longer
+     * than the name field is split into the prefix field where it can be,
+     * otherwise the entry is named after its object id and preceded by a pax
+     * header holding the path. Long symlink targets and sizes above 8GB go
+     * into the pax header too.
+     */
+    static final class Tar extends ArchiveWriter {
+        private static final int BLOCK = 512;
+        private static final int NAME = 100;
+        private static final int PREFIX = 155;
+        private static final long MAX_SIZE = 077777777777L;
+        // blocking factor 20, as tar and git pad archives to
+        private static final int RECORD = 20 * BLOCK;
+
+        private final OutputStream out;
+        private final GZIPOutputStream gzip;
+        private long written;
+
+        Tar(OutputStream out, GZIPOutputStream gzip) {
+            this.out = out;
+            this.gzip = gzip;
+        }
+
+        @Override
+        void putCommitId(String commitId, long time) throws IOException {
+            byte[] pax = paxRecord("comment", commitId);
+            writeHeader(bytes("pax_global_header"), new byte[0], 0666, time, pax.length, 'g', new byte[0]);
+            writeData(pax);
+        }
+
+        @Override
+        void putDirectory(String path, String id, long time) throws IOException {
+            putEntry(path + "/", id, 0775, time, 0, '5', "");
+        }
+
+        @Override
+        void putFile(String path, String id, boolean executable, long time, long size, InputStream content) throws IOException {
+            putEntry(path, id, executable ? 0775 : 0664, time, size, '0', "");
+            copy(content, out, size);
+            written += size;
+            pad();
+        }
+
+        @Override
+        void putSymlink(String path, String id, long time, String target) throws IOException {
+            putEntry(path, id, 0777, time, 0, '2', target);
+        }
+
+        @Override
+        void finish() throws IOException {
+            write(new byte[2 * BLOCK]);
+            if (written % RECORD != 0) {
+                write(new byte[(int) (RECORD - written % RECORD)]);
+            }
+            if (gzip != null) {
+                // releases the deflater's native memory
+                gzip.close();
+            } else {
+                out.flush();
+            }
+        }
+
+        private void putEntry(String path, String id, int mode, long time, long size, char type, String linkName) throws IOException {
+            byte[] name = bytes(path);
+            byte[] prefix = new byte[0];
+            byte[] link = bytes(linkName);
+            byte[] pax = new byte[0];
+            if (name.length > NAME) {
+                int split = prefixLength(name);
+                if (split > 0 && name.length - split - 1 <= NAME) {
+                    prefix = Arrays.copyOfRange(name, 0, split);
+                    name = Arrays.copyOfRange(name, split + 1, name.length);
+                } else {
+                    name = bytes(id + ".data");
+                    pax = paxRecord("path", path);
+                }
+            }
+            if (link.length > NAME) {
+                link = bytes("see " + id + ".paxheader");
+                pax = concat(pax, paxRecord("linkpath", linkName));
+            }
+            if (size > MAX_SIZE) {
+                pax = concat(pax, paxRecord("size", Long.toString(size)));
+                size = 0;
+            }
+            if (pax.length > 0) {
+                writeHeader(bytes(id + ".paxheader"), new byte[0], 0666, time, pax.length, 'x', new byte[0]);
+                writeData(pax);
+            }
+            writeHeader(name, prefix, mode, time, size, type, link);
+        }
+
+        /**
+         * @return the length of the part of a path that goes into the prefix field, as git's get_path_prefix()
+         */
+        private static int prefixLength(byte[] path) {
+            int i = path.length;
+            if (i > 1 && path[i - 1] == '/') {
+                i--;
+            }
+            i = Math.min(i, PREFIX);
+            do {
+                i--;
+            } while (i > 0 && path[i] != '/');
+            return i;
+        }
+
+        private void writeHeader(byte[] name, byte[] prefix, int mode, long time, long size, char type, byte[] linkName) throws IOException {
+            byte[] header = new byte[BLOCK];
+            put(header, 0, NAME, name);
+            octal(header, 100, 8, mode);
+            octal(header, 108, 8, 0);
+            octal(header, 116, 8, 0);
+            octal(header, 124, 12, size);
+            octal(header, 136, 12, time / 1000);
+            Arrays.fill(header, 148, 156, (byte) ' ');
+            header[156] = (byte) type;
+            put(header, 157, NAME, linkName);
+            put(header, 257, 8, bytes("ustar\u000000"));
+            put(header, 265, 32, bytes("root"));
+            put(header, 297, 32, bytes("root"));
+            octal(header, 329, 8, 0);
+            octal(header, 337, 8, 0);
+            put(header, 345, PREFIX, prefix);
+            int checksum = 0;
+            for (byte b : header) {
+                checksum += b & 0xff;
+            }
+            octal(header, 148, 8, checksum);
+            write(header);
+        }
+
+        private void writeData(byte[] data) throws IOException {
+            write(data);
+            pad();
+        }
+
+        private void pad() throws IOException {
+            if (written % BLOCK != 0) {
+                write(new byte[(int) (BLOCK - written % BLOCK)]);
+            }
+        }
+
+        private void write(byte[] data) throws IOException {
+            out.write(data);
+            written += data.length;
+        }
+
+        private static byte[] paxRecord(String key, String value) {
+            // the length includes itself
+            int length = key.getBytes(UTF8).length + value.getBytes(UTF8).length + 3;
+            int digits = String.valueOf(length).length();
+            length += digits;
+            if (String.valueOf(length).length() > digits) {
+                length++;
+            }
+            return (length + " " + key + "=" + value + "\n").getBytes(UTF8);
+        }
+
+        private static byte[] bytes(String s) {
+            return s.getBytes(UTF8);
+        }
+
+        private static byte[] concat(byte[] a, byte[] b) {
+            byte[] result = Arrays.copyOf(a, a.length + b.length);
+            System.arraycopy(b, 0, result, a.length, b.length);
+            return result;
+        }
+
+        private static void put(byte[] header, int offset, int length, byte[] value) {
+            System.arraycopy(value, 0, header, offset, Math.min(length, value.length));
+        }
+
+        /**
+         * Zero padded octal digits followed by a NUL
+         */
+        private static void octal(byte[] header, int offset, int length, long value) {
+            String digits = Long.toOctalString(value);
+            int start = offset + length - 1 - digits.length();
+            Arrays.fill(header, offset, start, (byte) '0');
+            put(header, start, digits.length(), digits.getBytes(UTF8));
+            header[offset + length - 1] = 0;
+        }
+    }
+
+    static final class Zip extends ArchiveWriter {
+        private final ZipOutputStream zip;
+
+        Zip(ZipOutputStream zip) {
+            this.zip = zip;
+        }
+
+        @Override
+        void putCommitId(String commitId, long time) {
+            zip.setComment(commitId);
+        }
+
+        @Override
+        void putDirectory(String path, String id, long time) throws IOException {
+            ZipEntry entry = new ZipEntry(path + "/");
+            entry.setTime(time);
+            zip.putNextEntry(entry);
+            zip.closeEntry();
+        }
+
+        @Override
+        void putFile(String path, String id, boolean executable, long time, long size, InputStream content) throws IOException {
+            ZipEntry entry = new ZipEntry(path);
+            entry.setTime(time);
+            entry.setSize(size);
+            zip.putNextEntry(entry);
+            copy(content, zip, size);
+            zip.closeEntry();
+        }
+
+        @Override
+        void putSymlink(String path, String id, long time, String target) throws IOException {
+            byte[] content = target.getBytes(UTF8);
+            putFile(path, id, false, time, content.length, new ByteArrayInputStream(content));
+        }
+
+        @Override
+        void finish() throws IOException {
+            zip.close();
+        }
+    }
+
+    private static final class CompressingGZIPOutputStream extends GZIPOutputStream {
+        CompressingGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out, 8192);
+            def.setLevel(level < 0 ? Deflater.DEFAULT_COMPRESSION : level);
+        }
+    }
+
+    /**
+     * Keeps the stream underneath open when the archive's compressing stream is closed
+     */
+    private static final class UnclosedOutputStream extends FilterOutputStream {
+        UnclosedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
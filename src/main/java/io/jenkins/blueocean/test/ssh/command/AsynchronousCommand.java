@@ -1,8 +1,12 @@
 package io.jenkins.blueocean.test.ssh.command;
 
+import io.jenkins.blueocean.test.ssh.metrics.Counter;
+import io.jenkins.blueocean.test.ssh.metrics.ServerMetrics;
 import org.apache.sshd.server.Command;
 import org.apache.sshd.server.Environment;
 import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.SessionAware;
+import org.apache.sshd.server.session.ServerSession;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -11,17 +15,24 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.nio.charset.Charset;
 import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
-abstract class AsynchronousCommand implements Command {
+abstract class AsynchronousCommand implements Command, SessionAware {
     private final List<String> cmd;
     private InputStream in;
     private OutputStream out;
     private OutputStream err;
     private ExitCallback callback;
-    private Thread thread;
+    private final CommandExecutor executor;
+    private final Counter active;
+    private Future<?> future;
+    private volatile ServerSession session;
 
-    AsynchronousCommand(List<String> cmd) {
+    AsynchronousCommand(List<String> cmd, CommandExecutor executor, ServerMetrics metrics) {
         this.cmd = cmd;
+        this.executor = executor;
+        this.active = metrics.counter(ServerMetrics.COMMANDS_ACTIVE);
     }
 
     public void setInputStream(InputStream in) {
@@ -48,13 +59,27 @@ abstract class AsynchronousCommand implements Command {
         return this.err;
     }
 
+    @Override
+    public void setSession(ServerSession session) {
+        this.session = session;
+    }
+
+    ServerSession getSession() {
+        return session;
+    }
+
     public void setExitCallback(ExitCallback callback) {
         this.callback = callback;
     }
 
+    ExitCallback getExitCallback() {
+        return callback;
+    }
+
     public void start(Environment env) throws IOException {
-        this.thread = new Thread(new Runnable() {
+        Runnable task = new Runnable() {
             public void run() {
+                active.increment();
                 try {
                     int i;
                     try {
@@ -70,20 +95,27 @@ abstract class AsynchronousCommand implements Command {
                     var8.printStackTrace(ps);
                     ps.flush();
                     AsynchronousCommand.this.callback.onExit(255, var8.getMessage());
+                } finally {
+                    active.decrement();
                 }
-
             }
-        });
-        this.thread.setName("SSH command: " + this.cmd);
-        this.thread.start();
+        };
+        try {
+            this.future = executor.submit("SSH command: " + this.cmd, task);
+        } catch (RejectedExecutionException e) {
+            PrintWriter ps = new PrintWriter(new OutputStreamWriter(this.err, Charset.defaultCharset()));
+            ps.println("Server busy, command rejected: " + e.getMessage());
+            ps.flush();
+            this.callback.onExit(CommandExecutor.EXIT_REJECTED, e.getMessage());
+        }
     }
 
     @SuppressWarnings("SameReturnValue")
     protected abstract int run() throws Exception;
 
     public void destroy() {
-        if (this.thread != null) {
-            this.thread.interrupt();
+        if (this.future != null) {
+            this.future.cancel(true);
         }
     }
 }
@@ -0,0 +1,134 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An exec command implemented in Java, run on the {@link CommandExecutor}
+ * instead of forking a process. Builtins only touch files below the server
+ * root; arguments pointing elsewhere make the command run as a process.
+ * The root may be on any file system, e.g. in memory.
+ */
+public abstract class BuiltinCommand {
+    static final Charset UTF8 = Charset.forName("utf-8");
+
+    private final String name;
+
+    protected BuiltinCommand(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the command name, e.g. "cat"
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Decides if this builtin handles the arguments; if not the command is run as a process
+     *
+     * @param root server root directory
+     * @param args arguments, without the command name
+     * @return true to run the builtin
+     */
+    public boolean accepts(Path root, List<String> args) {
+        return true;
+    }
+
+    /**
+     * Runs the command
+     *
+     * @param root server root directory, relative paths are resolved against it
+     * @param args arguments, without the command name
+     * @param in   standard input
+     * @param out  standard output
+     * @param err  standard error
+     * @return exit value
+     * @throws IOException if the streams fail
+     */
+    public abstract int run(Path root, List<String> args, InputStream in, OutputStream out, OutputStream err) throws IOException;
+
+    /**
+     * Resolves a path against the root
+     *
+     * @param root server root directory
+     * @param path relative path, or absolute path below the root
+     * @return the file, or null if it is outside the root
+     */
+    protected static Path resolve(Path root, String path) {
+        try {
+            // real paths so symlinks can't lead outside the root
+            Path base = root.toRealPath();
+            Path file = realPath(base.resolve(path).normalize());
+            return file.startsWith(base) ? file : null;
+        } catch (IOException | InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Resolves a path against the root like {@link #resolve(Path, String)}, but
+     * a symlink it names is kept rather than followed, e.g. for removing it
+     *
+     * @param root server root directory
+     * @param path relative path, or absolute path below the root
+     * @return the file, or null if it is outside the root
+     */
+    protected static Path resolveLink(Path root, String path) {
+        try {
+            Path base = root.toRealPath();
+            Path file = base.resolve(path).normalize();
+            Path name = file.getFileName();
+            if (name == null || file.getParent() == null) {
+                return resolve(root, path);
+            }
+            file = realPath(file.getParent()).resolve(name.toString());
+            return file.startsWith(base) ? file : null;
+        } catch (IOException | InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Resolves the symlinks of the part of a path that exists, like {@link java.io.File#getCanonicalFile()}
+     */
+    private static Path realPath(Path path) throws IOException {
+        Path existing = path;
+        List<Path> missing = new ArrayList<>();
+        while (existing != null && !Files.exists(existing, LinkOption.NOFOLLOW_LINKS)) {
+            missing.add(0, existing.getFileName());
+            existing = existing.getParent();
+        }
+        if (existing == null) {
+            return path;
+        }
+        Path real = existing.toRealPath();
+        for (Path name : missing) {
+            real = real.resolve(name.toString());
+        }
+        return real;
+    }
+
+    /**
+     * Writes a line of text
+     */
+    protected static void println(OutputStream out, String line) throws IOException {
+        out.write((line + "\n").getBytes(UTF8));
+    }
+
+    /**
+     * Writes an error message prefixed with the command name, as coreutils do
+     */
+    protected void error(OutputStream err, String message) throws IOException {
+        println(err, getName() + ": " + message);
+    }
+}
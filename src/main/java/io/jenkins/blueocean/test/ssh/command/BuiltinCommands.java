@@ -0,0 +1,538 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of {@link BuiltinCommand}s by name. The default registry covers
+ * the simple file commands plugins run most often: cat, echo, ls, mkdir,
+ * rm, test, pwd, true and false.
+ */
+public class BuiltinCommands {
+    /** characters a shell would interpret, commands using them run as a process */
+    private static final String SHELL_CHARACTERS = "$`*?~|&;<>(){}\\\"";
+
+    private final ConcurrentMap<String, BuiltinCommand> commands = new ConcurrentHashMap<>();
+
+    /**
+     * @return a registry without any builtin, every command runs as a process
+     */
+    public static BuiltinCommands empty() {
+        return new BuiltinCommands();
+    }
+
+    /**
+     * @return a registry with the default builtins
+     */
+    public static BuiltinCommands createDefault() {
+        BuiltinCommands builtins = new BuiltinCommands();
+        builtins.register(new Cat());
+        builtins.register(new Echo());
+        builtins.register(new Ls());
+        builtins.register(new Mkdir());
+        builtins.register(new Rm());
+        builtins.register(new Test("test"));
+        builtins.register(new Test("["));
+        builtins.register(new Pwd());
+        builtins.register(new Exit("true", 0));
+        builtins.register(new Exit("false", 1));
+        return builtins;
+    }
+
+    /**
+     * Registers a builtin, replacing any with the same name
+     *
+     * @param command builtin to register
+     * @return this registry
+     */
+    public BuiltinCommands register(BuiltinCommand command) {
+        commands.put(command.getName(), command);
+        return this;
+    }
+
+    /**
+     * @param name command name
+     * @return this registry
+     */
+    public BuiltinCommands unregister(String name) {
+        commands.remove(name);
+        return this;
+    }
+
+    /**
+     * Finds the builtin for a command line
+     *
+     * @param root server root directory
+     * @param cmd  command and arguments
+     * @return the builtin accepting the command, or null to run it as a process
+     */
+    public BuiltinCommand find(Path root, List<String> cmd) {
+        BuiltinCommand command = lookup(cmd);
+        return command != null && command.accepts(root, cmd.subList(1, cmd.size())) ? command : null;
+    }
+
+    /**
+     * Finds the builtin named by a command line, before its arguments are checked against a root
+     * with {@link BuiltinCommand#accepts(Path, List)}
+     *
+     * @param cmd command and arguments
+     * @return the builtin, or null to run the command as a process
+     */
+    public BuiltinCommand lookup(List<String> cmd) {
+        if (cmd.isEmpty()) {
+            return null;
+        }
+        BuiltinCommand command = commands.get(cmd.get(0));
+        if (command == null) {
+            return null;
+        }
+        for (String arg : cmd.subList(1, cmd.size())) {
+            for (int i = 0; i < arg.length(); i++) {
+                if (SHELL_CHARACTERS.indexOf(arg.charAt(i)) >= 0) {
+                    return null;
+                }
+            }
+        }
+        return command;
+    }
+
+    /**
+     * Splits leading single letter options, e.g. "-rf", from the operands
+     *
+     * @return the option letters, or null if an option is not in the allowed set
+     */
+    static String options(List<String> args, String allowed, List<String> operands) {
+        StringBuilder options = new StringBuilder();
+        boolean done = false;
+        for (String arg : args) {
+            if (!done && "--".equals(arg)) {
+                done = true;
+            } else if (!done && arg.length() > 1 && arg.charAt(0) == '-') {
+                for (int i = 1; i < arg.length(); i++) {
+                    if (allowed.indexOf(arg.charAt(i)) < 0) {
+                        return null;
+                    }
+                    options.append(arg.charAt(i));
+                }
+            } else {
+                done = true;
+                operands.add(arg);
+            }
+        }
+        return options.toString();
+    }
+
+    /**
+     * A builtin taking single letter options and file operands below the root
+     */
+    abstract static class FileCommand extends BuiltinCommand {
+        private final String allowedOptions;
+
+        FileCommand(String name, String allowedOptions) {
+            super(name);
+            this.allowedOptions = allowedOptions;
+        }
+
+        @Override
+        public boolean accepts(Path root, List<String> args) {
+            List<String> operands = new ArrayList<>();
+            if (options(args, allowedOptions, operands) == null) {
+                return false;
+            }
+            for (String operand : operands) {
+                if (resolveOperand(root, operand) == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the file an operand names, or null if it is outside the root
+         */
+        Path resolveOperand(Path root, String operand) {
+            return resolve(root, operand);
+        }
+
+        @Override
+        public int run(Path root, List<String> args, InputStream in, OutputStream out, OutputStream err) throws IOException {
+            List<String> operands = new ArrayList<>();
+            String options = options(args, allowedOptions, operands);
+            if (options == null) {
+                error(err, "invalid option");
+                return 2;
+            }
+            return run(root, options, operands, in, out, err);
+        }
+
+        abstract int run(Path root, String options, List<String> operands, InputStream in, OutputStream out, OutputStream err) throws IOException;
+    }
+
+    static class Cat extends FileCommand {
+        Cat() {
+            super("cat", "");
+        }
+
+        @Override
+        int run(Path root, String options, List<String> operands, InputStream in, OutputStream out, OutputStream err) throws IOException {
+            byte[] buf = new byte[64 * 1024];
+            if (operands.isEmpty()) {
+                copy(in, out, buf);
+                return 0;
+            }
+            int exit = 0;
+            for (String operand : operands) {
+                Path file = resolve(root, operand);
+                if (file == null || !Files.exists(file)) {
+                    error(err, operand + ": No such file or directory");
+                    exit = 1;
+                } else if (Files.isDirectory(file)) {
+                    error(err, operand + ": Is a directory");
+                    exit = 1;
+                } else {
+                    try (InputStream fileIn = Files.newInputStream(file)) {
+                        copy(fileIn, out, buf);
+                    }
+                }
+            }
+            return exit;
+        }
+
+        private static void copy(InputStream in, OutputStream out, byte[] buf) throws IOException {
+            int read;
+            while ((read = in.read(buf)) >= 0) {
+                out.write(buf, 0, read);
+            }
+        }
+    }
+
+    static class Echo extends BuiltinCommand {
+        Echo() {
+            super("echo");
+        }
+
+        @Override
+        public int run(Path root, List<String> args, InputStream in, OutputStream out, OutputStream err) throws IOException {
+            boolean newline = true;
+            List<String> words = args;
+            if (!words.isEmpty() && "-n".equals(words.get(0))) {
+                newline = false;
+                words = words.subList(1, words.size());
+            }
+            StringBuilder line = new StringBuilder();
+            for (String word : words) {
+                if (line.length() > 0) {
+                    line.append(' ');
+                }
+                line.append(word);
+            }
+            if (newline) {
+                line.append('\n');
+            }
+            out.write(line.toString().getBytes(UTF8));
+            return 0;
+        }
+    }
+
+    static class Ls extends FileCommand {
+        Ls() {
+            super("ls", "1aA");
+        }
+
+        @Override
+        int run(Path root, String options, List<String> operands, InputStream in, OutputStream out, OutputStream err) throws IOException {
+            boolean all = options.indexOf('a') >= 0;
+            boolean almostAll = options.indexOf('A') >= 0;
+            List<String> paths = operands.isEmpty() ? Collections.singletonList(".") : operands;
+            int exit = 0;
+            List<String> files = new ArrayList<>();
+            List<String> dirs = new ArrayList<>();
+            for (String path : paths) {
+                Path file = resolve(root, path);
+                if (file == null || !Files.exists(file)) {
+                    error(err, "cannot access '" + path + "': No such file or directory");
+                    exit = 2;
+                } else if (Files.isDirectory(file)) {
+                    dirs.add(path);
+                } else {
+                    files.add(path);
+                }
+            }
+            Collections.sort(files);
+            Collections.sort(dirs);
+            for (String file : files) {
+                println(out, file);
+            }
+            boolean headers = paths.size() > 1;
+            for (int i = 0; i < dirs.size(); i++) {
+                String dir = dirs.get(i);
+                if (headers) {
+                    if (i > 0 || !files.isEmpty()) {
+                        println(out, "");
+                    }
+                    println(out, dir + ":");
+                }
+                List<String> names;
+                try {
+                    names = list(resolve(root, dir));
+                } catch (IOException e) {
+                    error(err, "cannot open directory '" + dir + "'");
+                    exit = 2;
+                    continue;
+                }
+                Collections.sort(names);
+                if (all) {
+                    println(out, ".");
+                    println(out, "..");
+                }
+                for (String name : names) {
+                    if (all || almostAll || !name.startsWith(".")) {
+                        println(out, name);
+                    }
+                }
+            }
+            return exit;
+        }
+
+        private static List<String> list(Path dir) throws IOException {
+            if (dir == null) {
+                throw new NoSuchFileException("Outside the root");
+            }
+            List<String> names = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    names.add(String.valueOf(entry.getFileName()));
+                }
+            }
+            return names;
+        }
+    }
+
+    static class Mkdir extends FileCommand {
+        Mkdir() {
+            super("mkdir", "p");
+        }
+
+        @Override
+        int run(Path root, String options, List<String> operands, InputStream in, OutputStream out, OutputStream err) throws IOException {
+            boolean parents = options.indexOf('p') >= 0;
+            if (operands.isEmpty()) {
+                error(err, "missing operand");
+                return 1;
+            }
+            int exit = 0;
+            for (String operand : operands) {
+                Path dir = resolve(root, operand);
+                if (dir == null) {
+                    error(err, "cannot create directory '" + operand + "': Permission denied");
+                    exit = 1;
+                } else if (Files.exists(dir)) {
+                    if (!parents || !Files.isDirectory(dir)) {
+                        error(err, "cannot create directory '" + operand + "': File exists");
+                        exit = 1;
+                    }
+                } else {
+                    try {
+                        if (parents) {
+                            Files.createDirectories(dir);
+                        } else {
+                            Files.createDirectory(dir);
+                        }
+                    } catch (FileAlreadyExistsException e) {
+                        error(err, "cannot create directory '" + operand + "': File exists");
+                        exit = 1;
+                    } catch (IOException e) {
+                        error(err, "cannot create directory '" + operand + "': No such file or directory");
+                        exit = 1;
+                    }
+                }
+            }
+            return exit;
+        }
+    }
+
+    static class Rm extends FileCommand {
+        Rm() {
+            super("rm", "rRf");
+        }
+
+        @Override
+        Path resolveOperand(Path root, String operand) {
+            // a symlink is removed, not what it points to
+            return resolveLink(root, operand);
+        }
+
+        @Override
+        int run(Path root, String options, List<String> operands, InputStream in, OutputStream out, OutputStream err) throws IOException {
+            boolean recursive = options.indexOf('r') >= 0 || options.indexOf('R') >= 0;
+            boolean force = options.indexOf('f') >= 0;
+            if (operands.isEmpty() && !force) {
+                error(err, "missing operand");
+                return 1;
+            }
+            Path base = root.toRealPath();
+            int exit = 0;
+            for (String operand : operands) {
+                Path file = resolveOperand(root, operand);
+                if (file == null || file.equals(base)) {
+                    error(err, "refusing to remove '" + operand + "'");
+                    exit = 1;
+                } else if (!Files.exists(file, LinkOption.NOFOLLOW_LINKS)) {
+                    if (!force) {
+                        error(err, "cannot remove '" + operand + "': No such file or directory");
+                        exit = 1;
+                    }
+                } else if (Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS) && !recursive) {
+                    error(err, "cannot remove '" + operand + "': Is a directory");
+                    exit = 1;
+                } else {
+                    try {
+                        delete(file);
+                    } catch (IOException e) {
+                        error(err, "cannot remove '" + operand + "'");
+                        exit = 1;
+                    }
+                }
+            }
+            return exit;
+        }
+
+        private static void delete(Path file) throws IOException {
+            // symlinks are deleted, not followed into other directories
+            Files.walkFileTree(file, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    if (e != null) {
+                        throw e;
+                    }
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+
+    /**
+     * Supports the file tests of test/[ with a single operand, e.g. <code>test -d dir</code>
+     */
+    static class Test extends BuiltinCommand {
+        private static final String FILE_TESTS = "defrswx";
+
+        Test(String name) {
+            super(name);
+        }
+
+        private List<String> operands(List<String> args) {
+            if ("[".equals(getName())) {
+                if (args.isEmpty() || !"]".equals(args.get(args.size() - 1))) {
+                    return null;
+                }
+                return args.subList(0, args.size() - 1);
+            }
+            return args;
+        }
+
+        @Override
+        public boolean accepts(Path root, List<String> args) {
+            List<String> operands = operands(args);
+            return operands != null && operands.size() == 2
+                && operands.get(0).length() == 2 && operands.get(0).charAt(0) == '-'
+                && FILE_TESTS.indexOf(operands.get(0).charAt(1)) >= 0
+                && resolve(root, operands.get(1)) != null;
+        }
+
+        @Override
+        public int run(Path root, List<String> args, InputStream in, OutputStream out, OutputStream err) throws IOException {
+            List<String> operands = operands(args);
+            if (operands == null || operands.size() != 2) {
+                error(err, "unsupported expression");
+                return 2;
+            }
+            Path file = resolve(root, operands.get(1));
+            if (file == null) {
+                return 1;
+            }
+            boolean result;
+            switch (operands.get(0).charAt(1)) {
+                case 'd':
+                    result = Files.isDirectory(file);
+                    break;
+                case 'e':
+                    result = Files.exists(file);
+                    break;
+                case 'f':
+                    result = Files.isRegularFile(file);
+                    break;
+                case 'r':
+                    result = Files.isReadable(file);
+                    break;
+                case 's':
+                    result = Files.isRegularFile(file) && Files.size(file) > 0;
+                    break;
+                case 'w':
+                    result = Files.isWritable(file);
+                    break;
+                case 'x':
+                    result = Files.isExecutable(file);
+                    break;
+                default:
+                    error(err, "unsupported expression");
+                    return 2;
+            }
+            return result ? 0 : 1;
+        }
+    }
+
+    static class Pwd extends BuiltinCommand {
+        Pwd() {
+            super("pwd");
+        }
+
+        @Override
+        public boolean accepts(Path root, List<String> args) {
+            return args.isEmpty();
+        }
+
+        @Override
+        public int run(Path root, List<String> args, InputStream in, OutputStream out, OutputStream err) throws IOException {
+            // same as a process started in the root would print
+            println(out, root.toAbsolutePath().toString());
+            return 0;
+        }
+    }
+
+    static class Exit extends BuiltinCommand {
+        private final int exitValue;
+
+        Exit(String name, int exitValue) {
+            super(name);
+            this.exitValue = exitValue;
+        }
+
+        @Override
+        public int run(Path root, List<String> args, InputStream in, OutputStream out, OutputStream err) {
+            return exitValue;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import io.jenkins.blueocean.test.ssh.metrics.ServerMetrics;
+import org.apache.sshd.common.Factory;
+import org.apache.sshd.common.file.FileSystemAware;
+import org.apache.sshd.common.file.root.RootedFileSystem;
+import org.apache.sshd.server.Command;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.SessionAware;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a {@link BuiltinCommand} on the {@link CommandExecutor}, in place of
+ * an exec'ed process. Files are those of the session's file system, the same
+ * SCP and SFTP see. Arguments are checked against that file system when the
+ * command starts; those the builtin doesn't accept there run the process.
+ * A process only sees the disk, so on another file system, e.g. in memory,
+ * the command fails instead.
+ */
+public class BuiltinExecCommand extends AsynchronousCommand implements FileSystemAware {
+    private static final Logger log = Logger.getLogger(BuiltinExecCommand.class.getName());
+
+    private final BuiltinCommand builtin;
+    private final List<String> args;
+    private final Factory<Command> process;
+    private volatile FileSystem fileSystem;
+    private volatile Command delegate;
+
+    /**
+     * @param process creates the process run when the builtin doesn't accept the arguments
+     */
+    public BuiltinExecCommand(List<String> cmd, CommandExecutor executor, ServerMetrics metrics, BuiltinCommand builtin, Factory<Command> process) {
+        super(cmd, executor, metrics);
+        this.builtin = builtin;
+        this.args = cmd.subList(1, cmd.size());
+        this.process = process;
+    }
+
+    @Override
+    public void setFileSystem(FileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+    }
+
+    @Override
+    public void start(Environment env) throws IOException {
+        Path root = getRoot();
+        if (builtin.accepts(root, args)) {
+            super.start(env);
+            return;
+        }
+        if (root.getFileSystem() != FileSystems.getDefault()) {
+            // a process would see other files than SCP, SFTP and the other builtins
+            String message = "unsupported arguments, the files aren't on disk";
+            builtin.error(getErrorStream(), message);
+            getErrorStream().flush();
+            getExitCallback().onExit(2, builtin.getName() + ": " + message);
+            return;
+        }
+        Command command = process.create();
+        command.setInputStream(getInputStream());
+        command.setOutputStream(getOutputStream());
+        command.setErrorStream(getErrorStream());
+        command.setExitCallback(getExitCallback());
+        if (command instanceof SessionAware) {
+            ((SessionAware) command).setSession(getSession());
+        }
+        delegate = command;
+        command.start(env);
+    }
+
+    @Override
+    protected int run() throws Exception {
+        return builtin.run(getRoot(), args, getInputStream(), getOutputStream(), getErrorStream());
+    }
+
+    @Override
+    public void destroy() {
+        Command command = delegate;
+        if (command == null) {
+            super.destroy();
+            return;
+        }
+        try {
+            command.destroy();
+        } catch (Exception e) {
+            log.log(Level.FINE, "Unable to destroy " + command, e);
+        }
+    }
+
+    private Path getRoot() throws IOException {
+        FileSystem fs = fileSystem;
+        if (fs instanceof RootedFileSystem) {
+            // builtins check paths against the root themselves and print it for pwd
+            return ((RootedFileSystem) fs).getRoot();
+        }
+        File sessionRoot = SessionRoot.get(getSession(), null);
+        if (sessionRoot != null) {
+            return sessionRoot.toPath();
+        }
+        if (fs != null) {
+            return fs.getPath("/");
+        }
+        throw new IOException("No file system for " + builtin.getName());
+    }
+}
@@ -0,0 +1,361 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Bounded scheduler used to run {@link AsynchronousCommand}s, shared by all
+ * sessions of a single server.
+ */
+public class CommandExecutor {
+    private static final Logger log = Logger.getLogger(CommandExecutor.class.getName());
+
+    /**
+     * Exit value reported to the client when a command is rejected because
+     * all threads are busy and the queue is full (EX_TEMPFAIL)
+     */
+    public static final int EXIT_REJECTED = 75;
+
+    public enum Mode {
+        /** a fixed number of threads, kept alive while the server runs */
+        FIXED,
+        /** up to the configured number of threads, idle threads are released */
+        ELASTIC,
+        /**
+         * one virtual thread per command, requires a JDK with virtual threads; as many commands as there
+         * are threads run at once, the others wait up to the queue limit
+         */
+        VIRTUAL
+    }
+
+    private final Mode mode;
+    private final int threads;
+    private final int queueLimit;
+    private final long keepAliveMillis;
+
+    private final AtomicInteger threadNumber = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private ExecutorService executor;
+    // virtual threads only: commands running or waiting, and commands running
+    private Semaphore permits;
+    private Semaphore running;
+
+    /**
+     * @param mode       how threads are provided
+     * @param threads    maximum number of commands running at the same time
+     * @param queueLimit maximum number of commands waiting for a thread, 0 to reject as soon as all threads are busy
+     */
+    public CommandExecutor(Mode mode, int threads, int queueLimit) {
+        this(mode, threads, queueLimit, TimeUnit.SECONDS.toMillis(60));
+    }
+
+    /**
+     * @param mode            how threads are provided
+     * @param threads         maximum number of commands running at the same time
+     * @param queueLimit      maximum number of commands waiting for a thread, 0 to reject as soon as all threads are busy
+     * @param keepAliveMillis how long an idle {@link Mode#ELASTIC} thread is kept
+     */
+    public CommandExecutor(Mode mode, int threads, int queueLimit, long keepAliveMillis) {
+        if (mode == null) {
+            throw new IllegalArgumentException("No mode");
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        if (queueLimit < 0) {
+            throw new IllegalArgumentException("queueLimit must not be negative: " + queueLimit);
+        }
+        this.mode = mode;
+        this.threads = threads;
+        this.queueLimit = queueLimit;
+        this.keepAliveMillis = keepAliveMillis;
+    }
+
+    /**
+     * @return an elastic executor sized for many parallel clones against one server
+     */
+    public static CommandExecutor createDefault() {
+        return new CommandExecutor(Mode.ELASTIC, Math.max(16, 4 * Runtime.getRuntime().availableProcessors()), 1024);
+    }
+
+    /**
+     * @return true if virtual threads are available on this JVM
+     */
+    public static boolean isVirtualThreadSupported() {
+        return findVirtualExecutorFactory() != null;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getQueueLimit() {
+        return queueLimit;
+    }
+
+    /**
+     * Schedules the task, starting the underlying pool if needed
+     *
+     * @param name name given to the thread while it runs the task
+     * @param task task to run
+     * @return a future that may be used to cancel the task
+     * @throws RejectedExecutionException if all threads are busy and the queue is full
+     */
+    public Future<?> submit(String name, Runnable task) {
+        ExecutorService service;
+        Semaphore limit;
+        Semaphore slots;
+        synchronized (this) {
+            if (executor == null) {
+                start();
+            }
+            service = executor;
+            limit = permits;
+            slots = running;
+        }
+        if (limit != null && !limit.tryAcquire()) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("Too many commands, limit is " + (threads + queueLimit));
+        }
+        queued.incrementAndGet();
+        Task future = new Task(name, task, service, limit, slots);
+        try {
+            service.execute(future);
+            submitted.incrementAndGet();
+            return future;
+        } catch (RejectedExecutionException e) {
+            future.dequeue();
+            future.finish();
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private void start() {
+        switch (mode) {
+            case VIRTUAL: {
+                Method factory = findVirtualExecutorFactory();
+                if (factory != null) {
+                    try {
+                        executor = (ExecutorService) factory.invoke(null);
+                        permits = new Semaphore(threads + queueLimit);
+                        running = new Semaphore(threads);
+                        return;
+                    } catch (Exception e) {
+                        log.warning("Unable to create virtual thread executor, falling back to " + Mode.ELASTIC + ": " + e.getMessage());
+                    }
+                } else {
+                    log.warning("Virtual threads not supported on this JVM, falling back to " + Mode.ELASTIC);
+                }
+                executor = createPool(false);
+                return;
+            }
+            case FIXED:
+                executor = createPool(true);
+                return;
+            default:
+                executor = createPool(false);
+        }
+    }
+
+    private ThreadPoolExecutor createPool(boolean fixed) {
+        BlockingQueue<Runnable> queue = queueLimit == 0 ?
+            new SynchronousQueue<Runnable>() :
+            new LinkedBlockingQueue<Runnable>(queueLimit);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, keepAliveMillis, TimeUnit.MILLISECONDS, queue, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SSH command pool-" + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        if (fixed) {
+            pool.prestartAllCoreThreads();
+        } else {
+            pool.allowCoreThreadTimeOut(true);
+        }
+        return pool;
+    }
+
+    private static Method findVirtualExecutorFactory() {
+        try {
+            return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stops accepting commands and interrupts running ones; the executor
+     * may be used again afterwards, a new pool is created on demand
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            permits = null;
+            running = null;
+        }
+    }
+
+    /**
+     * @return number of commands currently running
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * @return number of commands waiting for a thread
+     */
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * @return number of commands accepted since creation
+     */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * @return number of commands finished since creation
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * @return number of commands rejected since creation
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return number of threads currently in the pool, or the number of active commands for virtual threads
+     */
+    public synchronized int getPoolSize() {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getPoolSize();
+        }
+        return active.get();
+    }
+
+    /**
+     * @return largest number of threads that have been in the pool at the same time
+     */
+    public synchronized int getLargestPoolSize() {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getLargestPoolSize();
+        }
+        return 0;
+    }
+
+    /**
+     * A command counted as queued until it runs or is cancelled; its place under the limit is given
+     * back once it is done either way
+     */
+    private final class Task extends FutureTask<Void> {
+        private final String name;
+        private final ExecutorService service;
+        private final Semaphore limit;
+        private final Semaphore slots;
+        private final AtomicBoolean waiting = new AtomicBoolean(true);
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        Task(String name, Runnable task, ExecutorService service, Semaphore limit, Semaphore slots) {
+            super(task, null);
+            this.name = name;
+            this.service = service;
+            this.limit = limit;
+            this.slots = slots;
+        }
+
+        @Override
+        public void run() {
+            if (isDone()) {
+                return;
+            }
+            if (slots != null) {
+                try {
+                    slots.acquire();
+                } catch (InterruptedException e) {
+                    // shut down while waiting for a slot
+                    cancel(false);
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            dequeue();
+            active.incrementAndGet();
+            Thread current = Thread.currentThread();
+            String oldName = current.getName();
+            current.setName(name);
+            try {
+                super.run();
+            } finally {
+                current.setName(oldName);
+                active.decrementAndGet();
+                completed.incrementAndGet();
+                if (slots != null) {
+                    slots.release();
+                }
+            }
+        }
+
+        void dequeue() {
+            if (waiting.compareAndSet(true, false)) {
+                queued.decrementAndGet();
+            }
+        }
+
+        void finish() {
+            if (finished.compareAndSet(false, true) && limit != null) {
+                limit.release();
+            }
+        }
+
+        @Override
+        protected void done() {
+            dequeue();
+            finish();
+            if (isCancelled() && service instanceof ThreadPoolExecutor) {
+                // gives its place in the queue back at once
+                ((ThreadPoolExecutor) service).remove(this);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CommandExecutor[mode=" + mode + ", threads=" + threads + ", queueLimit=" + queueLimit
+            + ", active=" + getActiveCount() + ", queued=" + getQueuedCount()
+            + ", completed=" + getCompletedCount() + ", rejected=" + getRejectedCount() + "]";
+    }
+}
@@ -0,0 +1,260 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import io.jenkins.blueocean.test.ssh.metrics.ServerMetrics;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepository;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Server-wide state shared by the git commands: where they run and where
+ * their repositories come from.
+ */
+public class GitContext {
+    private final ServerMetrics metrics;
+    private final File root;
+    private volatile CommandExecutor commandExecutor = CommandExecutor.createDefault();
+    private volatile RepositoryCache repositoryCache = RepositoryCache.createDefault();
+    private volatile PackCache packCache = PackCache.createDefault();
+    private volatile TransferProfile transferProfile = TransferProfile.realistic();
+    private final ConcurrentMap<String, TransferProfile> repositoryTransferProfiles = new ConcurrentHashMap<>();
+    private volatile boolean atomicRefUpdates = true;
+    private final PushEvents pushEvents = PushEvents.createDefault();
+    private final InMemoryRepositories inMemoryRepositories = new InMemoryRepositories();
+    private final ConcurrentMap<File, RepositoryIndex> repositoryIndexes = new ConcurrentHashMap<>();
+    private volatile boolean autoCreateRepositories;
+
+    public GitContext() {
+        this(new ServerMetrics());
+    }
+
+    /**
+     * @param metrics where the git commands record their durations and bytes
+     */
+    public GitContext(ServerMetrics metrics) {
+        this(metrics, null);
+    }
+
+    /**
+     * @param metrics where the git commands record their durations and bytes
+     * @param root    directory repositories are served from, null for the working directory
+     */
+    public GitContext(ServerMetrics metrics, File root) {
+        this.metrics = metrics;
+        this.root = (root == null ? new File("") : root).getAbsoluteFile();
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    public CommandExecutor getCommandExecutor() {
+        return commandExecutor;
+    }
+
+    public void setCommandExecutor(CommandExecutor commandExecutor) {
+        if (commandExecutor == null) {
+            throw new IllegalArgumentException("No command executor");
+        }
+        this.commandExecutor.shutdown();
+        this.commandExecutor = commandExecutor;
+    }
+
+    public RepositoryCache getRepositoryCache() {
+        return repositoryCache;
+    }
+
+    public void setRepositoryCache(RepositoryCache repositoryCache) {
+        if (repositoryCache == null) {
+            throw new IllegalArgumentException("No repository cache");
+        }
+        this.repositoryCache.clear();
+        this.repositoryCache = repositoryCache;
+    }
+
+    public PackCache getPackCache() {
+        return packCache;
+    }
+
+    public void setPackCache(PackCache packCache) {
+        if (packCache == null) {
+            throw new IllegalArgumentException("No pack cache");
+        }
+        this.packCache.clear();
+        this.packCache = packCache;
+    }
+
+    /**
+     * @return the profile of repositories without an override
+     */
+    public TransferProfile getTransferProfile() {
+        return transferProfile;
+    }
+
+    public void setTransferProfile(TransferProfile transferProfile) {
+        if (transferProfile == null) {
+            throw new IllegalArgumentException("No transfer profile");
+        }
+        this.transferProfile = transferProfile;
+    }
+
+    /**
+     * @param name repository path as sent by the client
+     * @return the profile used for this repository
+     */
+    public TransferProfile getTransferProfile(String name) {
+        TransferProfile profile = repositoryTransferProfiles.isEmpty() ? null : repositoryTransferProfiles.get(InMemoryRepositories.normalize(name));
+        return profile != null ? profile : transferProfile;
+    }
+
+    /**
+     * @param name            repository path as sent by the client
+     * @param transferProfile profile to use for this repository, or null to use the server's
+     */
+    public void setTransferProfile(String name, TransferProfile transferProfile) {
+        if (transferProfile == null) {
+            repositoryTransferProfiles.remove(InMemoryRepositories.normalize(name));
+        } else {
+            repositoryTransferProfiles.put(InMemoryRepositories.normalize(name), transferProfile);
+        }
+    }
+
+    /**
+     * @return repository name -&gt; profile, for the repositories with an override
+     */
+    public Map<String, TransferProfile> getRepositoryTransferProfiles() {
+        return Collections.unmodifiableMap(new TreeMap<>(repositoryTransferProfiles));
+    }
+
+    /**
+     * @return whether the refs of a push are updated all or nothing
+     */
+    public boolean isAtomicRefUpdates() {
+        return atomicRefUpdates;
+    }
+
+    /**
+     * Only applies to repositories whose ref database supports transactions,
+     * e.g. in-memory ones; on disk JGit updates the refs of a batch one by one
+     *
+     * @param atomicRefUpdates whether the refs of a push are updated all or nothing
+     */
+    public void setAtomicRefUpdates(boolean atomicRefUpdates) {
+        this.atomicRefUpdates = atomicRefUpdates;
+    }
+
+    public PushEvents getPushEvents() {
+        return pushEvents;
+    }
+
+    public InMemoryRepositories getInMemoryRepositories() {
+        return inMemoryRepositories;
+    }
+
+    /**
+     * @return whether git-receive-pack creates a bare repository for names that don't exist yet
+     */
+    public boolean isAutoCreateRepositories() {
+        return autoCreateRepositories;
+    }
+
+    /**
+     * @param autoCreateRepositories whether git-receive-pack creates a bare repository for names that don't exist yet, off by default
+     */
+    public void setAutoCreateRepositories(boolean autoCreateRepositories) {
+        this.autoCreateRepositories = autoCreateRepositories;
+    }
+
+    /**
+     * @param root directory holding the repositories, null for the one given to the constructor
+     * @return the index of the repositories on disk under the directory
+     * @throws IOException if the directory's canonical path can't be determined
+     */
+    public RepositoryIndex getRepositoryIndex(File root) throws IOException {
+        File key = root == null ? this.root : root.getAbsoluteFile();
+        RepositoryIndex index = repositoryIndexes.get(key);
+        if (index == null) {
+            RepositoryIndex created = new RepositoryIndex(key);
+            index = repositoryIndexes.putIfAbsent(key, created);
+            if (index == null) {
+                index = created;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Forgets the index of a directory no longer served, e.g. of a removed namespace
+     *
+     * @param root directory holding the repositories
+     */
+    public void removeRepositoryIndex(File root) {
+        repositoryIndexes.remove(root.getAbsoluteFile());
+    }
+
+    /**
+     * Opens the repository a client asked for, in memory if registered, otherwise on disk
+     *
+     * @param name   repository path sent by the client
+     * @param root   directory holding the repositories, null for the one given to the constructor
+     * @param create whether to create a bare repository if there is none with this name
+     * @return the repository, to be passed to {@link #release(Repository)} when done
+     * @throws IOException if the repository can't be opened or the name leads outside the directory
+     */
+    Repository open(String name, File root, boolean create) throws IOException {
+        InMemoryRepository repository = inMemoryRepositories.get(name);
+        if (repository != null) {
+            return repository;
+        }
+        RepositoryIndex index = getRepositoryIndex(root);
+        File gitDir = index.resolve(name);
+        if (gitDir == null) {
+            if (!create) {
+                throw new RepositoryNotFoundException(name);
+            }
+            gitDir = index.create(name);
+        }
+        try {
+            return repositoryCache.open(gitDir);
+        } catch (RepositoryNotFoundException e) {
+            // deleted since it was indexed
+            index.remove(gitDir);
+            throw e;
+        }
+    }
+
+    void release(Repository repository) {
+        if (!(repository instanceof InMemoryRepository)) {
+            repositoryCache.release(repository);
+        }
+    }
+
+    /**
+     * @return identifies a repository across opens, e.g. for {@link PackCache} entries
+     */
+    String getRepositoryKey(Repository repository) {
+        if (repository instanceof DfsRepository) {
+            return "memory:" + ((DfsRepository) repository).getDescription().getRepositoryName();
+        }
+        return repository.getDirectory().getPath();
+    }
+
+    /**
+     * Stops running commands, closes open repositories and drops cached packs and repository indexes,
+     * in-memory repositories are kept
+     */
+    public void shutdown() {
+        commandExecutor.shutdown();
+        repositoryCache.clear();
+        packCache.clear();
+        repositoryIndexes.clear();
+    }
+}
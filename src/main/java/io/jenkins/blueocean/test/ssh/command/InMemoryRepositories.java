@@ -0,0 +1,228 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import org.eclipse.jgit.errors.NotSupportedException;
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.eclipse.jgit.transport.BundleWriter;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.TransportBundleStream;
+import org.eclipse.jgit.transport.URIish;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Named git repositories held in memory with JGit's DFS storage, served by
+ * git-upload-pack and git-receive-pack without touching the disk. Names are
+ * matched against the path a client asks for, without leading or trailing
+ * slashes, e.g. "org/repo.git".
+ */
+public class InMemoryRepositories {
+    private static final RefSpec ALL_REFS = new RefSpec("+refs/*:refs/*");
+
+    private final ConcurrentMap<String, InMemoryRepository> repositories = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an empty repository, replacing any with the same name
+     *
+     * @param name repository name
+     * @return the new repository
+     */
+    public InMemoryRepository create(String name) {
+        String key = normalize(name);
+        InMemoryRepository repository = new InMemoryRepository(new DfsRepositoryDescription(key));
+        repositories.put(key, repository);
+        return repository;
+    }
+
+    /**
+     * Creates a repository holding all refs and objects of another repository
+     *
+     * @param name   repository name
+     * @param source repository to copy
+     * @return the new repository
+     * @throws IOException if the copy fails
+     */
+    public InMemoryRepository seed(String name, Repository source) throws IOException {
+        ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+        writeBundle(source, bundle);
+        InMemoryRepository repository = new InMemoryRepository(new DfsRepositoryDescription(normalize(name)));
+        fetchBundle(repository, new ByteArrayInputStream(bundle.toByteArray()));
+        copyHead(source, repository);
+        repositories.put(normalize(name), repository);
+        return repository;
+    }
+
+    /**
+     * Creates a repository from a git directory or a bundle file
+     *
+     * @param name   repository name
+     * @param source git directory, or bundle created with <code>git bundle create</code>
+     * @return the new repository
+     * @throws IOException if the copy fails
+     */
+    public InMemoryRepository seed(String name, File source) throws IOException {
+        if (source.isFile()) {
+            try (InputStream in = new FileInputStream(source)) {
+                return seedFromBundle(name, in);
+            }
+        }
+        try (Repository repository = new RepositoryBuilder().setGitDir(source).setMustExist(true).build()) {
+            return seed(name, repository);
+        }
+    }
+
+    /**
+     * Creates a repository from a bundle stream
+     *
+     * @param name   repository name
+     * @param bundle bundle contents
+     * @return the new repository
+     * @throws IOException if the bundle can't be read
+     */
+    public InMemoryRepository seedFromBundle(String name, InputStream bundle) throws IOException {
+        InMemoryRepository repository = new InMemoryRepository(new DfsRepositoryDescription(normalize(name)));
+        fetchBundle(repository, bundle);
+        Ref master = repository.exactRef(Constants.R_HEADS + Constants.MASTER);
+        if (master == null && !repository.getRefDatabase().getRefs(Constants.R_HEADS).isEmpty()) {
+            link(repository, repository.getRefDatabase().getRefs(Constants.R_HEADS).values().iterator().next().getName());
+        }
+        repositories.put(normalize(name), repository);
+        return repository;
+    }
+
+    /**
+     * Writes all refs and objects of a repository as a bundle, e.g. to inspect it after a push
+     *
+     * @param name repository name
+     * @param out  stream to write to
+     * @throws IOException if the repository does not exist or can't be written
+     */
+    public void snapshot(String name, OutputStream out) throws IOException {
+        writeBundle(getExisting(name), out);
+    }
+
+    /**
+     * Copies all refs and objects of a repository to a new bare repository on disk
+     *
+     * @param name   repository name
+     * @param gitDir directory to create the repository in
+     * @return the on-disk repository, to be closed by the caller
+     * @throws IOException if the repository does not exist or can't be written
+     */
+    public Repository snapshot(String name, File gitDir) throws IOException {
+        InMemoryRepository source = getExisting(name);
+        ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+        writeBundle(source, bundle);
+        Repository target = new RepositoryBuilder().setGitDir(gitDir).setBare().build();
+        try {
+            target.create(true);
+            fetchBundle(target, new ByteArrayInputStream(bundle.toByteArray()));
+            copyHead(source, target);
+            return target;
+        } catch (IOException | RuntimeException e) {
+            target.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param name repository name as sent by the client
+     * @return the repository, or null if there is none with this name
+     */
+    public InMemoryRepository get(String name) {
+        return repositories.isEmpty() ? null : repositories.get(normalize(name));
+    }
+
+    /**
+     * @param name repository name
+     * @return the removed repository, or null
+     */
+    public InMemoryRepository remove(String name) {
+        return repositories.remove(normalize(name));
+    }
+
+    /**
+     * @return the names of all repositories
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(new TreeSet<>(repositories.keySet()));
+    }
+
+    /**
+     * Removes all repositories
+     */
+    public void clear() {
+        repositories.clear();
+    }
+
+    private InMemoryRepository getExisting(String name) throws IOException {
+        InMemoryRepository repository = get(name);
+        if (repository == null) {
+            throw new IOException("No in-memory repository: " + name);
+        }
+        return repository;
+    }
+
+    static String normalize(String name) {
+        int start = 0;
+        int end = name.length();
+        while (start < end && name.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && name.charAt(end - 1) == '/') {
+            end--;
+        }
+        return name.substring(start, end);
+    }
+
+    private static void writeBundle(Repository source, OutputStream out) throws IOException {
+        BundleWriter writer = new BundleWriter(source);
+        for (Map.Entry<String, Ref> ref : source.getRefDatabase().getRefs(Constants.R_REFS).entrySet()) {
+            if (ref.getValue().getObjectId() != null) {
+                writer.include(Constants.R_REFS + ref.getKey(), ref.getValue().getObjectId());
+            }
+        }
+        writer.writeBundle(NullProgressMonitor.INSTANCE, out);
+    }
+
+    private static void fetchBundle(Repository target, InputStream bundle) throws IOException {
+        try (Transport transport = new TransportBundleStream(target, new URIish().setPath("bundle"), bundle)) {
+            transport.fetch(NullProgressMonitor.INSTANCE, Collections.singletonList(ALL_REFS));
+        } catch (NotSupportedException | TransportException e) {
+            throw new IOException("Unable to copy repository", e);
+        }
+    }
+
+    private static void copyHead(Repository source, Repository target) throws IOException {
+        Ref head = source.exactRef(Constants.HEAD);
+        if (head != null && head.isSymbolic()) {
+            link(target, head.getTarget().getName());
+        }
+    }
+
+    private static void link(Repository repository, String target) throws IOException {
+        RefUpdate update = repository.updateRef(Constants.HEAD);
+        update.disableRefLog();
+        update.link(target);
+    }
+}
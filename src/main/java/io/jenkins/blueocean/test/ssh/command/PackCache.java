@@ -0,0 +1,153 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Size bounded cache of complete git-upload-pack responses, so repeated
+ * identical clones of a repository are streamed from memory instead of
+ * enumerating, delta compressing and deflating the objects again.
+ * <p>
+ * Entries are keyed by a digest of the ref advertisement, which covers the
+ * state of every ref, and of the client's request, which covers the wants,
+ * haves and capabilities. Entries of a repository are dropped when a push
+ * updates it.
+ */
+public class PackCache {
+    private final long maxBytes;
+    private final long maxEntryBytes;
+
+    // access ordered, so iteration starts with the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxBytes      total size of cached responses
+     * @param maxEntryBytes largest response cached
+     */
+    public PackCache(long maxBytes, long maxEntryBytes) {
+        if (maxBytes < 0 || maxEntryBytes < 0) {
+            throw new IllegalArgumentException("Sizes must not be negative");
+        }
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxBytes, maxEntryBytes);
+    }
+
+    /**
+     * @return a cache of up to 64MB, responses above 16MB are not cached
+     */
+    public static PackCache createDefault() {
+        return new PackCache(64L << 20, 16L << 20);
+    }
+
+    /**
+     * @return a cache that never stores anything
+     */
+    public static PackCache disabled() {
+        return new PackCache(0, 0);
+    }
+
+    public boolean isEnabled() {
+        return maxEntryBytes > 0;
+    }
+
+    public long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * @param repository repository key
+     * @param key        digest of the advertisement and request
+     * @return the cached response, or null
+     */
+    synchronized byte[] get(String repository, String key) {
+        Entry entry = entries.get(repository + '\0' + key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.response;
+    }
+
+    synchronized void put(String repository, String key, byte[] response) {
+        if (response.length > maxEntryBytes) {
+            return;
+        }
+        Entry old = entries.put(repository + '\0' + key, new Entry(repository, response));
+        if (old != null) {
+            size -= old.response.length;
+        }
+        size += response.length;
+        for (Iterator<Entry> it = entries.values().iterator(); size > maxBytes && it.hasNext(); ) {
+            Entry entry = it.next();
+            it.remove();
+            size -= entry.response.length;
+            evictions++;
+        }
+    }
+
+    /**
+     * Drops all responses of a repository, called when its refs change
+     *
+     * @param repository repository key
+     */
+    public synchronized void invalidate(String repository) {
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.repository.equals(repository)) {
+                it.remove();
+                size -= entry.response.length;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * @return number of cached responses
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return total size of cached responses in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    private static class Entry {
+        final String repository;
+        final byte[] response;
+
+        Entry(String repository, byte[] response) {
+            this.repository = repository;
+            this.response = response;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PackCache[entries=" + entries.size() + ", size=" + size + ", hits=" + hits + ", misses=" + misses + "]";
+    }
+}
@@ -0,0 +1,106 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Refs updated by one git-receive-pack
+ */
+public final class PushEvent {
+    private final long sequence;
+    private final String repository;
+    private final List<RefChange> refChanges;
+    private final long timestamp;
+    private final long durationMillis;
+
+    PushEvent(long sequence, String repository, List<RefChange> refChanges, long timestamp, long durationMillis) {
+        this.sequence = sequence;
+        this.repository = repository;
+        this.refChanges = Collections.unmodifiableList(new ArrayList<>(refChanges));
+        this.timestamp = timestamp;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * @return increases by one with every push to the server
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return repository path as sent by the client, without leading or trailing slashes
+     */
+    public String getRepository() {
+        return repository;
+    }
+
+    public List<RefChange> getRefChanges() {
+        return refChanges;
+    }
+
+    /**
+     * @param refName full ref name, e.g. "refs/heads/master"
+     * @return the change of this ref, or null if it wasn't updated
+     */
+    public RefChange getRefChange(String refName) {
+        for (RefChange change : refChanges) {
+            if (change.getRefName().equals(refName)) {
+                return change;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return when the push started, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return time from the start of the command until the refs were updated
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "PushEvent[" + sequence + ", " + repository + ", " + refChanges + ", " + durationMillis + "ms]";
+    }
+
+    /**
+     * One updated ref, ids are 40 character hex strings with all zeros for a created or deleted ref
+     */
+    public static final class RefChange {
+        private final String refName;
+        private final String oldId;
+        private final String newId;
+
+        RefChange(String refName, String oldId, String newId) {
+            this.refName = refName;
+            this.oldId = oldId;
+            this.newId = newId;
+        }
+
+        public String getRefName() {
+            return refName;
+        }
+
+        public String getOldId() {
+            return oldId;
+        }
+
+        public String getNewId() {
+            return newId;
+        }
+
+        @Override
+        public String toString() {
+            return refName + " " + oldId + ".." + newId;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import org.eclipse.jgit.transport.ReceiveCommand;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The most recent pushes to the server, kept in a ring buffer, so tests can
+ * wait for a push to land instead of polling the repository.
+ * <p>
+ * Publishing never blocks the push: the event is stored and waiting threads
+ * are woken, listeners are called from a separate dispatcher thread.
+ */
+public class PushEvents {
+    private static final Logger log = Logger.getLogger(PushEvents.class.getName());
+
+    private static final ExecutorService dispatcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "SSH push event dispatcher");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final PushEvent[] ring;
+    private final List<PushListener> listeners = new CopyOnWriteArrayList<>();
+    private long sequence;
+    // events up to this sequence were dropped by clear()
+    private long cleared;
+
+    /**
+     * @param capacity number of events kept
+     */
+    public PushEvents(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.ring = new PushEvent[capacity];
+    }
+
+    /**
+     * @return keeps the last 256 pushes
+     */
+    public static PushEvents createDefault() {
+        return new PushEvents(256);
+    }
+
+    public void addListener(PushListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(PushListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Records the commands of a push that were applied
+     */
+    void publish(String repository, Collection<ReceiveCommand> commands, long timestamp, long durationMillis) {
+        List<PushEvent.RefChange> changes = new ArrayList<>(commands.size());
+        for (ReceiveCommand command : commands) {
+            changes.add(new PushEvent.RefChange(command.getRefName(), command.getOldId().name(), command.getNewId().name()));
+        }
+        final PushEvent event;
+        synchronized (this) {
+            event = new PushEvent(++sequence, InMemoryRepositories.normalize(repository), changes, timestamp, durationMillis);
+            ring[index(event.getSequence())] = event;
+            notifyAll();
+        }
+        if (!listeners.isEmpty()) {
+            dispatcher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (PushListener listener : listeners) {
+                        try {
+                            listener.onPush(event);
+                        } catch (RuntimeException e) {
+                            log.log(Level.WARNING, "Push listener " + listener + " failed for " + event, e);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return sequence number of the last push, 0 if there was none; pass to
+     * {@link #awaitPush(String, long, long, TimeUnit)} to wait for the next one
+     */
+    public synchronized long getLastSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the buffered events, oldest first
+     */
+    public synchronized List<PushEvent> getEvents() {
+        List<PushEvent> events = new ArrayList<>();
+        for (long s = first(); s <= sequence; s++) {
+            events.add(ring[index(s)]);
+        }
+        return events;
+    }
+
+    /**
+     * Waits for a push to a repository after a given one
+     *
+     * @param repository     repository path as sent by the client, or null for any repository
+     * @param afterSequence  only pushes with a higher sequence number are returned
+     * @param timeout        how long to wait
+     * @param unit           unit of the timeout
+     * @return the first matching push, or null if there was none before the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized PushEvent awaitPush(String repository, long afterSequence, long timeout, TimeUnit unit) throws InterruptedException {
+        String name = repository == null ? null : InMemoryRepositories.normalize(repository);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long checked = afterSequence;
+        while (true) {
+            for (long s = Math.max(checked + 1, first()); s <= sequence; s++) {
+                PushEvent event = ring[index(s)];
+                if (name == null || name.equals(event.getRepository())) {
+                    return event;
+                }
+            }
+            checked = Math.max(checked, sequence);
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    /**
+     * Returns the last buffered push to a repository, waiting for one if there is none
+     *
+     * @param repository repository path as sent by the client, or null for any repository
+     * @param timeout    how long to wait
+     * @param unit       unit of the timeout
+     * @return the push, or null if there was none before the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized PushEvent awaitPush(String repository, long timeout, TimeUnit unit) throws InterruptedException {
+        String name = repository == null ? null : InMemoryRepositories.normalize(repository);
+        for (long s = sequence; s >= first(); s--) {
+            PushEvent event = ring[index(s)];
+            if (name == null || name.equals(event.getRepository())) {
+                return event;
+            }
+        }
+        return awaitPush(repository, sequence, timeout, unit);
+    }
+
+    /**
+     * Drops the buffered events, sequence numbers keep increasing
+     */
+    public synchronized void clear() {
+        for (long s = first(); s <= sequence; s++) {
+            ring[index(s)] = null;
+        }
+        cleared = sequence;
+    }
+
+    private long first() {
+        return Math.max(cleared + 1, sequence - ring.length + 1);
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % ring.length);
+    }
+}
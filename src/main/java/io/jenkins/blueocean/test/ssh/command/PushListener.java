@@ -0,0 +1,9 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+/**
+ * Notified after a push updated refs, on a dispatcher thread and never on the
+ * thread serving the push
+ */
+public interface PushListener {
+    void onPush(PushEvent event);
+}
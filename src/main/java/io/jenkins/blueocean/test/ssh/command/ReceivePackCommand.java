@@ -1,8 +1,15 @@
 package io.jenkins.blueocean.test.ssh.command;
 
+import com.google.common.io.CountingInputStream;
+import io.jenkins.blueocean.test.ssh.metrics.ServerMetrics;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.PostReceiveHook;
+import org.eclipse.jgit.transport.ReceiveCommand;
 import org.eclipse.jgit.transport.ReceivePack;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Implements "git-receive-pack" in Jenkins SSH that receives uploaded commits from clients.
@@ -10,14 +17,39 @@ import java.util.List;
  * @author Kohsuke Kawaguchi
  */
 public class ReceivePackCommand extends AbstractGitCommand {
-    public ReceivePackCommand(List<String> cmd) {
-        super(cmd);
+    public ReceivePackCommand(List<String> cmd, GitContext context) {
+        super(cmd, context, ServerMetrics.RECEIVE_PACK);
     }
 
     @Override
-    protected int run() throws Exception {
-        ReceivePack pack = new ReceivePack(getRepository());
-        pack.receive(getInputStream(),getOutputStream(),getErrorStream());
+    boolean createsRepository() {
+        return getContext().isAutoCreateRepositories();
+    }
+
+    @Override
+    protected int run(Repository repository) throws Exception {
+        final long timestamp = System.currentTimeMillis();
+        final long started = System.nanoTime();
+        ReceivePack pack = new ReceivePack(repository);
+        getTransferProfile().configure(pack);
+        // JGit rejects the whole push if the ref database can't do transactions
+        pack.setAtomic(getContext().isAtomicRefUpdates() && repository.getRefDatabase().performsAtomicTransactions());
+        pack.setPostReceiveHook(new PostReceiveHook() {
+            @Override
+            public void onPostReceive(ReceivePack rp, Collection<ReceiveCommand> commands) {
+                if (!commands.isEmpty()) {
+                    long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+                    getContext().getPushEvents().publish(getRepositoryName(), commands, timestamp, duration);
+                }
+            }
+        });
+        CountingInputStream in = new CountingInputStream(getInputStream());
+        try {
+            pack.receive(in,getOutputStream(),getErrorStream());
+        } finally {
+            getContext().getPackCache().invalidate(getContext().getRepositoryKey(repository));
+            getContext().getMetrics().counter(ServerMetrics.RECEIVE_PACK_BYTES).add(in.getCount());
+        }
         return 0;
     }
 }
@@ -0,0 +1,319 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Keeps JGit {@link Repository} instances open between commands so repeated
+ * fetches of the same repository reuse the already loaded config, refs and
+ * pack indexes.
+ * <p>
+ * Repositories are reference counted: every {@link #open(File)} must be paired
+ * with a {@link #release(Repository)}. Unused repositories are closed once
+ * they have been idle longer than the configured time or when more than
+ * the configured number of repositories are open; idle ones are looked for
+ * on every open and release, and by a background sweep while any repository
+ * is cached.
+ * <p>
+ * A repository is opened outside the cache's lock, so a slow open only holds
+ * up the commands waiting for the same repository.
+ * <p>
+ * A repository still in use when it is dropped from the cache, by
+ * {@link #clear()}, stays counted and is closed once its last user releases it.
+ */
+public class RepositoryCache {
+    private static final Logger log = Logger.getLogger(RepositoryCache.class.getName());
+
+    private final int maxSize;
+    private final long idleMillis;
+
+    // access ordered, so iteration starts with the least recently used entry
+    private final LinkedHashMap<File, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // also holds entries dropped from entries while in use, until they are released
+    private final Map<Repository, Entry> byRepository = new IdentityHashMap<>();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    // runs evictIdle() while repositories are cached
+    private ScheduledThreadPoolExecutor sweeper;
+
+    /**
+     * @param maxSize    maximum number of unused repositories kept open
+     * @param idleMillis time after which an unused repository is closed
+     */
+    public RepositoryCache(int maxSize, long idleMillis) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * @return a cache keeping up to 64 repositories open for 5 minutes
+     */
+    public static RepositoryCache createDefault() {
+        return new RepositoryCache(64, TimeUnit.MINUTES.toMillis(5));
+    }
+
+    /**
+     * Opens the repository, reusing a cached instance if one exists
+     *
+     * @param gitDir the git directory
+     * @return an open repository, to be passed to {@link #release(Repository)} when done
+     * @throws IOException if the repository can't be opened
+     */
+    public Repository open(File gitDir) throws IOException {
+        final File key = gitDir.getCanonicalFile();
+        Entry entry;
+        boolean created = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                misses++;
+                entry = new Entry(new Callable<Repository>() {
+                    @Override
+                    public Repository call() throws IOException {
+                        return build(key);
+                    }
+                });
+                entries.put(key, entry);
+                created = true;
+                startSweeper();
+            } else {
+                hits++;
+            }
+            // held while opening, so the entry isn't evicted meanwhile
+            entry.references++;
+        }
+        if (created) {
+            entry.opening.run();
+        }
+        Repository repository;
+        try {
+            repository = entry.opening.get();
+        } catch (InterruptedException | ExecutionException e) {
+            synchronized (this) {
+                entry.references--;
+                // a failed open isn't cached, the next command tries again; a waiter being interrupted
+                // doesn't fail the open for the others
+                if (created && !entry.removed) {
+                    entries.remove(key);
+                    entry.removed = true;
+                }
+            }
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted opening " + key, e);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Unable to open " + key, cause);
+        }
+        List<Repository> evicted;
+        synchronized (this) {
+            // also if cleared meanwhile, then it is closed when its last user releases it
+            if (entry.repository == null) {
+                entry.repository = repository;
+                byRepository.put(repository, entry);
+            }
+            evicted = collectEvicted(System.currentTimeMillis());
+        }
+        close(evicted);
+        return repository;
+    }
+
+    /**
+     * Releases a repository previously returned by {@link #open(File)}
+     *
+     * @param repository repository to release
+     */
+    public void release(Repository repository) {
+        List<Repository> evicted = new ArrayList<>();
+        synchronized (this) {
+            Entry entry = byRepository.get(repository);
+            if (entry == null) {
+                log.warning("Released a repository that isn't open: " + repository.getDirectory());
+                return;
+            }
+            if (entry.references > 0) {
+                entry.references--;
+            }
+            if (entry.removed) {
+                // dropped by clear() while in use
+                if (entry.references == 0) {
+                    byRepository.remove(repository);
+                    evicted.add(repository);
+                }
+            } else {
+                long now = System.currentTimeMillis();
+                entry.lastUsed = now;
+                evicted = collectEvicted(now);
+            }
+        }
+        close(evicted);
+    }
+
+    /**
+     * Closes repositories that have been idle for longer than the configured time
+     */
+    public void evictIdle() {
+        List<Repository> evicted;
+        synchronized (this) {
+            evicted = collectEvicted(System.currentTimeMillis());
+            if (entries.isEmpty()) {
+                stopSweeper();
+            }
+        }
+        close(evicted);
+    }
+
+    /**
+     * Closes all cached repositories; repositories still in use are closed when released
+     */
+    public void clear() {
+        List<Repository> evicted = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                entry.removed = true;
+                if (entry.references == 0) {
+                    byRepository.remove(entry.repository);
+                    evicted.add(entry.repository);
+                }
+            }
+            entries.clear();
+            stopSweeper();
+        }
+        close(evicted);
+    }
+
+    private void startSweeper() {
+        if (sweeper != null) {
+            return;
+        }
+        sweeper = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SSH repository cache sweeper");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        // an idle repository is closed at most a quarter of the idle time late, or a minute
+        long period = Math.max(100, Math.min(idleMillis / 4, TimeUnit.MINUTES.toMillis(1)));
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdle();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopSweeper() {
+        if (sweeper != null) {
+            sweeper.shutdown();
+            sweeper = null;
+        }
+    }
+
+    private List<Repository> collectEvicted(long now) {
+        List<Repository> evicted = new ArrayList<>();
+        int unused = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.references == 0) {
+                unused++;
+            }
+        }
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.references > 0) {
+                continue;
+            }
+            if (unused > maxSize || now - entry.lastUsed > idleMillis) {
+                it.remove();
+                entry.removed = true;
+                byRepository.remove(entry.repository);
+                evicted.add(entry.repository);
+                evictions++;
+                unused--;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Opens a repository for the cache
+     */
+    Repository build(File gitDir) throws IOException {
+        return new RepositoryBuilder().setGitDir(gitDir).setMustExist(true).build();
+    }
+
+    private static void close(List<Repository> repositories) {
+        for (Repository repository : repositories) {
+            log.fine("Closing repository: " + repository.getDirectory());
+            repository.close();
+        }
+    }
+
+    /**
+     * @return number of repositories currently open
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return number of times an open repository was reused
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return number of times a repository had to be opened
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return number of repositories closed due to idle time or size
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    private static class Entry {
+        final FutureTask<Repository> opening;
+        // set once open, before the entry can be unused
+        Repository repository;
+        int references;
+        long lastUsed;
+        // no longer in entries, closed when the last reference is released
+        boolean removed;
+
+        Entry(Callable<Repository> open) {
+            this.opening = new FutureTask<>(open);
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.eclipse.jgit.util.FS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The git repositories under a directory, by the names clients ask for.
+ * The directory is scanned once, on the first lookup; names missing from
+ * the index are then checked on disk once each and added when found, and
+ * repositories created through {@link #create(String)} are added directly,
+ * so repeated commands don't probe the file system again.
+ * <p>
+ * A repository is found by its git directory, e.g. "org/repo.git" or
+ * "org/repo/.git", and by that name without ".git", e.g. "org/repo".
+ * <p>
+ * Absolute paths under the directory are accepted too. Other names starting
+ * with a slash, like "/org/repo.git" from ssh://host/org/repo.git, are taken
+ * relative to the directory when their first element, "/org", doesn't exist
+ * on disk. Names leading outside the directory, through "..", an absolute
+ * path or a symlink, are rejected.
+ */
+public class RepositoryIndex {
+    // deep enough for "org/repo/.git"
+    private static final int MAX_DEPTH = 4;
+
+    private final File root;
+    private final Path rootPath;
+    private final Path canonicalRootPath;
+    private final ConcurrentMap<String, File> gitDirs = new ConcurrentHashMap<>();
+    private volatile boolean scanned;
+
+    /**
+     * @param root directory holding the repositories
+     * @throws IOException if the directory's canonical path can't be determined
+     */
+    public RepositoryIndex(File root) throws IOException {
+        this.root = root.getAbsoluteFile();
+        this.rootPath = root.toPath().toAbsolutePath().normalize();
+        this.canonicalRootPath = root.getCanonicalFile().toPath();
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * @param name repository path as sent by the client
+     * @return the git directory, or null if there is no repository with this name
+     * @throws IOException if the name leads outside the directory
+     */
+    public File resolve(String name) throws IOException {
+        String key = toKey(name);
+        scan();
+        File gitDir = gitDirs.get(key);
+        if (gitDir == null) {
+            gitDir = probe(key, name);
+        }
+        return gitDir;
+    }
+
+    /**
+     * Creates a bare repository, unless one with this name exists already
+     *
+     * @param name repository path as sent by the client
+     * @return the git directory
+     * @throws IOException if the name leads outside the directory or the repository can't be created
+     */
+    public synchronized File create(String name) throws IOException {
+        File gitDir = resolve(name);
+        if (gitDir != null) {
+            return gitDir;
+        }
+        String key = toKey(name);
+        if (key.isEmpty()) {
+            throw new IOException("No repository name: " + name);
+        }
+        gitDir = checkInside(new File(root, key), name);
+        try (Repository repository = new RepositoryBuilder().setGitDir(gitDir).setBare().build()) {
+            repository.create(true);
+        }
+        add(gitDir);
+        return gitDir;
+    }
+
+    /**
+     * Drops a repository that no longer exists on disk, it is looked for again on the next lookup
+     *
+     * @param gitDir git directory returned by {@link #resolve(String)}
+     */
+    public void remove(File gitDir) {
+        gitDirs.values().removeAll(Collections.singleton(gitDir));
+    }
+
+    /**
+     * @return the names repositories can be found by
+     */
+    public Set<String> getNames() {
+        scan();
+        return Collections.unmodifiableSet(new TreeSet<>(gitDirs.keySet()));
+    }
+
+    /**
+     * @return number of names indexed
+     */
+    public int size() {
+        scan();
+        return gitDirs.size();
+    }
+
+    private void scan() {
+        if (scanned) {
+            return;
+        }
+        synchronized (this) {
+            if (scanned) {
+                return;
+            }
+            try {
+                Files.walkFileTree(rootPath, EnumSet.noneOf(FileVisitOption.class), MAX_DEPTH, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        File file = dir.toFile();
+                        if (isGitDirectory(file)) {
+                            add(file);
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                        Path fileName = dir.getFileName();
+                        if (!dir.equals(rootPath) && fileName != null && fileName.toString().startsWith(".")) {
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                // a missing root holds no repositories yet, they are probed for one by one
+            }
+            scanned = true;
+        }
+    }
+
+    private File probe(String key, String name) throws IOException {
+        File dir = new File(root, key);
+        for (File candidate : new File[] {dir, new File(dir, ".git"), new File(root, key + ".git")}) {
+            if (isGitDirectory(candidate)) {
+                add(checkInside(candidate, name));
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private void add(File gitDir) {
+        String key = rootPath.relativize(gitDir.toPath().toAbsolutePath().normalize()).toString().replace(File.separatorChar, '/');
+        gitDirs.put(key, gitDir);
+        if (key.equals(".git")) {
+            gitDirs.putIfAbsent("", gitDir);
+        } else if (key.endsWith("/.git")) {
+            gitDirs.putIfAbsent(key.substring(0, key.length() - 5), gitDir);
+        } else if (key.endsWith(".git")) {
+            gitDirs.putIfAbsent(key.substring(0, key.length() - 4), gitDir);
+        }
+    }
+
+    /**
+     * @return the name relative to the directory, without leading or trailing slashes
+     */
+    private String toKey(String name) throws IOException {
+        Path path = Paths.get(name).normalize();
+        if (path.isAbsolute()) {
+            if (path.startsWith(rootPath)) {
+                path = rootPath.relativize(path);
+            } else if (path.getNameCount() == 0 || !Files.exists(path.getRoot().resolve(path.getName(0)))) {
+                // ssh://host/org/repo.git asks for "/org/repo.git"
+                path = Paths.get(InMemoryRepositories.normalize(path.toString()));
+            } else {
+                throw outside(name);
+            }
+        }
+        String key = path.toString().replace(File.separatorChar, '/');
+        if (key.equals("..") || key.startsWith("../")) {
+            throw outside(name);
+        }
+        return InMemoryRepositories.normalize(key);
+    }
+
+    /**
+     * @return the file, if it is under the directory once symlinks are resolved
+     */
+    private File checkInside(File file, String name) throws IOException {
+        if (!file.getCanonicalFile().toPath().startsWith(canonicalRootPath)) {
+            throw outside(name);
+        }
+        return file;
+    }
+
+    private IOException outside(String name) {
+        return new IOException("Repository outside of " + root + ": " + name);
+    }
+
+    private static boolean isGitDirectory(File dir) {
+        return org.eclipse.jgit.lib.RepositoryCache.FileKey.isGitRepository(dir, FS.DETECTED);
+    }
+}
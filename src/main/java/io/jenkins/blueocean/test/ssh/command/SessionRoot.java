@@ -0,0 +1,31 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import org.apache.sshd.common.AttributeStore;
+import org.apache.sshd.common.session.Session;
+
+import java.io.File;
+
+/**
+ * The directory a session is rooted in, set when a user of a namespace
+ * authenticates; sessions without one use the server's directory
+ */
+public final class SessionRoot {
+    private static final AttributeStore.AttributeKey<File> ROOT = new AttributeStore.AttributeKey<>();
+
+    private SessionRoot() {
+    }
+
+    public static void set(Session session, File root) {
+        session.setAttribute(ROOT, root);
+    }
+
+    /**
+     * @param session     the session, may be null
+     * @param defaultRoot returned if the session isn't rooted elsewhere
+     * @return the session's root directory
+     */
+    public static File get(Session session, File defaultRoot) {
+        File root = session == null ? null : session.getAttribute(ROOT);
+        return root == null ? defaultRoot : root;
+    }
+}
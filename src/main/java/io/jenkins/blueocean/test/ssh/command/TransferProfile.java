@@ -0,0 +1,104 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.transport.ReceivePack;
+import org.eclipse.jgit.transport.UploadPack;
+
+/**
+ * Pack settings applied to every git-upload-pack and git-receive-pack served.
+ * <p>
+ * {@link #realistic()} keeps JGit's defaults, as a real git server would
+ * behave. {@link #loopbackFast()} is meant for clients on the same machine:
+ * no delta search and no compression, so a clone costs little more than
+ * copying the objects.
+ */
+public final class TransferProfile {
+    public static final String LOOPBACK_FAST = "loopback-fast";
+    public static final String REALISTIC = "realistic";
+
+    private final String name;
+    private final PackConfig packConfig;
+    private final boolean checkReceivedObjects;
+
+    /**
+     * @param name                 reported in stats and part of the {@link PackCache} key
+     * @param packConfig           settings for generated packs, copied
+     * @param checkReceivedObjects whether pushed objects are verified
+     */
+    public TransferProfile(String name, PackConfig packConfig, boolean checkReceivedObjects) {
+        if (name == null || packConfig == null) {
+            throw new IllegalArgumentException("Name and pack config are required");
+        }
+        this.name = name;
+        this.packConfig = new PackConfig(packConfig);
+        this.checkReceivedObjects = checkReceivedObjects;
+    }
+
+    /**
+     * @return JGit's defaults
+     */
+    public static TransferProfile realistic() {
+        return new TransferProfile(REALISTIC, new PackConfig(), false);
+    }
+
+    /**
+     * @return no deltas, level 0 compression, existing objects and deltas reused as is
+     */
+    public static TransferProfile loopbackFast() {
+        PackConfig config = new PackConfig();
+        config.setDeltaCompress(false);
+        config.setCompressionLevel(0);
+        config.setThreads(1);
+        config.setReuseObjects(true);
+        config.setReuseDeltas(true);
+        return new TransferProfile(LOOPBACK_FAST, config, false);
+    }
+
+    /**
+     * @param name {@link #LOOPBACK_FAST} or {@link #REALISTIC}
+     * @return the preset
+     */
+    public static TransferProfile forName(String name) {
+        if (LOOPBACK_FAST.equals(name)) {
+            return loopbackFast();
+        }
+        if (REALISTIC.equals(name)) {
+            return realistic();
+        }
+        throw new IllegalArgumentException("Unknown transfer profile: " + name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return a copy of the pack settings
+     */
+    public PackConfig getPackConfig() {
+        return new PackConfig(packConfig);
+    }
+
+    public boolean isCheckReceivedObjects() {
+        return checkReceivedObjects;
+    }
+
+    void configure(UploadPack pack) {
+        // never modified by UploadPack, so it can be shared
+        pack.setPackConfig(packConfig);
+    }
+
+    void configure(ReceivePack pack) {
+        pack.setCheckReceivedObjects(checkReceivedObjects);
+    }
+
+    @Override
+    public String toString() {
+        return name + "[deltas=" + packConfig.isDeltaCompress()
+                + ", window=" + packConfig.getDeltaSearchWindowSize()
+                + ", compression=" + packConfig.getCompressionLevel()
+                + ", threads=" + packConfig.getThreads()
+                + ", bigFileThreshold=" + packConfig.getBigFileThreshold()
+                + ", checkReceivedObjects=" + checkReceivedObjects + "]";
+    }
+}
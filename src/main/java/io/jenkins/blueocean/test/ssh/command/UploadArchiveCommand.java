@@ -0,0 +1,177 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import com.google.common.io.CountingOutputStream;
+import io.jenkins.blueocean.test.ssh.metrics.ServerMetrics;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.PacketLineIn;
+import org.eclipse.jgit.transport.PacketLineOut;
+import org.eclipse.jgit.transport.SideBandOutputStream;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Implements "git-upload-archive", which serves <code>git archive --remote</code>.
+ * The archive is written from the object database straight to the client,
+ * one tree entry at a time, in the formats tar, tgz (or tar.gz) and zip.
+ * <p>
+ * Arguments are those git sends: <code>--format=</code>, <code>--prefix=</code>,
+ * a compression level <code>-0</code> to <code>-9</code>, the tree-ish and paths.
+ */
+public class UploadArchiveCommand extends AbstractGitCommand {
+    private static final Charset UTF8 = Charset.forName("utf-8");
+
+    public UploadArchiveCommand(List<String> cmd, GitContext context) {
+        super(cmd, context, ServerMetrics.UPLOAD_ARCHIVE);
+    }
+
+    @Override
+    protected int run(Repository repository) throws Exception {
+        PacketLineIn in = new PacketLineIn(getInputStream());
+        List<String> arguments = new ArrayList<>();
+        String line;
+        while (!(line = in.readString()).isEmpty()) {
+            if (!line.startsWith("argument ")) {
+                throw new IOException("Expected an argument: " + line);
+            }
+            arguments.add(line.substring("argument ".length()));
+        }
+
+        PacketLineOut pckOut = new PacketLineOut(getOutputStream());
+        Request request;
+        try {
+            request = parse(repository, arguments);
+        } catch (IllegalArgumentException e) {
+            pckOut.writeString("NACK " + e.getMessage() + "\n");
+            pckOut.flush();
+            return 1;
+        }
+        pckOut.writeString("ACK\n");
+        pckOut.end();
+
+        SideBandOutputStream data = new SideBandOutputStream(SideBandOutputStream.CH_DATA, SideBandOutputStream.MAX_BUF, getOutputStream());
+        CountingOutputStream counted = new CountingOutputStream(data);
+        try {
+            write(repository, request, ArchiveWriter.create(request.format, request.level, counted));
+            data.flush();
+        } catch (IOException | RuntimeException e) {
+            data.flush();
+            SideBandOutputStream error = new SideBandOutputStream(SideBandOutputStream.CH_ERROR, SideBandOutputStream.SMALL_BUF, getOutputStream());
+            error.write(("fatal: " + e.getMessage() + "\n").getBytes(UTF8));
+            error.flush();
+            throw e;
+        } finally {
+            getContext().getMetrics().counter(ServerMetrics.UPLOAD_ARCHIVE_BYTES).add(counted.getCount());
+        }
+        pckOut.end();
+        return 0;
+    }
+
+    private static Request parse(Repository repository, List<String> arguments) throws IOException {
+        Request request = new Request();
+        List<String> paths = new ArrayList<>();
+        for (String argument : arguments) {
+            if (argument.startsWith("--format=")) {
+                request.format = argument.substring("--format=".length());
+            } else if (argument.startsWith("--prefix=")) {
+                request.prefix = argument.substring("--prefix=".length());
+            } else if (argument.matches("-[0-9]")) {
+                request.level = argument.charAt(1) - '0';
+            } else if ("--worktree-attributes".equals(argument) || "-v".equals(argument) || "--verbose".equals(argument)) {
+                // nothing to do without a work tree or progress messages
+            } else if (argument.startsWith("-")) {
+                throw new IllegalArgumentException("Unsupported option " + argument);
+            } else if (request.tree == null) {
+                ObjectId id = repository.resolve(argument);
+                if (id == null) {
+                    throw new IllegalArgumentException("Not a valid object name " + argument);
+                }
+                try (RevWalk walk = new RevWalk(repository)) {
+                    RevObject object = walk.peel(walk.parseAny(id));
+                    if (object instanceof RevCommit) {
+                        RevCommit commit = (RevCommit) object;
+                        request.commitId = commit.name();
+                        request.time = commit.getCommitTime() * 1000L;
+                        request.tree = commit.getTree();
+                    } else if (object instanceof RevTree) {
+                        request.tree = (RevTree) object;
+                    } else {
+                        throw new IllegalArgumentException("Not a tree object " + argument);
+                    }
+                }
+            } else {
+                paths.add(argument);
+            }
+        }
+        if (request.tree == null) {
+            throw new IllegalArgumentException("No tree-ish given");
+        }
+        if (!ArchiveWriter.isSupported(request.format)) {
+            throw new IllegalArgumentException("Unknown archive format '" + request.format + "'");
+        }
+        request.paths = paths;
+        return request;
+    }
+
+    private static void write(Repository repository, Request request, ArchiveWriter archive) throws IOException {
+        if (request.commitId != null) {
+            archive.putCommitId(request.commitId, request.time);
+        }
+        if (!request.prefix.isEmpty() && request.prefix.endsWith("/")) {
+            archive.putDirectory(request.prefix.substring(0, request.prefix.length() - 1), request.tree.name(), request.time);
+        }
+        try (ObjectReader reader = repository.newObjectReader(); TreeWalk walk = new TreeWalk(reader)) {
+            walk.addTree(request.tree);
+            if (!request.paths.isEmpty()) {
+                walk.setFilter(PathFilterGroup.createFromStrings(request.paths));
+            }
+            while (walk.next()) {
+                String path = request.prefix + walk.getPathString();
+                FileMode mode = walk.getFileMode(0);
+                ObjectId id = walk.getObjectId(0);
+                if (walk.isSubtree()) {
+                    archive.putDirectory(path, id.name(), request.time);
+                    walk.enterSubtree();
+                } else if (mode == FileMode.GITLINK) {
+                    // submodules are archived as empty directories, like git does
+                    archive.putDirectory(path, id.name(), request.time);
+                } else {
+                    ObjectLoader loader = reader.open(id);
+                    if (mode == FileMode.SYMLINK) {
+                        archive.putSymlink(path, id.name(), request.time, new String(loader.getCachedBytes(), UTF8));
+                    } else {
+                        // large objects are streamed rather than loaded
+                        try (InputStream content = loader.openStream()) {
+                            archive.putFile(path, id.name(), mode == FileMode.EXECUTABLE_FILE, request.time, loader.getSize(), content);
+                        }
+                    }
+                }
+            }
+        }
+        archive.finish();
+    }
+
+    private static final class Request {
+        String format = ArchiveWriter.TAR;
+        String prefix = "";
+        int level = -1;
+        RevTree tree;
+        String commitId;
+        // trees without a commit get the current time, as in git
+        long time = System.currentTimeMillis();
+        List<String> paths;
+    }
+}
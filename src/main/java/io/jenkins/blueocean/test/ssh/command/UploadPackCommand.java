@@ -1,24 +1,257 @@
 package io.jenkins.blueocean.test.ssh.command;
 
+import com.google.common.io.CountingOutputStream;
+import io.jenkins.blueocean.test.ssh.metrics.ServerMetrics;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.PacketLineOut;
+import org.eclipse.jgit.transport.RefAdvertiser;
 import org.eclipse.jgit.transport.UploadPack;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
 
 /**
  * Implements "git-upload-pack" in Jenkins SSH that lets clients
  * download commits from us.
+ * <p>
+ * Full clones (wants followed directly by "done") are answered from the
+ * {@link PackCache} when the same request was served for the same refs.
  *
  * @author Kohsuke Kawaguchi
  */
 public class UploadPackCommand extends AbstractGitCommand {
-    public UploadPackCommand(List<String> cmd) {
-        super(cmd);
+    private static final Charset UTF8 = Charset.forName("utf-8");
+
+    public UploadPackCommand(List<String> cmd, GitContext context) {
+        super(cmd, context, ServerMetrics.UPLOAD_PACK);
     }
 
     @Override
-    protected int run() throws Exception {
-        UploadPack pack = new UploadPack(getRepository());
-        pack.upload(getInputStream(),getOutputStream(),getErrorStream());
+    protected int run(Repository repository) throws Exception {
+        CountingOutputStream out = new CountingOutputStream(getOutputStream());
+        try {
+            return run(repository, out);
+        } finally {
+            getContext().getMetrics().counter(ServerMetrics.UPLOAD_PACK_BYTES).add(out.getCount());
+        }
+    }
+
+    private int run(Repository repository, OutputStream out) throws Exception {
+        TransferProfile profile = getTransferProfile();
+        PackCache cache = getContext().getPackCache();
+        if (!cache.isEnabled()) {
+            UploadPack pack = new UploadPack(repository);
+            profile.configure(pack);
+            pack.upload(getInputStream(),out,getErrorStream());
+            return 0;
+        }
+
+        // advertise the refs ourselves so the request can be read before any pack work starts
+        ByteArrayOutputStream advertisement = new ByteArrayOutputStream();
+        new UploadPack(repository).sendAdvertisedRefs(new RefAdvertiser.PacketLineOutRefAdvertiser(new PacketLineOut(advertisement)));
+        advertisement.writeTo(out);
+        out.flush();
+
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        boolean fullClone = readRequest(getInputStream(), request);
+        String repositoryKey = getContext().getRepositoryKey(repository);
+        String key = fullClone ? digest(profile.getName(), advertisement.toByteArray(), request.toByteArray()) : null;
+        if (key != null) {
+            byte[] response = cache.get(repositoryKey, key);
+            if (response != null) {
+                out.write(response);
+                out.flush();
+                return 0;
+            }
+        }
+
+        // replay the request to a regular UploadPack, dropping its (second) advertisement
+        BoundedBuffer recorded = key != null ? new BoundedBuffer(cache.getMaxEntryBytes()) : null;
+        InputStream in = new SequenceInputStream(new ByteArrayInputStream(request.toByteArray()), getInputStream());
+        UploadPack pack = new UploadPack(repository);
+        profile.configure(pack);
+        pack.upload(in, new AdvertisementSkippingOutputStream(out, recorded), getErrorStream());
+        if (recorded != null && !recorded.isOverflowed()) {
+            cache.put(repositoryKey, key, recorded.toByteArray());
+        }
         return 0;
     }
+
+    /**
+     * Reads the wants and, for a full clone, the "done" line that follows
+     *
+     * @return true if the request is a full clone
+     */
+    static boolean readRequest(InputStream in, ByteArrayOutputStream request) throws IOException {
+        try {
+            boolean wants = false;
+            boolean other = false;
+            String line;
+            while ((line = readPacket(in, request)) != null) {
+                if (line.startsWith("want ")) {
+                    wants = true;
+                } else {
+                    other = true;
+                }
+            }
+            // no wants: nothing follows; shallow requests wait for our reply
+            if (!wants || other) {
+                return false;
+            }
+            return "done\n".equals(readPacket(in, request));
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the packet payload, or null for a flush packet
+     */
+    private static String readPacket(InputStream in, ByteArrayOutputStream copy) throws IOException {
+        byte[] header = readFully(in, 4);
+        copy.write(header, 0, header.length);
+        int length = parseLength(header);
+        if (length == 0) {
+            return null;
+        }
+        if (length < 4) {
+            throw new IOException("Invalid packet length: " + length);
+        }
+        byte[] payload = readFully(in, length - 4);
+        copy.write(payload, 0, payload.length);
+        return new String(payload, UTF8);
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] buf = new byte[length];
+        int off = 0;
+        while (off < length) {
+            int read = in.read(buf, off, length - off);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            off += read;
+        }
+        return buf;
+    }
+
+    static int parseLength(byte[] header) throws IOException {
+        int length = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(header[i], 16);
+            if (digit < 0) {
+                throw new IOException("Invalid packet header");
+            }
+            length = (length << 4) | digit;
+        }
+        return length;
+    }
+
+    private static String digest(String profile, byte[] advertisement, byte[] request) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            // the same request gets a different pack with other pack settings
+            md.update(profile.getBytes(UTF8));
+            md.update((byte) 0);
+            md.update(advertisement);
+            md.update(request);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : md.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Drops the packets up to and including the first flush packet, forwards and optionally records the rest
+     */
+    static class AdvertisementSkippingOutputStream extends FilterOutputStream {
+        private final BoundedBuffer recorded;
+        private final byte[] header = new byte[4];
+        private int headerLength;
+        private int remaining;
+        private boolean skipping = true;
+
+        AdvertisementSkippingOutputStream(OutputStream out, BoundedBuffer recorded) {
+            super(out);
+            this.recorded = recorded;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (skipping && len > 0) {
+                if (remaining > 0) {
+                    int n = Math.min(remaining, len);
+                    remaining -= n;
+                    off += n;
+                    len -= n;
+                    continue;
+                }
+                header[headerLength++] = b[off++];
+                len--;
+                if (headerLength == 4) {
+                    headerLength = 0;
+                    int length = parseLength(header);
+                    if (length == 0) {
+                        skipping = false;
+                    } else {
+                        remaining = length - 4;
+                    }
+                }
+            }
+            if (len > 0) {
+                out.write(b, off, len);
+                if (recorded != null) {
+                    recorded.write(b, off, len);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records up to a limit, then stops
+     */
+    static class BoundedBuffer extends ByteArrayOutputStream {
+        private final long limit;
+        private boolean overflowed;
+
+        BoundedBuffer(long limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            if (overflowed) {
+                return;
+            }
+            if (count + (long) len > limit) {
+                overflowed = true;
+                reset();
+                return;
+            }
+            super.write(b, off, len);
+        }
+
+        synchronized boolean isOverflowed() {
+            return overflowed;
+        }
+    }
 }
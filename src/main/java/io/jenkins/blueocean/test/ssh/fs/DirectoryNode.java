@@ -0,0 +1,34 @@
+package io.jenkins.blueocean.test.ssh.fs;
+
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A directory, its entries guarded by the lock of the file system
+ */
+final class DirectoryNode extends Node {
+    final Map<String, Node> entries = new TreeMap<>();
+
+    DirectoryNode(Set<PosixFilePermission> permissions, String owner) {
+        super(permissions, owner);
+    }
+
+    private DirectoryNode(DirectoryNode other) {
+        super(other);
+        for (Map.Entry<String, Node> e : other.entries.entrySet()) {
+            entries.put(e.getKey(), e.getValue().copy());
+        }
+    }
+
+    @Override
+    DirectoryNode copy() {
+        return new DirectoryNode(this);
+    }
+
+    @Override
+    long size() {
+        return 0;
+    }
+}
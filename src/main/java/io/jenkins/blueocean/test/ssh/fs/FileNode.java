@@ -0,0 +1,95 @@
+package io.jenkins.blueocean.test.ssh.fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * A regular file. Copies share the content until one of them is written,
+ * so snapshots and file copies don't duplicate data.
+ */
+final class FileNode extends Node {
+    private static final byte[] EMPTY = new byte[0];
+    private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    private byte[] data = EMPTY;
+    private int size;
+    // data is also referenced by a copy and must not be modified in place
+    private boolean shared;
+
+    FileNode(Set<PosixFilePermission> permissions, String owner) {
+        super(permissions, owner);
+    }
+
+    private FileNode(FileNode other) {
+        super(other);
+        this.data = other.data;
+        this.size = other.size;
+        this.shared = true;
+    }
+
+    @Override
+    synchronized FileNode copy() {
+        shared = true;
+        return new FileNode(this);
+    }
+
+    @Override
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return bytes read, -1 at the end of the file
+     */
+    synchronized int read(long position, ByteBuffer dst) {
+        if (position >= size) {
+            return -1;
+        }
+        int n = (int) Math.min(dst.remaining(), size - position);
+        dst.put(data, (int) position, n);
+        return n;
+    }
+
+    synchronized int write(long position, ByteBuffer src) throws IOException {
+        int n = src.remaining();
+        long end = position + n;
+        if (end > MAX_SIZE) {
+            throw new IOException("File too large: " + end);
+        }
+        ensureWritable((int) end);
+        src.get(data, (int) position, n);
+        if (position > size) {
+            // a gap reads as zeros, the array may hold old data after a truncate
+            Arrays.fill(data, size, (int) position, (byte) 0);
+        }
+        size = Math.max(size, (int) end);
+        modified();
+        return n;
+    }
+
+    /**
+     * @return the size after the write, for appends
+     */
+    synchronized long append(ByteBuffer src) throws IOException {
+        write(size, src);
+        return size;
+    }
+
+    synchronized void truncate(long newSize) {
+        if (newSize < size) {
+            size = (int) newSize;
+            modified();
+        }
+    }
+
+    private void ensureWritable(int capacity) {
+        if (shared || capacity > data.length) {
+            int length = capacity > data.length ? Math.max(capacity, (int) Math.min(MAX_SIZE, data.length * 2L)) : data.length;
+            data = Arrays.copyOf(data, length);
+            shared = false;
+        }
+    }
+}
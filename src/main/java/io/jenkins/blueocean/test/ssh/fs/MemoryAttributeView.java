@@ -0,0 +1,61 @@
+package io.jenkins.blueocean.test.ssh.fs;
+
+import java.io.IOException;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Set;
+
+/**
+ * Basic, owner and posix attribute view of a path, looked up on each access
+ */
+final class MemoryAttributeView implements PosixFileAttributeView {
+    private final String name;
+    private final MemoryPath path;
+
+    MemoryAttributeView(String name, MemoryPath path) {
+        this.name = name;
+        this.path = path;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    private Node node() throws IOException {
+        return path.getFileSystem().lookup(path);
+    }
+
+    @Override
+    public MemoryAttributes readAttributes() throws IOException {
+        return new MemoryAttributes(node());
+    }
+
+    @Override
+    public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) throws IOException {
+        node().setTimes(lastModifiedTime, lastAccessTime, createTime);
+    }
+
+    @Override
+    public void setPermissions(Set<PosixFilePermission> perms) throws IOException {
+        node().setPermissions(perms);
+    }
+
+    @Override
+    public void setGroup(GroupPrincipal group) throws IOException {
+        node().setGroup(group.getName());
+    }
+
+    @Override
+    public UserPrincipal getOwner() throws IOException {
+        return readAttributes().owner();
+    }
+
+    @Override
+    public void setOwner(UserPrincipal owner) throws IOException {
+        node().setOwner(owner.getName());
+    }
+}
@@ -0,0 +1,140 @@
+package io.jenkins.blueocean.test.ssh.fs;
+
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Attributes of a node, read at once
+ */
+final class MemoryAttributes implements PosixFileAttributes {
+    static final String BASIC = "basic";
+    static final String OWNER = "owner";
+    static final String POSIX = "posix";
+
+    private final Node node;
+    private final FileTime lastModifiedTime;
+    private final FileTime lastAccessTime;
+    private final FileTime creationTime;
+    private final long size;
+    private final Set<PosixFilePermission> permissions;
+    private final String owner;
+    private final String group;
+
+    MemoryAttributes(Node node) {
+        this.node = node;
+        this.lastModifiedTime = node.getLastModifiedTime();
+        this.lastAccessTime = node.getLastAccessTime();
+        this.creationTime = node.getCreationTime();
+        this.size = node.size();
+        this.permissions = node.getPermissions();
+        this.owner = node.getOwner();
+        this.group = node.getGroup();
+    }
+
+    @Override
+    public FileTime lastModifiedTime() {
+        return lastModifiedTime;
+    }
+
+    @Override
+    public FileTime lastAccessTime() {
+        return lastAccessTime;
+    }
+
+    @Override
+    public FileTime creationTime() {
+        return creationTime;
+    }
+
+    @Override
+    public boolean isRegularFile() {
+        return node instanceof FileNode;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return node instanceof DirectoryNode;
+    }
+
+    @Override
+    public boolean isSymbolicLink() {
+        return false;
+    }
+
+    @Override
+    public boolean isOther() {
+        return false;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public Object fileKey() {
+        return node;
+    }
+
+    @Override
+    public UserPrincipal owner() {
+        return new MemoryPrincipal(owner);
+    }
+
+    @Override
+    public GroupPrincipal group() {
+        return new MemoryPrincipal(group);
+    }
+
+    @Override
+    public Set<PosixFilePermission> permissions() {
+        return permissions;
+    }
+
+    /**
+     * @param view       "basic", "owner" or "posix"
+     * @param attributes attribute names, or "*" for all of the view
+     * @return the attributes by name, as {@link java.nio.file.Files#readAttributes(java.nio.file.Path, String, java.nio.file.LinkOption...)} returns them
+     */
+    Map<String, Object> toMap(String view, String attributes) {
+        Map<String, Object> all = new LinkedHashMap<>();
+        if (!OWNER.equals(view)) {
+            all.put("lastModifiedTime", lastModifiedTime);
+            all.put("lastAccessTime", lastAccessTime);
+            all.put("creationTime", creationTime);
+            all.put("size", size);
+            all.put("isRegularFile", isRegularFile());
+            all.put("isDirectory", isDirectory());
+            all.put("isSymbolicLink", false);
+            all.put("isOther", false);
+            all.put("fileKey", node);
+        }
+        if (!BASIC.equals(view)) {
+            all.put("owner", owner());
+        }
+        if (POSIX.equals(view)) {
+            all.put("permissions", permissions);
+            all.put("group", group());
+        }
+        if ("*".equals(attributes)) {
+            return all;
+        }
+        Map<String, Object> selected = new LinkedHashMap<>();
+        for (String name : attributes.split(",")) {
+            if ("*".equals(name)) {
+                selected.putAll(all);
+            } else if (all.containsKey(name)) {
+                selected.put(name, all.get(name));
+            } else {
+                throw new IllegalArgumentException("Unknown attribute " + view + ":" + name);
+            }
+        }
+        return selected;
+    }
+}
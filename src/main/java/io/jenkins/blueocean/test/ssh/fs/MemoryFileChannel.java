@@ -0,0 +1,224 @@
+package io.jenkins.blueocean.test.ssh.fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Reads and writes a {@link FileNode}. Locks are always granted, there is no
+ * other process to exclude.
+ */
+final class MemoryFileChannel extends FileChannel {
+    private final FileNode file;
+    private final boolean readable;
+    private final boolean writable;
+    private final boolean append;
+    private long position;
+
+    MemoryFileChannel(FileNode file, boolean readable, boolean writable, boolean append) {
+        this.file = file;
+        this.readable = readable;
+        this.writable = writable;
+        this.append = append;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        checkReadable();
+        int n = file.read(position, dst);
+        if (n > 0) {
+            position += n;
+        }
+        file.accessed();
+        return n;
+    }
+
+    @Override
+    public synchronized long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (!dsts[i].hasRemaining()) {
+                continue;
+            }
+            int n = read(dsts[i]);
+            if (n < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += n;
+            if (dsts[i].hasRemaining()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException {
+        checkWritable();
+        int n = src.remaining();
+        if (append) {
+            position = file.append(src);
+        } else {
+            position += file.write(position, src);
+        }
+        return n;
+    }
+
+    @Override
+    public synchronized long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            total += write(srcs[i]);
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized FileChannel position(long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        checkOpen();
+        return file.size();
+    }
+
+    @Override
+    public synchronized FileChannel truncate(long size) throws IOException {
+        checkWritable();
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative size: " + size);
+        }
+        file.truncate(size);
+        position = Math.min(position, size);
+        return this;
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+        checkOpen();
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        checkReadable();
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(count, 64 * 1024));
+        long transferred = 0;
+        while (transferred < count) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), count - transferred));
+            int n = file.read(position + transferred, buf);
+            if (n <= 0) {
+                break;
+            }
+            buf.flip();
+            while (buf.hasRemaining()) {
+                target.write(buf);
+            }
+            transferred += n;
+        }
+        return transferred;
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+        checkWritable();
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(count, 64 * 1024));
+        long transferred = 0;
+        while (transferred < count) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), count - transferred));
+            int n = src.read(buf);
+            if (n <= 0) {
+                break;
+            }
+            buf.flip();
+            file.write(position + transferred, buf);
+            transferred += n;
+        }
+        return transferred;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        checkReadable();
+        return file.read(position, dst);
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) throws IOException {
+        checkWritable();
+        return file.write(position, src);
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) {
+        throw new UnsupportedOperationException("In-memory files can't be mapped");
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) throws IOException {
+        return tryLock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, final boolean shared) throws IOException {
+        checkOpen();
+        return new FileLock(this, position, size, shared) {
+            private volatile boolean valid = true;
+
+            @Override
+            public boolean isValid() {
+                return valid && channel().isOpen();
+            }
+
+            @Override
+            public void release() {
+                valid = false;
+            }
+        };
+    }
+
+    @Override
+    protected void implCloseChannel() {
+    }
+
+    private void checkOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private void checkReadable() throws ClosedChannelException {
+        checkOpen();
+        if (!readable) {
+            throw new NonReadableChannelException();
+        }
+    }
+
+    private void checkWritable() throws ClosedChannelException {
+        checkOpen();
+        if (!writable) {
+            throw new NonWritableChannelException();
+        }
+    }
+}
@@ -0,0 +1,472 @@
+package io.jenkins.blueocean.test.ssh.fs;
+
+import java.io.IOException;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * A file system kept on the heap, to serve fixtures without touching disk.
+ * Paths are Unix style with a single root "/". Any number of threads may use
+ * it: the tree is guarded by a read/write lock and each file by its own
+ * monitor. {@link #snapshot()} copies the tree but shares file contents
+ * until either copy is written, so it is cheap even for large fixtures.
+ * <p>
+ * Use it with {@link io.jenkins.blueocean.test.ssh.SSHServer#setFileSystem(FileSystem)},
+ * then inspect what clients did through the usual {@link java.nio.file.Files} methods:
+ * <pre>
+ * MemoryFileSystem fs = MemoryFileSystem.create();
+ * Files.write(fs.getPath("/test.txt"), data);
+ * server.setFileSystem(fs);
+ * </pre>
+ */
+public final class MemoryFileSystem extends FileSystem {
+    static final Set<String> VIEWS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            MemoryAttributes.BASIC, MemoryAttributes.OWNER, MemoryAttributes.POSIX)));
+    static final Set<PosixFilePermission> DIRECTORY_PERMISSIONS = PosixFilePermissions.fromString("rwxr-xr-x");
+    static final Set<PosixFilePermission> FILE_PERMISSIONS = PosixFilePermissions.fromString("rw-r--r--");
+
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    private final MemoryFileSystemProvider provider;
+    private final String name;
+    private final String owner;
+    private final DirectoryNode root;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final FileStore store;
+    private volatile boolean open = true;
+
+    private MemoryFileSystem(MemoryFileSystemProvider provider, DirectoryNode root, String owner) {
+        this.provider = provider;
+        this.name = "memory-" + ids.incrementAndGet();
+        this.owner = owner;
+        this.root = root;
+        this.store = new MemoryFileStore(name);
+    }
+
+    /**
+     * @return an empty file system, files owned by the user running the JVM
+     */
+    public static MemoryFileSystem create() {
+        String owner = System.getProperty("user.name", "user");
+        return new MemoryFileSystem(MemoryFileSystemProvider.INSTANCE, new DirectoryNode(DIRECTORY_PERMISSIONS, owner), owner);
+    }
+
+    /**
+     * Copies the whole tree as it is now. File contents are shared until either
+     * file system writes to a file, so only the directory structure is copied.
+     *
+     * @return an independent file system with the same files
+     */
+    public MemoryFileSystem snapshot() {
+        Lock read = lock.readLock();
+        read.lock();
+        try {
+            return new MemoryFileSystem(provider, root.copy(), owner);
+        } finally {
+            read.unlock();
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    @Override
+    public MemoryFileSystemProvider provider() {
+        return provider;
+    }
+
+    /**
+     * Frees the files; only for file systems no longer in use, sessions never close it
+     */
+    @Override
+    public void close() {
+        open = false;
+        Lock write = lock.writeLock();
+        write.lock();
+        try {
+            root.entries.clear();
+        } finally {
+            write.unlock();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    @Override
+    public String getSeparator() {
+        return "/";
+    }
+
+    @Override
+    public Iterable<Path> getRootDirectories() {
+        return Collections.<Path>singletonList(getPath("/"));
+    }
+
+    @Override
+    public Iterable<FileStore> getFileStores() {
+        return Collections.singletonList(store);
+    }
+
+    FileStore getFileStore() {
+        return store;
+    }
+
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return VIEWS;
+    }
+
+    @Override
+    public MemoryPath getPath(String first, String... more) {
+        StringBuilder path = new StringBuilder(first);
+        for (String name : more) {
+            if (!name.isEmpty()) {
+                path.append('/').append(name);
+            }
+        }
+        return MemoryPath.parse(this, path.toString());
+    }
+
+    @Override
+    public PathMatcher getPathMatcher(String syntaxAndPattern) {
+        int colon = syntaxAndPattern.indexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Expected syntax:pattern, got " + syntaxAndPattern);
+        }
+        String syntax = syntaxAndPattern.substring(0, colon);
+        String pattern = syntaxAndPattern.substring(colon + 1);
+        final Pattern regex;
+        if ("regex".equalsIgnoreCase(syntax)) {
+            regex = Pattern.compile(pattern);
+        } else if ("glob".equalsIgnoreCase(syntax)) {
+            regex = Pattern.compile(globToRegex(pattern));
+        } else {
+            throw new UnsupportedOperationException("Unsupported path matcher syntax: " + syntax);
+        }
+        return new PathMatcher() {
+            @Override
+            public boolean matches(Path path) {
+                return regex.matcher(path.toString()).matches();
+            }
+        };
+    }
+
+    /**
+     * Translates the glob syntax of {@link FileSystem#getPathMatcher(String)}
+     */
+    static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        boolean inGroup = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        regex.append(".*");
+                        i++;
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '{':
+                    regex.append("(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    regex.append(')');
+                    inGroup = false;
+                    break;
+                case ',':
+                    regex.append(inGroup ? "|" : ",");
+                    break;
+                case '[':
+                    int end = glob.indexOf(']', i + 1);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Unclosed [ in " + glob);
+                    }
+                    String set = glob.substring(i + 1, end);
+                    regex.append('[').append(set.startsWith("!") ? "^" + set.substring(1) : set).append(']');
+                    i = end;
+                    break;
+                case '\\':
+                    if (i + 1 < glob.length()) {
+                        regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+                    }
+                    break;
+                default:
+                    regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return regex.toString();
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        return new UserPrincipalLookupService() {
+            @Override
+            public MemoryPrincipal lookupPrincipalByName(String name) {
+                return new MemoryPrincipal(name);
+            }
+
+            @Override
+            public MemoryPrincipal lookupPrincipalByGroupName(String group) {
+                return new MemoryPrincipal(group);
+            }
+        };
+    }
+
+    @Override
+    public WatchService newWatchService() {
+        throw new UnsupportedOperationException("Watching in-memory files is not supported");
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    // tree operations used by the provider, each takes the lock it needs
+
+    Node lookup(MemoryPath path) throws IOException {
+        Lock read = lock.readLock();
+        read.lock();
+        try {
+            return find(path);
+        } finally {
+            read.unlock();
+        }
+    }
+
+    /**
+     * Opens a file, creating it if asked to
+     */
+    FileNode open(MemoryPath path, boolean create, boolean createNew, Set<PosixFilePermission> permissions) throws IOException {
+        if (!create && !createNew) {
+            Node node = lookup(path);
+            if (!(node instanceof FileNode)) {
+                throw new FileSystemException(path.toString(), null, "Is a directory");
+            }
+            return (FileNode) node;
+        }
+        Lock write = lock.writeLock();
+        write.lock();
+        try {
+            DirectoryNode parent = findParent(path);
+            String name = fileName(path);
+            Node node = parent.entries.get(name);
+            if (node != null) {
+                if (createNew) {
+                    throw new FileAlreadyExistsException(path.toString());
+                }
+                if (!(node instanceof FileNode)) {
+                    throw new FileSystemException(path.toString(), null, "Is a directory");
+                }
+                return (FileNode) node;
+            }
+            FileNode file = new FileNode(permissions == null ? FILE_PERMISSIONS : permissions, owner);
+            parent.entries.put(name, file);
+            parent.modified();
+            return file;
+        } finally {
+            write.unlock();
+        }
+    }
+
+    void createDirectory(MemoryPath path, Set<PosixFilePermission> permissions) throws IOException {
+        Lock write = lock.writeLock();
+        write.lock();
+        try {
+            DirectoryNode parent = findParent(path);
+            String name = fileName(path);
+            if (parent.entries.containsKey(name)) {
+                throw new FileAlreadyExistsException(path.toString());
+            }
+            parent.entries.put(name, new DirectoryNode(permissions == null ? DIRECTORY_PERMISSIONS : permissions, owner));
+            parent.modified();
+        } finally {
+            write.unlock();
+        }
+    }
+
+    void delete(MemoryPath path) throws IOException {
+        Lock write = lock.writeLock();
+        write.lock();
+        try {
+            DirectoryNode parent = findParent(path);
+            String name = fileName(path);
+            Node node = parent.entries.get(name);
+            if (node == null) {
+                throw new NoSuchFileException(path.toString());
+            }
+            if (node instanceof DirectoryNode && !((DirectoryNode) node).entries.isEmpty()) {
+                throw new DirectoryNotEmptyException(path.toString());
+            }
+            parent.entries.remove(name);
+            parent.modified();
+        } finally {
+            write.unlock();
+        }
+    }
+
+    /**
+     * Copies a file sharing its content, or creates an empty directory for a directory
+     */
+    void copy(MemoryPath source, MemoryPath target, boolean replace, boolean copyAttributes) throws IOException {
+        Lock write = lock.writeLock();
+        write.lock();
+        try {
+            Node node = find(source);
+            Node copy;
+            if (node instanceof FileNode) {
+                copy = node.copy();
+                if (!copyAttributes) {
+                    copy.setPermissions(FILE_PERMISSIONS);
+                }
+            } else {
+                copy = new DirectoryNode(DIRECTORY_PERMISSIONS, owner);
+                if (copyAttributes) {
+                    copy.setPermissions(node.getPermissions());
+                }
+            }
+            if (copyAttributes) {
+                copy.setTimes(node.getLastModifiedTime(), node.getLastAccessTime(), node.getCreationTime());
+            } else {
+                copy.setTimes(Node.now(), Node.now(), Node.now());
+            }
+            put(target, copy, replace);
+        } finally {
+            write.unlock();
+        }
+    }
+
+    void move(MemoryPath source, MemoryPath target, boolean replace) throws IOException {
+        Lock write = lock.writeLock();
+        write.lock();
+        try {
+            MemoryPath from = source.toAbsolutePath().normalize();
+            MemoryPath to = target.toAbsolutePath().normalize();
+            Node node = find(from);
+            if (from.equals(to)) {
+                return;
+            }
+            if (to.startsWith(from)) {
+                throw new FileSystemException(source.toString(), target.toString(), "Can't move a directory into itself");
+            }
+            put(to, node, replace);
+            DirectoryNode parent = findParent(from);
+            parent.entries.remove(fileName(from));
+            parent.modified();
+        } finally {
+            write.unlock();
+        }
+    }
+
+    List<MemoryPath> list(MemoryPath dir) throws IOException {
+        Lock read = lock.readLock();
+        read.lock();
+        try {
+            Node node = find(dir);
+            if (!(node instanceof DirectoryNode)) {
+                throw new NotDirectoryException(dir.toString());
+            }
+            List<MemoryPath> children = new ArrayList<>();
+            for (String name : ((DirectoryNode) node).entries.keySet()) {
+                children.add(dir.resolve(name));
+            }
+            node.accessed();
+            return children;
+        } finally {
+            read.unlock();
+        }
+    }
+
+    private void put(MemoryPath target, Node node, boolean replace) throws IOException {
+        DirectoryNode parent = findParent(target);
+        String name = fileName(target);
+        Node existing = parent.entries.get(name);
+        if (existing != null) {
+            if (!replace) {
+                throw new FileAlreadyExistsException(target.toString());
+            }
+            if (existing instanceof DirectoryNode && !((DirectoryNode) existing).entries.isEmpty()) {
+                throw new DirectoryNotEmptyException(target.toString());
+            }
+        }
+        parent.entries.put(name, node);
+        parent.modified();
+    }
+
+    private Node find(MemoryPath path) throws IOException {
+        checkOpen();
+        Node node = root;
+        for (String name : path.toAbsolutePath().normalize().getNames()) {
+            if (!(node instanceof DirectoryNode)) {
+                throw new NoSuchFileException(path.toString());
+            }
+            node = ((DirectoryNode) node).entries.get(name);
+            if (node == null) {
+                throw new NoSuchFileException(path.toString());
+            }
+        }
+        return node;
+    }
+
+    private DirectoryNode findParent(MemoryPath path) throws IOException {
+        MemoryPath normalized = path.toAbsolutePath().normalize();
+        if (normalized.getNameCount() == 0) {
+            throw new FileSystemException(path.toString(), null, "Root directory");
+        }
+        List<String> names = normalized.getNames();
+        Node parent = find(new MemoryPath(this, true, names.subList(0, names.size() - 1)));
+        if (!(parent instanceof DirectoryNode)) {
+            throw new NoSuchFileException(path.toString());
+        }
+        return (DirectoryNode) parent;
+    }
+
+    private static String fileName(MemoryPath path) {
+        List<String> names = path.toAbsolutePath().normalize().getNames();
+        return names.get(names.size() - 1);
+    }
+
+    private void checkOpen() {
+        if (!open) {
+            throw new ClosedFileSystemException();
+        }
+    }
+}
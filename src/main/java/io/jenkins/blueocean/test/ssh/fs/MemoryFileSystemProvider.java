@@ -0,0 +1,293 @@
+package io.jenkins.blueocean.test.ssh.fs;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileOwnerAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Provider of {@link MemoryFileSystem}s. It isn't installed, file systems are
+ * only created with {@link MemoryFileSystem#create()} and reached through
+ * their paths.
+ */
+final class MemoryFileSystemProvider extends FileSystemProvider {
+    static final String SCHEME = "memory";
+    static final MemoryFileSystemProvider INSTANCE = new MemoryFileSystemProvider();
+
+    private MemoryFileSystemProvider() {
+    }
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    public FileSystem newFileSystem(URI uri, Map<String, ?> env) {
+        throw new UnsupportedOperationException("Use MemoryFileSystem.create()");
+    }
+
+    @Override
+    public FileSystem getFileSystem(URI uri) {
+        throw new FileSystemNotFoundException(uri.toString());
+    }
+
+    @Override
+    public Path getPath(URI uri) {
+        throw new FileSystemNotFoundException(uri.toString());
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+        return newFileChannel(path, options, attrs);
+    }
+
+    @Override
+    public FileChannel newFileChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+        MemoryPath file = check(path);
+        boolean append = options.contains(StandardOpenOption.APPEND);
+        boolean write = append || options.contains(StandardOpenOption.WRITE);
+        boolean read = options.contains(StandardOpenOption.READ) || !write;
+        boolean createNew = write && options.contains(StandardOpenOption.CREATE_NEW);
+        boolean create = write && options.contains(StandardOpenOption.CREATE);
+        FileNode node = file.getFileSystem().open(file, create, createNew, permissions(attrs));
+        if (write && !append && options.contains(StandardOpenOption.TRUNCATE_EXISTING)) {
+            node.truncate(0);
+        }
+        return new MemoryFileChannel(node, read, write, append);
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, final DirectoryStream.Filter<? super Path> filter) throws IOException {
+        final List<MemoryPath> children = check(dir).getFileSystem().list(check(dir));
+        return new DirectoryStream<Path>() {
+            private boolean iterated;
+
+            @Override
+            public Iterator<Path> iterator() {
+                if (iterated) {
+                    throw new IllegalStateException("Directory stream already iterated");
+                }
+                iterated = true;
+                List<Path> accepted = new ArrayList<>();
+                for (MemoryPath child : children) {
+                    try {
+                        if (filter == null || filter.accept(child)) {
+                            accepted.add(child);
+                        }
+                    } catch (IOException e) {
+                        throw new DirectoryIteratorException(e);
+                    }
+                }
+                return accepted.iterator();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException {
+        MemoryPath path = check(dir);
+        path.getFileSystem().createDirectory(path, permissions(attrs));
+    }
+
+    @Override
+    public void delete(Path path) throws IOException {
+        MemoryPath p = check(path);
+        p.getFileSystem().delete(p);
+    }
+
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) throws IOException {
+        MemoryPath from = check(source);
+        List<CopyOption> opts = Arrays.asList(options);
+        from.getFileSystem().copy(from, check(target), opts.contains(StandardCopyOption.REPLACE_EXISTING),
+                opts.contains(StandardCopyOption.COPY_ATTRIBUTES));
+    }
+
+    @Override
+    public void move(Path source, Path target, CopyOption... options) throws IOException {
+        MemoryPath from = check(source);
+        from.getFileSystem().move(from, check(target), Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING));
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path path2) throws IOException {
+        if (path.equals(path2)) {
+            return true;
+        }
+        if (!(path2 instanceof MemoryPath) || path.getFileSystem() != path2.getFileSystem()) {
+            return false;
+        }
+        MemoryPath p = check(path);
+        return p.getFileSystem().lookup(p) == p.getFileSystem().lookup(check(path2));
+    }
+
+    @Override
+    public boolean isHidden(Path path) {
+        Path name = check(path).getFileName();
+        return name != null && name.toString().startsWith(".");
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) throws IOException {
+        MemoryPath p = check(path);
+        p.getFileSystem().lookup(p);
+        return p.getFileSystem().getFileStore();
+    }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException {
+        MemoryPath p = check(path);
+        Set<PosixFilePermission> permissions = p.getFileSystem().lookup(p).getPermissions();
+        for (AccessMode mode : modes) {
+            PosixFilePermission required;
+            switch (mode) {
+                case READ:
+                    required = PosixFilePermission.OWNER_READ;
+                    break;
+                case WRITE:
+                    required = PosixFilePermission.OWNER_WRITE;
+                    break;
+                default:
+                    required = PosixFilePermission.OWNER_EXECUTE;
+            }
+            if (!permissions.contains(required)) {
+                throw new AccessDeniedException(path.toString());
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+        MemoryPath p = check(path);
+        if (type == BasicFileAttributeView.class) {
+            return (V) new MemoryAttributeView(MemoryAttributes.BASIC, p);
+        }
+        if (type == FileOwnerAttributeView.class) {
+            return (V) new MemoryAttributeView(MemoryAttributes.OWNER, p);
+        }
+        if (type == PosixFileAttributeView.class) {
+            return (V) new MemoryAttributeView(MemoryAttributes.POSIX, p);
+        }
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options) throws IOException {
+        if (type != BasicFileAttributes.class && type != PosixFileAttributes.class) {
+            throw new UnsupportedOperationException("Unsupported attributes " + type.getName());
+        }
+        MemoryPath p = check(path);
+        return (A) new MemoryAttributes(p.getFileSystem().lookup(p));
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
+        String view = MemoryAttributes.BASIC;
+        String names = attributes;
+        int colon = attributes.indexOf(':');
+        if (colon >= 0) {
+            view = attributes.substring(0, colon);
+            names = attributes.substring(colon + 1);
+        }
+        if (!MemoryFileSystem.VIEWS.contains(view)) {
+            throw new UnsupportedOperationException("Unsupported attribute view " + view);
+        }
+        MemoryPath p = check(path);
+        return new MemoryAttributes(p.getFileSystem().lookup(p)).toMap(view, names);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) throws IOException {
+        String view = MemoryAttributes.BASIC;
+        String name = attribute;
+        int colon = attribute.indexOf(':');
+        if (colon >= 0) {
+            view = attribute.substring(0, colon);
+            name = attribute.substring(colon + 1);
+        }
+        if (!MemoryFileSystem.VIEWS.contains(view)) {
+            throw new UnsupportedOperationException("Unsupported attribute view " + view);
+        }
+        MemoryPath p = check(path);
+        Node node = p.getFileSystem().lookup(p);
+        switch (name) {
+            case "lastModifiedTime":
+                node.setTimes((FileTime) value, null, null);
+                break;
+            case "lastAccessTime":
+                node.setTimes(null, (FileTime) value, null);
+                break;
+            case "creationTime":
+                node.setTimes(null, null, (FileTime) value);
+                break;
+            case "permissions":
+                node.setPermissions((Set<PosixFilePermission>) value);
+                break;
+            case "owner":
+                node.setOwner(((UserPrincipal) value).getName());
+                break;
+            case "group":
+                node.setGroup(((GroupPrincipal) value).getName());
+                break;
+            default:
+                throw new IllegalArgumentException("Can't set attribute " + attribute);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<PosixFilePermission> permissions(FileAttribute<?>... attrs) {
+        for (FileAttribute<?> attr : attrs) {
+            if ("posix:permissions".equals(attr.name()) || "unix:permissions".equals(attr.name())) {
+                return (Set<PosixFilePermission>) attr.value();
+            }
+        }
+        return null;
+    }
+
+    private static MemoryPath check(Path path) {
+        if (!(path instanceof MemoryPath)) {
+            throw new ProviderMismatchException("Not an in-memory path: " + path);
+        }
+        return (MemoryPath) path;
+    }
+}
@@ -0,0 +1,269 @@
+package io.jenkins.blueocean.test.ssh.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A path of a {@link MemoryFileSystem}, names separated by "/"
+ */
+final class MemoryPath implements Path {
+    private final MemoryFileSystem fileSystem;
+    private final boolean absolute;
+    private final List<String> names;
+
+    MemoryPath(MemoryFileSystem fileSystem, boolean absolute, List<String> names) {
+        this.fileSystem = fileSystem;
+        this.absolute = absolute;
+        this.names = Collections.unmodifiableList(new ArrayList<>(names));
+    }
+
+    static MemoryPath parse(MemoryFileSystem fileSystem, String path) {
+        List<String> names = new ArrayList<>();
+        for (String name : path.split("/")) {
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+        return new MemoryPath(fileSystem, path.startsWith("/"), names);
+    }
+
+    List<String> getNames() {
+        return names;
+    }
+
+    @Override
+    public MemoryFileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    @Override
+    public boolean isAbsolute() {
+        return absolute;
+    }
+
+    @Override
+    public Path getRoot() {
+        return absolute ? new MemoryPath(fileSystem, true, Collections.<String>emptyList()) : null;
+    }
+
+    @Override
+    public Path getFileName() {
+        return names.isEmpty() ? null : new MemoryPath(fileSystem, false, names.subList(names.size() - 1, names.size()));
+    }
+
+    @Override
+    public Path getParent() {
+        if (names.isEmpty() || (names.size() == 1 && !absolute)) {
+            return null;
+        }
+        return new MemoryPath(fileSystem, absolute, names.subList(0, names.size() - 1));
+    }
+
+    @Override
+    public int getNameCount() {
+        return names.size();
+    }
+
+    @Override
+    public Path getName(int index) {
+        return subpath(index, index + 1);
+    }
+
+    @Override
+    public Path subpath(int beginIndex, int endIndex) {
+        if (beginIndex < 0 || endIndex > names.size() || beginIndex >= endIndex) {
+            throw new IllegalArgumentException("Invalid subpath " + beginIndex + ".." + endIndex + " of " + this);
+        }
+        return new MemoryPath(fileSystem, false, names.subList(beginIndex, endIndex));
+    }
+
+    @Override
+    public boolean startsWith(Path other) {
+        MemoryPath path = check(other);
+        return absolute == path.absolute && names.size() >= path.names.size()
+                && names.subList(0, path.names.size()).equals(path.names);
+    }
+
+    @Override
+    public boolean startsWith(String other) {
+        return startsWith(parse(fileSystem, other));
+    }
+
+    @Override
+    public boolean endsWith(Path other) {
+        MemoryPath path = check(other);
+        if (path.absolute) {
+            return equals(path);
+        }
+        return names.size() >= path.names.size()
+                && names.subList(names.size() - path.names.size(), names.size()).equals(path.names);
+    }
+
+    @Override
+    public boolean endsWith(String other) {
+        return endsWith(parse(fileSystem, other));
+    }
+
+    @Override
+    public MemoryPath normalize() {
+        List<String> normalized = new ArrayList<>();
+        for (String name : names) {
+            if (".".equals(name)) {
+                continue;
+            }
+            if ("..".equals(name)) {
+                if (!normalized.isEmpty() && !"..".equals(normalized.get(normalized.size() - 1))) {
+                    normalized.remove(normalized.size() - 1);
+                    continue;
+                }
+                if (absolute) {
+                    // ".." of the root is the root
+                    continue;
+                }
+            }
+            normalized.add(name);
+        }
+        return new MemoryPath(fileSystem, absolute, normalized);
+    }
+
+    @Override
+    public MemoryPath resolve(Path other) {
+        MemoryPath path = check(other);
+        if (path.absolute) {
+            return path;
+        }
+        List<String> resolved = new ArrayList<>(names);
+        resolved.addAll(path.names);
+        return new MemoryPath(fileSystem, absolute, resolved);
+    }
+
+    @Override
+    public MemoryPath resolve(String other) {
+        return resolve(parse(fileSystem, other));
+    }
+
+    @Override
+    public Path resolveSibling(Path other) {
+        Path parent = getParent();
+        return parent == null ? other : parent.resolve(other);
+    }
+
+    @Override
+    public Path resolveSibling(String other) {
+        return resolveSibling(parse(fileSystem, other));
+    }
+
+    @Override
+    public Path relativize(Path other) {
+        MemoryPath path = check(other);
+        if (absolute != path.absolute) {
+            throw new IllegalArgumentException("Can't relativize " + other + " against " + this);
+        }
+        int common = 0;
+        while (common < names.size() && common < path.names.size() && names.get(common).equals(path.names.get(common))) {
+            common++;
+        }
+        List<String> relative = new ArrayList<>();
+        for (int i = common; i < names.size(); i++) {
+            relative.add("..");
+        }
+        relative.addAll(path.names.subList(common, path.names.size()));
+        return new MemoryPath(fileSystem, false, relative);
+    }
+
+    @Override
+    public URI toUri() {
+        try {
+            return new URI(MemoryFileSystemProvider.SCHEME, fileSystem.getName(), toAbsolutePath().toString(), null);
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public MemoryPath toAbsolutePath() {
+        return absolute ? this : new MemoryPath(fileSystem, true, names);
+    }
+
+    @Override
+    public Path toRealPath(LinkOption... options) throws IOException {
+        MemoryPath real = toAbsolutePath().normalize();
+        fileSystem.lookup(real);
+        return real;
+    }
+
+    @Override
+    public File toFile() {
+        throw new UnsupportedOperationException("Not on the default file system: " + this);
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+        throw new UnsupportedOperationException("Watching in-memory files is not supported");
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>... events) {
+        return register(watcher, events, new WatchEvent.Modifier[0]);
+    }
+
+    @Override
+    public Iterator<Path> iterator() {
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            paths.add(getName(i));
+        }
+        return paths.iterator();
+    }
+
+    @Override
+    public int compareTo(Path other) {
+        return toString().compareTo(check(other).toString());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof MemoryPath)) {
+            return false;
+        }
+        MemoryPath path = (MemoryPath) o;
+        return fileSystem == path.fileSystem && absolute == path.absolute && names.equals(path.names);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.asList(fileSystem, absolute, names).hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (String name : names) {
+            if (s.length() > 0 || absolute) {
+                s.append('/');
+            }
+            s.append(name);
+        }
+        return s.length() == 0 && absolute ? "/" : s.toString();
+    }
+
+    private MemoryPath check(Path other) {
+        if (!(other instanceof MemoryPath) || ((MemoryPath) other).fileSystem != fileSystem) {
+            throw new ProviderMismatchException("Not a path of " + fileSystem + ": " + other);
+        }
+        return (MemoryPath) other;
+    }
+}
@@ -0,0 +1,34 @@
+package io.jenkins.blueocean.test.ssh.fs;
+
+import java.nio.file.attribute.GroupPrincipal;
+
+/**
+ * Owner or group of in-memory files, any name is accepted
+ */
+final class MemoryPrincipal implements GroupPrincipal {
+    private final String name;
+
+    MemoryPrincipal(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MemoryPrincipal && ((MemoryPrincipal) o).name.equals(name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
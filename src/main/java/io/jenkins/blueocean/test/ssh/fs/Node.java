@@ -0,0 +1,112 @@
+package io.jenkins.blueocean.test.ssh.fs;
+
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A file or directory of a {@link MemoryFileSystem} and its attributes
+ */
+abstract class Node {
+    private volatile FileTime creationTime;
+    private volatile FileTime lastModifiedTime;
+    private volatile FileTime lastAccessTime;
+    private volatile Set<PosixFilePermission> permissions;
+    private volatile String owner;
+    private volatile String group;
+
+    Node(Set<PosixFilePermission> permissions, String owner) {
+        FileTime now = now();
+        this.creationTime = now;
+        this.lastModifiedTime = now;
+        this.lastAccessTime = now;
+        setPermissions(permissions);
+        this.owner = owner;
+        this.group = owner;
+    }
+
+    /**
+     * Copies the attributes of another node
+     */
+    Node(Node other) {
+        this.creationTime = other.creationTime;
+        this.lastModifiedTime = other.lastModifiedTime;
+        this.lastAccessTime = other.lastAccessTime;
+        this.permissions = other.permissions;
+        this.owner = other.owner;
+        this.group = other.group;
+    }
+
+    static FileTime now() {
+        return FileTime.fromMillis(System.currentTimeMillis());
+    }
+
+    /**
+     * @return a deep copy, sharing file contents until one of the copies is written
+     */
+    abstract Node copy();
+
+    abstract long size();
+
+    FileTime getCreationTime() {
+        return creationTime;
+    }
+
+    FileTime getLastModifiedTime() {
+        return lastModifiedTime;
+    }
+
+    FileTime getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime creationTime) {
+        if (lastModifiedTime != null) {
+            this.lastModifiedTime = lastModifiedTime;
+        }
+        if (lastAccessTime != null) {
+            this.lastAccessTime = lastAccessTime;
+        }
+        if (creationTime != null) {
+            this.creationTime = creationTime;
+        }
+    }
+
+    void modified() {
+        FileTime now = now();
+        lastModifiedTime = now;
+        lastAccessTime = now;
+    }
+
+    void accessed() {
+        lastAccessTime = now();
+    }
+
+    Set<PosixFilePermission> getPermissions() {
+        return permissions;
+    }
+
+    void setPermissions(Set<PosixFilePermission> permissions) {
+        Set<PosixFilePermission> copy = EnumSet.noneOf(PosixFilePermission.class);
+        copy.addAll(permissions);
+        this.permissions = Collections.unmodifiableSet(copy);
+    }
+
+    String getOwner() {
+        return owner;
+    }
+
+    void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    String getGroup() {
+        return group;
+    }
+
+    void setGroup(String group) {
+        this.group = group;
+    }
+}
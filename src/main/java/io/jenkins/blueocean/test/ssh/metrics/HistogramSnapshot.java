@@ -0,0 +1,63 @@
+package io.jenkins.blueocean.test.ssh.metrics;
+
+/**
+ * Values of a {@link Histogram} at one point in time, all in microseconds
+ */
+public final class HistogramSnapshot {
+    private final long count;
+    private final long total;
+    private final long max;
+    private final long[] buckets;
+
+    HistogramSnapshot(long count, long total, long max, long[] buckets) {
+        this.count = count;
+        this.total = total;
+        this.max = max;
+        this.buckets = buckets;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getMean() {
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket holding the percentile, at most {@link #getMax()}; no more than
+     * 1/16 (6.25%) above the recorded value
+     */
+    public long getPercentile(double percentile) {
+        long recorded = 0;
+        for (long bucket : buckets) {
+            recorded += bucket;
+        }
+        if (recorded == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(recorded * Math.min(100, Math.max(0, percentile)) / 100);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(max, Histogram.upperBound(i));
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", mean=" + getMean() + "us, p50=" + getPercentile(50) + "us, p99=" + getPercentile(99) + "us, max=" + max + "us";
+    }
+}
@@ -0,0 +1,108 @@
+package io.jenkins.blueocean.test.ssh.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only attributes for every counter, and count, mean, p50, p99 and max
+ * for every histogram, e.g. "channel.exec.p99"
+ */
+class MetricsMBean implements DynamicMBean {
+    private static final String[] HISTOGRAM_VALUES = {"count", "mean", "p50", "p99", "max"};
+
+    private final ServerMetrics metrics;
+    private final MBeanInfo info;
+
+    MetricsMBean(ServerMetrics metrics) {
+        this.metrics = metrics;
+        MetricsSnapshot snapshot = metrics.snapshot();
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String name : snapshot.getCounters().keySet()) {
+            attributes.add(new MBeanAttributeInfo(name, "long", "Counter " + name, true, false, false));
+        }
+        for (String name : snapshot.getHistograms().keySet()) {
+            for (String value : HISTOGRAM_VALUES) {
+                String unit = "count".equals(value) ? "" : " in microseconds";
+                attributes.add(new MBeanAttributeInfo(name + "." + value, "long", value + " of " + name + unit, true, false, false));
+            }
+        }
+        info = new MBeanInfo(MetricsMBean.class.getName(), "SSH server metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+                new MBeanConstructorInfo[0], new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        return getAttribute(metrics.snapshot(), attribute);
+    }
+
+    private static Object getAttribute(MetricsSnapshot snapshot, String attribute) throws AttributeNotFoundException {
+        Long counter = snapshot.getCounters().get(attribute);
+        if (counter != null) {
+            return counter;
+        }
+        int dot = attribute.lastIndexOf('.');
+        HistogramSnapshot histogram = dot < 0 ? null : snapshot.getHistograms().get(attribute.substring(0, dot));
+        if (histogram != null) {
+            switch (attribute.substring(dot + 1)) {
+                case "count":
+                    return histogram.getCount();
+                case "mean":
+                    return histogram.getMean();
+                case "p50":
+                    return histogram.getPercentile(50);
+                case "p99":
+                    return histogram.getPercentile(99);
+                case "max":
+                    return histogram.getMax();
+                default:
+                    break;
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        MetricsSnapshot snapshot = metrics.snapshot();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(snapshot, attribute)));
+            } catch (AttributeNotFoundException e) {
+                // left out, as the contract asks
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        return info;
+    }
+}
@@ -0,0 +1,75 @@
+package io.jenkins.blueocean.test.ssh.metrics;
+
+import java.util.Map;
+
+/**
+ * Values of all {@link ServerMetrics} at one point in time
+ */
+public final class MetricsSnapshot {
+    private final long timestamp;
+    private final Map<String, Long> counters;
+    private final Map<String, HistogramSnapshot> histograms;
+
+    MetricsSnapshot(long timestamp, Map<String, Long> counters, Map<String, HistogramSnapshot> histograms) {
+        this.timestamp = timestamp;
+        this.counters = counters;
+        this.histograms = histograms;
+    }
+
+    /**
+     * @return when the snapshot was taken, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return counter name -&gt; value
+     */
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    /**
+     * @return histogram name -&gt; values
+     */
+    public Map<String, HistogramSnapshot> getHistograms() {
+        return histograms;
+    }
+
+    /**
+     * @param name counter name, see {@link ServerMetrics}
+     * @return the value
+     */
+    public long getCounter(String name) {
+        Long value = counters.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("No counter " + name);
+        }
+        return value;
+    }
+
+    /**
+     * @param name histogram name, see {@link ServerMetrics}
+     * @return the values
+     */
+    public HistogramSnapshot getHistogram(String name) {
+        HistogramSnapshot histogram = histograms.get(name);
+        if (histogram == null) {
+            throw new IllegalArgumentException("No histogram " + name);
+        }
+        return histogram;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("Metrics");
+        for (Map.Entry<String, Long> e : counters.entrySet()) {
+            s.append("\n  ").append(e.getKey()).append(": ").append(e.getValue());
+        }
+        for (Map.Entry<String, HistogramSnapshot> e : histograms.entrySet()) {
+            s.append("\n  ").append(e.getKey()).append(": ").append(e.getValue());
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,132 @@
+package io.jenkins.blueocean.test.ssh.metrics;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counters and latency histograms of one server, cheap enough to be always on.
+ * Metrics are looked up by the names defined here.
+ */
+public class ServerMetrics {
+    /** Counter of sessions opened */
+    public static final String SESSIONS = "sessions";
+    /** Counter of sessions currently open */
+    public static final String SESSIONS_ACTIVE = "sessions.active";
+    /** Histogram from connect until the keys are exchanged */
+    public static final String HANDSHAKE = "session.handshake";
+    /** Histogram from the key exchange until the user is authenticated */
+    public static final String AUTHENTICATION = "session.authentication";
+    /** Histogram of exec channels, from start until exit */
+    public static final String EXEC = "channel.exec";
+    /** Histogram of shell channels */
+    public static final String SHELL = "channel.shell";
+    /** Histogram of SFTP subsystem channels */
+    public static final String SFTP = "channel.sftp";
+    /** Histogram of SCP channels */
+    public static final String SCP = "channel.scp";
+    /** Histogram of git-upload-pack runs */
+    public static final String UPLOAD_PACK = "git.upload-pack";
+    /** Counter of bytes sent by git-upload-pack */
+    public static final String UPLOAD_PACK_BYTES = "git.upload-pack.bytes";
+    /** Histogram of git-receive-pack runs */
+    public static final String RECEIVE_PACK = "git.receive-pack";
+    /** Counter of bytes received by git-receive-pack */
+    public static final String RECEIVE_PACK_BYTES = "git.receive-pack.bytes";
+    /** Histogram of git-upload-archive runs */
+    public static final String UPLOAD_ARCHIVE = "git.upload-archive";
+    /** Counter of archive bytes sent by git-upload-archive */
+    public static final String UPLOAD_ARCHIVE_BYTES = "git.upload-archive.bytes";
+    /** Histogram of the time taken to start a process */
+    public static final String PROCESS_SPAWN = "process.spawn";
+    /** Counter of commands currently running on the command executor */
+    public static final String COMMANDS_ACTIVE = "commands.active";
+    /** Histogram of the time commands and SFTP channels waited for admission */
+    public static final String ADMISSION_WAIT = "admission.wait";
+    /** Counter of commands and SFTP channels currently waiting for admission */
+    public static final String ADMISSION_QUEUED = "admission.queued";
+    /** Counter of sessions, commands and SFTP channels rejected by the admission control */
+    public static final String ADMISSION_REJECTED = "admission.rejected";
+
+    private final Map<String, Counter> counters = new LinkedHashMap<>();
+    private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+
+    public ServerMetrics() {
+        for (String name : new String[]{SESSIONS, SESSIONS_ACTIVE, UPLOAD_PACK_BYTES, RECEIVE_PACK_BYTES, UPLOAD_ARCHIVE_BYTES, COMMANDS_ACTIVE, ADMISSION_QUEUED, ADMISSION_REJECTED}) {
+            counters.put(name, new Counter());
+        }
+        for (String name : new String[]{HANDSHAKE, AUTHENTICATION, EXEC, SHELL, SFTP, SCP, UPLOAD_PACK, RECEIVE_PACK, UPLOAD_ARCHIVE, PROCESS_SPAWN, ADMISSION_WAIT}) {
+            histograms.put(name, new Histogram());
+        }
+    }
+
+    /**
+     * @param name one of the counter names defined here
+     * @return the counter
+     */
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            throw new IllegalArgumentException("No counter " + name);
+        }
+        return counter;
+    }
+
+    /**
+     * @param name one of the histogram names defined here
+     * @return the histogram
+     */
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            throw new IllegalArgumentException("No histogram " + name);
+        }
+        return histogram;
+    }
+
+    public MetricsSnapshot snapshot() {
+        Map<String, Long> counterValues = new LinkedHashMap<>();
+        for (Map.Entry<String, Counter> e : counters.entrySet()) {
+            counterValues.put(e.getKey(), e.getValue().get());
+        }
+        Map<String, HistogramSnapshot> histogramValues = new LinkedHashMap<>();
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            histogramValues.put(e.getKey(), e.getValue().snapshot());
+        }
+        return new MetricsSnapshot(System.currentTimeMillis(), Collections.unmodifiableMap(counterValues), Collections.unmodifiableMap(histogramValues));
+    }
+
+    /**
+     * Exports the metrics as attributes of an MBean
+     *
+     * @param server MBean server, usually the platform one
+     * @param name   name to register under
+     * @throws JMException if the name is taken or invalid
+     */
+    public void register(MBeanServer server, ObjectName name) throws JMException {
+        server.registerMBean(new MetricsMBean(this), name);
+    }
+
+    /**
+     * @param server MBean server passed to {@link #register(MBeanServer, ObjectName)}
+     * @param name   name the metrics were registered under
+     */
+    public void unregister(MBeanServer server, ObjectName name) {
+        try {
+            server.unregisterMBean(name);
+        } catch (InstanceNotFoundException e) {
+            // never registered or already gone
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}
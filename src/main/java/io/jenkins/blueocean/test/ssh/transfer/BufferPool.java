@@ -0,0 +1,73 @@
+package io.jenkins.blueocean.test.ssh.transfer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Direct buffers of one size for file transfers, reused so each transfer
+ * doesn't allocate and later free native memory. At most a given number of
+ * idle buffers are kept, more are allocated when needed and left to the
+ * garbage collector when released.
+ */
+public final class BufferPool {
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> idle;
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    /**
+     * @param bufferSize size of each buffer
+     * @param maxIdle    buffers kept for reuse
+     */
+    public BufferPool(int bufferSize, int maxIdle) {
+        if (bufferSize < 1024 || maxIdle < 1) {
+            throw new IllegalArgumentException("Buffers must be at least 1024 bytes and at least one kept: " + bufferSize + ", " + maxIdle);
+        }
+        this.bufferSize = bufferSize;
+        this.idle = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return a cleared buffer, to {@link #release(ByteBuffer)} when done
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = idle.poll();
+        if (buffer == null) {
+            allocated.incrementAndGet();
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        reused.incrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * @param buffer a buffer of this pool, not to be used by the caller anymore
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || !idle.offer(buffer)) {
+            // not ours or enough idle ones, the garbage collector frees it
+            return;
+        }
+    }
+
+    /**
+     * @return buffers allocated so far
+     */
+    public long getAllocatedCount() {
+        return allocated.get();
+    }
+
+    /**
+     * @return buffers handed out again after being released
+     */
+    public long getReusedCount() {
+        return reused.get();
+    }
+}
@@ -0,0 +1,221 @@
+package io.jenkins.blueocean.test.ssh.transfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Reads ahead and writes behind through one pooled buffer, so the small
+ * sequential reads and writes of SFTP requests and SCP copies become few
+ * large ones on the file. The buffer holds either data read ahead or data
+ * not written yet, never both; writes are flushed before anything else
+ * touches the file through this channel, and when it is closed.
+ * <p>
+ * Other channels on the same file don't see unflushed writes, and data
+ * read ahead isn't refreshed when they write. Like the channels it wraps,
+ * it is meant for one thread at a time, as SFTP handles and SCP commands
+ * are used.
+ */
+final class BufferedFileChannel implements SeekableByteChannel {
+    private final SeekableByteChannel channel;
+    private final BufferPool pool;
+    private ByteBuffer buffer;
+    // file position of the first byte of the buffer
+    private long bufferStart;
+    private boolean writing;
+    private long position;
+    private boolean open = true;
+
+    BufferedFileChannel(SeekableByteChannel channel, BufferPool pool) throws IOException {
+        this.channel = channel;
+        this.pool = pool;
+        this.position = channel.position();
+    }
+
+    SeekableByteChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Reads until dst is full or the file ends: SFTP clients take a short read
+     * as the end of what's available and ask again for the rest, out of order.
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        checkOpen();
+        flush();
+        int total = 0;
+        while (dst.hasRemaining()) {
+            ByteBuffer buf = buffer();
+            if (!buffered(position)) {
+                if (dst.remaining() >= buf.capacity()) {
+                    // as large as the buffer, no point in copying
+                    channel.position(position);
+                    int n = channel.read(dst);
+                    if (n < 0) {
+                        break;
+                    }
+                    position += n;
+                    total += n;
+                    continue;
+                }
+                fill(buf);
+                if (!buf.hasRemaining()) {
+                    break;
+                }
+            }
+            buf.position((int) (position - bufferStart));
+            int n = Math.min(buf.remaining(), dst.remaining());
+            ByteBuffer slice = buf.slice();
+            slice.limit(n);
+            dst.put(slice);
+            position += n;
+            total += n;
+        }
+        return total == 0 && dst.hasRemaining() ? -1 : total;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        checkOpen();
+        int n = src.remaining();
+        ByteBuffer buf = buffer();
+        if (!writing || position != bufferStart + buf.position() || n > buf.remaining()) {
+            flush();
+            discard();
+            if (n >= buf.capacity()) {
+                channel.position(position);
+                while (src.hasRemaining()) {
+                    channel.write(src);
+                }
+                position += n;
+                return n;
+            }
+            buf.clear();
+            writing = true;
+            bufferStart = position;
+        }
+        buf.put(src);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long position() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        checkOpen();
+        long size = channel.size();
+        if (writing) {
+            size = Math.max(size, bufferStart + buffer.position());
+        }
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        checkOpen();
+        flush();
+        channel.truncate(size);
+        discard();
+        if (position > size) {
+            position = size;
+        }
+        return this;
+    }
+
+    /**
+     * Writes the buffered data to the file
+     */
+    void flush() throws IOException {
+        if (!writing) {
+            return;
+        }
+        writing = false;
+        buffer.flip();
+        channel.position(bufferStart);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        discard();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open && channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            open = false;
+            try {
+                channel.close();
+            } finally {
+                if (buffer != null) {
+                    pool.release(buffer);
+                    buffer = null;
+                }
+            }
+        }
+    }
+
+    private ByteBuffer buffer() {
+        if (buffer == null) {
+            buffer = pool.acquire();
+            discard();
+        }
+        return buffer;
+    }
+
+    /**
+     * Forgets data read ahead
+     */
+    private void discard() {
+        buffer.clear();
+        buffer.limit(0);
+        bufferStart = 0;
+    }
+
+    private boolean buffered(long pos) {
+        return !writing && pos >= bufferStart && pos < bufferStart + buffer.limit();
+    }
+
+    private void fill(ByteBuffer buf) throws IOException {
+        buf.clear();
+        bufferStart = position;
+        channel.position(position);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                break;
+            }
+        }
+        buf.flip();
+    }
+
+    private void checkOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package io.jenkins.blueocean.test.ssh.transfer;
+
+import org.apache.sshd.common.scp.ScpFileOpener;
+import org.apache.sshd.common.session.Session;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Streams the files SCP sends and receives through {@link FileChannel}s and
+ * buffers of a {@link BufferPool}, instead of sshd's plain file streams.
+ */
+public class BufferedScpFileOpener implements ScpFileOpener {
+    private final BufferPool pool;
+
+    public BufferedScpFileOpener(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public InputStream openRead(Session session, Path file, OpenOption... options) throws IOException {
+        Set<OpenOption> opts = new HashSet<>(Arrays.asList(options));
+        opts.add(StandardOpenOption.READ);
+        return Channels.newInputStream(new BufferedFileChannel(FileChannel.open(file, opts), pool));
+    }
+
+    @Override
+    public OutputStream openWrite(Session session, Path file, OpenOption... options) throws IOException {
+        Set<OpenOption> opts = new HashSet<>(Arrays.asList(options));
+        if (opts.isEmpty()) {
+            // as Files.newOutputStream does
+            opts.add(StandardOpenOption.CREATE);
+            opts.add(StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        opts.add(StandardOpenOption.WRITE);
+        return Channels.newOutputStream(new BufferedFileChannel(FileChannel.open(file, opts), pool));
+    }
+}
@@ -0,0 +1,65 @@
+package io.jenkins.blueocean.test.ssh.transfer;
+
+import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.server.subsystem.sftp.SftpEventListenerManager;
+import org.apache.sshd.server.subsystem.sftp.SftpFileSystemAccessor;
+
+import java.io.IOException;
+import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.util.Set;
+
+/**
+ * Opens the files of SFTP handles as {@link FileChannel}s read ahead and
+ * written behind through buffers of a {@link BufferPool}, so the client's
+ * pipelined 32KB requests become a few large reads and writes.
+ */
+public class BufferedSftpFileSystemAccessor implements SftpFileSystemAccessor {
+    private final BufferPool pool;
+
+    public BufferedSftpFileSystemAccessor(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public SeekableByteChannel openFile(ServerSession session, SftpEventListenerManager subsystem, Path file, String handle,
+                                        Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+        return new BufferedFileChannel(FileChannel.open(file, options, attrs), pool);
+    }
+
+    @Override
+    public FileLock tryLock(ServerSession session, SftpEventListenerManager subsystem, Path file, String handle,
+                            Channel channel, long position, long size, boolean shared) throws IOException {
+        return SftpFileSystemAccessor.DEFAULT.tryLock(session, subsystem, file, handle, unwrap(channel), position, size, shared);
+    }
+
+    @Override
+    public void syncFileData(ServerSession session, SftpEventListenerManager subsystem, Path file, String handle,
+                             Channel channel) throws IOException {
+        SftpFileSystemAccessor.DEFAULT.syncFileData(session, subsystem, file, handle, unwrap(channel));
+    }
+
+    @Override
+    public DirectoryStream<Path> openDirectory(ServerSession session, SftpEventListenerManager subsystem, Path dir,
+                                               String handle) throws IOException {
+        return SftpFileSystemAccessor.DEFAULT.openDirectory(session, subsystem, dir, handle);
+    }
+
+    /**
+     * @return the file channel, with the buffered writes done so locks and syncs cover them
+     */
+    private static Channel unwrap(Channel channel) throws IOException {
+        if (channel instanceof BufferedFileChannel) {
+            BufferedFileChannel buffered = (BufferedFileChannel) channel;
+            buffered.flush();
+            return buffered.getChannel();
+        }
+        return channel;
+    }
+}
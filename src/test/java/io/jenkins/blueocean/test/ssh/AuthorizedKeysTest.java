@@ -0,0 +1,67 @@
+package io.jenkins.blueocean.test.ssh;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.sshd.common.config.keys.KeyUtils;
+import org.apache.sshd.common.config.keys.PublicKeyEntry;
+import org.apache.sshd.common.keyprovider.KeyPairProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECPoint;
+import java.util.Collections;
+
+public class AuthorizedKeysTest {
+    @Test
+    public void testRsaAndEcKeys() throws Exception {
+        KeyPair rsa = KeyUtils.generateKeyPair(KeyPairProvider.SSH_RSA, 1024);
+        KeyPair ec = generateEcKeyPair();
+        KeyPair other = generateEcKeyPair();
+
+        String ecLine = PublicKeyEntry.toString(ec.getPublic());
+        AuthorizedKeys keys = new AuthorizedKeys(ImmutableMap.of(
+            "bob", PublicKeyEntry.toString(rsa.getPublic()) + " bob@example",
+            "alice", ecLine.substring(ecLine.indexOf(' ') + 1)), false);
+
+        Assert.assertTrue(keys.authenticate("bob", rsa.getPublic(), null));
+        Assert.assertTrue(keys.authenticate("alice", ec.getPublic(), null));
+        Assert.assertFalse(keys.authenticate("alice", rsa.getPublic(), null));
+        Assert.assertFalse(keys.authenticate("alice", other.getPublic(), null));
+        Assert.assertFalse(keys.authenticate("carol", ec.getPublic(), null));
+    }
+
+    /**
+     * sshd writes EC points with a coordinate below 2^248 one byte short, which it then can't read back
+     */
+    private static KeyPair generateEcKeyPair() throws Exception {
+        while (true) {
+            KeyPair pair = KeyUtils.generateKeyPair(KeyPairProvider.ECDSA_SHA2_NISTP256, 256);
+            ECPoint point = ((ECPublicKey) pair.getPublic()).getW();
+            if (point.getAffineX().bitLength() > 248 && point.getAffineY().bitLength() > 248) {
+                return pair;
+            }
+        }
+    }
+
+    @Test
+    public void testNullKeyAllowsAnyKey() throws Exception {
+        KeyPair ec = KeyUtils.generateKeyPair(KeyPairProvider.ECDSA_SHA2_NISTP256, 256);
+        AuthorizedKeys keys = new AuthorizedKeys(Collections.<String, String>singletonMap("bob", null), false);
+        Assert.assertTrue(keys.authenticate("bob", ec.getPublic(), null));
+        Assert.assertFalse(keys.authenticate("alice", ec.getPublic(), null));
+    }
+
+    @Test
+    public void testMalformedKeyNeverMatches() throws Exception {
+        KeyPair ec = generateEcKeyPair();
+        AuthorizedKeys keys = new AuthorizedKeys(ImmutableMap.of(
+            "bob", "ssh-rsa not-a-key bob@example",
+            "carol", "garbage",
+            "alice", PublicKeyEntry.toString(ec.getPublic())), false);
+
+        Assert.assertFalse(keys.authenticate("bob", ec.getPublic(), null));
+        Assert.assertFalse(keys.authenticate("carol", ec.getPublic(), null));
+        Assert.assertTrue(keys.authenticate("alice", ec.getPublic(), null));
+    }
+}
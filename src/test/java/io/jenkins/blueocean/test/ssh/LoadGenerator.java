@@ -0,0 +1,281 @@
+package io.jenkins.blueocean.test.ssh;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.google.common.io.ByteStreams;
+import io.jenkins.blueocean.test.ssh.metrics.Histogram;
+import io.jenkins.blueocean.test.ssh.metrics.HistogramSnapshot;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives many concurrent JSch clients against one server with a weighted mix
+ * of operations, each client on its own thread and session. Clients start
+ * evenly spread over the ramp-up and pick operations from a random sequence
+ * seeded by their number, so runs are repeatable.
+ */
+class LoadGenerator {
+    enum Operation {
+        /** a forked process through an exec channel */
+        EXEC,
+        /** upload and download of a small file */
+        SFTP,
+        /** full clone of the served repository */
+        GIT
+    }
+
+    private final SSHServer server;
+    private final String user;
+    private final String privateKey;
+    private final String repository;
+    private final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+    private int clients = 8;
+    private long durationMillis = 2000;
+    private long rampUpMillis = 500;
+
+    /**
+     * @param repository absolute path of the git directory cloned by {@link Operation#GIT}
+     */
+    LoadGenerator(SSHServer server, String user, String privateKey, String repository) {
+        this.server = server;
+        this.user = user;
+        this.privateKey = privateKey;
+        this.repository = repository;
+    }
+
+    LoadGenerator clients(int clients) {
+        this.clients = clients;
+        return this;
+    }
+
+    LoadGenerator duration(long millis) {
+        this.durationMillis = millis;
+        return this;
+    }
+
+    LoadGenerator rampUp(long millis) {
+        this.rampUpMillis = millis;
+        return this;
+    }
+
+    LoadGenerator mix(Operation operation, int weight) {
+        mix.put(operation, weight);
+        return this;
+    }
+
+    /**
+     * @param mix e.g. "exec:4,sftp:3,git:3"
+     */
+    LoadGenerator mix(String mix) {
+        for (String part : mix.split(",")) {
+            String[] entry = part.trim().split(":");
+            mix(Operation.valueOf(entry[0].trim().toUpperCase()), Integer.parseInt(entry[1].trim()));
+        }
+        return this;
+    }
+
+    Report run() throws InterruptedException {
+        final Report report = new Report();
+        final List<Operation> weighted = new ArrayList<>();
+        for (Map.Entry<Operation, Integer> e : mix.entrySet()) {
+            weighted.addAll(Collections.nCopies(e.getValue(), e.getKey()));
+        }
+        if (weighted.isEmpty()) {
+            throw new IllegalStateException("No operations in the mix");
+        }
+
+        final long start = System.currentTimeMillis();
+        final long end = start + rampUpMillis + durationMillis;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            final int client = i;
+            final long startAt = start + rampUpMillis * i / clients;
+            Thread t = new Thread("load client " + i) {
+                @Override
+                public void run() {
+                    runClient(client, startAt, end, weighted, report);
+                }
+            };
+            t.setDaemon(true);
+            threads.add(t);
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        while (System.currentTimeMillis() < end + 60000) {
+            report.sample();
+            boolean alive = false;
+            for (Thread t : threads) {
+                t.join(100);
+                alive |= t.isAlive();
+            }
+            if (!alive) {
+                break;
+            }
+        }
+        report.elapsedMillis = System.currentTimeMillis() - start;
+        report.serverMetrics = server.getMetrics().snapshot().toString();
+        return report;
+    }
+
+    private void runClient(int client, long startAt, long end, List<Operation> weighted, Report report) {
+        Random random = new Random(client);
+        Session session = null;
+        try {
+            Thread.sleep(Math.max(0, startAt - System.currentTimeMillis()));
+            while (System.currentTimeMillis() < end) {
+                Operation operation = weighted.get(random.nextInt(weighted.size()));
+                long started = System.nanoTime();
+                try {
+                    if (session == null || !session.isConnected()) {
+                        session = connect();
+                    }
+                    perform(operation, session, client);
+                    report.histograms.get(operation).recordSince(started);
+                } catch (Exception | AssertionError e) {
+                    report.error(operation, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (session != null) {
+                session.disconnect();
+            }
+        }
+    }
+
+    private Session connect() throws JSchException, IOException {
+        JSch jsch = new JSch();
+        jsch.addIdentity(user, privateKey.getBytes("utf-8"), null, null);
+        Session session = jsch.getSession(user, "127.0.0.1", server.getPort());
+        session.setConfig("StrictHostKeyChecking", "no");
+        session.connect(30000);
+        return session;
+    }
+
+    private void perform(Operation operation, Session session, int client) throws Exception {
+        switch (operation) {
+            case EXEC:
+                ChannelExec exec = (ChannelExec) session.openChannel("exec");
+                try (InputStream in = exec.getInputStream()) {
+                    exec.setCommand("wc -c test.txt");
+                    exec.connect();
+                    String out = new String(ByteStreams.toByteArray(in), "utf-8");
+                    if (!out.contains("test.txt")) {
+                        throw new IOException("Unexpected output: " + out);
+                    }
+                } finally {
+                    exec.disconnect();
+                }
+                break;
+            case SFTP:
+                byte[] data = new byte[4096];
+                new Random(client).nextBytes(data);
+                ChannelSftp sftp = (ChannelSftp) session.openChannel("sftp");
+                try {
+                    sftp.connect();
+                    String name = "load-" + client + ".bin";
+                    sftp.put(new ByteArrayInputStream(data), name);
+                    try (InputStream in = sftp.get(name)) {
+                        if (ByteStreams.toByteArray(in).length != data.length) {
+                            throw new IOException("Short download of " + name);
+                        }
+                    }
+                } finally {
+                    sftp.disconnect();
+                }
+                break;
+            case GIT:
+                byte[] response = TestSSHServer.clone(session, "git-upload-pack '" + repository + "'");
+                if (response.length == 0) {
+                    throw new IOException("Empty clone");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(operation.name());
+        }
+    }
+
+    static class Report {
+        private final Map<Operation, Histogram> histograms = new EnumMap<>(Operation.class);
+        private final Map<Operation, AtomicLong> errors = new EnumMap<>(Operation.class);
+        private final List<String> firstErrors = Collections.synchronizedList(new ArrayList<String>());
+        private long elapsedMillis;
+        private int peakThreads;
+        private long peakFileDescriptors = -1;
+        private String serverMetrics;
+
+        Report() {
+            for (Operation operation : Operation.values()) {
+                histograms.put(operation, new Histogram());
+                errors.put(operation, new AtomicLong());
+            }
+        }
+
+        void error(Operation operation, Throwable e) {
+            errors.get(operation).incrementAndGet();
+            if (firstErrors.size() < 10) {
+                firstErrors.add(operation + ": " + e);
+            }
+        }
+
+        void sample() {
+            peakThreads = Math.max(peakThreads, ManagementFactory.getThreadMXBean().getThreadCount());
+            OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+                peakFileDescriptors = Math.max(peakFileDescriptors, ((com.sun.management.UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount());
+            }
+        }
+
+        long getOperations() {
+            long total = 0;
+            for (Histogram histogram : histograms.values()) {
+                total += histogram.snapshot().getCount();
+            }
+            return total;
+        }
+
+        long getErrors() {
+            long total = 0;
+            for (AtomicLong count : errors.values()) {
+                total += count.get();
+            }
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            long operations = getOperations();
+            long errorCount = getErrors();
+            StringBuilder s = new StringBuilder();
+            s.append(String.format("%d operations in %dms, %.1f/s, %d errors (%.2f%%)%n", operations, elapsedMillis,
+                    operations * 1000.0 / Math.max(1, elapsedMillis), errorCount, errorCount * 100.0 / Math.max(1, operations + errorCount)));
+            for (Operation operation : Operation.values()) {
+                HistogramSnapshot h = histograms.get(operation).snapshot();
+                s.append(String.format("  %-5s count=%d errors=%d p50=%dus p90=%dus p99=%dus max=%dus%n", operation, h.getCount(),
+                        errors.get(operation).get(), h.getPercentile(50), h.getPercentile(90), h.getPercentile(99), h.getMax()));
+            }
+            s.append("  peak threads=").append(peakThreads).append(", peak open files=").append(peakFileDescriptors).append('\n');
+            for (String error : firstErrors) {
+                s.append("  ").append(error).append('\n');
+            }
+            s.append(serverMetrics);
+            return s.toString();
+        }
+    }
+}
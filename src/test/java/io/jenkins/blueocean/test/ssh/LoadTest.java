@@ -0,0 +1,42 @@
+package io.jenkins.blueocean.test.ssh;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.logging.Logger;
+
+/**
+ * Short run of {@link LoadGenerator} by default, scale it up with e.g.
+ * <code>mvn test -Dtest=LoadTest -Dload.clients=200 -Dload.duration=60000 -Dload.rampUp=10000 -Dload.mix=exec:2,sftp:5,git:3</code>
+ */
+public class LoadTest {
+    private static final Logger log = Logger.getLogger(LoadTest.class.getName());
+
+    @Test
+    public void testConcurrentClients() throws Exception {
+        File cwd = Files.createTempDir();
+        TestSSHServer.initRepository(cwd);
+
+        String privateKey = SSHServer.generatePrivateKey();
+        String publicKey = SSHServer.getPublicKey(privateKey);
+
+        SSHServer sshd = new SSHServer(cwd, ImmutableMap.of("bob", publicKey));
+        try {
+            sshd.start();
+            LoadGenerator.Report report = new LoadGenerator(sshd, "bob", privateKey, new File(cwd, ".git").getAbsolutePath())
+                    .clients(Integer.getInteger("load.clients", 8))
+                    .duration(Long.getLong("load.duration", 2000))
+                    .rampUp(Long.getLong("load.rampUp", 500))
+                    .mix(System.getProperty("load.mix", "exec:4,sftp:3,git:3"))
+                    .run();
+            log.info("Load test: " + report);
+            Assert.assertTrue(report.toString(), report.getOperations() > 0);
+            Assert.assertEquals(report.toString(), 0, report.getErrors());
+        } finally {
+            sshd.stop();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package io.jenkins.blueocean.test.ssh;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+public class SharedSSHServerTest {
+    @Rule
+    public SharedSSHServer ssh = new SharedSSHServer();
+
+    @Rule
+    public SharedSSHServer other = new SharedSSHServer();
+
+    @Test
+    public void testSessionsRootedInNamespace() throws Exception {
+        Assert.assertSame(ssh.getServer(), other.getServer());
+        Assert.assertSame(SharedSSHServer.getSharedServer(), ssh.getServer());
+        TestSSHServer.initRepository(ssh.getRoot());
+
+        Session session = connect(ssh.getUser(), ssh.getPrivateKey());
+        try {
+            Assert.assertEquals(ssh.getRoot().getCanonicalPath(), exec(session, "pwd").trim());
+            Assert.assertEquals("some-text", exec(session, "cat test.txt"));
+            Assert.assertEquals("9 test.txt", exec(session, "wc -c test.txt").trim());
+            Assert.assertTrue(TestSSHServer.readAdvertisement(session, "git-upload-pack '.git'").contains("refs/heads/master"));
+
+            ChannelSftp sftp = (ChannelSftp) session.openChannel("sftp");
+            try {
+                sftp.connect();
+                sftp.put(new ByteArrayInputStream("uploaded".getBytes("utf-8")), "upload.txt");
+            } finally {
+                sftp.disconnect();
+            }
+            Assert.assertEquals("uploaded", Files.toString(new File(ssh.getRoot(), "upload.txt"), Charset.forName("utf-8")));
+            Assert.assertFalse(new File(other.getRoot(), "upload.txt").exists());
+        } finally {
+            session.disconnect();
+        }
+    }
+
+    @Test
+    public void testUsersAuthenticatedPerNamespace() throws Exception {
+        try {
+            connect(ssh.getUser(), other.getPrivateKey());
+            Assert.fail("Authenticated with the key of another namespace");
+        } catch (JSchException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("Auth fail"));
+        }
+        Session session = connect(other.getUser(), other.getPrivateKey());
+        try {
+            Assert.assertEquals(other.getRoot().getCanonicalPath(), exec(session, "pwd").trim());
+        } finally {
+            session.disconnect();
+        }
+    }
+
+    private Session connect(String user, String privateKey) throws Exception {
+        JSch jsch = new JSch();
+        jsch.addIdentity(user, privateKey.getBytes("utf-8"), null, null);
+        Session session = jsch.getSession(user, "127.0.0.1", ssh.getPort());
+        session.setConfig("StrictHostKeyChecking", "no");
+        session.connect();
+        return session;
+    }
+
+    private static String exec(Session session, String command) throws Exception {
+        ChannelExec channelExec = (ChannelExec) session.openChannel("exec");
+        try (InputStream in = channelExec.getInputStream()) {
+            channelExec.setCommand(command);
+            channelExec.connect();
+            return new String(ByteStreams.toByteArray(in), "utf-8");
+        } finally {
+            channelExec.disconnect();
+        }
+    }
+}
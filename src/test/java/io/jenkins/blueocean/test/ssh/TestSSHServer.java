@@ -1,6 +1,7 @@
 package io.jenkins.blueocean.test.ssh;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.ChannelSftp;
@@ -8,14 +9,41 @@ import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
 import com.jcraft.jsch.SftpException;
+import io.jenkins.blueocean.test.ssh.command.BuiltinCommands;
+import io.jenkins.blueocean.test.ssh.command.PushEvent;
+import io.jenkins.blueocean.test.ssh.command.PushListener;
+import io.jenkins.blueocean.test.ssh.command.TransferProfile;
+import io.jenkins.blueocean.test.ssh.fs.MemoryFileSystem;
+import io.jenkins.blueocean.test.ssh.metrics.MetricsSnapshot;
+import io.jenkins.blueocean.test.ssh.metrics.ServerMetrics;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
 import org.junit.Assert;
 import org.junit.Test;
 
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 public class TestSSHServer {
     @Test
@@ -72,4 +100,1111 @@ public class TestSSHServer {
             sshd.stop();
         }
     }
+
+    @Test
+    public void testExecProcess() throws Exception {
+        File cwd = Files.createTempDir();
+        Files.write("some-text", new File(cwd, "test.txt"), Charset.forName("utf-8"));
+
+        String privateKey = SSHServer.generatePrivateKey();
+        String publicKey = SSHServer.getPublicKey(privateKey);
+
+        SSHServer sshd = new SSHServer(cwd, ImmutableMap.of("bob", publicKey));
+        try {
+            sshd.start();
+
+            Session session = connect(sshd, "bob", privateKey);
+            try {
+                // not a builtin, runs as a process
+                ChannelExec channelExec = (ChannelExec) session.openChannel("exec");
+                try (InputStream in = channelExec.getInputStream()) {
+                    channelExec.setCommand("wc -c test.txt");
+                    channelExec.connect();
+                    String out = new String(ByteStreams.toByteArray(in), "utf-8");
+                    Assert.assertEquals("9 test.txt", out.trim());
+                    while (!channelExec.isClosed()) {
+                        Thread.sleep(10);
+                    }
+                    Assert.assertEquals(0, channelExec.getExitStatus());
+                } finally {
+                    channelExec.disconnect();
+                }
+            } finally {
+                session.disconnect();
+            }
+        } finally {
+            sshd.stop();
+        }
+    }
+
+    @Test
+    public void testGitUploadPackReusesRepository() throws Exception {
+        File cwd = Files.createTempDir();
+        File repo = new File(cwd, "repo");
+        initRepository(repo);
+
+        String privateKey = SSHServer.generatePrivateKey();
+        String publicKey = SSHServer.getPublicKey(privateKey);
+
+        SSHServer sshd = new SSHServer(cwd, ImmutableMap.of("bob", publicKey));
+        try {
+            sshd.start();
+
+            Session session = connect(sshd, "bob", privateKey);
+            try {
+                for (int i = 0; i < 2; i++) {
+                    String advertisement = readAdvertisement(session, "git-upload-pack '" + new File(repo, ".git").getAbsolutePath() + "'");
+                    Assert.assertTrue(advertisement, advertisement.contains("refs/heads/master"));
+                }
+            } finally {
+                session.disconnect();
+            }
+
+            Assert.assertEquals(1, sshd.getRepositoryCache().getMissCount());
+            Assert.assertEquals(1, sshd.getRepositoryCache().getHitCount());
+            Assert.assertEquals(2, sshd.getCommandExecutor().getSubmittedCount());
+        } finally {
+            sshd.stop();
+        }
+        Assert.assertEquals(0, sshd.getRepositoryCache().size());
+    }
+
+    @Test
+    public void testRepeatedCloneServedFromPackCache() throws Exception {
+        File cwd = Files.createTempDir();
+        File repo = new File(cwd, "repo");
+        initRepository(repo);
+
+        String privateKey = SSHServer.generatePrivateKey();
+        String publicKey = SSHServer.getPublicKey(privateKey);
+
+        String gitDir = new File(repo, ".git").getAbsolutePath();
+        SSHServer sshd = new SSHServer(cwd, ImmutableMap.of("bob", publicKey))
+                .setTransferProfile(gitDir, TransferProfile.loopbackFast())
+                .setJmxEnabled(true);
+        try {
+            sshd.start();
+
+            Session session = connect(sshd, "bob", privateKey);
+            try {
+                String command = "git-upload-pack '" + gitDir + "'";
+                byte[] first = clone(session, command);
+                byte[] second = clone(session, command);
+                String response = new String(first, "ISO-8859-1");
+                Assert.assertTrue(response, response.startsWith("0008NAK\n") && response.contains("PACK"));
+                Assert.assertArrayEquals(first, second);
+            } finally {
+                session.disconnect();
+            }
+
+            Assert.assertEquals(1, sshd.getPackCache().getMissCount());
+            Assert.assertEquals(1, sshd.getPackCache().getHitCount());
+            Assert.assertEquals(1, sshd.getPackCache().getEntryCount());
+            Assert.assertEquals(TransferProfile.REALISTIC, sshd.getStats().get("transferProfile"));
+
+            MetricsSnapshot metrics = sshd.getMetrics().snapshot();
+            Assert.assertEquals(1, metrics.getCounter(ServerMetrics.SESSIONS));
+            Assert.assertEquals(1, metrics.getHistogram(ServerMetrics.HANDSHAKE).getCount());
+            Assert.assertEquals(1, metrics.getHistogram(ServerMetrics.AUTHENTICATION).getCount());
+            Assert.assertEquals(2, metrics.getHistogram(ServerMetrics.EXEC).getCount());
+            Assert.assertEquals(2, metrics.getHistogram(ServerMetrics.UPLOAD_PACK).getCount());
+            Assert.assertTrue(metrics.getCounter(ServerMetrics.UPLOAD_PACK_BYTES) > 0);
+            Assert.assertEquals(0, metrics.getCounter(ServerMetrics.COMMANDS_ACTIVE));
+            Object exported = ManagementFactory.getPlatformMBeanServer().getAttribute(
+                    new ObjectName("io.jenkins.blueocean.test.ssh:type=SSHServer,port=" + sshd.getPort()), "git.upload-pack.count");
+            Assert.assertEquals(2L, exported);
+            Assert.assertEquals(ImmutableMap.of(gitDir.substring(1), TransferProfile.LOOPBACK_FAST), sshd.getStats().get("repositoryTransferProfiles"));
+        } finally {
+            sshd.stop();
+        }
+    }
+
+    @Test
+    public void testInMemoryRepository() throws Exception {
+        File cwd = Files.createTempDir();
+        File repo = new File(cwd, "repo");
+        initRepository(repo);
+
+        String privateKey = SSHServer.generatePrivateKey();
+        String publicKey = SSHServer.getPublicKey(privateKey);
+
+        SSHServer sshd = new SSHServer(cwd, ImmutableMap.of("bob", publicKey));
+        sshd.getInMemoryRepositories().seed("org/repo.git", new File(repo, ".git"));
+        Assert.assertTrue(deleteRecursively(repo));
+        try {
+            sshd.start();
+
+            Session session = connect(sshd, "bob", privateKey);
+            try {
+                String advertisement = readAdvertisement(session, "git-upload-pack '/org/repo.git'");
+                Assert.assertTrue(advertisement, advertisement.contains("refs/heads/master"));
+                Assert.assertTrue(advertisement, advertisement.contains("HEAD"));
+            } finally {
+                session.disconnect();
+            }
+            Assert.assertEquals(0, sshd.getRepositoryCache().getMissCount());
+
+            File snapshot = new File(cwd, "snapshot.git");
+            try (org.eclipse.jgit.lib.Repository copy = sshd.getInMemoryRepositories().snapshot("org/repo.git", snapshot)) {
+                Assert.assertNotNull(copy.exactRef("refs/heads/master"));
+            }
+        } finally {
+            sshd.stop();
+        }
+    }
+
+    @Test
+    public void testAwaitPush() throws Exception {
+        File cwd = Files.createTempDir();
+        File repo = new File(cwd, "repo");
+        initRepository(repo);
+
+        String privateKey = SSHServer.generatePrivateKey();
+        String publicKey = SSHServer.getPublicKey(privateKey);
+
+        SSHServer sshd = new SSHServer(cwd, ImmutableMap.of("bob", publicKey));
+        String master = sshd.getInMemoryRepositories().seed("org/repo.git", new File(repo, ".git"))
+                .exactRef("refs/heads/master").getObjectId().name();
+        final List<PushEvent> notified = new CopyOnWriteArrayList<>();
+        sshd.getPushEvents().addListener(new PushListener() {
+            @Override
+            public void onPush(PushEvent event) {
+                notified.add(event);
+            }
+        });
+        try {
+            sshd.start();
+            Assert.assertNull(sshd.awaitPush("org/repo.git", 10, TimeUnit.MILLISECONDS));
+
+            Session session = connect(sshd, "bob", privateKey);
+            try {
+                String zero = "0000000000000000000000000000000000000000";
+                String status = push(session, "git-receive-pack '/org/repo.git'",
+                        zero + " " + master + " refs/heads/feature\0 report-status\n",
+                        zero + " " + master + " refs/tags/v1\n");
+                Assert.assertTrue(status, status.contains("ok refs/heads/feature") && status.contains("ok refs/tags/v1"));
+            } finally {
+                session.disconnect();
+            }
+
+            PushEvent event = sshd.awaitPush("/org/repo.git/", 10, TimeUnit.SECONDS);
+            Assert.assertNotNull(event);
+            Assert.assertEquals("org/repo.git", event.getRepository());
+            Assert.assertEquals(2, event.getRefChanges().size());
+            Assert.assertEquals(master, event.getRefChange("refs/tags/v1").getNewId());
+            Assert.assertNull(sshd.getPushEvents().awaitPush("org/repo.git", event.getSequence(), 10, TimeUnit.MILLISECONDS));
+            Assert.assertNotNull(sshd.getInMemoryRepositories().get("org/repo.git").exactRef("refs/heads/feature"));
+            for (int i = 0; i < 100 && notified.isEmpty(); i++) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(Collections.singletonList(event), notified);
+        } finally {
+            sshd.stop();
+        }
+    }
+
+    private static boolean deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        return file.delete();
+    }
+
+    @Test
+    public void testSharedEcdsaHostKey() throws Exception {
+        File cwd = Files.createTempDir();
+        String privateKey = SSHServer.generatePrivateKey();
+        String publicKey = SSHServer.getPublicKey(privateKey);
+
+        SSHServer sshd = new SSHServer(cwd, ImmutableMap.of("bob", publicKey)).setHostKeyAlgorithm(HostKeys.Algorithm.ECDSA);
+        SSHServer other = new SSHServer(cwd, ImmutableMap.of("bob", publicKey)).setHostKeyAlgorithm(HostKeys.Algorithm.ECDSA);
+        try {
+            sshd.start();
+            other.start();
+
+            String hostKey = null;
+            for (SSHServer server : new SSHServer[] {sshd, other}) {
+                Session session = connect(server, "bob", privateKey);
+                try {
+                    Assert.assertEquals("ecdsa-sha2-nistp256", session.getHostKey().getType());
+                    if (hostKey != null) {
+                        Assert.assertEquals(hostKey, session.getHostKey().getKey());
+                    }
+                    hostKey = session.getHostKey().getKey();
+                } finally {
+                    session.disconnect();
+                }
+            }
+        } finally {
+            sshd.stop();
+            other.stop();
+        }
+    }
+
+    @Test
+    public void testServerConfigPresets() throws Exception {
+        File cwd = Files.createTempDir();
+        String privateKey = SSHServer.generatePrivateKey();
+        String publicKey = SSHServer.getPublicKey(privateKey);
+        byte[] data = new byte[4 * 1024 * 1024];
+        new java.util.Random(1).nextBytes(data);
+
+        for (String preset : new String[] {ServerConfig.DEFAULTS, ServerConfig.HIGH_CONCURRENCY, ServerConfig.HIGH_BANDWIDTH}) {
+            SSHServer sshd = new SSHServer(cwd, ImmutableMap.of("bob", publicKey)).setConfig(ServerConfig.forName(preset));
+            try {
+                sshd.start();
+                Assert.assertEquals(preset, sshd.getStats().get("config"));
+
+                Session session = connect(sshd, "bob", privateKey);
+                ChannelSftp channelSftp = (ChannelSftp) session.openChannel("sftp");
+                try {
+                    channelSftp.connect();
+                    channelSftp.put(new java.io.ByteArrayInputStream(data), preset + ".bin");
+                    try (InputStream in = channelSftp.get(preset + ".bin")) {
+                        Assert.assertArrayEquals(data, ByteStreams.toByteArray(in));
+                    }
+                    scpUpload(session, preset + ".scp", data);
+                    Assert.assertArrayEquals(data, scpDownload(session, preset + ".scp"));
+                } finally {
+                    channelSftp.disconnect();
+                    session.disconnect();
+                }
+            } finally {
+                sshd.stop();
+            }
+        }
+
+        ServerConfig custom = ServerConfig.highBandwidth().toBuilder().name("custom").nioWorkers(3).build();
+        Assert.assertEquals(3, custom.getNioWorkers());
+        Assert.assertEquals(16 * 1024 * 1024, custom.getWindowSize());
+        try {
+            ServerConfig.builder().maxPacketSize(4 * 1024 * 1024).build();
+            Assert.fail("Packets larger than the window were accepted");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMemoryFileSystem() throws Exception {
+        File cwd = Files.createTempDir();
+        MemoryFileSystem fs = MemoryFileSystem.create();
+        java.nio.file.Files.write(fs.getPath("/test.txt"), "some-text".getBytes("utf-8"));
+        MemoryFileSystem before = fs.snapshot();
+
+        String privateKey = SSHServer.generatePrivateKey();
+        String publicKey = SSHServer.getPublicKey(privateKey);
+
+        SSHServer sshd = new SSHServer(cwd, ImmutableMap.of("bob", publicKey)).setFileSystem(fs);
+        try {
+            sshd.start();
+
+            Session session = connect(sshd, "bob", privateKey);
+            try {
+                ChannelSftp channelSftp = (ChannelSftp) session.openChannel("sftp");
+                try {
+                    channelSftp.connect();
+                    channelSftp.mkdir("upload");
+                    channelSftp.put(new java.io.ByteArrayInputStream("sftp-text".getBytes("utf-8")), "upload/sftp.txt");
+                    try (InputStream in = channelSftp.get("test.txt")) {
+                        Assert.assertEquals("some-text", new String(ByteStreams.toByteArray(in), "utf-8"));
+                    }
+                } finally {
+                    channelSftp.disconnect();
+                }
+
+                scpUpload(session, "upload/scp.txt", "scp-text".getBytes("utf-8"));
+
+                // a builtin, reads the same files
+                ChannelExec channelExec = (ChannelExec) session.openChannel("exec");
+                try (InputStream in = channelExec.getInputStream()) {
+                    channelExec.setCommand("cat upload/sftp.txt");
+                    channelExec.connect();
+                    Assert.assertEquals("sftp-text", new String(ByteStreams.toByteArray(in), "utf-8"));
+                } finally {
+                    channelExec.disconnect();
+                }
+
+                // arguments a builtin doesn't take fail rather than run a process on the files on disk
+                Files.write("disk-text", new File(cwd, "test.txt"), Charset.forName("utf-8"));
+                Assert.assertEquals("|2", run(session, "cat -n test.txt", null));
+                Assert.assertEquals("|2", run(session, "ls -la", null));
+            } finally {
+                session.disconnect();
+            }
+
+            // a namespace's commands are checked against its own directory, not the memory file system
+            File namespaceRoot = new File(cwd, "ns");
+            Assert.assertTrue(namespaceRoot.mkdir());
+            Files.write("inside", new File(namespaceRoot, "inside.txt"), Charset.forName("utf-8"));
+            Files.write("outside", new File(cwd, "outside.txt"), Charset.forName("utf-8"));
+            String carolKey = SSHServer.generatePrivateKey();
+            sshd.addNamespace(namespaceRoot, ImmutableMap.of("carol", SSHServer.getPublicKey(carolKey)));
+            session = connect(sshd, "carol", carolKey);
+            try {
+                Assert.assertEquals("inside|0", run(session, "cat inside.txt", null));
+                // outside of the namespace, so not a builtin
+                Assert.assertEquals("outside|0", run(session, "cat ../outside.txt", null));
+            } finally {
+                session.disconnect();
+            }
+        } finally {
+            sshd.stop();
+        }
+
+        Assert.assertEquals("sftp-text", new String(java.nio.file.Files.readAllBytes(fs.getPath("/upload/sftp.txt")), "utf-8"));
+        Assert.assertEquals("scp-text", new String(java.nio.file.Files.readAllBytes(fs.getPath("/upload/scp.txt")), "utf-8"));
+        Assert.assertFalse(java.nio.file.Files.exists(before.getPath("/upload")));
+        Assert.assertFalse(new File(cwd, "upload").exists());
+    }
+
+    @Test
+    public void testCryptoProfiles() throws Exception {
+        File cwd = Files.createTempDir();
+        String privateKey = SSHServer.generatePrivateKey();
+        String publicKey = SSHServer.getPublicKey(privateKey);
+        JSch jsch = new JSch();
+        jsch.addIdentity("bob", privateKey.getBytes("utf-8"), null, null);
+
+        for (String profile : new String[] {CryptoProfile.DEFAULTS, CryptoProfile.FAST, CryptoProfile.COMPATIBLE}) {
+            SSHServer sshd = new SSHServer(cwd, ImmutableMap.of("bob", publicKey)).setCryptoProfile(CryptoProfile.forName(profile));
+            try {
+                sshd.start();
+                Assert.assertEquals(profile, sshd.getStats().get("cryptoProfile"));
+
+                // JSch's own preferences
+                Session session = connect(sshd, "bob", privateKey);
+                try {
+                    Assert.assertTrue(session.isConnected());
+                } finally {
+                    session.disconnect();
+                }
+
+                // an old client
+                session = jsch.getSession("bob", "127.0.0.1", sshd.getPort());
+                session.setConfig("StrictHostKeyChecking", "no");
+                session.setConfig("kex", "diffie-hellman-group1-sha1");
+                session.setConfig("cipher.s2c", "3des-cbc");
+                session.setConfig("cipher.c2s", "3des-cbc");
+                try {
+                    session.connect();
+                    Assert.assertFalse(CryptoProfile.FAST.equals(profile));
+                } catch (JSchException e) {
+                    Assert.assertEquals(e.toString(), CryptoProfile.FAST, profile);
+                } finally {
+                    session.disconnect();
+                }
+            } finally {
+                sshd.stop();
+            }
+        }
+    }
+
+    @Test
+    public void testAutoCreateRepository() throws Exception {
+        File cwd = Files.createTempDir();
+        String privateKey = SSHServer.generatePrivateKey();
+        String publicKey = SSHServer.getPublicKey(privateKey);
+
+        SSHServer sshd = new SSHServer(cwd, ImmutableMap.of("bob", publicKey)).setAutoCreateRepositories(true);
+        try {
+            sshd.start();
+
+            Session session = connect(sshd, "bob", privateKey);
+            try {
+                // fetches don't create repositories, nor reach outside the root
+                Assert.assertEquals("", readAdvertisement(session, "git-upload-pack '/org/repo.git'"));
+                Assert.assertEquals("", readAdvertisement(session, "git-receive-pack '../outside.git'"));
+                Assert.assertFalse(new File(cwd, "org").exists());
+                Assert.assertFalse(new File(cwd.getParentFile(), "outside.git").exists());
+
+                String advertisement = readAdvertisement(session, "git-receive-pack '/org/repo.git'");
+                Assert.assertTrue(advertisement, advertisement.contains("capabilities^{}"));
+            } finally {
+                session.disconnect();
+            }
+            Assert.assertTrue(new File(cwd, "org/repo.git/HEAD").isFile());
+            Assert.assertTrue(sshd.getRepositoryIndex().getNames().contains("org/repo.git"));
+        } finally {
+            sshd.stop();
+        }
+    }
+
+    @Test
+    public void testUploadArchive() throws Exception {
+        File cwd = Files.createTempDir();
+        initRepository(new File(cwd, "repo"));
+        String privateKey = SSHServer.generatePrivateKey();
+        String publicKey = SSHServer.getPublicKey(privateKey);
+
+        SSHServer sshd = new SSHServer(cwd, ImmutableMap.of("bob", publicKey));
+        try {
+            sshd.start();
+
+            Session session = connect(sshd, "bob", privateKey);
+            try {
+                byte[] zip = archive(session, "/repo", "--format=zip", "--prefix=p/", "master");
+                List<String> names = new ArrayList<>();
+                try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+                    for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                        names.add(entry.getName());
+                        if (!entry.isDirectory()) {
+                            Assert.assertEquals("some-text", new String(ByteStreams.toByteArray(in), "utf-8"));
+                        }
+                    }
+                }
+                Assert.assertEquals(Arrays.asList("p/", "p/test.txt"), names);
+
+                byte[] tar = archive(session, "/repo", "HEAD", "test.txt");
+                Assert.assertEquals(0, tar.length % 10240);
+                // global pax header with the commit id, then the file
+                Assert.assertEquals("pax_global_header", new String(tar, 0, 17, "utf-8"));
+                Assert.assertEquals("test.txt", new String(tar, 1024, 8, "utf-8"));
+                Assert.assertEquals("some-text", new String(tar, 1536, 9, "utf-8"));
+
+                try {
+                    archive(session, "/repo", "--format=rar", "HEAD");
+                    Assert.fail("Archived in an unknown format");
+                } catch (IOException expected) {
+                    Assert.assertTrue(expected.getMessage(), expected.getMessage().contains("Unknown archive format"));
+                }
+            } finally {
+                session.disconnect();
+            }
+            // the last command is recorded once it returns, after the client read its NACK
+            for (int i = 0; i < 100 && sshd.getMetrics().snapshot().getHistogram(ServerMetrics.UPLOAD_ARCHIVE).getCount() < 3; i++) {
+                Thread.sleep(10);
+            }
+            MetricsSnapshot metrics = sshd.getMetrics().snapshot();
+            Assert.assertEquals(3, metrics.getHistogram(ServerMetrics.UPLOAD_ARCHIVE).getCount());
+            Assert.assertTrue(metrics.getCounter(ServerMetrics.UPLOAD_ARCHIVE_BYTES) > 10240);
+        } finally {
+            sshd.stop();
+        }
+    }
+
+    @Test
+    public void testShellPool() throws Exception {
+        File cwd = Files.createTempDir();
+        Files.write("some-text", new File(cwd, "test.txt"), Charset.forName("utf-8"));
+        String privateKey = SSHServer.generatePrivateKey();
+        String publicKey = SSHServer.getPublicKey(privateKey);
+
+        SSHServer sshd = new SSHServer(cwd, ImmutableMap.of("bob", publicKey))
+                .setBuiltinCommands(BuiltinCommands.empty())
+                .setShellPool(new ShellPool(1, 3));
+        try {
+            sshd.start();
+            for (int i = 0; i < 100 && sshd.getShellPool().getIdleCount() == 0; i++) {
+                Thread.sleep(10);
+            }
+
+            Session session = connect(sshd, "bob", privateKey);
+            try {
+                Assert.assertEquals("9 test.txt\n|0", run(session, "wc -c test.txt", null));
+                Assert.assertEquals("|2", run(session, "ls missing", null));
+                Assert.assertEquals("it's\nsome\u0001input|0", run(session, "cat", "it's\nsome\u0001input"));
+
+                // the worker was replaced after 3 commands; while one runs, others are spawned
+                for (int i = 0; i < 100 && sshd.getShellPool().getIdleCount() == 0; i++) {
+                    Thread.sleep(10);
+                }
+                ChannelExec waiting = (ChannelExec) session.openChannel("exec");
+                try {
+                    waiting.setCommand("cat");
+                    waiting.connect();
+                    Assert.assertEquals("some-text|0", run(session, "cat test.txt", null));
+                } finally {
+                    waiting.disconnect();
+                }
+            } finally {
+                session.disconnect();
+            }
+            Assert.assertEquals(4, sshd.getShellPool().getRunCount());
+            Assert.assertEquals(1, sshd.getShellPool().getFallbackCount());
+            Assert.assertEquals(1, sshd.getShellPool().getRecycledCount());
+        } finally {
+            sshd.stop();
+        }
+    }
+
+    @Test
+    public void testShellPoolIsolation() throws Exception {
+        File cwd = Files.createTempDir();
+        Charset utf8 = Charset.forName("utf-8");
+        Files.write("(sleep 1; echo leaked; touch leaked.txt) &\necho started\n", new File(cwd, "leak.sh"), utf8);
+        Files.write("sleep 2\necho next\n", new File(cwd, "next.sh"), utf8);
+        Files.write("(sleep 1; touch orphan.txt) &\necho started\nexec cat\n", new File(cwd, "orphan.sh"), utf8);
+        String privateKey = SSHServer.generatePrivateKey();
+        String publicKey = SSHServer.getPublicKey(privateKey);
+
+        SSHServer sshd = new SSHServer(cwd, ImmutableMap.of("bob", publicKey))
+                .setBuiltinCommands(BuiltinCommands.empty())
+                .setShellPool(new ShellPool(1, 10));
+        try {
+            sshd.start();
+            for (int i = 0; i < 100 && sshd.getShellPool().getIdleCount() == 0; i++) {
+                Thread.sleep(10);
+            }
+
+            Session session = connect(sshd, "bob", privateKey);
+            try {
+                // what a command leaves running is killed, and its worker replaced
+                Assert.assertEquals("started\n|0", run(session, "sh leak.sh", null));
+                for (int i = 0; i < 100 && sshd.getShellPool().getIdleCount() == 0; i++) {
+                    Thread.sleep(10);
+                }
+                Assert.assertEquals(1, sshd.getShellPool().getRecycledCount());
+                Assert.assertEquals("next\n|0", run(session, "sh next.sh", null));
+                Assert.assertFalse(new File(cwd, "leaked.txt").exists());
+
+                // as is what a command closed while running started
+                for (int i = 0; i < 100 && sshd.getShellPool().getIdleCount() == 0; i++) {
+                    Thread.sleep(10);
+                }
+                ChannelExec closed = (ChannelExec) session.openChannel("exec");
+                try (InputStream in = closed.getInputStream()) {
+                    closed.setCommand("sh orphan.sh");
+                    closed.connect();
+                    byte[] started = new byte[8];
+                    ByteStreams.readFully(in, started);
+                    Assert.assertEquals("started\n", new String(started, "utf-8"));
+                } finally {
+                    closed.disconnect();
+                }
+                Thread.sleep(2000);
+                Assert.assertFalse(new File(cwd, "orphan.txt").exists());
+            } finally {
+                session.disconnect();
+            }
+            Assert.assertEquals(3, sshd.getShellPool().getRunCount());
+            Assert.assertEquals(0, sshd.getShellPool().getFallbackCount());
+        } finally {
+            sshd.stop();
+        }
+    }
+
+    @Test
+    public void testShellPoolUnreadInput() throws Exception {
+        File cwd = Files.createTempDir();
+        String privateKey = SSHServer.generatePrivateKey();
+        String publicKey = SSHServer.getPublicKey(privateKey);
+
+        SSHServer sshd = new SSHServer(cwd, ImmutableMap.of("bob", publicKey))
+                .setBuiltinCommands(BuiltinCommands.empty())
+                .setShellPool(new ShellPool(1, 10));
+        try {
+            sshd.start();
+            for (int i = 0; i < 100 && sshd.getShellPool().getIdleCount() == 0; i++) {
+                Thread.sleep(10);
+            }
+
+            Session session = connect(sshd, "bob", privateKey);
+            try {
+                // more than a pipe holds, for a command that never reads it
+                char[] unread = new char[256 * 1024];
+                Arrays.fill(unread, 'x');
+                Assert.assertEquals("|0", run(session, "sleep 1", new String(unread)));
+                for (int i = 0; i < 100 && sshd.getShellPool().getIdleCount() == 0; i++) {
+                    Thread.sleep(10);
+                }
+                Assert.assertEquals("next|0", run(session, "cat", "next"));
+            } finally {
+                session.disconnect();
+            }
+            Assert.assertEquals(2, sshd.getShellPool().getRunCount());
+            Assert.assertEquals(0, sshd.getShellPool().getFallbackCount());
+        } finally {
+            sshd.stop();
+        }
+    }
+
+    @Test
+    public void testAdmissionControl() throws Exception {
+        File cwd = Files.createTempDir();
+        Files.write("some-text", new File(cwd, "test.txt"), Charset.forName("utf-8"));
+        String privateKey = SSHServer.generatePrivateKey();
+        String publicKey = SSHServer.getPublicKey(privateKey);
+
+        final SSHServer sshd = new SSHServer(cwd, ImmutableMap.of("bob", publicKey))
+                .setBuiltinCommands(BuiltinCommands.empty())
+                .setAdmissionControl(AdmissionControl.builder()
+                        .sessions(0, 1)
+                        .commands(0, 1)
+                        .queueLimit(1)
+                        .queueTimeout(1, TimeUnit.SECONDS)
+                        .build());
+        ExecutorService client = Executors.newSingleThreadExecutor();
+        try {
+            sshd.start();
+            AdmissionControl admission = sshd.getAdmissionControl();
+            final Session session = connect(sshd, "bob", privateKey);
+            try {
+                try {
+                    connect(sshd, "bob", privateKey).disconnect();
+                    Assert.fail("Second session of bob admitted");
+                } catch (JSchException e) {
+                    // too many connections
+                }
+                Assert.assertEquals(1, admission.getActiveCount(AdmissionControl.Kind.SESSION, "bob"));
+
+                ChannelExec blocking = (ChannelExec) session.openChannel("exec");
+                try {
+                    blocking.setCommand("cat");
+                    blocking.connect();
+                    // waits for the timeout
+                    Assert.assertEquals("|" + AdmissionControl.EXIT_REJECTED, run(session, "cat test.txt", null));
+
+                    Future<String> queued = client.submit(new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            return run(session, "cat test.txt", null);
+                        }
+                    });
+                    for (int i = 0; i < 100 && admission.getQueuedCount(AdmissionControl.Kind.COMMAND) == 0; i++) {
+                        Thread.sleep(10);
+                    }
+                    // the queue is full
+                    Assert.assertEquals("|" + AdmissionControl.EXIT_REJECTED, run(session, "cat test.txt", null));
+
+                    blocking.disconnect();
+                    Assert.assertEquals("some-text|0", queued.get(10, TimeUnit.SECONDS));
+                } finally {
+                    blocking.disconnect();
+                }
+            } finally {
+                session.disconnect();
+            }
+            Assert.assertEquals(1, admission.getRejectedCount(AdmissionControl.Kind.SESSION));
+            Assert.assertEquals(2, admission.getRejectedCount(AdmissionControl.Kind.COMMAND));
+            MetricsSnapshot metrics = sshd.getMetrics().snapshot();
+            Assert.assertEquals(1, metrics.getHistogram(ServerMetrics.ADMISSION_WAIT).getCount());
+            Assert.assertEquals(3, metrics.getCounter(ServerMetrics.ADMISSION_REJECTED));
+        } finally {
+            client.shutdownNow();
+            sshd.stop();
+        }
+    }
+
+    @Test
+    public void testStopAndRestart() throws Exception {
+        File cwd = Files.createTempDir();
+        String privateKey = SSHServer.generatePrivateKey();
+        String publicKey = SSHServer.getPublicKey(privateKey);
+
+        SSHServer sshd = new SSHServer(cwd, ImmutableMap.of("bob", publicKey))
+                .setBuiltinCommands(BuiltinCommands.empty());
+        ExecutorService client = Executors.newSingleThreadExecutor();
+        try {
+            sshd.start();
+            int port = sshd.getPort();
+            final Session stopping = connect(sshd, "bob", privateKey);
+            String hostKey = stopping.getHostKey().getKey();
+
+            // a graceful stop lets the command finish, but refuses new channels
+            final ChannelExec running = (ChannelExec) stopping.openChannel("exec");
+            InputStream output = running.getInputStream();
+            running.setCommand("cat");
+            running.connect();
+            Future<Void> refused = client.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Thread.sleep(300);
+                    ChannelExec channelExec = (ChannelExec) stopping.openChannel("exec");
+                    try {
+                        channelExec.setCommand("true");
+                        channelExec.connect();
+                        Assert.fail("Opened a channel while stopping");
+                    } catch (JSchException expected) {
+                        // expected
+                    }
+                    OutputStream in = running.getOutputStream();
+                    in.write("done".getBytes("utf-8"));
+                    in.close();
+                    return null;
+                }
+            });
+            for (int i = 0; i < 100 && sshd.getStats().get("channelsActive").equals(0); i++) {
+                Thread.sleep(10);
+            }
+            long started = System.nanoTime();
+            sshd.stop(10, TimeUnit.SECONDS);
+            long stopped = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            Assert.assertTrue("Stopped after " + stopped + "ms", stopped >= 100 && stopped < 5000);
+            Assert.assertEquals("done", new String(ByteStreams.toByteArray(output), "utf-8"));
+            // the exit status follows the end of the output
+            while (!running.isClosed()) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(0, running.getExitStatus());
+            refused.get();
+            stopping.disconnect();
+
+            sshd.restart();
+            Assert.assertEquals(port, sshd.getPort());
+            Session session = connect(sshd, "bob", privateKey);
+            Assert.assertEquals(hostKey, session.getHostKey().getKey());
+
+            // an immediate stop kills the command
+            ChannelExec blocking = (ChannelExec) session.openChannel("exec");
+            blocking.setCommand("cat");
+            blocking.connect();
+            for (int i = 0; i < 100 && sshd.getStats().get("channelsActive").equals(0); i++) {
+                Thread.sleep(10);
+            }
+            started = System.nanoTime();
+            sshd.stop();
+            stopped = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            Assert.assertTrue("Stopped after " + stopped + "ms", stopped < 2000);
+            Assert.assertEquals(0, sshd.getStats().get("channelsActive"));
+            session.disconnect();
+        } finally {
+            client.shutdownNow();
+            sshd.stop();
+        }
+    }
+
+    @Test
+    public void testStopKillsProcessIgnoringTerm() throws Exception {
+        File cwd = Files.createTempDir();
+        Files.write("trap '' TERM\necho $$\nwhile true; do sleep 1; done\n", new File(cwd, "trap.sh"), Charset.forName("utf-8"));
+        String privateKey = SSHServer.generatePrivateKey();
+        String publicKey = SSHServer.getPublicKey(privateKey);
+
+        SSHServer sshd = new SSHServer(cwd, ImmutableMap.of("bob", publicKey))
+                .setBuiltinCommands(BuiltinCommands.empty());
+        try {
+            sshd.start();
+            Session session = connect(sshd, "bob", privateKey);
+            ChannelExec trapping = (ChannelExec) session.openChannel("exec");
+            InputStream output = trapping.getInputStream();
+            trapping.setCommand("sh trap.sh");
+            trapping.connect();
+            StringBuilder pid = new StringBuilder();
+            for (int c = output.read(); c >= 0 && c != '\n'; c = output.read()) {
+                pid.append((char) c);
+            }
+
+            // the deadline holds although the process ignores SIGTERM, it is killed a moment later
+            long started = System.nanoTime();
+            sshd.stop(100, TimeUnit.MILLISECONDS);
+            long stopped = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            Assert.assertTrue("Stopped after " + stopped + "ms", stopped < 1000);
+            session.disconnect();
+            boolean alive = true;
+            for (int i = 0; i < 100 && alive; i++) {
+                Thread.sleep(50);
+                alive = new ProcessBuilder("kill", "-0", pid.toString()).start().waitFor() == 0;
+            }
+            Assert.assertFalse("Process " + pid + " still running", alive);
+        } finally {
+            sshd.stop();
+        }
+    }
+
+    @Test
+    public void testTrafficShaper() throws Exception {
+        File cwd = Files.createTempDir();
+        byte[] data = new byte[128 << 10];
+        new java.util.Random(42).nextBytes(data);
+        Files.write(data, new File(cwd, "data.bin"));
+        String privateKey = SSHServer.generatePrivateKey();
+        String publicKey = SSHServer.getPublicKey(privateKey);
+
+        TrafficShaper shaper = TrafficShaper.builder()
+                .latency(50, TimeUnit.MILLISECONDS)
+                .jitter(5, TimeUnit.MILLISECONDS)
+                .downloadBandwidth(256 << 10)
+                .build();
+        SSHServer sshd = new SSHServer(cwd, ImmutableMap.of("bob", publicKey))
+                .setTrafficShaper(shaper);
+        try {
+            sshd.start();
+            Session session = connect(sshd, "bob", privateKey);
+
+            // opening the channel and running the command take a round trip each
+            long started = System.nanoTime();
+            Assert.assertEquals("hello\n|0", run(session, "echo hello", null));
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            Assert.assertTrue("Ran in " + elapsed + "ms", elapsed >= 200);
+
+            // half a second at 256 KB/s
+            started = System.nanoTime();
+            Assert.assertArrayEquals(data, scpDownload(session, "data.bin"));
+            elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            Assert.assertTrue("Downloaded in " + elapsed + "ms", elapsed >= 500);
+            session.disconnect();
+
+            // shaped once more after a restart, not twice
+            sshd.restart();
+            session = connect(sshd, "bob", privateKey);
+            started = System.nanoTime();
+            Assert.assertEquals("hello\n|0", run(session, "echo hello", null));
+            elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            Assert.assertTrue("Ran in " + elapsed + "ms", elapsed >= 200 && elapsed < 2000);
+            session.disconnect();
+            Assert.assertEquals(2L, sshd.getStats().get("shapedSessions"));
+            Assert.assertTrue(shaper.getShapedBytes() > data.length);
+        } finally {
+            sshd.stop();
+        }
+    }
+
+    /**
+     * @return a session of the user, connected without checking the host key
+     */
+    static Session connect(SSHServer sshd, String user, String privateKey) throws JSchException, IOException {
+        JSch jsch = new JSch();
+        jsch.addIdentity(user, privateKey.getBytes("utf-8"), null, null);
+        Session session = jsch.getSession(user, "127.0.0.1", sshd.getPort());
+        session.setConfig("StrictHostKeyChecking", "no");
+        session.connect();
+        return session;
+    }
+
+    /**
+     * Runs a command, optionally with input
+     *
+     * @return the output and the exit status, separated by "|"
+     */
+    private static String run(Session session, String command, String input) throws Exception {
+        ChannelExec channelExec = (ChannelExec) session.openChannel("exec");
+        try (InputStream in = channelExec.getInputStream()) {
+            channelExec.setCommand(command);
+            OutputStream out = channelExec.getOutputStream();
+            channelExec.connect();
+            if (input != null) {
+                out.write(input.getBytes("utf-8"));
+            }
+            out.close();
+            String output = new String(ByteStreams.toByteArray(in), "utf-8");
+            while (!channelExec.isClosed()) {
+                Thread.sleep(10);
+            }
+            return output + "|" + channelExec.getExitStatus();
+        } finally {
+            channelExec.disconnect();
+        }
+    }
+
+    /**
+     * Runs git-upload-archive as "git archive --remote" does and returns the archive
+     */
+    static byte[] archive(Session session, String repository, String... arguments) throws JSchException, IOException {
+        ChannelExec channelExec = (ChannelExec) session.openChannel("exec");
+        try (InputStream in = channelExec.getInputStream()) {
+            channelExec.setCommand("git-upload-archive '" + repository + "'");
+            OutputStream out = channelExec.getOutputStream();
+            channelExec.connect();
+            for (String argument : arguments) {
+                byte[] line = ("argument " + argument + "\n").getBytes("utf-8");
+                out.write(String.format("%04x", line.length + 4).getBytes("utf-8"));
+                out.write(line);
+            }
+            out.write("0000".getBytes("utf-8"));
+            out.flush();
+
+            ByteArrayOutputStream archive = new ByteArrayOutputStream();
+            byte[] header = new byte[4];
+            boolean acknowledged = false;
+            int flushes = 0;
+            // ACK, flush, the archive on side band 1, flush
+            while (readFully(in, header)) {
+                int length = Integer.parseInt(new String(header, "utf-8"), 16);
+                if (length == 0) {
+                    if (++flushes == 2) {
+                        break;
+                    }
+                    continue;
+                }
+                byte[] packet = new byte[length - 4];
+                Assert.assertTrue(readFully(in, packet));
+                if (!acknowledged) {
+                    String status = new String(packet, "utf-8");
+                    if (!status.equals("ACK\n")) {
+                        throw new IOException(status);
+                    }
+                    acknowledged = true;
+                } else if (packet[0] == 1) {
+                    archive.write(packet, 1, packet.length - 1);
+                } else if (packet[0] == 3) {
+                    throw new IOException(new String(packet, 1, packet.length - 1, "utf-8"));
+                }
+            }
+            return archive.toByteArray();
+        } finally {
+            channelExec.disconnect();
+        }
+    }
+
+    /**
+     * Copies data to a file with "scp -t"
+     */
+    static void scpUpload(Session session, String path, byte[] data) throws JSchException, IOException {
+        ChannelExec channelExec = (ChannelExec) session.openChannel("exec");
+        try (InputStream in = channelExec.getInputStream()) {
+            channelExec.setCommand("scp -t " + path);
+            OutputStream out = channelExec.getOutputStream();
+            channelExec.connect();
+            Assert.assertEquals(0, in.read());
+            String name = path.substring(path.lastIndexOf('/') + 1);
+            out.write(("C0644 " + data.length + " " + name + "\n").getBytes("utf-8"));
+            out.flush();
+            Assert.assertEquals(0, in.read());
+            out.write(data);
+            out.write(0);
+            out.flush();
+            Assert.assertEquals(0, in.read());
+        } finally {
+            channelExec.disconnect();
+        }
+    }
+
+    /**
+     * Copies a file with "scp -f"
+     */
+    static byte[] scpDownload(Session session, String path) throws JSchException, IOException {
+        ChannelExec channelExec = (ChannelExec) session.openChannel("exec");
+        try (InputStream in = channelExec.getInputStream()) {
+            channelExec.setCommand("scp -f " + path);
+            OutputStream out = channelExec.getOutputStream();
+            channelExec.connect();
+            out.write(0);
+            out.flush();
+            StringBuilder header = new StringBuilder();
+            for (int c = in.read(); c != '\n'; c = in.read()) {
+                Assert.assertTrue("Unexpected end of scp header", c >= 0);
+                header.append((char) c);
+            }
+            Assert.assertTrue(header.toString(), header.charAt(0) == 'C');
+            byte[] data = new byte[Integer.parseInt(header.toString().split(" ")[1])];
+            out.write(0);
+            out.flush();
+            Assert.assertTrue(readFully(in, data));
+            Assert.assertEquals(0, in.read());
+            out.write(0);
+            out.flush();
+            return data;
+        } finally {
+            channelExec.disconnect();
+        }
+    }
+
+    static void initRepository(File dir) throws IOException, GitAPIException {
+        try (Git git = Git.init().setDirectory(dir).call()) {
+            Files.write("some-text", new File(dir, "test.txt"), Charset.forName("utf-8"));
+            git.add().addFilepattern("test.txt").call();
+            git.commit().setMessage("initial").setAuthor("bob", "bob@example.com").setCommitter("bob", "bob@example.com").call();
+        }
+    }
+
+    /**
+     * Reads the ref advertisement of a git command, then hangs up by sending a flush packet
+     */
+    static String readAdvertisement(Session session, String command) throws JSchException, IOException {
+        ChannelExec channelExec = (ChannelExec) session.openChannel("exec");
+        StringBuilder advertisement = new StringBuilder();
+        try (InputStream in = channelExec.getInputStream()) {
+            channelExec.setCommand(command);
+            OutputStream out = channelExec.getOutputStream();
+            channelExec.connect();
+            byte[] header = new byte[4];
+            while (readFully(in, header)) {
+                int length = Integer.parseInt(new String(header, "utf-8"), 16);
+                if (length == 0) {
+                    break;
+                }
+                byte[] line = new byte[length - 4];
+                if (!readFully(in, line)) {
+                    break;
+                }
+                advertisement.append(new String(line, "utf-8"));
+            }
+            out.write("0000".getBytes("utf-8"));
+            out.flush();
+        } finally {
+            channelExec.disconnect();
+        }
+        return advertisement.toString();
+    }
+
+    /**
+     * Asks for the head of master without any haves and returns everything sent after the advertisement
+     */
+    static byte[] clone(Session session, String command) throws JSchException, IOException {
+        ChannelExec channelExec = (ChannelExec) session.openChannel("exec");
+        try (InputStream in = channelExec.getInputStream()) {
+            channelExec.setCommand(command);
+            OutputStream out = channelExec.getOutputStream();
+            channelExec.connect();
+            String master = null;
+            byte[] header = new byte[4];
+            while (readFully(in, header)) {
+                int length = Integer.parseInt(new String(header, "utf-8"), 16);
+                if (length == 0) {
+                    break;
+                }
+                byte[] line = new byte[length - 4];
+                Assert.assertTrue(readFully(in, line));
+                String ref = new String(line, "utf-8");
+                if (ref.startsWith("refs/heads/master", 41)) {
+                    master = ref.substring(0, 40);
+                }
+            }
+            Assert.assertNotNull(master);
+            out.write(("0032want " + master + "\n00000009done\n").getBytes("utf-8"));
+            out.flush();
+            return ByteStreams.toByteArray(in);
+        } finally {
+            channelExec.disconnect();
+        }
+    }
+
+    /**
+     * Sends ref update commands with an empty pack and returns the status report
+     */
+    static String push(Session session, String command, String... updates) throws JSchException, IOException, GeneralSecurityException {
+        ChannelExec channelExec = (ChannelExec) session.openChannel("exec");
+        try (InputStream in = channelExec.getInputStream()) {
+            channelExec.setCommand(command);
+            OutputStream out = channelExec.getOutputStream();
+            channelExec.connect();
+            byte[] header = new byte[4];
+            while (readFully(in, header)) {
+                int length = Integer.parseInt(new String(header, "utf-8"), 16);
+                if (length == 0) {
+                    break;
+                }
+                Assert.assertTrue(readFully(in, new byte[length - 4]));
+            }
+            for (String update : updates) {
+                byte[] line = update.getBytes("utf-8");
+                out.write(String.format("%04x", line.length + 4).getBytes("utf-8"));
+                out.write(line);
+            }
+            out.write("0000".getBytes("utf-8"));
+            byte[] pack = {'P', 'A', 'C', 'K', 0, 0, 0, 2, 0, 0, 0, 0};
+            out.write(pack);
+            out.write(MessageDigest.getInstance("SHA-1").digest(pack));
+            out.flush();
+            return new String(ByteStreams.toByteArray(in), "utf-8");
+        } finally {
+            channelExec.disconnect();
+        }
+    }
+
+    private static boolean readFully(InputStream in, byte[] buf) throws IOException {
+        int off = 0;
+        while (off < buf.length) {
+            int read = in.read(buf, off, buf.length - off);
+            if (read < 0) {
+                return false;
+            }
+            off += read;
+        }
+        return true;
+    }
 }
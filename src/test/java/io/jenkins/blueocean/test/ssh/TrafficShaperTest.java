@@ -0,0 +1,45 @@
+package io.jenkins.blueocean.test.ssh;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TrafficShaperTest {
+    @Test
+    public void testShutdownDropsHeldBackPackets() throws Exception {
+        TrafficShaper shaper = TrafficShaper.builder().latency(1, TimeUnit.MINUTES).build();
+        final AtomicInteger delivered = new AtomicInteger();
+        final AtomicInteger dropped = new AtomicInteger();
+        Runnable delivery = new Runnable() {
+            @Override
+            public void run() {
+                delivered.incrementAndGet();
+            }
+        };
+        Runnable drop = new Runnable() {
+            @Override
+            public void run() {
+                dropped.incrementAndGet();
+            }
+        };
+        shaper.start();
+        TrafficShaper.Link link = shaper.newLink(false);
+        TrafficShaper.Link other = shaper.newLink(true);
+        for (int i = 0; i < 3; i++) {
+            link.send(100, delivery, drop);
+        }
+        other.send(100, delivery, null);
+        // the wheel is past its first tick, so the packets are in its buckets
+        Thread.sleep(50);
+
+        shaper.shutdown();
+        Assert.assertEquals(3, dropped.get());
+        // sent after the shutdown, on a link of the old wheel
+        link.send(100, delivery, drop);
+        Assert.assertEquals(4, dropped.get());
+        Assert.assertEquals(0, delivered.get());
+        Assert.assertNull(shaper.newLink(false));
+    }
+}
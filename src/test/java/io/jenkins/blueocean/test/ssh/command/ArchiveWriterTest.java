@@ -0,0 +1,56 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import com.google.common.base.Strings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+public class ArchiveWriterTest {
+    private static final Charset UTF8 = Charset.forName("utf-8");
+    private static final String ID = "0123456789abcdef0123456789abcdef01234567";
+
+    @Test
+    public void testTarLongPathsAsGitWritesThem() throws IOException {
+        String dir = Strings.repeat("d", 60) + "/" + Strings.repeat("e", 60);
+        String longName = Strings.repeat("f", 120);
+        String target = Strings.repeat("t", 130);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ArchiveWriter tar = ArchiveWriter.create(ArchiveWriter.TAR, -1, out);
+        // split into the prefix field
+        tar.putFile(dir + "/file.txt", ID, false, 0, 1, new ByteArrayInputStream(new byte[] {'x'}));
+        // no '/' to split at, named after the object with a pax header
+        tar.putFile(longName, ID, false, 0, 1, new ByteArrayInputStream(new byte[] {'y'}));
+        tar.putSymlink("link", ID, 0, target);
+        tar.finish();
+        byte[] archive = out.toByteArray();
+
+        Assert.assertEquals("file.txt", field(archive, 0, 100));
+        Assert.assertEquals(dir, field(archive, 345, 155));
+
+        Assert.assertEquals(ID + ".paxheader", field(archive, 1024, 100));
+        Assert.assertEquals('x', archive[1024 + 156]);
+        Assert.assertEquals("130 path=" + longName + "\n", field(archive, 1536, 512));
+        Assert.assertEquals(ID + ".data", field(archive, 2048, 100));
+        Assert.assertEquals("", field(archive, 2048 + 345, 155));
+
+        Assert.assertEquals(ID + ".paxheader", field(archive, 3072, 100));
+        Assert.assertEquals("144 linkpath=" + target + "\n", field(archive, 3584, 512));
+        Assert.assertEquals("link", field(archive, 4096, 100));
+        Assert.assertEquals("see " + ID + ".paxheader", field(archive, 4096 + 157, 100));
+    }
+
+    /**
+     * @return a header field up to its first NUL
+     */
+    private static String field(byte[] archive, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && archive[end] != 0) {
+            end++;
+        }
+        return new String(archive, offset, end - offset, UTF8);
+    }
+}
@@ -0,0 +1,101 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import com.google.common.io.Files;
+import io.jenkins.blueocean.test.ssh.fs.MemoryFileSystem;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class BuiltinCommandsTest {
+    private final BuiltinCommands builtins = BuiltinCommands.createDefault();
+
+    @Test
+    public void testFileCommands() throws IOException {
+        File root = Files.createTempDir();
+        Assert.assertEquals(0, run(root, "mkdir", "-p", "a/b"));
+        Assert.assertEquals(0, run(root, "test", "-d", "a/b"));
+        Assert.assertEquals(1, run(root, "[", "-f", "a/b", "]"));
+        Files.write("some-text", new File(root, "a/b/c.txt"), Charset.forName("utf-8"));
+        Assert.assertEquals("c.txt\n", output(root, "ls", "a/b"));
+        Assert.assertEquals("some-text", output(root, "cat", "a/b/c.txt"));
+        Assert.assertEquals(1, run(root, "rm", "a"));
+        Assert.assertEquals(0, run(root, "rm", "-rf", "a"));
+        Assert.assertFalse(new File(root, "a").exists());
+    }
+
+    @Test
+    public void testRmRemovesSymlinks() throws IOException {
+        File root = Files.createTempDir();
+        Assert.assertEquals(0, run(root, "mkdir", "-p", "dir"));
+        Files.write("some-text", new File(root, "dir/file.txt"), Charset.forName("utf-8"));
+        java.nio.file.Files.createSymbolicLink(new File(root, "file-link").toPath(), new File(root, "dir/file.txt").toPath());
+        java.nio.file.Files.createSymbolicLink(new File(root, "dir-link").toPath(), new File(root, "dir").toPath());
+
+        Assert.assertEquals(0, run(root, "rm", "file-link"));
+        Assert.assertFalse(java.nio.file.Files.exists(new File(root, "file-link").toPath(), LinkOption.NOFOLLOW_LINKS));
+        Assert.assertTrue(new File(root, "dir/file.txt").exists());
+
+        // a link to a directory isn't a directory
+        Assert.assertEquals(0, run(root, "rm", "dir-link"));
+        Assert.assertFalse(java.nio.file.Files.exists(new File(root, "dir-link").toPath(), LinkOption.NOFOLLOW_LINKS));
+        Assert.assertTrue(new File(root, "dir/file.txt").exists());
+
+        java.nio.file.Files.createSymbolicLink(new File(root, "dir-link").toPath(), new File(root, "dir").toPath());
+        Assert.assertEquals(0, run(root, "rm", "-r", "dir-link"));
+        Assert.assertFalse(java.nio.file.Files.exists(new File(root, "dir-link").toPath(), LinkOption.NOFOLLOW_LINKS));
+        Assert.assertTrue(new File(root, "dir/file.txt").exists());
+    }
+
+    @Test
+    public void testFallsBackToProcess() {
+        File root = Files.createTempDir();
+        Assert.assertNull(builtins.find(root.toPath(), Arrays.asList("cat", "../outside.txt")));
+        Assert.assertNull(builtins.find(root.toPath(), Arrays.asList("ls", "-l")));
+        Assert.assertNull(builtins.find(root.toPath(), Arrays.asList("echo", "$HOME")));
+        Assert.assertNull(builtins.find(root.toPath(), Arrays.asList("grep", "x")));
+        Assert.assertNotNull(builtins.find(root.toPath(), Arrays.asList("echo", "hello")));
+    }
+
+    @Test
+    public void testInMemory() throws IOException {
+        MemoryFileSystem fs = MemoryFileSystem.create();
+        Path root = fs.getPath("/");
+        Assert.assertEquals(0, run(root, "mkdir", "-p", "a/b"));
+        java.nio.file.Files.write(fs.getPath("/a/b/c.txt"), "some-text".getBytes("utf-8"));
+        Assert.assertEquals("c.txt\n", output(root, "ls", "/a/b"));
+        Assert.assertEquals("some-text", output(root, "cat", "a/b/c.txt"));
+        Assert.assertEquals("/\n", output(root, "pwd"));
+        Assert.assertEquals(0, run(root, "rm", "-r", "a"));
+        Assert.assertFalse(java.nio.file.Files.exists(fs.getPath("/a")));
+    }
+
+    private int run(File root, String... cmd) throws IOException {
+        return run(root.toPath(), cmd);
+    }
+
+    private String output(File root, String... cmd) throws IOException {
+        return output(root.toPath(), cmd);
+    }
+
+    private int run(Path root, String... cmd) throws IOException {
+        BuiltinCommand builtin = builtins.find(root, Arrays.asList(cmd));
+        Assert.assertNotNull(builtin);
+        return builtin.run(root, Arrays.asList(cmd).subList(1, cmd.length), new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream(), new ByteArrayOutputStream());
+    }
+
+    private String output(Path root, String... cmd) throws IOException {
+        BuiltinCommand builtin = builtins.find(root, Arrays.asList(cmd));
+        Assert.assertNotNull(builtin);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(0, builtin.run(root, Arrays.asList(cmd).subList(1, cmd.length), new ByteArrayInputStream(new byte[0]), out, new ByteArrayOutputStream()));
+        return new String(out.toByteArray(), "utf-8");
+    }
+}
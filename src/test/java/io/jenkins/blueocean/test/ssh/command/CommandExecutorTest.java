@@ -0,0 +1,60 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class CommandExecutorTest {
+    @Test
+    public void testCancelQueuedCommands() throws Exception {
+        for (CommandExecutor.Mode mode : CommandExecutor.Mode.values()) {
+            CommandExecutor executor = new CommandExecutor(mode, 1, 1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final CountDownLatch ran = new CountDownLatch(1);
+            try {
+                Future<?> blocking = executor.submit("blocking", new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+                for (int i = 0; i < 1000 && executor.getActiveCount() == 0; i++) {
+                    Thread.sleep(10);
+                }
+                // each cancelled command gives its place in the queue back
+                for (int i = 0; i < 10; i++) {
+                    Future<?> queued = executor.submit("queued", new Runnable() {
+                        @Override
+                        public void run() {
+                            Assert.fail("Cancelled command ran");
+                        }
+                    });
+                    Assert.assertEquals(mode.name(), 1, executor.getQueuedCount());
+                    Assert.assertTrue(queued.cancel(true));
+                    Assert.assertEquals(mode.name(), 0, executor.getQueuedCount());
+                }
+                executor.submit("last", new Runnable() {
+                    @Override
+                    public void run() {
+                        ran.countDown();
+                    }
+                });
+                release.countDown();
+                blocking.get(10, TimeUnit.SECONDS);
+                Assert.assertTrue(mode.name(), ran.await(10, TimeUnit.SECONDS));
+                Assert.assertEquals(mode.name(), 0, executor.getRejectedCount());
+                Assert.assertEquals(mode.name(), 0, executor.getQueuedCount());
+            } finally {
+                release.countDown();
+                executor.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import com.google.common.io.Files;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RepositoryCacheTest {
+    @Test
+    public void testIdleRepositoriesClosedWithoutFurtherUse() throws Exception {
+        File root = Files.createTempDir();
+        File gitDir = new File(root, "repo.git");
+        RepositoryCache cache = new RepositoryCache(8, 50);
+        try {
+            // a failed open isn't cached
+            try {
+                cache.open(gitDir);
+                Assert.fail("Opened a missing repository");
+            } catch (IOException expected) {
+                // expected
+            }
+            Assert.assertEquals(0, cache.size());
+
+            Git.init().setDirectory(gitDir).setBare(true).call().close();
+            Repository repository = cache.open(gitDir);
+            Assert.assertSame(repository, cache.open(gitDir));
+            cache.release(repository);
+            cache.release(repository);
+            Assert.assertEquals(1, cache.size());
+            for (int i = 0; i < 200 && cache.size() > 0; i++) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(0, cache.size());
+            Assert.assertEquals(1, cache.getEvictionCount());
+            Assert.assertEquals(2, cache.getMissCount());
+        } finally {
+            cache.clear();
+        }
+    }
+
+    @Test
+    public void testClearedRepositoryClosedOnceByLastUser() throws Exception {
+        File gitDir = new File(Files.createTempDir(), "repo.git");
+        Git.init().setDirectory(gitDir).setBare(true).call().close();
+        final AtomicInteger closes = new AtomicInteger();
+        RepositoryCache cache = new RepositoryCache(8, TimeUnit.MINUTES.toMillis(5)) {
+            @Override
+            Repository build(File gitDir) throws IOException {
+                return new CountingRepository(gitDir, closes);
+            }
+        };
+        Repository repository = cache.open(gitDir);
+        Assert.assertSame(repository, cache.open(gitDir));
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        cache.release(repository);
+        Assert.assertEquals(0, closes.get());
+        cache.release(repository);
+        Assert.assertEquals(1, closes.get());
+        // not known any more
+        cache.release(repository);
+        Assert.assertEquals(1, closes.get());
+    }
+
+    @Test
+    public void testInterruptedWaiterKeepsEntry() throws Exception {
+        final File gitDir = new File(Files.createTempDir(), "repo.git");
+        Git.init().setDirectory(gitDir).setBare(true).call().close();
+        final CountDownLatch building = new CountDownLatch(1);
+        final CountDownLatch built = new CountDownLatch(1);
+        final RepositoryCache cache = new RepositoryCache(8, TimeUnit.MINUTES.toMillis(5)) {
+            @Override
+            Repository build(File gitDir) throws IOException {
+                building.countDown();
+                try {
+                    built.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.build(gitDir);
+            }
+        };
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Callable<Repository> open = new Callable<Repository>() {
+                @Override
+                public Repository call() throws IOException {
+                    return cache.open(gitDir);
+                }
+            };
+            Future<Repository> creator = executor.submit(open);
+            Assert.assertTrue(building.await(10, TimeUnit.SECONDS));
+            Future<Repository> waiter = executor.submit(open);
+            for (int i = 0; i < 100 && cache.getHitCount() == 0; i++) {
+                Thread.sleep(10);
+            }
+            waiter.cancel(true);
+            built.countDown();
+
+            Repository repository = creator.get(10, TimeUnit.SECONDS);
+            Assert.assertSame(repository, cache.open(gitDir));
+            Assert.assertEquals(1, cache.getMissCount());
+            cache.release(repository);
+            cache.release(repository);
+            Assert.assertEquals(1, cache.size());
+        } finally {
+            executor.shutdownNow();
+            cache.clear();
+        }
+    }
+
+    private static class CountingRepository extends FileRepository {
+        private final AtomicInteger closes;
+
+        CountingRepository(File gitDir, AtomicInteger closes) throws IOException {
+            super(new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(true).setup());
+            this.closes = closes;
+        }
+
+        @Override
+        public void close() {
+            closes.incrementAndGet();
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package io.jenkins.blueocean.test.ssh.command;
+
+import com.google.common.io.Files;
+import org.eclipse.jgit.api.Git;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+public class RepositoryIndexTest {
+    @Test
+    public void testScanAndLookup() throws Exception {
+        File root = Files.createTempDir();
+        Git.init().setDirectory(new File(root, "org/work")).call().close();
+        Git.init().setDirectory(new File(root, "org/repo.git")).setBare(true).call().close();
+        Assert.assertTrue(new File(root, ".hidden/other.git").mkdirs());
+
+        RepositoryIndex index = new RepositoryIndex(root);
+        Assert.assertEquals(new HashSet<>(Arrays.asList("org/repo", "org/repo.git", "org/work", "org/work/.git")), index.getNames());
+        File bare = new File(root, "org/repo.git").getAbsoluteFile();
+        Assert.assertEquals(bare, index.resolve("/org/repo.git"));
+        Assert.assertEquals(bare, index.resolve("org/repo/"));
+        Assert.assertEquals(bare, index.resolve(bare.getPath()));
+        Assert.assertEquals(new File(root, "org/work/.git").getAbsoluteFile(), index.resolve("org/./work"));
+        Assert.assertNull(index.resolve("org/missing.git"));
+
+        // created after the scan, found on the first lookup
+        Git.init().setDirectory(new File(root, "late.git")).setBare(true).call().close();
+        Assert.assertEquals(new File(root, "late.git").getAbsoluteFile(), index.resolve("late"));
+        Assert.assertTrue(index.getNames().contains("late.git"));
+
+        File elsewhere = Files.createTempDir();
+        Git.init().setDirectory(new File(elsewhere, "repo.git")).setBare(true).call().close();
+        java.nio.file.Files.createSymbolicLink(new File(root, "link").toPath(), elsewhere.toPath());
+        for (String outside : new String[] {"..", "../other.git", "org/../../other.git",
+                new File(elsewhere, "repo.git").getPath(), "link/repo.git", "link/repo"}) {
+            try {
+                index.resolve(outside);
+                Assert.fail("Resolved " + outside);
+            } catch (IOException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testCreate() throws Exception {
+        File root = Files.createTempDir();
+        RepositoryIndex index = new RepositoryIndex(root);
+        File gitDir = index.create("/org/new.git");
+        Assert.assertEquals(new File(root, "org/new.git").getAbsoluteFile(), gitDir);
+        Assert.assertTrue(new File(gitDir, "HEAD").isFile());
+        Assert.assertEquals(gitDir, index.create("org/new"));
+        Assert.assertEquals(gitDir, index.resolve("org/new"));
+
+        File elsewhere = Files.createTempDir();
+        java.nio.file.Files.createSymbolicLink(new File(root, "link").toPath(), elsewhere.toPath());
+        for (String outside : new String[] {new File(elsewhere, "other.git").getPath(), "link/other.git", "../other.git"}) {
+            try {
+                index.create(outside);
+                Assert.fail("Created " + outside);
+            } catch (IOException expected) {
+                // expected
+            }
+        }
+        Assert.assertEquals(0, elsewhere.list().length);
+        Assert.assertFalse(new File(root, elsewhere.getPath()).exists());
+    }
+}
@@ -0,0 +1,118 @@
+package io.jenkins.blueocean.test.ssh.fs;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MemoryFileSystemTest {
+    @Test
+    public void testReadWrite() throws IOException {
+        MemoryFileSystem fs = MemoryFileSystem.create();
+        Path file = fs.getPath("/a.txt");
+        Files.write(file, "some-text".getBytes("utf-8"));
+        Assert.assertEquals("some-text", new String(Files.readAllBytes(file), "utf-8"));
+        Assert.assertEquals(9, Files.size(file));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap("x".getBytes("utf-8")), 12);
+        }
+        Assert.assertArrayEquals("some-text\0\0\0x".getBytes("utf-8"), Files.readAllBytes(file));
+
+        Files.write(file, "more".getBytes("utf-8"), StandardOpenOption.APPEND);
+        Files.write(file, "new".getBytes("utf-8"), StandardOpenOption.TRUNCATE_EXISTING);
+        Assert.assertEquals("new", new String(Files.readAllBytes(file), "utf-8"));
+
+        try {
+            Files.write(fs.getPath("/missing/b.txt"), new byte[1]);
+            Assert.fail("Wrote into a missing directory");
+        } catch (NoSuchFileException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDirectories() throws IOException {
+        MemoryFileSystem fs = MemoryFileSystem.create();
+        Files.createDirectories(fs.getPath("/a/b"));
+        Files.write(fs.getPath("/a/b/c.txt"), new byte[3]);
+        Files.write(fs.getPath("/a/d.txt"), new byte[1]);
+        Assert.assertTrue(Files.isDirectory(fs.getPath("a/b/..")));
+        Assert.assertEquals(Arrays.asList("b", "d.txt"), list(fs.getPath("/a")));
+
+        try {
+            Files.createDirectory(fs.getPath("/a/b"));
+            Assert.fail("Created an existing directory");
+        } catch (FileAlreadyExistsException expected) {
+            // expected
+        }
+        try {
+            Files.delete(fs.getPath("/a"));
+            Assert.fail("Deleted a directory that isn't empty");
+        } catch (DirectoryNotEmptyException expected) {
+            // expected
+        }
+
+        Files.move(fs.getPath("/a/b"), fs.getPath("/e"));
+        Assert.assertEquals(Arrays.asList("a", "e"), list(fs.getPath("/")));
+        Assert.assertEquals(3, Files.size(fs.getPath("/e/c.txt")));
+        Assert.assertTrue(fs.getPathMatcher("glob:/e/*.txt").matches(fs.getPath("/e/c.txt")));
+    }
+
+    @Test
+    public void testSnapshotIsCopyOnWrite() throws IOException {
+        MemoryFileSystem fs = MemoryFileSystem.create();
+        Path file = fs.getPath("/a.txt");
+        Files.write(file, "before".getBytes("utf-8"));
+        MemoryFileSystem snapshot = fs.snapshot();
+
+        Files.write(file, "after".getBytes("utf-8"));
+        Files.write(fs.getPath("/b.txt"), new byte[1]);
+        Assert.assertEquals("before", new String(Files.readAllBytes(snapshot.getPath("/a.txt")), "utf-8"));
+        Assert.assertFalse(Files.exists(snapshot.getPath("/b.txt")));
+
+        Files.copy(snapshot.getPath("/a.txt"), snapshot.getPath("/c.txt"), StandardCopyOption.REPLACE_EXISTING);
+        Files.write(snapshot.getPath("/a.txt"), "changed".getBytes("utf-8"));
+        Assert.assertEquals("before", new String(Files.readAllBytes(snapshot.getPath("/c.txt")), "utf-8"));
+        Assert.assertEquals("after", new String(Files.readAllBytes(file), "utf-8"));
+    }
+
+    @Test
+    public void testAttributes() throws IOException {
+        MemoryFileSystem fs = MemoryFileSystem.create();
+        Path file = fs.getPath("/a.txt");
+        Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        PosixFileAttributes attrs = Files.readAttributes(file, PosixFileAttributes.class);
+        Assert.assertEquals("rw-------", PosixFilePermissions.toString(attrs.permissions()));
+        Assert.assertTrue(attrs.isRegularFile());
+
+        Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("r--r--r--"));
+        Assert.assertFalse(Files.isWritable(file));
+        Assert.assertEquals(0L, Files.readAttributes(file, "posix:*").get("size"));
+    }
+
+    private static List<String> list(Path dir) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                names.add(entry.getFileName().toString());
+            }
+        }
+        return names;
+    }
+}
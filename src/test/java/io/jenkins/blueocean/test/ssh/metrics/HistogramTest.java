@@ -0,0 +1,45 @@
+package io.jenkins.blueocean.test.ssh.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTest {
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 10);
+        }
+        HistogramSnapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(100, snapshot.getCount());
+        Assert.assertEquals(505, snapshot.getMean());
+        Assert.assertEquals(1000, snapshot.getMax());
+        // the median 500 falls in [496, 511]
+        Assert.assertEquals(511, snapshot.getPercentile(50));
+        // 990 falls in [960, 991]
+        Assert.assertEquals(991, snapshot.getPercentile(99));
+        Assert.assertEquals(1000, snapshot.getPercentile(100));
+        Assert.assertEquals(0, new Histogram().snapshot().getPercentile(99));
+    }
+
+    @Test
+    public void testBucketError() {
+        for (long value = 1; value < (1L << 40); value = value * 3 / 2 + 1) {
+            int bucket = Histogram.bucket(value);
+            long upper = Histogram.upperBound(bucket);
+            Assert.assertTrue(value + " in bucket " + bucket + " up to " + upper, value <= upper && upper - value <= value / 16);
+            Assert.assertEquals(bucket, Histogram.bucket(upper));
+            Assert.assertEquals(bucket + 1, Histogram.bucket(upper + 1));
+        }
+        Assert.assertEquals(Histogram.BUCKETS - 1, Histogram.bucket(Long.MAX_VALUE));
+
+        // tells 47ms from 50ms, both were 65535us with power of two buckets
+        Histogram histogram = new Histogram();
+        histogram.record(47000);
+        histogram.record(50000);
+        histogram.record(60000);
+        HistogramSnapshot snapshot = histogram.snapshot();
+        Assert.assertTrue(String.valueOf(snapshot.getPercentile(50)), snapshot.getPercentile(50) >= 50000 && snapshot.getPercentile(50) <= 50000 + 50000 / 16);
+        Assert.assertTrue(String.valueOf(snapshot.getPercentile(1)), snapshot.getPercentile(1) < 50000);
+    }
+}
@@ -0,0 +1,68 @@
+package io.jenkins.blueocean.test.ssh.transfer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+public class BufferedFileChannelTest {
+    private final BufferPool pool = new BufferPool(4096, 2);
+
+    @Test
+    public void testSequentialAndRandomAccess() throws IOException {
+        Path file = Files.createTempFile("buffered", ".bin");
+        try {
+            byte[] data = new byte[3 * 4096 + 100];
+            new Random(1).nextBytes(data);
+
+            // small writes, then one larger than the buffer
+            try (BufferedFileChannel channel = open(file, StandardOpenOption.WRITE)) {
+                for (int i = 0; i < 4096; i += 100) {
+                    channel.write(ByteBuffer.wrap(data, i, Math.min(100, 4096 - i)));
+                }
+                Assert.assertEquals(4096, channel.size());
+                channel.write(ByteBuffer.wrap(data, 4096, data.length - 4096));
+            }
+            Assert.assertArrayEquals(data, Files.readAllBytes(file));
+
+            try (BufferedFileChannel channel = open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // read ahead, then overwrite inside the data read ahead
+                ByteBuffer dst = ByteBuffer.allocate(10);
+                channel.position(5000).read(dst);
+                Assert.assertArrayEquals(Arrays.copyOfRange(data, 5000, 5010), dst.array());
+                channel.position(5005).write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+                System.arraycopy(new byte[] {1, 2, 3}, 0, data, 5005, 3);
+                dst.clear();
+                channel.position(5000).read(dst);
+                Assert.assertArrayEquals(Arrays.copyOfRange(data, 5000, 5010), dst.array());
+
+                // reads across the end of the data read ahead aren't short
+                dst = ByteBuffer.allocate(100);
+                Assert.assertEquals(100, channel.position(9000).read(dst));
+                Assert.assertArrayEquals(Arrays.copyOfRange(data, 9000, 9100), dst.array());
+
+                // reads end at the end of the file
+                dst.clear();
+                channel.position(data.length - 4);
+                Assert.assertEquals(4, channel.read(dst));
+                Assert.assertEquals(-1, channel.read(dst));
+            }
+            Assert.assertArrayEquals(data, Files.readAllBytes(file));
+        } finally {
+            Files.delete(file);
+        }
+        Assert.assertEquals(1, pool.getAllocatedCount());
+        Assert.assertEquals(1, pool.getReusedCount());
+    }
+
+    private BufferedFileChannel open(Path file, StandardOpenOption... options) throws IOException {
+        return new BufferedFileChannel(FileChannel.open(file, options), pool);
+    }
+}